@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jmh.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.carne.security.crypto.DecryptedBlockCache;
+import de.carne.security.crypto.EncryptedBlockFile;
+import de.carne.security.crypto.StorableCoder;
+
+/**
+ * Benchmark random reads from a {@linkplain EncryptedBlockFile} with and without a {@linkplain DecryptedBlockCache}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockFileBenchmark {
+
+	private static final int FILE_SIZE = 16 * 1024 * 1024;
+	private static final int READ_SIZE = 4096;
+
+	@Param({ "0", "33554432" })
+	private long cacheCapacity = 0;
+
+	private @Nullable Path file = null;
+	private @Nullable StorableCoder coder = null;
+	private @Nullable EncryptedBlockFile blockFile = null;
+
+	/**
+	 * Creates the block file to benchmark.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException, GeneralSecurityException {
+		Path tempFile = Files.createTempFile(getClass().getSimpleName(), ".bin");
+		StorableCoder tempCoder = StorableCoder.defaultCoder().newCoder();
+
+		EncryptedBlockFile.write(tempFile, tempCoder, new ByteArrayInputStream(new byte[FILE_SIZE]));
+		this.file = tempFile;
+		this.coder = tempCoder;
+		this.blockFile = EncryptedBlockFile.open(tempFile, tempCoder, DecryptedBlockCache.create(this.cacheCapacity));
+	}
+
+	/**
+	 * Closes and deletes the benchmarked block file.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Objects.requireNonNull(this.blockFile).close();
+		Objects.requireNonNull(this.coder).close();
+		Files.delete(Objects.requireNonNull(this.file));
+		this.blockFile = null;
+		this.coder = null;
+		this.file = null;
+	}
+
+	/**
+	 * Random reads from a hot region (fits into the cache).
+	 *
+	 * @return the number of bytes read.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@Threads(4)
+	public int randomRead() throws IOException {
+		byte[] buffer = new byte[READ_SIZE];
+		long position = ThreadLocalRandom.current().nextInt(FILE_SIZE / 2 - READ_SIZE);
+
+		return Objects.requireNonNull(this.blockFile).read(position, buffer, 0, buffer.length);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jmh.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.carne.security.crypto.StorableCoder;
+import de.carne.security.crypto.StorableCoderId;
+import de.carne.security.util.Randomness;
+
+/**
+ * Benchmark {@linkplain StorableCoder} encryption and decryption for a range of payload sizes.
+ * <p>
+ * The coders use OpenSSL's crypto library if available (see log output). Run with the system property
+ * {@code de.carne.security.crypto.OpenSSLAESGCM=false} to measure the JCE engine instead.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CoderBenchmark {
+
+	@Param({ "AES128", "AES256" })
+	private String coderId = StorableCoderId.AES128.name();
+
+	@Param({ "16", "1024", "65536", "1048576" })
+	private int payloadSize = 0;
+
+	private @Nullable StorableCoder coder = null;
+	private byte[] plain = new byte[0];
+	private byte[] encrypted = new byte[0];
+
+	/**
+	 * Creates the coder and the payload to benchmark.
+	 *
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws GeneralSecurityException {
+		this.coder = StorableCoderId.valueOf(this.coderId).newCoder();
+		this.plain = new byte[this.payloadSize];
+		Randomness.get().nextBytes(this.plain);
+		this.encrypted = coder().encrypt(this.plain);
+	}
+
+	/**
+	 * Releases the benchmarked coder.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		coder().close();
+		this.coder = null;
+	}
+
+	/**
+	 * Single-threaded encryption.
+	 *
+	 * @return the encrypted payload.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Benchmark
+	public byte[] encrypt() throws GeneralSecurityException {
+		return coder().encrypt(this.plain);
+	}
+
+	/**
+	 * Single-threaded decryption.
+	 *
+	 * @return the decrypted payload.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Benchmark
+	public byte[] decrypt() throws GeneralSecurityException {
+		return coder().decrypt(this.encrypted);
+	}
+
+	/**
+	 * Contended encryption (one coder shared by multiple threads).
+	 *
+	 * @return the encrypted payload.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Benchmark
+	@Threads(4)
+	public byte[] encryptContended() throws GeneralSecurityException {
+		return coder().encrypt(this.plain);
+	}
+
+	/**
+	 * Contended decryption (one coder shared by multiple threads).
+	 *
+	 * @return the decrypted payload.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Benchmark
+	@Threads(4)
+	public byte[] decryptContended() throws GeneralSecurityException {
+		return coder().decrypt(this.encrypted);
+	}
+
+	private StorableCoder coder() {
+		return Objects.requireNonNull(this.coder);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jmh.crypto;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.carne.security.crypto.EncryptedRecordLog;
+import de.carne.security.crypto.StorableCoder;
+import de.carne.security.util.Randomness;
+
+/**
+ * Benchmark {@linkplain EncryptedRecordLog} appends.
+ * <p>
+ * Multiply the reported throughput by the record size to get the achieved bandwidth.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordLogBenchmark {
+
+	@Param({ "128", "4096" })
+	private int recordSize = 0;
+
+	private @Nullable Path logDirectory = null;
+	private @Nullable StorableCoder coder = null;
+	private @Nullable EncryptedRecordLog log = null;
+	private byte[] record = new byte[0];
+
+	/**
+	 * Creates the log to benchmark.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Setup(Level.Iteration)
+	public void setup() throws IOException, GeneralSecurityException {
+		Path directory = Files.createTempDirectory(getClass().getSimpleName());
+
+		this.logDirectory = directory;
+		this.coder = StorableCoder.defaultCoder().newCoder();
+		this.log = EncryptedRecordLog.open(directory, Objects.requireNonNull(this.coder));
+		this.record = new byte[this.recordSize];
+		Randomness.get().nextBytes(this.record);
+	}
+
+	/**
+	 * Closes and deletes the benchmarked log.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDown() throws IOException {
+		log().close();
+		Objects.requireNonNull(this.coder).close();
+
+		Path directory = Objects.requireNonNull(this.logDirectory);
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+		this.log = null;
+		this.coder = null;
+		this.logDirectory = null;
+	}
+
+	/**
+	 * Buffered appends (no sync).
+	 *
+	 * @return the index of the appended record.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	public long append() throws IOException {
+		return log().append(this.record);
+	}
+
+	/**
+	 * Durable appends from multiple threads (each append is followed by a sync, which are grouped by the log).
+	 *
+	 * @return the index of the appended record.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@Threads(8)
+	public long appendAndSync() throws IOException {
+		EncryptedRecordLog currentLog = log();
+		long index = currentLog.append(this.record);
+
+		currentLog.sync();
+		return index;
+	}
+
+	private EncryptedRecordLog log() {
+		return Objects.requireNonNull(this.log);
+	}
+
+}
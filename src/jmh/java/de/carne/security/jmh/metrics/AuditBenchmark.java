@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jmh.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.carne.security.metrics.Audit;
+import de.carne.security.metrics.AuditOverflowPolicy;
+import de.carne.security.metrics.AuditTrail;
+import de.carne.security.metrics.SecurityOperation;
+
+/**
+ * Benchmark the hot path cost of {@linkplain Audit#record(SecurityOperation, Object, String)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuditBenchmark {
+
+	private static final String STORE = AuditBenchmark.class.getSimpleName();
+	private static final String ID = AuditBenchmark.class.getName();
+
+	@Param({ "NONE", "DROP", "BLOCK" })
+	private String policy = "NONE";
+
+	private @Nullable Path trailDirectory = null;
+	private @Nullable AuditTrail trail = null;
+
+	/**
+	 * Opens and activates the audit trail to benchmark.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		if (!"NONE".equals(this.policy)) {
+			Path tempDirectory = Files.createTempDirectory(getClass().getSimpleName());
+			AuditTrail tempTrail = AuditTrail.open(tempDirectory, AuditOverflowPolicy.valueOf(this.policy));
+
+			this.trailDirectory = tempDirectory;
+			this.trail = tempTrail;
+			Audit.setTrail(tempTrail);
+		}
+	}
+
+	/**
+	 * Deactivates, closes and deletes the benchmarked audit trail.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Audit.setTrail(null);
+
+		AuditTrail currentTrail = this.trail;
+		Path currentTrailDirectory = this.trailDirectory;
+
+		if (currentTrail != null) {
+			currentTrail.close();
+		}
+		if (currentTrailDirectory != null) {
+			List<Path> paths;
+
+			try (Stream<Path> walk = Files.walk(currentTrailDirectory)) {
+				paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+			}
+			for (Path path : paths) {
+				Files.delete(path);
+			}
+		}
+		this.trail = null;
+		this.trailDirectory = null;
+	}
+
+	/**
+	 * Records an event from a single thread.
+	 */
+	@Benchmark
+	public void record() {
+		Audit.record(SecurityOperation.DECRYPT, STORE, ID);
+	}
+
+	/**
+	 * Records events from multiple threads.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void recordContended() {
+		Audit.record(SecurityOperation.DECRYPT, STORE, ID);
+	}
+
+}
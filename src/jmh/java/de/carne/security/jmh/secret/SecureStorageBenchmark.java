@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jmh.secret;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.carne.security.secret.ByteSecret;
+import de.carne.security.secret.CharSecret;
+import de.carne.security.secret.EncryptedBatch;
+import de.carne.security.secret.SecureStorage;
+import de.carne.security.util.Randomness;
+
+/**
+ * Benchmark {@linkplain SecureStorage} round trips backed up by the file based secret store.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecureStorageBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+
+	@Param({ "16", "1024" })
+	private int payloadSize = 0;
+
+	private @Nullable Path secretHome = null;
+	private @Nullable SecureStorage storage = null;
+	private @Nullable SecureStorage cachedStorage = null;
+	private byte[] plainBytes = new byte[0];
+	private char[] plainChars = new char[0];
+
+	/**
+	 * Creates the {@linkplain SecureStorage} instance and the payload to benchmark.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.secretHome = Files.createTempDirectory(getClass().getSimpleName());
+		this.storage = SecureStorage.create(getClass().getSimpleName(), this.secretHome);
+		this.cachedStorage = storage().withCipherCache(1, TimeUnit.MINUTES, 0);
+		this.plainBytes = new byte[this.payloadSize];
+		Randomness.get().nextBytes(this.plainBytes);
+		this.plainChars = new char[this.payloadSize];
+		Arrays.fill(this.plainChars, 'x');
+		// Force secret creation outside of the measurement
+		storage().encryptBytes(ByteSecret.wrap(this.plainBytes.clone()));
+	}
+
+	/**
+	 * Deletes the {@linkplain SecureStorage} instance and its secret home.
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		storage().delete();
+		Files.deleteIfExists(Objects.requireNonNull(this.secretHome));
+		this.storage = null;
+		this.cachedStorage = null;
+		this.secretHome = null;
+	}
+
+	/**
+	 * Single-threaded byte secret round trip.
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	public void bytesRoundTrip(Blackhole blackhole) throws IOException {
+		bytesRoundTrip0(storage(), blackhole);
+	}
+
+	/**
+	 * Single-threaded byte secret round trip with cached encryption secret.
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	public void cachedBytesRoundTrip(Blackhole blackhole) throws IOException {
+		bytesRoundTrip0(Objects.requireNonNull(this.cachedStorage), blackhole);
+	}
+
+	/**
+	 * Single-threaded char secret round trip.
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	public void charsRoundTrip(Blackhole blackhole) throws IOException {
+		charsRoundTrip0(blackhole);
+	}
+
+	/**
+	 * Single-threaded base64 encoded byte secret round trip.
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	public void base64RoundTrip(Blackhole blackhole) throws IOException {
+		base64RoundTrip0(blackhole);
+	}
+
+	/**
+	 * Contended byte secret round trip (one {@linkplain SecureStorage} instance shared by multiple threads).
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void bytesRoundTripContended(Blackhole blackhole) throws IOException {
+		bytesRoundTrip0(storage(), blackhole);
+	}
+
+	/**
+	 * Contended byte secret round trip with cached encryption secret.
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void cachedBytesRoundTripContended(Blackhole blackhole) throws IOException {
+		bytesRoundTrip0(Objects.requireNonNull(this.cachedStorage), blackhole);
+	}
+
+	/**
+	 * Contended base64 encoded byte secret round trip (one {@linkplain SecureStorage} instance shared by multiple
+	 * threads).
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void base64RoundTripContended(Blackhole blackhole) throws IOException {
+		base64RoundTrip0(blackhole);
+	}
+
+	/**
+	 * Single-threaded batch round trip (throughput is reported per batch item).
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void batchRoundTrip(Blackhole blackhole) throws IOException {
+		SecureStorage storage0 = storage();
+		EncryptedBatch encrypted = storage0.encryptAll(wrapBatch());
+
+		storage0.decryptAll(encrypted, blackhole::consume);
+	}
+
+	/**
+	 * Parallel batch round trip using the common {@linkplain ForkJoinPool} (throughput is reported per batch item).
+	 *
+	 * @param blackhole the {@linkplain Blackhole} to consume the decrypted data.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void parallelBatchRoundTrip(Blackhole blackhole) throws IOException {
+		SecureStorage storage0 = storage();
+		ForkJoinPool executor = ForkJoinPool.commonPool();
+		EncryptedBatch encrypted = storage0.encryptAll(wrapBatch(), executor);
+
+		storage0.decryptAll(encrypted, executor, blackhole::consume);
+	}
+
+	private List<ByteSecret> wrapBatch() {
+		List<ByteSecret> batch = new ArrayList<>(BATCH_SIZE);
+
+		for (int batchIndex = 0; batchIndex < BATCH_SIZE; batchIndex++) {
+			batch.add(ByteSecret.wrap(this.plainBytes.clone()));
+		}
+		return batch;
+	}
+
+	private void bytesRoundTrip0(SecureStorage storage0, Blackhole blackhole) throws IOException {
+		byte[] encrypted = storage0.encryptBytes(ByteSecret.wrap(this.plainBytes.clone()));
+
+		storage0.decryptBytes(encrypted, blackhole::consume);
+	}
+
+	private void charsRoundTrip0(Blackhole blackhole) throws IOException {
+		SecureStorage storage0 = storage();
+		byte[] encrypted = storage0.encryptChars(CharSecret.wrap(this.plainChars.clone()));
+
+		storage0.decryptChars(encrypted, blackhole::consume);
+	}
+
+	private void base64RoundTrip0(Blackhole blackhole) throws IOException {
+		SecureStorage storage0 = storage();
+		String encrypted = storage0.encryptBytesBase64(ByteSecret.wrap(this.plainBytes.clone()));
+
+		storage0.decryptBytesBase64(encrypted, blackhole::consume);
+	}
+
+	private SecureStorage storage() {
+		return Objects.requireNonNull(this.storage);
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jmh.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.carne.security.util.CipherUtil;
+import de.carne.security.util.Randomness;
+import de.carne.security.util.SafeByteArrayOutputStream;
+
+/**
+ * Benchmark the {@linkplain de.carne.security.util} classes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UtilBenchmark {
+
+	private static final int CHUNK_SIZE = 64;
+
+	@Param({ "1024", "65536", "1048576" })
+	private int payloadSize = 0;
+
+	private byte[] payload = new byte[0];
+	private byte[] key = new byte[16];
+
+	/**
+	 * Creates the payload to benchmark.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		this.payload = new byte[this.payloadSize];
+		Randomness.get().nextBytes(this.payload);
+		Randomness.get().nextBytes(this.key);
+	}
+
+	/**
+	 * Streams the payload through an AES/GCM {@linkplain Cipher}.
+	 *
+	 * @return the number of streamed bytes.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	@Benchmark
+	public int cipherStream() throws IOException, GeneralSecurityException {
+		byte[] iv = new byte[12];
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+
+		Randomness.get().nextBytes(iv);
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(this.key, "AES"), new GCMParameterSpec(128, iv));
+		try (SafeByteArrayOutputStream out = new SafeByteArrayOutputStream(this.payload.length + 16)) {
+			return CipherUtil.stream(cipher, new ByteArrayInputStream(this.payload), out);
+		}
+	}
+
+	/**
+	 * Grows a {@linkplain SafeByteArrayOutputStream} from an empty buffer by writing small chunks.
+	 *
+	 * @return the written bytes.
+	 */
+	@Benchmark
+	public byte[] safeByteArrayOutputStreamGrowth() {
+		try (SafeByteArrayOutputStream out = new SafeByteArrayOutputStream(0)) {
+			for (int offset = 0; offset < this.payload.length; offset += CHUNK_SIZE) {
+				out.write(this.payload, offset, Math.min(CHUNK_SIZE, this.payload.length - offset));
+			}
+			return out.getBytes();
+		}
+	}
+
+	/**
+	 * Fills a {@linkplain SafeByteArrayOutputStream} with an exactly pre-sized buffer.
+	 *
+	 * @return the written bytes.
+	 */
+	@Benchmark
+	public byte[] safeByteArrayOutputStreamPresized() {
+		try (SafeByteArrayOutputStream out = new SafeByteArrayOutputStream(this.payload.length)) {
+			for (int offset = 0; offset < this.payload.length; offset += CHUNK_SIZE) {
+				out.write(this.payload, offset, Math.min(CHUNK_SIZE, this.payload.length - offset));
+			}
+			return out.getBytes();
+		}
+	}
+
+	/**
+	 * Single-threaded random IV generation via {@linkplain Randomness}.
+	 *
+	 * @return the generated random bytes.
+	 */
+	@Benchmark
+	public byte[] randomness() {
+		byte[] iv = new byte[12];
+
+		Randomness.get().nextBytes(iv);
+		return iv;
+	}
+
+	/**
+	 * Contended random IV generation via {@linkplain Randomness}.
+	 *
+	 * @return the generated random bytes.
+	 */
+	@Benchmark
+	@Threads(4)
+	public byte[] randomnessContended() {
+		byte[] iv = new byte[12];
+
+		Randomness.get().nextBytes(iv);
+		return iv;
+	}
+
+}
@@ -32,8 +32,13 @@ import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.eclipse.jdt.annotation.Nullable;
+
 import de.carne.boot.logging.Log;
 import de.carne.io.IOUtil;
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityEvents;
+import de.carne.security.metrics.SecurityOperation;
 import de.carne.security.secret.ByteSecret;
 import de.carne.security.util.CipherUtil;
 import de.carne.security.util.Destroyables;
@@ -42,6 +47,10 @@ import de.carne.security.util.SafeByteArrayOutputStream;
 
 /**
  * AES based {@linkplain StorableCoder} supporting multiple key lengths.
+ * <p>
+ * Encryption and decryption use the {@linkplain OpenSSLAESGCM} engine if available and the JCE otherwise. As both
+ * produce the same encrypted data, the engine in use is not part of the stored coder.
+ * </p>
  */
 final class AESCoder extends StorableCoder {
 
@@ -58,11 +67,23 @@ final class AESCoder extends StorableCoder {
 
 	private final SecretKeySpec secretKeySpec;
 	private final byte[] salt;
+	private final @Nullable OpenSSLAESGCM openSSL;
 
-	private AESCoder(StorableCoderId id, SecretKeySpec secretKeySpec, byte[] salt) {
+	private AESCoder(StorableCoderId id, SecretKeySpec secretKeySpec, byte[] salt, @Nullable OpenSSLAESGCM openSSL) {
 		super(id);
 		this.secretKeySpec = secretKeySpec;
 		this.salt = salt;
+		this.openSSL = openSSL;
+	}
+
+	private static AESCoder newInstance(StorableCoderId id, SecretKeySpec secretKeySpec, byte[] salt)
+			throws GeneralSecurityException {
+		OpenSSLAESGCM openSSL = null;
+
+		if (OpenSSLAESGCM.isAvailable()) {
+			openSSL = OpenSSLAESGCM.newInstance(secretKeySpec);
+		}
+		return new AESCoder(id, secretKeySpec, salt, openSSL);
 	}
 
 	static StorableCoderId getDefaultCoder() {
@@ -83,6 +104,7 @@ final class AESCoder extends StorableCoder {
 	static AESCoder newCoder(StorableCoderId id) throws GeneralSecurityException {
 		LOG.info("Generating new {0} coder...", id);
 
+		long start = Metrics.start();
 		int keyLength;
 
 		switch (id) {
@@ -100,11 +122,14 @@ final class AESCoder extends StorableCoder {
 
 		Randomness.get().nextBytes(salt);
 
+		Object keyDerivationEvent = SecurityEvents.beginKeyDerivation();
 		SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(KEY_FACTORY_ALG);
 		KeySpec keySpec = new PBEKeySpec(null, salt, 65536, keyLength);
 		SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
 		byte[] encodedSecretKey;
 
+		SecurityEvents.endKeyDerivation(keyDerivationEvent, KEY_FACTORY_ALG, keyLength);
+
 		try {
 			encodedSecretKey = Objects.requireNonNull(secretKey.getEncoded());
 		} finally {
@@ -113,7 +138,8 @@ final class AESCoder extends StorableCoder {
 
 		SecretKeySpec secretKeySpec = new SecretKeySpec(encodedSecretKey, KEY_ALG);
 
-		return new AESCoder(id, secretKeySpec, salt);
+		Metrics.record(SecurityOperation.GENERATE_KEY, id, start, 0L);
+		return newInstance(id, secretKeySpec, salt);
 	}
 
 	static AESCoder loadCoder(StorableCoderId id, byte[] secret, int secretOff, int secretLen)
@@ -132,7 +158,7 @@ final class AESCoder extends StorableCoder {
 		System.arraycopy(secret, headerLength, salt, 0, SALT_LENGTH);
 		SecretKeySpec secretKeySpec = new SecretKeySpec(secret, secretOff + extendedHeaderLength,
 				secretLen - extendedHeaderLength, KEY_ALG);
-		return new AESCoder(id, secretKeySpec, salt);
+		return newInstance(id, secretKeySpec, salt);
 	}
 
 	@Override
@@ -150,33 +176,60 @@ final class AESCoder extends StorableCoder {
 
 	@Override
 	public int encrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+		long start = Metrics.start();
+		Object cryptoEvent = SecurityEvents.beginCrypto();
 		byte[] iv = new byte[IV_LENGTH];
 
 		Randomness.get().nextBytes(iv);
 		out.write(iv);
 
-		GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TLEN, iv);
-		Cipher cipher = Cipher.getInstance(CIPHER_ALG);
+		int encrypted;
 
-		cipher.init(Cipher.ENCRYPT_MODE, this.secretKeySpec, gcmParameterSpec);
-		return CipherUtil.stream(cipher, in, out);
+		if (this.openSSL != null) {
+			encrypted = this.openSSL.encrypt(iv, in, out);
+		} else {
+			GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TLEN, iv);
+			Cipher cipher = Cipher.getInstance(CIPHER_ALG);
+
+			cipher.init(Cipher.ENCRYPT_MODE, this.secretKeySpec, gcmParameterSpec);
+			encrypted = CipherUtil.stream(cipher, in, out);
+		}
+
+		Metrics.record(SecurityOperation.ENCRYPT, id(), start, encrypted);
+		SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.ENCRYPT, id(), encrypted);
+		return encrypted;
 	}
 
 	@Override
 	public int decrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+		long start = Metrics.start();
+		Object cryptoEvent = SecurityEvents.beginCrypto();
 		byte[] iv = new byte[IV_LENGTH];
 
 		IOUtil.readEager(in, iv);
 
-		GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TLEN, iv);
-		Cipher cipher = Cipher.getInstance(CIPHER_ALG);
+		int decrypted;
+
+		if (this.openSSL != null) {
+			decrypted = this.openSSL.decrypt(iv, in, out);
+		} else {
+			GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TLEN, iv);
+			Cipher cipher = Cipher.getInstance(CIPHER_ALG);
 
-		cipher.init(Cipher.DECRYPT_MODE, this.secretKeySpec, gcmParameterSpec);
-		return CipherUtil.stream(cipher, in, out);
+			cipher.init(Cipher.DECRYPT_MODE, this.secretKeySpec, gcmParameterSpec);
+			decrypted = CipherUtil.stream(cipher, in, out);
+		}
+
+		Metrics.record(SecurityOperation.DECRYPT, id(), start, decrypted);
+		SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.DECRYPT, id(), decrypted);
+		return decrypted;
 	}
 
 	@Override
 	public void close() {
+		if (this.openSSL != null) {
+			this.openSSL.close();
+		}
 		Arrays.fill(this.salt, (byte) 0);
 		Destroyables.safeDestroy(this.secretKeySpec);
 	}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.crypto;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Size-bounded cache for decrypted blocks of {@linkplain EncryptedBlockFile} instances.
+ * <p>
+ * The cached data is held off-heap and is overwritten as soon as a block is evicted (CLOCK eviction) or the owning file
+ * is closed. The cache is split into independently locked stripes, hence concurrent readers only contend if they
+ * access the same stripe.
+ * </p>
+ * <p>
+ * The capacity of the process-wide instance (see {@linkplain #shared()}) is defined by the system property
+ * {@code de.carne.security.crypto.DecryptedBlockCache.capacity} (in bytes, default: 64 MiB).
+ * </p>
+ */
+public final class DecryptedBlockCache {
+
+	private static final Log LOG = new Log();
+
+	/**
+	 * The maximum size of a cached block.
+	 */
+	static final int SLOT_SIZE = 32 * 1024;
+
+	private static final int MAX_STRIPES = 16;
+	private static final int MAX_STRIPE_SLOTS = Integer.MAX_VALUE / SLOT_SIZE;
+	private static final long NO_FILE = -1L;
+	private static final byte[] ZERO_SLOT = new byte[SLOT_SIZE];
+
+	private static final AtomicLong NEXT_FILE_ID = new AtomicLong();
+
+	private static final class Shared {
+
+		static final DecryptedBlockCache INSTANCE = create(Math.max(
+				Long.getLong(DecryptedBlockCache.class.getName() + ".capacity", 64L * 1024 * 1024).longValue(), 0L));
+
+		private Shared() {
+			// prevent instantiation
+		}
+
+	}
+
+	private final Stripe[] stripes;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private DecryptedBlockCache(Stripe[] stripes) {
+		this.stripes = stripes;
+	}
+
+	/**
+	 * Gets the process-wide {@linkplain DecryptedBlockCache} instance.
+	 *
+	 * @return the process-wide {@linkplain DecryptedBlockCache} instance.
+	 */
+	public static DecryptedBlockCache shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Creates a new {@linkplain DecryptedBlockCache} instance.
+	 * <p>
+	 * A capacity of {@code 0} creates a cache which never holds any data.
+	 * </p>
+	 *
+	 * @param capacity the cache capacity in bytes.
+	 * @return the created {@linkplain DecryptedBlockCache} instance.
+	 */
+	public static DecryptedBlockCache create(long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+
+		long slotCount = capacity / SLOT_SIZE;
+		int stripeCount = 1;
+
+		while (stripeCount < MAX_STRIPES && stripeCount * 2L <= slotCount) {
+			stripeCount *= 2;
+		}
+
+		int stripeSlotCount = (int) Math.min(slotCount / stripeCount, MAX_STRIPE_SLOTS);
+		Stripe[] stripes = new Stripe[stripeCount];
+
+		for (int stripeIndex = 0; stripeIndex < stripes.length; stripeIndex++) {
+			stripes[stripeIndex] = new Stripe(stripeSlotCount);
+		}
+		LOG.info("Created decrypted block cache ({0} stripes x {1} blocks)", stripeCount, stripeSlotCount);
+
+		return new DecryptedBlockCache(stripes);
+	}
+
+	/**
+	 * Gets the number of cache hits.
+	 *
+	 * @return the number of cache hits.
+	 */
+	public long hits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Gets the number of cache misses.
+	 *
+	 * @return the number of cache misses.
+	 */
+	public long misses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Discards (and overwrites) all cached blocks.
+	 */
+	public void clear() {
+		for (Stripe stripe : this.stripes) {
+			stripe.invalidate(NO_FILE);
+		}
+	}
+
+	static long nextFileId() {
+		return NEXT_FILE_ID.getAndIncrement();
+	}
+
+	boolean read(long fileId, long blockIndex, int blockOffset, byte[] buffer, int offset, int length) {
+		boolean hit = stripe(fileId, blockIndex).read(fileId, blockIndex, blockOffset, buffer, offset, length);
+
+		if (hit) {
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+		}
+		return hit;
+	}
+
+	void put(long fileId, long blockIndex, byte[] block) {
+		if (block.length > SLOT_SIZE) {
+			throw new IllegalArgumentException("Block too large: " + block.length);
+		}
+		stripe(fileId, blockIndex).put(fileId, blockIndex, block);
+	}
+
+	void invalidate(long fileId) {
+		for (Stripe stripe : this.stripes) {
+			stripe.invalidate(fileId);
+		}
+	}
+
+	private Stripe stripe(long fileId, long blockIndex) {
+		long hash = (fileId * 0x9e3779b97f4a7c15L) ^ blockIndex;
+
+		return this.stripes[(int) (hash ^ (hash >>> 32)) & (this.stripes.length - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return "DecryptedBlockCache[hits=" + hits() + ", misses=" + misses() + "]";
+	}
+
+	private static final class BlockKey {
+
+		final long fileId;
+		final long blockIndex;
+
+		BlockKey(long fileId, long blockIndex) {
+			this.fileId = fileId;
+			this.blockIndex = blockIndex;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(this.fileId) * 31 + Long.hashCode(this.blockIndex);
+		}
+
+		@Override
+		public boolean equals(@Nullable Object obj) {
+			return this == obj || (obj instanceof BlockKey && this.fileId == ((BlockKey) obj).fileId
+					&& this.blockIndex == ((BlockKey) obj).blockIndex);
+		}
+
+	}
+
+	private static final class Stripe {
+
+		private final ByteBuffer slots;
+		private final BlockKey[] slotKeys;
+		private final int[] slotLengths;
+		private final boolean[] slotReferenced;
+		private final int[] freeSlots;
+		private final Map<BlockKey, Integer> index = new HashMap<>();
+		private int freeSlotCount;
+		private int clockHand = 0;
+
+		Stripe(int slotCount) {
+			this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+			this.slotKeys = new BlockKey[slotCount];
+			this.slotLengths = new int[slotCount];
+			this.slotReferenced = new boolean[slotCount];
+			this.freeSlots = new int[slotCount];
+			for (int slot = 0; slot < slotCount; slot++) {
+				this.freeSlots[slot] = slotCount - 1 - slot;
+			}
+			this.freeSlotCount = slotCount;
+		}
+
+		synchronized boolean read(long fileId, long blockIndex, int blockOffset, byte[] buffer, int offset,
+				int length) {
+			Integer slot = this.index.get(new BlockKey(fileId, blockIndex));
+			boolean hit = false;
+
+			if (slot != null) {
+				int slotIndex = slot.intValue();
+
+				if (blockOffset + length <= this.slotLengths[slotIndex]) {
+					ByteBuffer slotData = this.slots.duplicate();
+
+					slotData.position(slotIndex * SLOT_SIZE + blockOffset);
+					slotData.get(buffer, offset, length);
+					this.slotReferenced[slotIndex] = true;
+					hit = true;
+				}
+			}
+			return hit;
+		}
+
+		synchronized void put(long fileId, long blockIndex, byte[] block) {
+			BlockKey key = new BlockKey(fileId, blockIndex);
+
+			if (this.slotKeys.length > 0 && !this.index.containsKey(key)) {
+				int slotIndex = (this.freeSlotCount > 0 ? this.freeSlots[--this.freeSlotCount] : evict());
+				ByteBuffer slotData = this.slots.duplicate();
+
+				slotData.position(slotIndex * SLOT_SIZE);
+				slotData.put(block);
+				this.slotKeys[slotIndex] = key;
+				this.slotLengths[slotIndex] = block.length;
+				this.slotReferenced[slotIndex] = false;
+				this.index.put(key, Integer.valueOf(slotIndex));
+			}
+		}
+
+		synchronized void invalidate(long fileId) {
+			for (int slotIndex = 0; slotIndex < this.slotKeys.length; slotIndex++) {
+				BlockKey slotKey = this.slotKeys[slotIndex];
+
+				if (slotKey != null && (fileId == NO_FILE || slotKey.fileId == fileId)) {
+					release(slotIndex);
+					this.freeSlots[this.freeSlotCount++] = slotIndex;
+				}
+			}
+		}
+
+		private int evict() {
+			while (this.slotReferenced[this.clockHand]) {
+				this.slotReferenced[this.clockHand] = false;
+				this.clockHand = (this.clockHand + 1) % this.slotKeys.length;
+			}
+
+			int slotIndex = this.clockHand;
+
+			this.clockHand = (this.clockHand + 1) % this.slotKeys.length;
+			release(slotIndex);
+			return slotIndex;
+		}
+
+		private void release(int slotIndex) {
+			this.index.remove(this.slotKeys[slotIndex]);
+			this.slotKeys[slotIndex] = null;
+			this.slotReferenced[slotIndex] = false;
+
+			ByteBuffer slotData = this.slots.duplicate();
+
+			slotData.position(slotIndex * SLOT_SIZE);
+			slotData.put(ZERO_SLOT, 0, this.slotLengths[slotIndex]);
+			this.slotLengths[slotIndex] = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.crypto;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import de.carne.security.util.Randomness;
+
+/**
+ * Random access to {@linkplain StorableCoder} encrypted files.
+ * <p>
+ * The plain data is split into blocks of {@value #BLOCK_SIZE} bytes, which are encrypted individually. Every block is
+ * encrypted together with the file's nonce, the block index and a flag marking the last block, hence blocks cannot be
+ * moved, exchanged between files or truncated without being detected. Decrypted blocks are kept in a
+ * {@linkplain DecryptedBlockCache} so that repeated reads of the same region do not require repeated decryption.
+ * </p>
+ */
+public final class EncryptedBlockFile implements AutoCloseable {
+
+	/**
+	 * The size of a plain data block.
+	 */
+	public static final int BLOCK_SIZE = DecryptedBlockCache.SLOT_SIZE;
+
+	private static final int MAGIC = 0x53454246;
+	private static final int NONCE_LENGTH = 16;
+	private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Integer.BYTES + NONCE_LENGTH;
+	private static final int BLOCK_PREFIX_SIZE = NONCE_LENGTH + Long.BYTES + 1;
+
+	private final Path file;
+	private final StorableCoder coder;
+	private final DecryptedBlockCache cache;
+	private final long fileId = DecryptedBlockCache.nextFileId();
+	private final FileChannel channel;
+	private final byte[] nonce;
+	private final int blockSize;
+	private final int encryptedBlockSize;
+	private final long lastBlockIndex;
+	private final int lastEncryptedBlockSize;
+	private final long size;
+
+	private EncryptedBlockFile(Path file, StorableCoder coder, DecryptedBlockCache cache, FileChannel channel,
+			ByteBuffer header) throws IOException {
+		this.file = file;
+		this.coder = coder;
+		this.cache = cache;
+		this.channel = channel;
+		if (header.getInt() != MAGIC) {
+			throw new IOException("Invalid block file header");
+		}
+		this.blockSize = header.getInt();
+
+		int blockOverhead = header.getInt();
+
+		if (this.blockSize <= 0 || this.blockSize > BLOCK_SIZE || blockOverhead < BLOCK_PREFIX_SIZE) {
+			throw new IOException("Invalid block file parameters");
+		}
+		this.nonce = new byte[NONCE_LENGTH];
+		header.get(this.nonce);
+		this.encryptedBlockSize = this.blockSize + blockOverhead;
+
+		long dataSize = channel.size() - HEADER_SIZE;
+
+		if (dataSize < blockOverhead) {
+			throw new EOFException("Missing blocks");
+		}
+		this.lastBlockIndex = (dataSize - 1) / this.encryptedBlockSize;
+		this.lastEncryptedBlockSize = (int) (dataSize - this.lastBlockIndex * this.encryptedBlockSize);
+		if (this.lastEncryptedBlockSize < blockOverhead) {
+			throw new EOFException("Truncated block: " + this.lastBlockIndex);
+		}
+		this.size = this.lastBlockIndex * this.blockSize + (this.lastEncryptedBlockSize - blockOverhead);
+	}
+
+	/**
+	 * Encrypts stream data into a block file.
+	 *
+	 * @param file the file to write.
+	 * @param coder the {@linkplain StorableCoder} to use for encryption.
+	 * @param in the {@linkplain InputStream} providing the plain data.
+	 * @return the number of plain data bytes written.
+	 * @throws IOException if an I/O error occurs while writing the file.
+	 */
+	public static long write(Path file, StorableCoder coder, InputStream in) throws IOException {
+		byte[] nonce = new byte[NONCE_LENGTH];
+
+		Randomness.get().nextBytes(nonce);
+
+		byte[] block = new byte[BLOCK_PREFIX_SIZE + BLOCK_SIZE];
+		byte[] nextBlock = new byte[block.length];
+		long written = 0;
+
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BLOCK_SIZE * 2)) {
+			int blockOverhead = encryptBlock(coder, nonce, 0, true, block, 0).length;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+			header.putInt(MAGIC).putInt(BLOCK_SIZE).putInt(blockOverhead).put(nonce);
+			out.write(header.array());
+
+			long blockIndex = 0;
+			int blockLength = readBlock(in, block);
+			boolean last;
+
+			do {
+				int nextBlockLength = (blockLength == BLOCK_SIZE ? readBlock(in, nextBlock) : 0);
+
+				last = nextBlockLength == 0;
+
+				byte[] encrypted = encryptBlock(coder, nonce, blockIndex, last, block, blockLength);
+
+				if (encrypted.length != blockLength + blockOverhead) {
+					throw new IOException("Unexpected encrypted block length: " + encrypted.length);
+				}
+				out.write(encrypted);
+				written += blockLength;
+
+				byte[] swap = block;
+
+				block = nextBlock;
+				nextBlock = swap;
+				blockLength = nextBlockLength;
+				blockIndex++;
+			} while (!last);
+		} finally {
+			Arrays.fill(block, (byte) 0);
+			Arrays.fill(nextBlock, (byte) 0);
+		}
+		return written;
+	}
+
+	private static int readBlock(InputStream in, byte[] block) throws IOException {
+		int read = 0;
+		int read0 = 0;
+
+		while (read < BLOCK_SIZE && read0 >= 0) {
+			read0 = in.read(block, BLOCK_PREFIX_SIZE + read, BLOCK_SIZE - read);
+			if (read0 > 0) {
+				read += read0;
+			}
+		}
+		return read;
+	}
+
+	private static byte[] encryptBlock(StorableCoder coder, byte[] nonce, long blockIndex, boolean last,
+			byte[] block, int blockLength) throws IOException {
+		byte[] plain = (blockLength + BLOCK_PREFIX_SIZE == block.length ? block
+				: Arrays.copyOf(block, BLOCK_PREFIX_SIZE + blockLength));
+		byte[] encrypted;
+
+		try {
+			ByteBuffer.wrap(plain).put(nonce).putLong(blockIndex).put((byte) (last ? 1 : 0));
+			encrypted = coder.encrypt(plain);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		} finally {
+			if (plain != block) {
+				Arrays.fill(plain, (byte) 0);
+			}
+		}
+		return encrypted;
+	}
+
+	/**
+	 * Opens a block file using the process-wide {@linkplain DecryptedBlockCache}.
+	 *
+	 * @param file the file to open.
+	 * @param coder the {@linkplain StorableCoder} to use for decryption.
+	 * @return the opened {@linkplain EncryptedBlockFile} instance.
+	 * @throws IOException if an I/O error occurs while opening the file.
+	 * @see DecryptedBlockCache#shared()
+	 */
+	public static EncryptedBlockFile open(Path file, StorableCoder coder) throws IOException {
+		return open(file, coder, DecryptedBlockCache.shared());
+	}
+
+	/**
+	 * Opens a block file.
+	 *
+	 * @param file the file to open.
+	 * @param coder the {@linkplain StorableCoder} to use for decryption.
+	 * @param cache the {@linkplain DecryptedBlockCache} to use for caching decrypted blocks.
+	 * @return the opened {@linkplain EncryptedBlockFile} instance.
+	 * @throws IOException if an I/O error occurs while opening the file.
+	 */
+	public static EncryptedBlockFile open(Path file, StorableCoder coder, DecryptedBlockCache cache)
+			throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		EncryptedBlockFile blockFile = null;
+
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+			readFully(channel, header, 0L);
+			header.flip();
+			blockFile = new EncryptedBlockFile(file, coder, cache, channel, header);
+			// Verify the last block flag to detect truncated files
+			blockFile.loadBlock(blockFile.lastBlockIndex);
+		} finally {
+			if (blockFile == null) {
+				channel.close();
+			}
+		}
+		return blockFile;
+	}
+
+	/**
+	 * Gets the size of the plain data.
+	 *
+	 * @return the size of the plain data.
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * Reads plain data from an arbitrary position.
+	 * <p>
+	 * This function is thread-safe.
+	 * </p>
+	 *
+	 * @param position the position to start reading at.
+	 * @param buffer the buffer to read into.
+	 * @param offset the offset to start storing the read data at.
+	 * @param length the maximum number of bytes to read.
+	 * @return the number of bytes read or {@code -1} if the position is at or beyond the end of the file.
+	 * @throws IOException if an I/O error occurs while reading the data.
+	 */
+	public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+		if (position < 0 || offset < 0 || length < 0 || offset + length > buffer.length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		int read = -1;
+
+		if (position < this.size) {
+			read = (int) Math.min(length, this.size - position);
+
+			int done = 0;
+
+			while (done < read) {
+				long blockIndex = (position + done) / this.blockSize;
+				int blockOffset = (int) ((position + done) % this.blockSize);
+				int chunk = Math.min(read - done, this.blockSize - blockOffset);
+
+				if (!this.cache.read(this.fileId, blockIndex, blockOffset, buffer, offset + done, chunk)) {
+					byte[] block = loadBlock(blockIndex);
+
+					System.arraycopy(block, blockOffset, buffer, offset + done, chunk);
+					Arrays.fill(block, (byte) 0);
+				}
+				done += chunk;
+			}
+		}
+		return read;
+	}
+
+	private byte[] loadBlock(long blockIndex) throws IOException {
+		boolean last = blockIndex == this.lastBlockIndex;
+		ByteBuffer encrypted = ByteBuffer.allocate(last ? this.lastEncryptedBlockSize : this.encryptedBlockSize);
+
+		readFully(this.channel, encrypted, HEADER_SIZE + blockIndex * this.encryptedBlockSize);
+
+		byte[] plain;
+
+		try {
+			plain = this.coder.decrypt(encrypted.array());
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Failed to decrypt block " + blockIndex + " of file '" + this.file + "'", e);
+		}
+
+		byte[] block;
+
+		try {
+			ByteBuffer plainBuffer = ByteBuffer.wrap(plain);
+			byte[] blockNonce = new byte[NONCE_LENGTH];
+
+			if (plain.length < BLOCK_PREFIX_SIZE) {
+				throw new IOException("Invalid block " + blockIndex);
+			}
+			plainBuffer.get(blockNonce);
+			if (!MessageDigest.isEqual(this.nonce, blockNonce) || plainBuffer.getLong() != blockIndex
+					|| plainBuffer.get() != (last ? 1 : 0)) {
+				throw new IOException("Unexpected block " + blockIndex + " in file '" + this.file + "'");
+			}
+			if (!last && plainBuffer.remaining() != this.blockSize) {
+				throw new IOException("Invalid length of block " + blockIndex);
+			}
+			block = new byte[plainBuffer.remaining()];
+			plainBuffer.get(block);
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+		}
+		this.cache.put(this.fileId, blockIndex, block);
+		return block;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long readPosition = position;
+
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, readPosition);
+
+			if (read < 0) {
+				throw new EOFException("Unexpected end of block file");
+			}
+			readPosition += read;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			this.cache.invalidate(this.fileId);
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EncryptedBlockFile[" + this.file + "]";
+	}
+
+}
@@ -0,0 +1,813 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Append-only log of individually encrypted records.
+ * <p>
+ * The log is stored in a directory as a sequence of segment files named after the index of their first record. Every
+ * record is encrypted via the submitted {@linkplain StorableCoder} and stored as {@code length:int encrypted:byte[]}.
+ * The record index is encrypted together with the record data, hence moving a record to another position is detected
+ * during decryption.
+ * </p>
+ * <p>
+ * Appended records are buffered and only become durable after {@linkplain #sync()} has been called. Concurrent
+ * {@linkplain #sync()} calls are grouped, so that a single {@code fsync} covers all records appended by the waiting
+ * threads. Records are located via a sparse in-memory index (one entry per {@value #INDEX_INTERVAL} records), which is
+ * rebuilt while opening the log. An incomplete record at the end of the log (e.g. due to a crash) is discarded during
+ * opening.
+ * </p>
+ * <p>
+ * The log directory is locked while the log is open, hence only one {@linkplain EncryptedRecordLog} instance (across
+ * processes) can access a log at a time.
+ * </p>
+ */
+public final class EncryptedRecordLog implements AutoCloseable {
+
+	private static final Log LOG = new Log();
+
+	private static final String LOCK_FILE = "lock";
+	private static final String SEGMENT_FILE_SUFFIX = ".log";
+	private static final int SEGMENT_MAGIC = 0x53454c47;
+	private static final int SEGMENT_HEADER_SIZE = Integer.BYTES;
+	private static final int RECORD_HEADER_SIZE = Integer.BYTES;
+	private static final int RECORD_INDEX_SIZE = Long.BYTES;
+	private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+	private static final int INDEX_INTERVAL = 256;
+	private static final int SCAN_UNIT_INDEX_ENTRIES = 16;
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+	private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * The default maximum segment size.
+	 */
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * Functional interface used to consume the records of a log.
+	 */
+	@FunctionalInterface
+	public interface RecordConsumer {
+
+		/**
+		 * Consumes a single record.
+		 * <p>
+		 * The submitted record array is overwritten after this function returns.
+		 * </p>
+		 *
+		 * @param index the index of the record.
+		 * @param record the record data.
+		 * @throws IOException if an I/O error occurs.
+		 */
+		void accept(long index, byte[] record) throws IOException;
+
+	}
+
+	private final Path directory;
+	private final StorableCoder coder;
+	private final long maxSegmentSize;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final List<Segment> segments;
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	private final Object syncLock = new Object();
+	private long nextIndex;
+	private long durableIndex;
+	private boolean closed = false;
+
+	private EncryptedRecordLog(Path directory, StorableCoder coder, long maxSegmentSize, FileChannel lockChannel,
+			FileLock lock, List<Segment> segments, long nextIndex) {
+		this.directory = directory;
+		this.coder = coder;
+		this.maxSegmentSize = maxSegmentSize;
+		this.lockChannel = lockChannel;
+		this.lock = lock;
+		this.segments = segments;
+		this.nextIndex = nextIndex;
+		this.durableIndex = nextIndex;
+	}
+
+	/**
+	 * Opens (or creates) a record log using the default maximum segment size.
+	 *
+	 * @param directory the directory to store the log in (created if it does not exist).
+	 * @param coder the {@linkplain StorableCoder} to use for record encryption.
+	 * @return the opened {@linkplain EncryptedRecordLog} instance.
+	 * @throws IOException if an I/O error occurs while opening the log.
+	 */
+	public static EncryptedRecordLog open(Path directory, StorableCoder coder) throws IOException {
+		return open(directory, coder, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens (or creates) a record log.
+	 *
+	 * @param directory the directory to store the log in (created if it does not exist).
+	 * @param coder the {@linkplain StorableCoder} to use for record encryption.
+	 * @param maxSegmentSize the size after which a new segment file is started.
+	 * @return the opened {@linkplain EncryptedRecordLog} instance.
+	 * @throws IOException if an I/O error occurs while opening the log.
+	 */
+	public static EncryptedRecordLog open(Path directory, StorableCoder coder, long maxSegmentSize)
+			throws IOException {
+		if (maxSegmentSize <= SEGMENT_HEADER_SIZE) {
+			throw new IllegalArgumentException("Invalid maximum segment size: " + maxSegmentSize);
+		}
+		LOG.info("Opening encrypted record log ''{0}''...", directory);
+
+		Files.createDirectories(directory);
+
+		FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		EncryptedRecordLog log = null;
+
+		try {
+			FileLock lock;
+
+			try {
+				lock = lockChannel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				// Already locked by this VM
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("Record log '" + directory + "' is already in use");
+			}
+
+			List<Segment> segments = new ArrayList<>();
+
+			try {
+				long nextIndex = loadSegments(directory, coder, segments);
+
+				log = new EncryptedRecordLog(directory, coder, maxSegmentSize, lockChannel, lock, segments,
+						nextIndex);
+			} finally {
+				if (log == null) {
+					for (Segment segment : segments) {
+						segment.channel.close();
+					}
+				}
+			}
+		} finally {
+			if (log == null) {
+				lockChannel.close();
+			}
+		}
+		return log;
+	}
+
+	private static long loadSegments(Path directory, StorableCoder coder, List<Segment> segments)
+			throws IOException {
+		List<Long> baseIndexes = new ArrayList<>();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_FILE_SUFFIX)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+
+				try {
+					baseIndexes.add(Long.valueOf(fileName.substring(0, fileName.length() - SEGMENT_FILE_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					LOG.warning(e, "Ignoring unexpected file ''{0}''", file);
+				}
+			}
+		}
+		baseIndexes.sort(null);
+
+		long nextIndex = 0L;
+
+		for (int segmentIndex = 0; segmentIndex < baseIndexes.size(); segmentIndex++) {
+			long baseIndex = baseIndexes.get(segmentIndex).longValue();
+
+			if (baseIndex != nextIndex) {
+				throw new IOException("Missing records " + nextIndex + " to " + (baseIndex - 1));
+			}
+
+			Segment segment = Segment.open(segmentFile(directory, baseIndex), baseIndex);
+
+			segments.add(segment);
+			segment.load(coder, segmentIndex == baseIndexes.size() - 1);
+			nextIndex = baseIndex + segment.recordCount;
+		}
+		if (segments.isEmpty()) {
+			segments.add(Segment.create(segmentFile(directory, nextIndex), nextIndex));
+		}
+		return nextIndex;
+	}
+
+	private static Path segmentFile(Path directory, long baseIndex) {
+		return directory.resolve(String.format("%020d%s", baseIndex, SEGMENT_FILE_SUFFIX));
+	}
+
+	/**
+	 * Appends a record to the log.
+	 * <p>
+	 * The record is not durable before {@linkplain #sync()} has been called.
+	 * </p>
+	 *
+	 * @param record the record data to append.
+	 * @return the index of the appended record.
+	 * @throws IOException if an I/O error occurs while appending the record.
+	 */
+	public synchronized long append(byte[] record) throws IOException {
+		ensureOpen();
+
+		long index = this.nextIndex;
+		byte[] encrypted = encryptRecord(index, record);
+
+		if (encrypted.length > MAX_RECORD_LENGTH) {
+			throw new IOException("Record too large: " + record.length);
+		}
+
+		Segment segment = this.segments.get(this.segments.size() - 1);
+		int recordSize = RECORD_HEADER_SIZE + encrypted.length;
+
+		if (segment.recordCount > 0 && segment.size + recordSize > this.maxSegmentSize) {
+			segment = rollSegment(segment);
+		}
+		if (this.writeBuffer.remaining() < recordSize) {
+			flushWriteBuffer(segment);
+		}
+		if (this.writeBuffer.remaining() >= recordSize) {
+			this.writeBuffer.putInt(encrypted.length);
+			this.writeBuffer.put(encrypted);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(0, encrypted.length);
+
+			writeFully(segment.channel, header, segment.flushedSize);
+			writeFully(segment.channel, ByteBuffer.wrap(encrypted), segment.flushedSize + RECORD_HEADER_SIZE);
+			segment.flushedSize += recordSize;
+		}
+		segment.addRecord(recordSize);
+		this.nextIndex++;
+		return index;
+	}
+
+	private byte[] encryptRecord(long index, byte[] record) throws IOException {
+		byte[] plain = new byte[RECORD_INDEX_SIZE + record.length];
+		byte[] encrypted;
+
+		try {
+			ByteBuffer.wrap(plain).putLong(index).put(record);
+			encrypted = this.coder.encrypt(plain);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+		}
+		return encrypted;
+	}
+
+	private Segment rollSegment(Segment segment) throws IOException {
+		flushWriteBuffer(segment);
+		// Previous segments are always durable, hence sync only needs to take care of the last segment
+		segment.channel.force(false);
+
+		Segment nextSegment = Segment.create(segmentFile(this.directory, this.nextIndex), this.nextIndex);
+
+		this.segments.add(nextSegment);
+		return nextSegment;
+	}
+
+	private void flushWriteBuffer(Segment segment) throws IOException {
+		if (this.writeBuffer.position() > 0) {
+			this.writeBuffer.flip();
+
+			int flushed = this.writeBuffer.remaining();
+
+			writeFully(segment.channel, this.writeBuffer, segment.flushedSize);
+			segment.flushedSize += flushed;
+			this.writeBuffer.clear();
+		}
+	}
+
+	/**
+	 * Makes all records appended so far durable.
+	 * <p>
+	 * In case multiple threads invoke this function concurrently, a single {@code fsync} is used to make the records
+	 * of all waiting threads durable (group commit).
+	 * </p>
+	 *
+	 * @throws IOException if an I/O error occurs while syncing the log.
+	 */
+	public void sync() throws IOException {
+		long requiredIndex;
+
+		synchronized (this) {
+			ensureOpen();
+			requiredIndex = this.nextIndex;
+		}
+		synchronized (this.syncLock) {
+			// A previous sync may already have covered our records
+			if (this.durableIndex < requiredIndex) {
+				Segment segment;
+				long syncIndex;
+
+				synchronized (this) {
+					ensureOpen();
+					segment = this.segments.get(this.segments.size() - 1);
+					flushWriteBuffer(segment);
+					syncIndex = this.nextIndex;
+				}
+				segment.channel.force(false);
+				this.durableIndex = syncIndex;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of records in this log.
+	 *
+	 * @return the number of records in this log.
+	 */
+	public synchronized long size() {
+		return this.nextIndex;
+	}
+
+	/**
+	 * Reads a single record.
+	 *
+	 * @param index the index of the record to read.
+	 * @return the record data.
+	 * @throws IOException if an I/O error occurs while reading the record.
+	 */
+	public byte[] read(long index) throws IOException {
+		ScanRange range;
+
+		synchronized (this) {
+			ensureOpen();
+			if (index < 0 || index >= this.nextIndex) {
+				throw new IndexOutOfBoundsException("Invalid record index: " + index);
+			}
+			flushWriteBuffer(this.segments.get(this.segments.size() - 1));
+			range = locate(index, 1);
+		}
+
+		byte[][] record = new byte[1][];
+
+		scanRange(range, (recordIndex, recordData) -> record[0] = recordData.clone());
+		return record[0];
+	}
+
+	/**
+	 * Reads all records starting at the given index in order.
+	 * <p>
+	 * Records appended after this function has been called are not considered.
+	 * </p>
+	 *
+	 * @param fromIndex the index of the first record to read.
+	 * @param consumer the {@linkplain RecordConsumer} to invoke for every record.
+	 * @throws IOException if an I/O error occurs while reading the records.
+	 */
+	public void scan(long fromIndex, RecordConsumer consumer) throws IOException {
+		ScanRange range = null;
+
+		synchronized (this) {
+			ensureOpen();
+			if (fromIndex < 0 || fromIndex > this.nextIndex) {
+				throw new IndexOutOfBoundsException("Invalid record index: " + fromIndex);
+			}
+			if (fromIndex < this.nextIndex) {
+				flushWriteBuffer(this.segments.get(this.segments.size() - 1));
+				range = locate(fromIndex, this.nextIndex - fromIndex);
+			}
+		}
+		if (range != null) {
+			scanRange(range, consumer);
+		}
+	}
+
+	/**
+	 * Reads all records in parallel.
+	 * <p>
+	 * The log is split into ranges which are read and decrypted in parallel by the given {@linkplain Executor}.
+	 * Records within a range are submitted in order, but there is no defined order across ranges. Therefore the
+	 * submitted {@linkplain RecordConsumer} must be thread-safe. Records appended after this function has been called
+	 * are not considered.
+	 * </p>
+	 *
+	 * @param executor the {@linkplain Executor} to use for reading.
+	 * @param consumer the {@linkplain RecordConsumer} to invoke for every record.
+	 * @throws IOException if an I/O error occurs while reading the records.
+	 */
+	public void scan(Executor executor, RecordConsumer consumer) throws IOException {
+		List<ScanRange> ranges = new ArrayList<>();
+
+		synchronized (this) {
+			ensureOpen();
+			flushWriteBuffer(this.segments.get(this.segments.size() - 1));
+
+			long unitSize = (long) INDEX_INTERVAL * SCAN_UNIT_INDEX_ENTRIES;
+
+			for (Segment segment : this.segments) {
+				for (long unitStart = 0; unitStart < segment.recordCount; unitStart += unitSize) {
+					ranges.add(locate(segment.baseIndex + unitStart, Math.min(unitSize, segment.recordCount - unitStart)));
+				}
+			}
+		}
+
+		CompletableFuture<?>[] scans = new CompletableFuture<?>[ranges.size()];
+
+		for (int rangeIndex = 0; rangeIndex < scans.length; rangeIndex++) {
+			ScanRange range = ranges.get(rangeIndex);
+
+			scans[rangeIndex] = CompletableFuture.runAsync(() -> {
+				try {
+					scanRange(range, consumer);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+		}
+		try {
+			CompletableFuture.allOf(scans).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getLocalizedMessage(), cause);
+			}
+			throw e;
+		}
+	}
+
+	private ScanRange locate(long index, long count) {
+		int low = 0;
+		int high = this.segments.size() - 1;
+
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+
+			if (this.segments.get(mid).baseIndex <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		Segment segment = this.segments.get(low);
+		int relativeIndex = (int) (index - segment.baseIndex);
+		int indexEntry = relativeIndex / INDEX_INTERVAL;
+
+		return new ScanRange(this.segments.subList(low, this.segments.size()).toArray(new Segment[0]),
+				segment.baseIndex + (long) indexEntry * INDEX_INTERVAL, segment.indexPositions[indexEntry], index,
+				count);
+	}
+
+	private void scanRange(ScanRange range, RecordConsumer consumer) throws IOException {
+		long index = range.startIndex;
+		long endIndex = range.fromIndex + range.count;
+
+		for (int segmentIndex = 0; segmentIndex < range.segments.length && index < endIndex; segmentIndex++) {
+			Segment segment = range.segments[segmentIndex];
+			long position = (segmentIndex == 0 ? range.startPosition : SEGMENT_HEADER_SIZE);
+			long segmentEndIndex = Math.min(endIndex, segment.baseIndex + segment.recordCount);
+			SegmentReader reader = new SegmentReader(segment.channel, position);
+
+			while (index < segmentEndIndex) {
+				if (index < range.fromIndex) {
+					reader.skipRecord();
+				} else {
+					byte[] record = decryptRecord(index, reader.readRecord());
+
+					try {
+						consumer.accept(index, record);
+					} finally {
+						Arrays.fill(record, (byte) 0);
+					}
+				}
+				index++;
+			}
+		}
+	}
+
+	private byte[] decryptRecord(long index, byte[] encrypted) throws IOException {
+		byte[] plain;
+
+		try {
+			plain = this.coder.decrypt(encrypted);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Failed to decrypt record " + index, e);
+		}
+
+		byte[] record;
+
+		try {
+			ByteBuffer plainBuffer = ByteBuffer.wrap(plain);
+
+			if (plain.length < RECORD_INDEX_SIZE || plainBuffer.getLong() != index) {
+				throw new IOException("Record index mismatch for record " + index);
+			}
+			record = new byte[plainBuffer.remaining()];
+			plainBuffer.get(record);
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+		}
+		return record;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Record log '" + this.directory + "' already closed");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this.syncLock) {
+			synchronized (this) {
+				if (!this.closed) {
+					LOG.info("Closing encrypted record log ''{0}''...", this.directory);
+
+					this.closed = true;
+					try {
+						Segment segment = this.segments.get(this.segments.size() - 1);
+
+						flushWriteBuffer(segment);
+						segment.channel.force(false);
+					} finally {
+						for (Segment segment : this.segments) {
+							segment.channel.close();
+						}
+						this.lock.release();
+						this.lockChannel.close();
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EncryptedRecordLog[" + this.directory + "]";
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long writePosition = position;
+
+		while (buffer.hasRemaining()) {
+			writePosition += channel.write(buffer, writePosition);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long readPosition = position;
+
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, readPosition);
+
+			if (read < 0) {
+				throw new EOFException("Unexpected end of segment");
+			}
+			readPosition += read;
+		}
+	}
+
+	private static final class Segment {
+
+		final long baseIndex;
+		final FileChannel channel;
+		long size = SEGMENT_HEADER_SIZE;
+		long flushedSize = SEGMENT_HEADER_SIZE;
+		int recordCount = 0;
+		long[] indexPositions = new long[16];
+
+		private Segment(long baseIndex, FileChannel channel) {
+			this.baseIndex = baseIndex;
+			this.channel = channel;
+		}
+
+		static Segment open(Path file, long baseIndex) throws IOException {
+			return new Segment(baseIndex, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		}
+
+		static Segment create(Path file, long baseIndex) throws IOException {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			boolean created = false;
+
+			try {
+				writeFully(channel, ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(0, SEGMENT_MAGIC), 0);
+				created = true;
+			} finally {
+				if (!created) {
+					channel.close();
+				}
+			}
+			return new Segment(baseIndex, channel);
+		}
+
+		void addRecord(int recordSize) {
+			if (this.recordCount % INDEX_INTERVAL == 0) {
+				int indexEntry = this.recordCount / INDEX_INTERVAL;
+
+				if (indexEntry == this.indexPositions.length) {
+					this.indexPositions = Arrays.copyOf(this.indexPositions, 2 * indexEntry);
+				}
+				this.indexPositions[indexEntry] = this.size;
+			}
+			this.size += recordSize;
+			this.recordCount++;
+		}
+
+		void load(StorableCoder coder, boolean last) throws IOException {
+			long fileSize = this.channel.size();
+			ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+
+			if (fileSize < SEGMENT_HEADER_SIZE) {
+				throw new IOException("Invalid segment size: " + fileSize);
+			}
+			readFully(this.channel, header, 0);
+			if (header.getInt(0) != SEGMENT_MAGIC) {
+				throw new IOException("Invalid segment header");
+			}
+
+			SegmentReader reader = new SegmentReader(this.channel, SEGMENT_HEADER_SIZE);
+			long lastRecordPosition = -1L;
+			boolean truncated = false;
+
+			while (this.size < fileSize && !truncated) {
+				int recordLength = reader.peekRecordLength(fileSize);
+
+				if (recordLength < 0 || this.size + RECORD_HEADER_SIZE + recordLength > fileSize) {
+					if (!last) {
+						throw new IOException("Corrupted segment at position " + this.size);
+					}
+					truncated = true;
+				} else {
+					reader.skipRecord();
+					lastRecordPosition = this.size;
+					addRecord(RECORD_HEADER_SIZE + recordLength);
+				}
+			}
+			// The last record of the last segment may have been written only partially
+			if (last && lastRecordPosition >= 0 && !verifyRecord(coder, lastRecordPosition)) {
+				this.size = lastRecordPosition;
+				this.recordCount--;
+				truncated = true;
+			}
+			if (truncated) {
+				LOG.warning("Discarding incomplete data at end of segment (position {0})", this.size);
+
+				this.channel.truncate(this.size);
+			}
+			this.flushedSize = this.size;
+		}
+
+		private boolean verifyRecord(StorableCoder coder, long position) throws IOException {
+			SegmentReader reader = new SegmentReader(this.channel, position);
+			boolean verified;
+
+			try {
+				Arrays.fill(coder.decrypt(reader.readRecord()), (byte) 0);
+				verified = true;
+			} catch (GeneralSecurityException e) {
+				LOG.warning(e, "Failed to verify last record");
+
+				verified = false;
+			}
+			return verified;
+		}
+
+	}
+
+	private static final class SegmentReader {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private long bufferPosition;
+
+		SegmentReader(FileChannel channel, long position) {
+			this.channel = channel;
+			this.bufferPosition = position;
+			this.buffer.limit(0);
+		}
+
+		int peekRecordLength(long fileSize) throws IOException {
+			int recordLength = -1;
+
+			if (fill(RECORD_HEADER_SIZE, fileSize)) {
+				recordLength = this.buffer.getInt(this.buffer.position());
+				if (recordLength > MAX_RECORD_LENGTH) {
+					recordLength = -1;
+				}
+			}
+			return recordLength;
+		}
+
+		void skipRecord() throws IOException {
+			int recordLength = readRecordLength();
+			int buffered = Math.min(recordLength, this.buffer.remaining());
+
+			this.buffer.position(this.buffer.position() + buffered);
+			if (buffered < recordLength) {
+				this.bufferPosition += this.buffer.limit() + (recordLength - buffered);
+				this.buffer.limit(0);
+			}
+		}
+
+		byte[] readRecord() throws IOException {
+			int recordLength = readRecordLength();
+			byte[] record = new byte[recordLength];
+
+			if (recordLength <= this.buffer.capacity()) {
+				fill(recordLength, Long.MAX_VALUE);
+				this.buffer.get(record);
+			} else {
+				int buffered = this.buffer.remaining();
+
+				this.buffer.get(record, 0, buffered);
+				readFully(this.channel, ByteBuffer.wrap(record, buffered, recordLength - buffered),
+						this.bufferPosition + this.buffer.limit());
+				this.bufferPosition += this.buffer.limit() + (recordLength - buffered);
+				this.buffer.limit(0);
+			}
+			return record;
+		}
+
+		private int readRecordLength() throws IOException {
+			if (!fill(RECORD_HEADER_SIZE, Long.MAX_VALUE)) {
+				throw new EOFException("Unexpected end of segment");
+			}
+
+			int recordLength = this.buffer.getInt();
+
+			if (recordLength < 0 || recordLength > MAX_RECORD_LENGTH) {
+				throw new IOException("Invalid record length: " + recordLength);
+			}
+			return recordLength;
+		}
+
+		private boolean fill(int required, long fileSize) throws IOException {
+			if (this.buffer.remaining() < required) {
+				this.bufferPosition += this.buffer.position();
+				this.buffer.compact();
+
+				long readPosition = this.bufferPosition + this.buffer.position();
+				int read = 0;
+
+				while (this.buffer.position() < required && read >= 0 && readPosition < fileSize) {
+					read = this.channel.read(this.buffer, readPosition);
+					if (read > 0) {
+						readPosition += read;
+					}
+				}
+				this.buffer.flip();
+			}
+			return this.buffer.remaining() >= required;
+		}
+
+	}
+
+	private static final class ScanRange {
+
+		final Segment[] segments;
+		final long startIndex;
+		final long startPosition;
+		final long fromIndex;
+		final long count;
+
+		ScanRange(Segment[] segments, long startIndex, long startPosition, long fromIndex, long count) {
+			this.segments = segments;
+			this.startIndex = startIndex;
+			this.startPosition = startPosition;
+			this.fromIndex = fromIndex;
+			this.count = count;
+		}
+
+	}
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+import de.carne.boot.logging.Log;
+import de.carne.boot.platform.Platform;
+import de.carne.security.jna.linux.LibCryptoLibrary;
+import de.carne.security.jna.linux.Native;
+import de.carne.security.util.SafeByteArrayOutputStream;
+
+/**
+ * AES-GCM engine backed by OpenSSL's crypto library (Linux only).
+ * <p>
+ * The engine produces the same {@code ciphertext:byte[] tag:byte[16]} output as the JCE {@code AES/GCM/NoPadding}
+ * cipher. The key is expanded once into a template context, which is copied for every operation. Like the JCE cipher
+ * decryption releases the plain data only after the authentication tag has been verified.
+ * </p>
+ * <p>
+ * The engine can be disabled by setting the system property {@code de.carne.security.crypto.OpenSSLAESGCM} to
+ * {@code false}.
+ * </p>
+ */
+final class OpenSSLAESGCM implements AutoCloseable {
+
+	private static final Log LOG = new Log();
+
+	private static final boolean ENABLED = Boolean
+			.parseBoolean(System.getProperty(OpenSSLAESGCM.class.getName(), Boolean.TRUE.toString()));
+
+	private static final int TAG_LENGTH = 16;
+	private static final int MIN_BUFFER_SIZE = 512;
+	private static final int MAX_BUFFER_SIZE = 16 * 1024;
+
+	private static final boolean AVAILABLE = probe();
+
+	private final LibCryptoLibrary libCrypto;
+	private @Nullable Pointer template;
+
+	private OpenSSLAESGCM(LibCryptoLibrary libCrypto, Pointer template) {
+		this.libCrypto = libCrypto;
+		this.template = template;
+	}
+
+	/**
+	 * Checks whether the OpenSSL based engine is available.
+	 *
+	 * @return {@code true} if the OpenSSL based engine is available.
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	private static boolean probe() {
+		boolean available = false;
+
+		if (ENABLED && Platform.IS_LINUX) {
+			try {
+				LibCryptoLibrary libCrypto = Native.libCrypto();
+
+				if (libCrypto != null) {
+					libCrypto.EVP_aes_128_gcm();
+					libCrypto.EVP_aes_256_gcm();
+					available = true;
+				}
+			} catch (LinkageError e) {
+				LOG.warning(e, "Unable to access OpenSSL crypto library");
+			}
+			LOG.info("OpenSSL AES-GCM engine available: {0}", available);
+		}
+		return available;
+	}
+
+	/**
+	 * Creates a new engine instance for the given key.
+	 *
+	 * @param secretKeySpec the AES key to use.
+	 * @return the created engine instance.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	public static OpenSSLAESGCM newInstance(SecretKeySpec secretKeySpec) throws GeneralSecurityException {
+		if (!AVAILABLE) {
+			throw new IllegalStateException("OpenSSL AES-GCM engine not available");
+		}
+
+		LibCryptoLibrary libCrypto = Objects.requireNonNull(Native.libCrypto());
+		byte[] key = Objects.requireNonNull(secretKeySpec.getEncoded());
+		Pointer evpCipher;
+
+		switch (key.length) {
+		case 16:
+			evpCipher = libCrypto.EVP_aes_128_gcm();
+			break;
+		case 32:
+			evpCipher = libCrypto.EVP_aes_256_gcm();
+			break;
+		default:
+			Arrays.fill(key, (byte) 0);
+			throw new InvalidKeyException("Unsupported key length: " + key.length);
+		}
+
+		Pointer template = newContext(libCrypto);
+		Memory keyMemory = new Memory(key.length);
+		boolean initialized = false;
+
+		try {
+			keyMemory.write(0, key, 0, key.length);
+			check(libCrypto.EVP_EncryptInit_ex(template, evpCipher, null, keyMemory, null), "EVP_EncryptInit_ex");
+			initialized = true;
+		} finally {
+			keyMemory.clear();
+			Arrays.fill(key, (byte) 0);
+			if (!initialized) {
+				libCrypto.EVP_CIPHER_CTX_free(template);
+			}
+		}
+		return new OpenSSLAESGCM(libCrypto, template);
+	}
+
+	/**
+	 * Encrypts stream data.
+	 *
+	 * @param iv the IV to use.
+	 * @param in the {@linkplain InputStream} to read plain data from.
+	 * @param out the {@linkplain OutputStream} to write encrypted data to.
+	 * @return the number of bytes read from input.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	public int encrypt(byte[] iv, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+		// JNA copies the complete array for every call, hence keep the buffers as small as possible
+		int bufferSize = bufferSize(in);
+		Pointer ctx = copyContext();
+		byte[] inBuffer = new byte[bufferSize];
+		byte[] outBuffer = new byte[bufferSize + TAG_LENGTH];
+		IntByReference outLength = new IntByReference();
+		int read = 0;
+
+		try {
+			check(this.libCrypto.EVP_EncryptInit_ex(ctx, null, null, null, iv), "EVP_EncryptInit_ex");
+
+			int read0 = in.read(inBuffer);
+
+			while (read0 >= 0) {
+				if (read0 > 0) {
+					read += read0;
+					check(this.libCrypto.EVP_EncryptUpdate(ctx, outBuffer, outLength, inBuffer, read0),
+							"EVP_EncryptUpdate");
+					out.write(outBuffer, 0, outLength.getValue());
+				}
+				read0 = in.read(inBuffer);
+			}
+			check(this.libCrypto.EVP_EncryptFinal_ex(ctx, outBuffer, outLength), "EVP_EncryptFinal_ex");
+			out.write(outBuffer, 0, outLength.getValue());
+
+			byte[] tag = new byte[TAG_LENGTH];
+
+			check(this.libCrypto.EVP_CIPHER_CTX_ctrl(ctx, LibCryptoLibrary.EVP_CTRL_GCM_GET_TAG, TAG_LENGTH, tag),
+					"EVP_CIPHER_CTX_ctrl");
+			out.write(tag);
+		} finally {
+			this.libCrypto.EVP_CIPHER_CTX_free(ctx);
+			Arrays.fill(inBuffer, (byte) 0);
+			Arrays.fill(outBuffer, (byte) 0);
+		}
+		return read;
+	}
+
+	/**
+	 * Decrypts stream data.
+	 *
+	 * @param iv the IV to use.
+	 * @param in the {@linkplain InputStream} to read encrypted data from.
+	 * @param out the {@linkplain OutputStream} to write plain data to.
+	 * @return the number of bytes read from input.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws GeneralSecurityException if a security error occurs (e.g. the data has been tampered with).
+	 */
+	public int decrypt(byte[] iv, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+		int bufferSize = bufferSize(in);
+		Pointer ctx = copyContext();
+		// The trailing tag bytes are held back at the end of the input buffer until the input is exhausted
+		byte[] inBuffer = new byte[bufferSize + TAG_LENGTH];
+		byte[] outBuffer = new byte[bufferSize + TAG_LENGTH];
+		IntByReference outLength = new IntByReference();
+		int read = 0;
+
+		try (SafeByteArrayOutputStream plain = new SafeByteArrayOutputStream(bufferSize)) {
+			check(this.libCrypto.EVP_DecryptInit_ex(ctx, null, null, null, iv), "EVP_DecryptInit_ex");
+
+			int buffered = 0;
+			int read0 = 0;
+
+			while (read0 >= 0) {
+				read0 = in.read(inBuffer, buffered, inBuffer.length - buffered);
+				if (read0 > 0) {
+					read += read0;
+					buffered += read0;
+				}
+				if (buffered == inBuffer.length) {
+					check(this.libCrypto.EVP_DecryptUpdate(ctx, outBuffer, outLength, inBuffer, bufferSize),
+							"EVP_DecryptUpdate");
+					plain.write(outBuffer, 0, outLength.getValue());
+					System.arraycopy(inBuffer, bufferSize, inBuffer, 0, TAG_LENGTH);
+					buffered = TAG_LENGTH;
+				}
+			}
+			if (buffered < TAG_LENGTH) {
+				throw new AEADBadTagException("Input too short");
+			}
+
+			int encryptedLength = buffered - TAG_LENGTH;
+
+			if (encryptedLength > 0) {
+				check(this.libCrypto.EVP_DecryptUpdate(ctx, outBuffer, outLength, inBuffer, encryptedLength),
+						"EVP_DecryptUpdate");
+				plain.write(outBuffer, 0, outLength.getValue());
+			}
+			check(this.libCrypto.EVP_CIPHER_CTX_ctrl(ctx, LibCryptoLibrary.EVP_CTRL_GCM_SET_TAG, TAG_LENGTH,
+					Arrays.copyOfRange(inBuffer, encryptedLength, buffered)), "EVP_CIPHER_CTX_ctrl");
+			if (this.libCrypto.EVP_DecryptFinal_ex(ctx, outBuffer, outLength) <= 0) {
+				throw new AEADBadTagException("Tag mismatch!");
+			}
+			plain.write(outBuffer, 0, outLength.getValue());
+			out.write(plain.getBytes());
+		} finally {
+			this.libCrypto.EVP_CIPHER_CTX_free(ctx);
+			Arrays.fill(inBuffer, (byte) 0);
+			Arrays.fill(outBuffer, (byte) 0);
+		}
+		return read;
+	}
+
+	private static int bufferSize(InputStream in) throws IOException {
+		return Math.max(MIN_BUFFER_SIZE, Math.min(in.available(), MAX_BUFFER_SIZE));
+	}
+
+	private synchronized Pointer copyContext() throws GeneralSecurityException {
+		Pointer currentTemplate = this.template;
+
+		if (currentTemplate == null) {
+			throw new IllegalStateException("OpenSSL AES-GCM engine already closed");
+		}
+
+		Pointer ctx = newContext(this.libCrypto);
+		boolean copied = false;
+
+		try {
+			check(this.libCrypto.EVP_CIPHER_CTX_copy(ctx, currentTemplate), "EVP_CIPHER_CTX_copy");
+			copied = true;
+		} finally {
+			if (!copied) {
+				this.libCrypto.EVP_CIPHER_CTX_free(ctx);
+			}
+		}
+		return ctx;
+	}
+
+	private static Pointer newContext(LibCryptoLibrary libCrypto) throws GeneralSecurityException {
+		Pointer ctx = libCrypto.EVP_CIPHER_CTX_new();
+
+		if (ctx == null) {
+			throw new GeneralSecurityException("EVP_CIPHER_CTX_new failed");
+		}
+		return ctx;
+	}
+
+	private static void check(int status, String function) throws GeneralSecurityException {
+		if (status <= 0) {
+			throw new GeneralSecurityException(function + " failed with status: " + status);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		Pointer currentTemplate = this.template;
+
+		if (currentTemplate != null) {
+			this.template = null;
+			this.libCrypto.EVP_CIPHER_CTX_free(currentTemplate);
+		}
+	}
+
+}
@@ -18,6 +18,8 @@ package de.carne.security.crypto;
 
 import java.security.GeneralSecurityException;
 
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityOperation;
 import de.carne.security.secret.ByteSecret;
 import de.carne.security.util.SafeByteArrayOutputStream;
 
@@ -64,8 +66,11 @@ public abstract class StorableCoder extends Coder {
 			}
 
 			StorableCoderId id = ids[idOrdinal];
+			long start = Metrics.start();
+			StorableCoder coder = id.loadCoder(secret);
 
-			return id.loadCoder(secret);
+			Metrics.record(SecurityOperation.LOAD_CODER, id, start, 0L);
+			return coder;
 		});
 	}
 
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jna.linux;
+
+import com.sun.jna.Library;
+import com.sun.jna.Pointer;
+
+/**
+ * JNA interface to the required functions of the Linux' C library.
+ * <p>
+ * The kernel key retention service has no stable C library wrappers, hence the corresponding system calls are invoked
+ * via {@code syscall} directly (see {@linkplain Native} for the architecture specific system call numbers). As
+ * {@code syscall} is a variadic function, all integer arguments are declared as {@code long} to ensure they are
+ * passed as full 64 bit values.
+ * </p>
+ */
+@SuppressWarnings("squid:S1214")
+public interface LibCLibrary extends Library {
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man7/keyrings.7.html">Linux Programmer's Manual</a>
+	 */
+	long KEY_SPEC_USER_KEYRING = -4;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 */
+	long KEYCTL_GET_KEYRING_ID = 0;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 */
+	long KEYCTL_SETPERM = 5;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 */
+	long KEYCTL_UNLINK = 9;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 */
+	long KEYCTL_SEARCH = 10;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 */
+	long KEYCTL_READ = 11;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 * (possessor and user: view, read, write, search, link, setattr)
+	 */
+	long KEY_PERM_POSSESSOR_AND_USER_ALL = 0x3f3f0000L;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man3/errno.3.html">Linux Programmer's Manual</a>
+	 */
+	int ENOKEY = 126;
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/add_key.2.html">Linux Programmer's Manual</a>
+	 *
+	 * @param number the {@code add_key} system call number.
+	 * @param type see Linux Programmer's Manual.
+	 * @param description see Linux Programmer's Manual.
+	 * @param payload see Linux Programmer's Manual.
+	 * @param plen see Linux Programmer's Manual.
+	 * @param keyring see Linux Programmer's Manual.
+	 * @return see Linux Programmer's Manual.
+	 */
+	long syscall(long number, String type, String description, Pointer payload, long plen, long keyring);
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 *
+	 * @param number the {@code keyctl} system call number.
+	 * @param operation see Linux Programmer's Manual.
+	 * @param arg2 see Linux Programmer's Manual.
+	 * @param arg3 see Linux Programmer's Manual.
+	 * @return see Linux Programmer's Manual.
+	 */
+	long syscall(long number, long operation, long arg2, long arg3);
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 * ({@code KEYCTL_READ} variant).
+	 *
+	 * @param number the {@code keyctl} system call number.
+	 * @param operation see Linux Programmer's Manual.
+	 * @param key see Linux Programmer's Manual.
+	 * @param buffer see Linux Programmer's Manual.
+	 * @param buflen see Linux Programmer's Manual.
+	 * @return see Linux Programmer's Manual.
+	 */
+	long syscall(long number, long operation, long key, Pointer buffer, long buflen);
+
+	/**
+	 * See <a href="http://man7.org/linux/man-pages/man2/keyctl.2.html">Linux Programmer's Manual</a>
+	 * ({@code KEYCTL_SEARCH} variant).
+	 *
+	 * @param number the {@code keyctl} system call number.
+	 * @param operation see Linux Programmer's Manual.
+	 * @param keyring see Linux Programmer's Manual.
+	 * @param type see Linux Programmer's Manual.
+	 * @param description see Linux Programmer's Manual.
+	 * @param destKeyring see Linux Programmer's Manual.
+	 * @return see Linux Programmer's Manual.
+	 */
+	long syscall(long number, long operation, long keyring, String type, String description, long destKeyring);
+
+}
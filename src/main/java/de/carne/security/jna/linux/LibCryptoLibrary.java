@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jna.linux;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.sun.jna.Library;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * JNA interface to the required EVP functions of OpenSSL's crypto library.
+ */
+@SuppressWarnings("squid:S1214")
+public interface LibCryptoLibrary extends Library {
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_EncryptInit.html">OpenSSL documentation</a>
+	 */
+	int EVP_CTRL_GCM_GET_TAG = 0x10;
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_EncryptInit.html">OpenSSL documentation</a>
+	 */
+	int EVP_CTRL_GCM_SET_TAG = 0x11;
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_aes_128_gcm.html">OpenSSL documentation</a>
+	 *
+	 * @return see OpenSSL documentation.
+	 */
+	Pointer/* const EVP_CIPHER * */ EVP_aes_128_gcm();
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_aes_256_gcm.html">OpenSSL documentation</a>
+	 *
+	 * @return see OpenSSL documentation.
+	 */
+	Pointer/* const EVP_CIPHER * */ EVP_aes_256_gcm();
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_CIPHER_CTX_new.html">OpenSSL documentation</a>
+	 *
+	 * @return see OpenSSL documentation.
+	 */
+	@Nullable
+	Pointer/* EVP_CIPHER_CTX * */ EVP_CIPHER_CTX_new();
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_CIPHER_CTX_free.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 */
+	void EVP_CIPHER_CTX_free(Pointer/* EVP_CIPHER_CTX * */ ctx);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_CIPHER_CTX_copy.html">OpenSSL documentation</a>
+	 *
+	 * @param out see OpenSSL documentation.
+	 * @param in see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_CIPHER_CTX_copy(Pointer/* EVP_CIPHER_CTX * */ out, Pointer/* const EVP_CIPHER_CTX * */ in);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_CIPHER_CTX_ctrl.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param type see OpenSSL documentation.
+	 * @param arg see OpenSSL documentation.
+	 * @param ptr see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_CIPHER_CTX_ctrl(Pointer/* EVP_CIPHER_CTX * */ ctx, int type, int arg, byte[]/* void * */ ptr);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_EncryptInit_ex.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param type see OpenSSL documentation.
+	 * @param impl see OpenSSL documentation.
+	 * @param key see OpenSSL documentation.
+	 * @param iv see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_EncryptInit_ex(Pointer/* EVP_CIPHER_CTX * */ ctx, @Nullable Pointer/* const EVP_CIPHER * */ type,
+			@Nullable Pointer/* ENGINE * */ impl, @Nullable Pointer/* const unsigned char * */ key,
+			byte @Nullable [] /* const unsigned char * */ iv);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_EncryptUpdate.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param out see OpenSSL documentation.
+	 * @param outl see OpenSSL documentation.
+	 * @param in see OpenSSL documentation.
+	 * @param inl see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_EncryptUpdate(Pointer/* EVP_CIPHER_CTX * */ ctx, byte[]/* unsigned char * */ out,
+			IntByReference/* int * */ outl, byte[]/* const unsigned char * */ in, int inl);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_EncryptFinal_ex.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param out see OpenSSL documentation.
+	 * @param outl see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_EncryptFinal_ex(Pointer/* EVP_CIPHER_CTX * */ ctx, byte[]/* unsigned char * */ out,
+			IntByReference/* int * */ outl);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_DecryptInit_ex.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param type see OpenSSL documentation.
+	 * @param impl see OpenSSL documentation.
+	 * @param key see OpenSSL documentation.
+	 * @param iv see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_DecryptInit_ex(Pointer/* EVP_CIPHER_CTX * */ ctx, @Nullable Pointer/* const EVP_CIPHER * */ type,
+			@Nullable Pointer/* ENGINE * */ impl, @Nullable Pointer/* const unsigned char * */ key,
+			byte @Nullable [] /* const unsigned char * */ iv);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_DecryptUpdate.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param out see OpenSSL documentation.
+	 * @param outl see OpenSSL documentation.
+	 * @param in see OpenSSL documentation.
+	 * @param inl see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_DecryptUpdate(Pointer/* EVP_CIPHER_CTX * */ ctx, byte[]/* unsigned char * */ out,
+			IntByReference/* int * */ outl, byte[]/* const unsigned char * */ in, int inl);
+
+	/**
+	 * See <a href="https://www.openssl.org/docs/man1.1.1/man3/EVP_DecryptFinal_ex.html">OpenSSL documentation</a>
+	 *
+	 * @param ctx see OpenSSL documentation.
+	 * @param outm see OpenSSL documentation.
+	 * @param outl see OpenSSL documentation.
+	 * @return see OpenSSL documentation.
+	 */
+	int EVP_DecryptFinal_ex(Pointer/* EVP_CIPHER_CTX * */ ctx, byte[]/* unsigned char * */ outm,
+			IntByReference/* int * */ outl);
+
+}
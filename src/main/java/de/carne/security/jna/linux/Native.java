@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.jna.linux;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.sun.jna.Library;
+
+/**
+ * The collection of required library functions and system call numbers.
+ */
+@SuppressWarnings("squid:S1191")
+public final class Native {
+
+	private Native() {
+		// prevent instantiation
+	}
+
+	private static final String OS_ARCH = System.getProperty("os.arch", "");
+
+	private static final boolean IS_X86_64 = "amd64".equals(OS_ARCH) || "x86_64".equals(OS_ARCH);
+
+	private static final boolean IS_AARCH64 = "aarch64".equals(OS_ARCH);
+
+	/**
+	 * Whether the system call numbers for the current architecture are known.
+	 */
+	public static final boolean SYSCALLS_SUPPORTED = IS_X86_64 || IS_AARCH64;
+
+	/**
+	 * The {@code add_key} system call number (-1 if unsupported).
+	 */
+	public static final long SYS_ADD_KEY = (IS_X86_64 ? 248 : IS_AARCH64 ? 217 : -1);
+
+	/**
+	 * The {@code keyctl} system call number (-1 if unsupported).
+	 */
+	public static final long SYS_KEYCTL = (IS_X86_64 ? 250 : IS_AARCH64 ? 219 : -1);
+
+	/**
+	 * C library functions.
+	 */
+	public static final LibCLibrary LibC = com.sun.jna.Native.load("c", LibCLibrary.class);
+
+	private static final class LibCryptoHolder {
+
+		static final @Nullable LibCryptoLibrary INSTANCE = loadOptional("crypto", LibCryptoLibrary.class);
+
+		private LibCryptoHolder() {
+			// prevent instantiation
+		}
+
+	}
+
+	/**
+	 * Gets the OpenSSL crypto library functions.
+	 * <p>
+	 * The library is loaded on first use, so that users of the other functions do not depend on it.
+	 * </p>
+	 *
+	 * @return the OpenSSL crypto library functions or {@code null} if the library is not available.
+	 */
+	public static @Nullable LibCryptoLibrary libCrypto() {
+		return LibCryptoHolder.INSTANCE;
+	}
+
+	private static <T extends Library> @Nullable T loadOptional(String name, Class<T> libraryClass) {
+		T library = null;
+
+		try {
+			library = com.sun.jna.Native.load(name, libraryClass);
+		} catch (UnsatisfiedLinkError e) {
+			// Library not available; callers check for null
+		}
+		return library;
+	}
+
+}
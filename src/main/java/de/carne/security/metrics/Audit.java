@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Utility class providing access to the active {@linkplain AuditTrail}.
+ * <p>
+ * By default no audit trail is active and auditing an operation costs a single volatile read.
+ * </p>
+ */
+public final class Audit {
+
+	private Audit() {
+		// prevent instantiation
+	}
+
+	private static volatile @Nullable AuditTrail trail = null;
+
+	/**
+	 * Sets the active {@linkplain AuditTrail}.
+	 * <p>
+	 * An {@linkplain AuditTrail} should be deactivated before it is closed, as events published to a closed trail are
+	 * dropped.
+	 * </p>
+	 *
+	 * @param newTrail the {@linkplain AuditTrail} to activate or {@code null} to disable auditing.
+	 */
+	public static void setTrail(@Nullable AuditTrail newTrail) {
+		trail = newTrail;
+	}
+
+	/**
+	 * Gets the active {@linkplain AuditTrail}.
+	 *
+	 * @return the active {@linkplain AuditTrail} or {@code null} if auditing is disabled.
+	 */
+	public static @Nullable AuditTrail getTrail() {
+		return trail;
+	}
+
+	/**
+	 * Records a secret access.
+	 *
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param store the accessed secret store.
+	 * @param id the id of the accessed secret (only a keyed hash of the id is recorded).
+	 */
+	public static void record(SecurityOperation operation, Object store, String id) {
+		AuditTrail currentTrail = trail;
+
+		if (currentTrail != null) {
+			currentTrail.publish(operation, store, id);
+		}
+	}
+
+}
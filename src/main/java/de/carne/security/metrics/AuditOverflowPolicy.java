@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+/**
+ * Policies for handling audit events published to a full {@linkplain AuditTrail}.
+ */
+public enum AuditOverflowPolicy {
+
+	/**
+	 * The event is dropped and the publishing thread continues immediately. The number of dropped events is recorded in
+	 * the trail.
+	 */
+	DROP,
+
+	/**
+	 * The publishing thread waits until the background writer has made room for the event. No event is lost, but
+	 * secret operations are slowed down to the speed of the audit trail's file sink.
+	 */
+	BLOCK
+
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Asynchronous audit trail recording secret accesses (see {@linkplain Audit}) to a set of rotating files.
+ * <p>
+ * Events are published to a lock-free ring buffer (capacity defined by the system property
+ * {@code de.carne.security.metrics.AuditTrail.capacity}, default: 65536) without performing any I/O. A background
+ * thread drains the ring buffer and writes the events in batches. While the ring buffer is empty, the background thread
+ * is parked until the next event is published. If the ring buffer is full, the event is handled according to the
+ * {@linkplain AuditOverflowPolicy} in use.
+ * </p>
+ * <p>
+ * The events are written to the file {@code audit.log} in the trail's directory. Each event is written as a tab
+ * separated line of the form {@code <timestamp> <operation> <id hash> <store> <thread>}. The id hash is a keyed hash
+ * (HMAC-SHA256 truncated to 64 bits) of the secret's id, which can only be matched against a known id via
+ * {@linkplain #hashId(String)}. Unless a key is submitted on opening, every trail uses its own random key. Dropped
+ * events are reported
+ * via lines of the form {@code <timestamp> DROPPED <count>}. Once the file exceeds
+ * {@code de.carne.security.metrics.AuditTrail.maxFileSize} bytes (default: 16 MiB), it is rotated to
+ * {@code audit.log.1} (shifting already rotated files), keeping up to
+ * {@code de.carne.security.metrics.AuditTrail.maxFiles} rotated files (default: 10).
+ * </p>
+ */
+public final class AuditTrail implements Closeable {
+
+	private static final Log LOG = new Log();
+
+	private static final int CAPACITY = Integer.highestOneBit(
+			Math.max(Integer.getInteger(AuditTrail.class.getName() + ".capacity", 65536).intValue() - 1, 1)) << 1;
+
+	private static final long MAX_FILE_SIZE = Long
+			.getLong(AuditTrail.class.getName() + ".maxFileSize", 16 * 1024 * 1024L).longValue();
+
+	private static final int MAX_FILES = Math
+			.max(Integer.getInteger(AuditTrail.class.getName() + ".maxFiles", 10).intValue(), 0);
+
+	private static final String FILE_NAME = "audit.log";
+	private static final int BATCH_SIZE = 1024;
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10L);
+	private static final int ID_HASH_CACHE_SIZE = 1024;
+	private static final int REFERENCES_PER_SLOT = 3;
+	// Marks a slot which has been claimed after closing (and holds no event)
+	private static final long SKIPPED = -1L;
+	private static final SecurityOperation[] OPERATIONS = SecurityOperation.values();
+
+	private static final class ShutdownHook {
+
+		static final Set<AuditTrail> OPEN_TRAILS = ConcurrentHashMap.newKeySet();
+
+		static {
+			Runtime.getRuntime().addShutdownHook(
+					new Thread(ShutdownHook::stopAll, AuditTrail.class.getSimpleName() + "-shutdown"));
+		}
+
+		private ShutdownHook() {
+			// prevent instantiation
+		}
+
+		private static void stopAll() {
+			for (AuditTrail trail : OPEN_TRAILS) {
+				trail.stop();
+			}
+		}
+
+	}
+
+	private final Path directory;
+	private final AuditOverflowPolicy policy;
+	private final int mask = CAPACITY - 1;
+	// Event slots; slot index i holds the event with sequence s (s & mask == i) once published[i] == s
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	// Slot data is interleaved (2 values and 3 references per slot), so that publishing an event touches as few cache
+	// lines as possible
+	private final long[] values = new long[2 * CAPACITY];
+	private final @Nullable Object[] references = new @Nullable Object[REFERENCES_PER_SLOT * CAPACITY];
+	private final AtomicLong claimed = new AtomicLong();
+	private volatile long consumed = 0L;
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean closed = false;
+	private volatile boolean stopped = false;
+	private volatile boolean writerParked = false;
+	private final byte[] idKey;
+	private final Thread writer = new Thread(this::writeTrail, AuditTrail.class.getSimpleName());
+	// Writer thread state
+	private final IdHasher idHasher;
+	private final Map<String, String> idHashes = new LinkedHashMap<String, String>(ID_HASH_CACHE_SIZE, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.@Nullable Entry<String, String> eldest) {
+			return size() > ID_HASH_CACHE_SIZE;
+		}
+
+	};
+	private final StringBuilder batch = new StringBuilder();
+	private @Nullable OutputStream out = null;
+	private long fileSize = 0L;
+	private long reportedDropped = 0L;
+	private long lastTimestamp = -1L;
+	private String lastTimestampText = "";
+	private boolean failed = false;
+
+	private AuditTrail(Path directory, AuditOverflowPolicy policy, byte[] idKey) {
+		this.directory = directory;
+		this.policy = policy;
+		this.idKey = idKey;
+		this.idHasher = new IdHasher(idKey);
+		for (int index = 0; index < CAPACITY; index++) {
+			// Mark all slots as unpublished
+			this.published.set(index, index - (long) CAPACITY);
+		}
+	}
+
+	/**
+	 * Opens an {@linkplain AuditTrail} writing to a specific directory.
+	 * <p>
+	 * Use {@linkplain Audit#setTrail(AuditTrail)} to activate the opened trail. The trail is closed automatically on
+	 * VM shutdown.
+	 * </p>
+	 *
+	 * @param directory the directory to write the trail to (created if it does not exist).
+	 * @param policy the {@linkplain AuditOverflowPolicy} to apply if the trail's ring buffer is full.
+	 * @return the opened {@linkplain AuditTrail}.
+	 * @throws IOException if an I/O error occurs while opening the trail's file.
+	 */
+	public static AuditTrail open(Path directory, AuditOverflowPolicy policy) throws IOException {
+		return open0(directory, policy, IdHasher.newKey());
+	}
+
+	/**
+	 * Opens an {@linkplain AuditTrail} writing to a specific directory and hashing ids with a specific key.
+	 * <p>
+	 * Trails opened with the same key record the same hash for the same id, which allows correlating them. The
+	 * submitted key array is owned by the caller (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param directory the directory to write the trail to (created if it does not exist).
+	 * @param policy the {@linkplain AuditOverflowPolicy} to apply if the trail's ring buffer is full.
+	 * @param idKey the key to use for hashing ids (at least 16 bytes).
+	 * @return the opened {@linkplain AuditTrail}.
+	 * @throws IOException if an I/O error occurs while opening the trail's file.
+	 * @see #open(Path, AuditOverflowPolicy)
+	 */
+	public static AuditTrail open(Path directory, AuditOverflowPolicy policy, byte[] idKey) throws IOException {
+		if (idKey.length < 16) {
+			throw new IllegalArgumentException("Id key too short");
+		}
+		return open0(directory, policy, idKey.clone());
+	}
+
+	private static AuditTrail open0(Path directory, AuditOverflowPolicy policy, byte[] idKey) throws IOException {
+		AuditTrail trail = new AuditTrail(directory, policy, idKey);
+
+		Files.createDirectories(directory);
+		trail.openFile();
+		trail.writer.setDaemon(true);
+		trail.writer.start();
+		ShutdownHook.OPEN_TRAILS.add(trail);
+		return trail;
+	}
+
+	/**
+	 * Computes the id hash this {@linkplain AuditTrail} records for a specific id.
+	 *
+	 * @param id the id to hash.
+	 * @return the id hash recorded for the given id.
+	 * @throws IllegalStateException if this {@linkplain AuditTrail} has already been closed (and its key discarded).
+	 */
+	public synchronized String hashId(String id) {
+		if (this.closed) {
+			throw new IllegalStateException("Audit trail closed");
+		}
+		return new IdHasher(this.idKey).hash(id);
+	}
+
+	/**
+	 * Gets the number of events dropped so far.
+	 *
+	 * @return the number of events dropped so far.
+	 */
+	public long dropped() {
+		return this.dropped.sum();
+	}
+
+	void publish(SecurityOperation operation, Object store, String id) {
+		long sequence = (this.policy == AuditOverflowPolicy.DROP ? claimOrDrop() : claimOrBlock());
+
+		if (sequence >= 0L) {
+			int index = (int) sequence & this.mask;
+			int slot = index << 1;
+			int referenceSlot = index * REFERENCES_PER_SLOT;
+
+			// A claimed sequence must always be published, as the writer consumes the sequences in order
+			if (!this.closed) {
+				this.values[slot] = System.currentTimeMillis();
+				this.values[slot + 1] = operation.ordinal();
+				this.references[referenceSlot] = store;
+				this.references[referenceSlot + 1] = Thread.currentThread();
+				this.references[referenceSlot + 2] = id;
+			} else {
+				this.values[slot + 1] = SKIPPED;
+				this.dropped.increment();
+			}
+			// Ordered write makes the slot data visible to the writer thread
+			this.published.lazySet(index, sequence);
+			// The flag is read after claiming the sequence; hence a writer about to park either sees the claim or is
+			// unparked here
+			if (this.writerParked) {
+				LockSupport.unpark(this.writer);
+			}
+		} else {
+			this.dropped.increment();
+		}
+	}
+
+	private long claimOrDrop() {
+		long sequence;
+		boolean full;
+
+		do {
+			sequence = this.claimed.get();
+			full = sequence - this.consumed > this.mask || this.closed;
+		} while (!full && !this.claimed.compareAndSet(sequence, sequence + 1));
+		return (full ? -1L : sequence);
+	}
+
+	private long claimOrBlock() {
+		long sequence = this.claimed.getAndIncrement();
+		boolean full;
+
+		// Wait even if the trail is being closed, as the writer drains all claimed sequences before it stops
+		while ((full = sequence - this.consumed > this.mask) && !this.stopped) {
+			LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+		}
+		return (full ? -1L : sequence);
+	}
+
+	private void writeTrail() {
+		boolean done = false;
+
+		while (!done) {
+			// Read the flag before draining, so that all events published before closing are written
+			boolean stopping = this.closed;
+
+			if (drain() == 0) {
+				// Sequences claimed but not yet published are waited for
+				if (stopping && this.consumed == this.claimed.get()) {
+					done = true;
+				} else {
+					awaitEvents();
+				}
+			}
+		}
+		this.stopped = true;
+		closeFile();
+	}
+
+	private void awaitEvents() {
+		this.writerParked = true;
+		// Only park indefinitely if nothing has been claimed after announcing it (see publish)
+		if (this.consumed == this.claimed.get() && !this.closed) {
+			LockSupport.park(this);
+		} else {
+			// Claimed sequences are published shortly
+			LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+		}
+		this.writerParked = false;
+	}
+
+	private int drain() {
+		long next = this.consumed;
+		int count = 0;
+		int index = (int) next & this.mask;
+
+		while (count < BATCH_SIZE && this.published.get(index) == next) {
+			int referenceSlot = index * REFERENCES_PER_SLOT;
+
+			if (this.values[(index << 1) + 1] != SKIPPED) {
+				appendEvent(index << 1, referenceSlot);
+			}
+			Arrays.fill(this.references, referenceSlot, referenceSlot + REFERENCES_PER_SLOT, null);
+			next++;
+			count++;
+			index = (int) next & this.mask;
+		}
+		this.consumed = next;
+
+		long currentDropped = this.dropped.sum();
+
+		if (currentDropped > this.reportedDropped) {
+			this.batch.append(Instant.ofEpochMilli(System.currentTimeMillis())).append("\tDROPPED\t")
+					.append(currentDropped - this.reportedDropped).append('\n');
+			this.reportedDropped = currentDropped;
+		}
+		if (this.batch.length() > 0) {
+			writeBatch(count);
+		}
+		return count;
+	}
+
+	private void appendEvent(int slot, int referenceSlot) {
+		long timestamp = this.values[slot];
+
+		// Consecutive events mostly share the same timestamp; hence only format it once
+		if (timestamp != this.lastTimestamp) {
+			this.lastTimestamp = timestamp;
+			this.lastTimestampText = Instant.ofEpochMilli(timestamp).toString();
+		}
+
+		Object thread = this.references[referenceSlot + 1];
+
+		this.batch.append(this.lastTimestampText).append('\t').append(OPERATIONS[(int) this.values[slot + 1]].name())
+				.append('\t').append(idHash(String.valueOf(this.references[referenceSlot + 2]))).append('\t')
+				.append(this.references[referenceSlot]).append('\t')
+				.append(thread instanceof Thread ? ((Thread) thread).getName() : "").append('\n');
+	}
+
+	private String idHash(String id) {
+		// Secure storages are mostly used for a few ids only; hence cache the hashes
+		return this.idHashes.computeIfAbsent(id, this.idHasher::hash);
+	}
+
+	private void writeBatch(int count) {
+		try {
+			if (this.out == null) {
+				openFile();
+			}
+			if (this.fileSize >= MAX_FILE_SIZE) {
+				rotateFile();
+			}
+
+			OutputStream currentOut = this.out;
+
+			if (currentOut != null) {
+				byte[] bytes = this.batch.toString().getBytes(StandardCharsets.UTF_8);
+
+				currentOut.write(bytes);
+				currentOut.flush();
+				this.fileSize += bytes.length;
+			}
+			if (this.failed) {
+				LOG.info("Resumed writing audit trail to ''{0}''", this.directory);
+			}
+			this.failed = false;
+		} catch (IOException e) {
+			if (!this.failed) {
+				LOG.warning(e, "Failed to write audit trail to ''{0}'' (dropping events)", this.directory);
+			}
+			this.failed = true;
+			this.dropped.add(count);
+			closeFile();
+		}
+		this.batch.setLength(0);
+	}
+
+	private void openFile() throws IOException {
+		Path file = this.directory.resolve(FILE_NAME);
+
+		this.out = new BufferedOutputStream(
+				Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+		this.fileSize = Files.size(file);
+	}
+
+	private void rotateFile() throws IOException {
+		closeFile();
+
+		Path file = this.directory.resolve(FILE_NAME);
+
+		if (MAX_FILES > 0) {
+			for (int fileIndex = MAX_FILES - 1; fileIndex > 0; fileIndex--) {
+				Path rotatedFile = this.directory.resolve(FILE_NAME + "." + fileIndex);
+
+				if (Files.exists(rotatedFile)) {
+					Files.move(rotatedFile, this.directory.resolve(FILE_NAME + "." + (fileIndex + 1)),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			Files.move(file, this.directory.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(file);
+		}
+		openFile();
+	}
+
+	private void closeFile() {
+		OutputStream currentOut = this.out;
+
+		this.out = null;
+		if (currentOut != null) {
+			try {
+				currentOut.close();
+			} catch (IOException e) {
+				LOG.warning(e, "Failed to close audit trail ''{0}''", this.directory);
+			}
+		}
+	}
+
+	private void stop() {
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Closes this {@linkplain AuditTrail}.
+	 * <p>
+	 * All events published so far are written before this function returns. Events published afterwards are dropped.
+	 * </p>
+	 *
+	 * @throws IOException if an I/O error occurs while closing the trail.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!this.closed) {
+			stop();
+			ShutdownHook.OPEN_TRAILS.remove(this);
+			Arrays.fill(this.idKey, (byte) 0);
+		}
+	}
+
+}
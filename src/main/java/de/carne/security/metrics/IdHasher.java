@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.carne.boot.Exceptions;
+import de.carne.security.util.Randomness;
+
+/**
+ * Keyed hash function used to record secret ids.
+ * <p>
+ * Ids are hashed via HMAC-SHA256 truncated to 64 bits. Hence a recorded hash identifies an id reliably, but neither
+ * reveals the id nor can be matched against guessed ids without knowing the key. Instances are not thread-safe.
+ * </p>
+ */
+final class IdHasher {
+
+	private static final String MAC_ALG = "HmacSHA256";
+	private static final int KEY_LENGTH = 32;
+	private static final int HASH_LENGTH = 8;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Mac mac;
+
+	IdHasher(byte[] key) {
+		try {
+			this.mac = Mac.getInstance(MAC_ALG);
+			this.mac.init(new SecretKeySpec(key, MAC_ALG));
+		} catch (GeneralSecurityException e) {
+			throw Exceptions.toRuntime(e);
+		}
+	}
+
+	/**
+	 * Generates a new random hash key.
+	 * <p>
+	 * The returned key array is owned by the caller (and zeroized after use).
+	 * </p>
+	 *
+	 * @return the generated key.
+	 */
+	static byte[] newKey() {
+		byte[] key = new byte[KEY_LENGTH];
+
+		Randomness.get().nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * Hashes an id.
+	 *
+	 * @param id the id to hash.
+	 * @return the hex encoded hash of the id.
+	 */
+	String hash(String id) {
+		byte[] digest = this.mac.doFinal(id.getBytes(StandardCharsets.UTF_8));
+		char[] hash = new char[HASH_LENGTH * 2];
+
+		for (int digestIndex = 0; digestIndex < HASH_LENGTH; digestIndex++) {
+			hash[digestIndex * 2] = HEX_DIGITS[(digest[digestIndex] >>> 4) & 0xf];
+			hash[digestIndex * 2 + 1] = HEX_DIGITS[digest[digestIndex] & 0xf];
+		}
+		return new String(hash);
+	}
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * In-memory {@linkplain MetricsCollector} implementation.
+ * <p>
+ * Counts, processed bytes and latencies are collected per {@linkplain SecurityOperation} and source. Latencies are
+ * recorded in a histogram with power-of-two nanosecond buckets. All counters are based on {@linkplain LongAdder}s to
+ * keep contention low.
+ * </p>
+ */
+public final class InMemoryMetrics implements MetricsCollector {
+
+	// One source map per operation (populated up front and never modified afterwards) to keep key construction off
+	// the record path
+	private final Map<SecurityOperation, Map<String, Stats>> statsMaps = new EnumMap<>(SecurityOperation.class);
+
+	/**
+	 * Constructs a new {@linkplain InMemoryMetrics} instance.
+	 */
+	public InMemoryMetrics() {
+		for (SecurityOperation operation : SecurityOperation.values()) {
+			this.statsMaps.put(operation, new ConcurrentHashMap<>());
+		}
+	}
+
+	@Override
+	public void record(SecurityOperation operation, String source, long nanos, long bytes) {
+		Map<String, Stats> statsMap = statsMap(operation);
+		Stats stats = statsMap.get(source);
+
+		if (stats == null) {
+			stats = statsMap.computeIfAbsent(source, key -> new Stats(operation, key));
+		}
+		stats.record(nanos, bytes);
+	}
+
+	/**
+	 * Gets the statistics for a specific operation and source.
+	 *
+	 * @param operation the {@linkplain SecurityOperation} to get the statistics for.
+	 * @param source the source to get the statistics for.
+	 * @return the statistics or {@code null} if the operation has not yet been recorded for the given source.
+	 */
+	public @Nullable Stats get(SecurityOperation operation, String source) {
+		return statsMap(operation).get(source);
+	}
+
+	/**
+	 * Invokes the given action for all recorded statistics.
+	 *
+	 * @param action the action to invoke with the operation's source and statistics.
+	 */
+	public void forEach(BiConsumer<String, Stats> action) {
+		for (Map<String, Stats> statsMap : this.statsMaps.values()) {
+			statsMap.values().forEach(stats -> action.accept(stats.source(), stats));
+		}
+	}
+
+	/**
+	 * Resets all recorded statistics.
+	 */
+	public void reset() {
+		for (Map<String, Stats> statsMap : this.statsMaps.values()) {
+			statsMap.clear();
+		}
+	}
+
+	@SuppressWarnings("null")
+	private Map<String, Stats> statsMap(SecurityOperation operation) {
+		return this.statsMaps.get(operation);
+	}
+
+	/**
+	 * The statistics collected for a single operation and source.
+	 */
+	public static final class Stats {
+
+		private static final int BUCKET_COUNT = Long.SIZE;
+
+		private final SecurityOperation operation;
+		private final String source;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+		Stats(SecurityOperation operation, String source) {
+			this.operation = operation;
+			this.source = source;
+			for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+				this.buckets[bucketIndex] = new LongAdder();
+			}
+		}
+
+		void record(long recordNanos, long recordBytes) {
+			long effectiveNanos = Math.max(recordNanos, 0L);
+
+			this.count.increment();
+			this.bytes.add(recordBytes);
+			this.nanos.add(effectiveNanos);
+			this.buckets[bucketIndex(effectiveNanos)].increment();
+		}
+
+		private static int bucketIndex(long nanos) {
+			return Math.min(BUCKET_COUNT - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1);
+		}
+
+		/**
+		 * Gets the recorded operation.
+		 *
+		 * @return the recorded operation.
+		 */
+		public SecurityOperation operation() {
+			return this.operation;
+		}
+
+		/**
+		 * Gets the recorded source.
+		 *
+		 * @return the recorded source.
+		 */
+		public String source() {
+			return this.source;
+		}
+
+		/**
+		 * Gets the number of recorded operations.
+		 *
+		 * @return the number of recorded operations.
+		 */
+		public long count() {
+			return this.count.sum();
+		}
+
+		/**
+		 * Gets the total number of processed bytes.
+		 *
+		 * @return the total number of processed bytes.
+		 */
+		public long bytes() {
+			return this.bytes.sum();
+		}
+
+		/**
+		 * Gets the total duration of all recorded operations in nanoseconds.
+		 *
+		 * @return the total duration of all recorded operations in nanoseconds.
+		 */
+		public long totalNanos() {
+			return this.nanos.sum();
+		}
+
+		/**
+		 * Gets the latency histogram.
+		 * <p>
+		 * Bucket {@code i} counts the operations that took less than {@code 2^i} nanoseconds (and at least
+		 * {@code 2^(i-1)} nanoseconds).
+		 * </p>
+		 *
+		 * @return the latency histogram.
+		 */
+		public long[] histogram() {
+			long[] histogram = new long[BUCKET_COUNT];
+
+			for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+				histogram[bucketIndex] = this.buckets[bucketIndex].sum();
+			}
+			return histogram;
+		}
+
+		/**
+		 * Estimates a latency percentile from the latency histogram.
+		 *
+		 * @param percentile the percentile to estimate (0.0 - 100.0).
+		 * @return the estimated latency in nanoseconds (the upper bound of the matching histogram bucket).
+		 */
+		public long percentile(double percentile) {
+			long[] histogram = histogram();
+			long total = 0L;
+
+			for (long bucketCount : histogram) {
+				total += bucketCount;
+			}
+
+			long threshold = (long) Math.ceil(total * Math.min(Math.max(percentile, 0.0), 100.0) / 100.0);
+			long accumulated = 0L;
+			int bucketIndex = 0;
+
+			while (bucketIndex < BUCKET_COUNT - 1) {
+				accumulated += histogram[bucketIndex];
+				if (accumulated >= threshold && accumulated > 0L) {
+					break;
+				}
+				bucketIndex++;
+			}
+			return (bucketIndex < BUCKET_COUNT - 1 ? 1L << bucketIndex : Long.MAX_VALUE);
+		}
+
+		@Override
+		public String toString() {
+			return this.operation.name() + "[" + this.source + "]: count=" + count() + ", bytes="
+					+ bytes() + ", totalNanos=" + totalNanos();
+		}
+
+	}
+
+}
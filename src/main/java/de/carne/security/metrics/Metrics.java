@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Utility class providing access to the active {@linkplain MetricsCollector}.
+ * <p>
+ * By default no collector is active and measuring an operation costs a single volatile read.
+ * </p>
+ */
+public final class Metrics {
+
+	private Metrics() {
+		// prevent instantiation
+	}
+
+	private static volatile @Nullable MetricsCollector collector = null;
+
+	/**
+	 * Sets the active {@linkplain MetricsCollector}.
+	 *
+	 * @param newCollector the {@linkplain MetricsCollector} to activate or {@code null} to disable metrics collection.
+	 */
+	public static void setCollector(@Nullable MetricsCollector newCollector) {
+		collector = newCollector;
+	}
+
+	/**
+	 * Gets the active {@linkplain MetricsCollector}.
+	 *
+	 * @return the active {@linkplain MetricsCollector} or {@code null} if metrics collection is disabled.
+	 */
+	public static @Nullable MetricsCollector getCollector() {
+		return collector;
+	}
+
+	/**
+	 * Starts the measurement of an operation.
+	 *
+	 * @return the start time stamp to submit to {@linkplain #record(SecurityOperation, String, long, long)} (0 if
+	 * metrics collection is disabled).
+	 */
+	public static long start() {
+		return (collector != null ? System.nanoTime() : 0L);
+	}
+
+	/**
+	 * Finishes the measurement of an operation and records it.
+	 *
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param source the source of the operation (e.g. the secret store type or the coder id).
+	 * @param start the start time stamp as returned by {@linkplain #start()}.
+	 * @param bytes the number of bytes processed by the operation (0 if not applicable).
+	 */
+	public static void record(SecurityOperation operation, Object source, long start, long bytes) {
+		MetricsCollector currentCollector = collector;
+
+		if (currentCollector != null && start != 0L) {
+			currentCollector.record(operation, source.toString(), System.nanoTime() - start, bytes);
+		}
+	}
+
+}
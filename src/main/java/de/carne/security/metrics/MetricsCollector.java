@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+/**
+ * Interface for collecting security operation metrics.
+ * <p>
+ * Implement this interface to bridge the library's metrics to an existing metrics stack and activate it via
+ * {@linkplain Metrics#setCollector(MetricsCollector)}. Implementations are invoked synchronously by the measured
+ * thread and therefore must be thread-safe and fast.
+ * </p>
+ */
+@FunctionalInterface
+public interface MetricsCollector {
+
+	/**
+	 * Records a single security operation.
+	 *
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param source the source of the operation (e.g. the secret store type or the coder id).
+	 * @param nanos the duration of the operation in nanoseconds.
+	 * @param bytes the number of bytes processed by the operation (0 if not applicable).
+	 */
+	void record(SecurityOperation operation, String source, long nanos, long bytes);
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Utility class for emitting JDK Flight Recorder events for security operations.
+ * <p>
+ * This is the Java 8 implementation which does not emit any events. On Java 11 and later the multi-release overlay of
+ * this class emits the actual events. Callers pass the object returned by a {@code begin...} function unchanged to the
+ * matching {@code end...} function.
+ * </p>
+ * <p>
+ * Recorded secret ids are hashed with a random key generated once per process, unless a shared key is installed via
+ * {@linkplain #setIdKey(byte[])}.
+ * </p>
+ */
+public final class SecurityEvents {
+
+	private SecurityEvents() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Sets the key used to hash the recorded secret ids.
+	 *
+	 * @param key the key to use for hashing ids (at least 16 bytes).
+	 */
+	public static void setIdKey(byte[] key) {
+		if (key.length < 16) {
+			throw new IllegalArgumentException("Id key too short");
+		}
+		// Nothing else to do here, as no events are recorded
+	}
+
+	/**
+	 * Begins a key derivation event.
+	 *
+	 * @return the begun event or {@code null} if the event is disabled.
+	 */
+	public static @Nullable Object beginKeyDerivation() {
+		return null;
+	}
+
+	/**
+	 * Ends and commits a key derivation event.
+	 *
+	 * @param event the event as returned by {@linkplain #beginKeyDerivation()}.
+	 * @param algorithm the key derivation algorithm.
+	 * @param keyLength the derived key length in bits.
+	 */
+	public static void endKeyDerivation(@Nullable Object event, String algorithm, int keyLength) {
+		// Nothing to do here
+	}
+
+	/**
+	 * Begins a secret access event.
+	 *
+	 * @return the begun event or {@code null} if the event is disabled.
+	 */
+	public static @Nullable Object beginSecretAccess() {
+		return null;
+	}
+
+	/**
+	 * Ends and commits a secret access event.
+	 *
+	 * @param event the event as returned by {@linkplain #beginSecretAccess()}.
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param store the accessed secret store.
+	 * @param id the id of the accessed secret (only a hash of the id is recorded).
+	 */
+	public static void endSecretAccess(@Nullable Object event, SecurityOperation operation, Object store, String id) {
+		// Nothing to do here
+	}
+
+	/**
+	 * Begins a crypto (encryption or decryption) event.
+	 *
+	 * @return the begun event or {@code null} if the event is disabled.
+	 */
+	public static @Nullable Object beginCrypto() {
+		return null;
+	}
+
+	/**
+	 * Ends and commits a crypto (encryption or decryption) event.
+	 *
+	 * @param event the event as returned by {@linkplain #beginCrypto()}.
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param source the source of the operation (e.g. the coder id).
+	 * @param size the number of processed bytes.
+	 */
+	public static void endCrypto(@Nullable Object event, SecurityOperation operation, Object source, long size) {
+		// Nothing to do here
+	}
+
+}
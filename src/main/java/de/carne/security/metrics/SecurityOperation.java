@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+/**
+ * The security operations reported to the active {@linkplain MetricsCollector}.
+ */
+public enum SecurityOperation {
+
+	/**
+	 * Data encryption.
+	 */
+	ENCRYPT,
+
+	/**
+	 * Data decryption.
+	 */
+	DECRYPT,
+
+	/**
+	 * Blind index computation.
+	 */
+	BLIND_INDEX,
+
+	/**
+	 * Generation of new key material (e.g. a new secret or a new coder).
+	 */
+	GENERATE_KEY,
+
+	/**
+	 * Loading of a previously stored coder.
+	 */
+	LOAD_CODER,
+
+	/**
+	 * Secret store lookup for an existing secret.
+	 */
+	HAS_SECRET,
+
+	/**
+	 * Secret store read access.
+	 */
+	GET_SECRET,
+
+	/**
+	 * Secret store write access.
+	 */
+	SET_SECRET,
+
+	/**
+	 * Secret store delete access.
+	 */
+	DELETE_SECRET
+
+}
@@ -16,23 +16,47 @@
  */
 package de.carne.security.secret;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
 import java.util.Objects;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.eclipse.jdt.annotation.Nullable;
+
 import de.carne.boot.logging.Log;
+import de.carne.security.crypto.StorableCoderId;
+import de.carne.security.metrics.SecurityEvents;
 import de.carne.security.util.Destroyables;
 import de.carne.security.util.Randomness;
 
 /**
  * 256 bit AES cipher.
+ * <p>
+ * Byte arrays are encrypted in one piece as {@code iv:byte[12] ciphertext:byte[]}. Streams are encrypted in segments
+ * of at most 64 KiB, so that memory usage stays bounded and decryption does not need to buffer the whole stream.
+ * Stream layout: {@code format:byte salt:byte[16] noncePrefix:byte[7]} followed by segments of the form
+ * {@code header:int ciphertext:byte[]}. The segment header holds the ciphertext length and a flag marking the last
+ * segment. Each stream is encrypted with its own key derived from the cipher key and the stream's salt. Each segment
+ * uses the nonce {@code noncePrefix:byte[7] counter:int last:byte}, which makes any reordering or truncation of
+ * segments detectable.
+ * </p>
+ * <p>
+ * Deterministic encryption uses AES-SIV (see {@linkplain AESSIV}) and blind indices are computed via HMAC-SHA256. Both
+ * use dedicated keys derived from the cipher key.
+ * </p>
  */
 class AESCipher extends Cipher {
 
@@ -44,14 +68,37 @@ class AESCipher extends Cipher {
 	private static final int IV_LENGTH = 12;
 	private static final int GCM_TLEN = 128;
 
+	private static final String KEY_DERIVATION_ALG = "HmacSHA256";
+	private static final byte[] STREAM_KEY_DERIVATION_LABEL = "SecureStorage-Stream"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SIV_MAC_KEY_DERIVATION_LABEL = "SecureStorage-SIV-MAC"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SIV_CTR_KEY_DERIVATION_LABEL = "SecureStorage-SIV-CTR"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] BLIND_INDEX_KEY_DERIVATION_LABEL = "SecureStorage-BlindIndex"
+			.getBytes(StandardCharsets.US_ASCII);
+	private static final String BLIND_INDEX_ALG = "HmacSHA256";
+	private static final byte STREAM_FORMAT = 1;
+	private static final int STREAM_SALT_LENGTH = 16;
+	private static final int STREAM_NONCE_PREFIX_LENGTH = 7;
+	private static final int STREAM_SEGMENT_SIZE = 64 * 1024;
+	private static final int STREAM_LAST_SEGMENT_FLAG = 0x80000000;
+	private static final int GCM_TAG_LENGTH = GCM_TLEN / 8;
+	private static final byte[] EMPTY = new byte[0];
+
 	public static final String KEY_ALG = "AES";
 
 	public static final byte ID = 1;
 
+	private final StorableCoderId coderId;
 	private final SecretKeySpec secretKeySpec;
 	private final byte[] salt;
+	private @Nullable SecretKeySpec sivMacKeySpec = null;
+	private @Nullable SecretKeySpec sivCtrKeySpec = null;
+	private @Nullable SecretKeySpec blindIndexKeySpec = null;
 
-	AESCipher(SecretKeySpec secretKeySpec, byte[] salt, int saltOffset, int saltLength) {
+	AESCipher(StorableCoderId coderId, SecretKeySpec secretKeySpec, byte[] salt, int saltOffset, int saltLength) {
+		this.coderId = coderId;
 		this.secretKeySpec = secretKeySpec;
 		this.salt = new byte[saltLength];
 		System.arraycopy(salt, saltOffset, this.salt, 0, saltLength);
@@ -64,11 +111,14 @@ class AESCipher extends Cipher {
 
 		Randomness.get().nextBytes(salt);
 
+		Object keyDerivationEvent = SecurityEvents.beginKeyDerivation();
 		SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(KEY_FACTORY_ALG);
 		KeySpec keySpec = new PBEKeySpec(null, salt, 65536, keyLength);
 		SecretKey secretKey = secretKeyFactory.generateSecret(keySpec);
 		byte[] encodedSecretKey;
 
+		SecurityEvents.endKeyDerivation(keyDerivationEvent, KEY_FACTORY_ALG, keyLength);
+
 		try {
 			encodedSecretKey = Objects.requireNonNull(secretKey.getEncoded());
 		} finally {
@@ -90,10 +140,16 @@ class AESCipher extends Cipher {
 			throw new IllegalArgumentException("Invalid AES cipher secret");
 		}
 
-		SecretKeySpec secretKeySpec = new SecretKeySpec(secret, 1 + SALT_LENGTH, secret.length - 1 - SALT_LENGTH,
-				KEY_ALG);
+		int keyLength = secret.length - 1 - SALT_LENGTH;
+		SecretKeySpec secretKeySpec = new SecretKeySpec(secret, 1 + SALT_LENGTH, keyLength, KEY_ALG);
+		StorableCoderId coderId = (keyLength >= 256 / 8 ? StorableCoderId.AES256 : StorableCoderId.AES128);
 
-		return new AESCipher(secretKeySpec, secret, 1, SALT_LENGTH);
+		return new AESCipher(coderId, secretKeySpec, secret, 1, SALT_LENGTH);
+	}
+
+	@Override
+	public StorableCoderId coderId() {
+		return this.coderId;
 	}
 
 	@Override
@@ -127,9 +183,273 @@ class AESCipher extends Cipher {
 	}
 
 	@Override
-	public void close() {
+	public int encryptedLength(int plainLength) {
+		return IV_LENGTH + plainLength + GCM_TAG_LENGTH;
+	}
+
+	@Override
+	public Batch newBatch() throws GeneralSecurityException {
+		javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CIPHER_ALG);
+		byte[] iv = new byte[IV_LENGTH];
+
+		return new Batch() {
+
+			@Override
+			public int encrypt(byte[] plain, byte[] encrypted, int offset) throws GeneralSecurityException {
+				Randomness.get().nextBytes(iv);
+				cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, AESCipher.this.secretKeySpec,
+						new GCMParameterSpec(GCM_TLEN, iv));
+				System.arraycopy(iv, 0, encrypted, offset, IV_LENGTH);
+				return IV_LENGTH + cipher.doFinal(plain, 0, plain.length, encrypted, offset + IV_LENGTH);
+			}
+
+			@Override
+			public byte[] decrypt(byte[] encrypted, int offset, int length) throws GeneralSecurityException {
+				if (length < IV_LENGTH) {
+					throw new AEADBadTagException("Invalid encrypted data length: " + length);
+				}
+				cipher.init(javax.crypto.Cipher.DECRYPT_MODE, AESCipher.this.secretKeySpec,
+						new GCMParameterSpec(GCM_TLEN, encrypted, offset, IV_LENGTH));
+				return Objects.requireNonNull(cipher.doFinal(encrypted, offset + IV_LENGTH, length - IV_LENGTH));
+			}
+
+		};
+	}
+
+	@Override
+	public byte[] encryptDeterministic(byte[] plain) throws GeneralSecurityException {
+		SecretKeySpec macKeySpec;
+		SecretKeySpec ctrKeySpec;
+
+		synchronized (this) {
+			macKeySpec = sivMacKey();
+			ctrKeySpec = sivCtrKey();
+		}
+		return AESSIV.encrypt(macKeySpec, ctrKeySpec, plain);
+	}
+
+	@Override
+	public byte[] decryptDeterministic(byte[] encrypted) throws GeneralSecurityException {
+		SecretKeySpec macKeySpec;
+		SecretKeySpec ctrKeySpec;
+
+		synchronized (this) {
+			macKeySpec = sivMacKey();
+			ctrKeySpec = sivCtrKey();
+		}
+		return AESSIV.decrypt(macKeySpec, ctrKeySpec, encrypted);
+	}
+
+	@Override
+	public byte[] blindIndex(byte[] plain) throws GeneralSecurityException {
+		SecretKeySpec keySpec;
+
+		synchronized (this) {
+			keySpec = this.blindIndexKeySpec;
+			if (keySpec == null) {
+				keySpec = deriveKey(BLIND_INDEX_KEY_DERIVATION_LABEL, EMPTY, BLIND_INDEX_ALG);
+				this.blindIndexKeySpec = keySpec;
+			}
+		}
+
+		Mac mac = Mac.getInstance(BLIND_INDEX_ALG);
+
+		mac.init(keySpec);
+		return mac.doFinal(plain);
+	}
+
+	private SecretKeySpec sivMacKey() throws GeneralSecurityException {
+		SecretKeySpec keySpec = this.sivMacKeySpec;
+
+		if (keySpec == null) {
+			keySpec = deriveKey(SIV_MAC_KEY_DERIVATION_LABEL, EMPTY, KEY_ALG);
+			this.sivMacKeySpec = keySpec;
+		}
+		return keySpec;
+	}
+
+	private SecretKeySpec sivCtrKey() throws GeneralSecurityException {
+		SecretKeySpec keySpec = this.sivCtrKeySpec;
+
+		if (keySpec == null) {
+			keySpec = deriveKey(SIV_CTR_KEY_DERIVATION_LABEL, EMPTY, KEY_ALG);
+			this.sivCtrKeySpec = keySpec;
+		}
+		return keySpec;
+	}
+
+	@Override
+	public long encrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+		byte[] salt = new byte[STREAM_SALT_LENGTH];
+		byte[] iv = new byte[IV_LENGTH];
+
+		Randomness.get().nextBytes(salt);
+		Randomness.get().nextBytes(iv);
+		out.write(STREAM_FORMAT);
+		out.write(salt);
+		out.write(iv, 0, STREAM_NONCE_PREFIX_LENGTH);
+
+		SecretKeySpec streamKeySpec = deriveKey(STREAM_KEY_DERIVATION_LABEL, salt, KEY_ALG);
+		javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CIPHER_ALG);
+		byte[] plain = new byte[STREAM_SEGMENT_SIZE];
+		byte[] encrypted = new byte[STREAM_SEGMENT_SIZE + GCM_TAG_LENGTH];
+		long plainTotal = 0L;
+
+		try {
+			int segment = 0;
+			boolean last = false;
+
+			while (!last) {
+				int plainLength = readAvailable(in, plain);
+
+				// A partial segment marks the end of the stream (possibly resulting in a final empty segment)
+				last = plainLength < plain.length;
+				setSegmentNonce(iv, segment, last);
+				cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, streamKeySpec, new GCMParameterSpec(GCM_TLEN, iv));
+
+				int encryptedLength = cipher.doFinal(plain, 0, plainLength, encrypted, 0);
+
+				writeInt(out, encryptedLength | (last ? STREAM_LAST_SEGMENT_FLAG : 0));
+				out.write(encrypted, 0, encryptedLength);
+				plainTotal += plainLength;
+				segment++;
+			}
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+			Arrays.fill(encrypted, (byte) 0);
+			Destroyables.safeDestroy(streamKeySpec);
+		}
+		return plainTotal;
+	}
+
+	@Override
+	public long decrypt(InputStream in, ChunkConsumer consumer) throws IOException, GeneralSecurityException {
+		byte[] salt = new byte[STREAM_SALT_LENGTH];
+		byte[] iv = new byte[IV_LENGTH];
+		int format = in.read();
+
+		if (format != STREAM_FORMAT) {
+			throw new IOException("Unrecognized stream format: " + format);
+		}
+		readFully(in, salt, salt.length);
+		readFully(in, iv, STREAM_NONCE_PREFIX_LENGTH);
+
+		SecretKeySpec streamKeySpec = deriveKey(STREAM_KEY_DERIVATION_LABEL, salt, KEY_ALG);
+		javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CIPHER_ALG);
+		byte[] encrypted = new byte[STREAM_SEGMENT_SIZE + GCM_TAG_LENGTH];
+		byte[] plain = new byte[STREAM_SEGMENT_SIZE];
+		long plainTotal = 0L;
+
+		try {
+			int segment = 0;
+			boolean last = false;
+
+			while (!last) {
+				int segmentHeader = readInt(in);
+				int encryptedLength = segmentHeader & ~STREAM_LAST_SEGMENT_FLAG;
+
+				if (encryptedLength < GCM_TAG_LENGTH || encryptedLength > encrypted.length) {
+					throw new IOException("Invalid stream segment length: " + encryptedLength);
+				}
+				last = (segmentHeader & STREAM_LAST_SEGMENT_FLAG) != 0;
+				readFully(in, encrypted, encryptedLength);
+				setSegmentNonce(iv, segment, last);
+				cipher.init(javax.crypto.Cipher.DECRYPT_MODE, streamKeySpec, new GCMParameterSpec(GCM_TLEN, iv));
+
+				int plainLength = cipher.doFinal(encrypted, 0, encryptedLength, plain, 0);
+
+				consumer.accept(plain, plainLength);
+				plainTotal += plainLength;
+				segment++;
+			}
+			if (in.read() >= 0) {
+				throw new IOException("Unexpected data after last stream segment");
+			}
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+			Destroyables.safeDestroy(streamKeySpec);
+		}
+		return plainTotal;
+	}
+
+	private SecretKeySpec deriveKey(byte[] label, byte[] context, String keyAlg) throws GeneralSecurityException {
+		byte[] key = Objects.requireNonNull(this.secretKeySpec.getEncoded());
+		byte[] derivedKey = null;
+		SecretKeySpec derivedKeySpec;
+
+		try {
+			Mac mac = Mac.getInstance(KEY_DERIVATION_ALG);
+			SecretKeySpec macKeySpec = new SecretKeySpec(key, KEY_DERIVATION_ALG);
+
+			mac.init(macKeySpec);
+			Destroyables.safeDestroy(macKeySpec);
+			mac.update(label);
+			derivedKey = mac.doFinal(context);
+			derivedKeySpec = new SecretKeySpec(derivedKey, 0, key.length, keyAlg);
+		} finally {
+			Arrays.fill(key, (byte) 0);
+			if (derivedKey != null) {
+				Arrays.fill(derivedKey, (byte) 0);
+			}
+		}
+		return derivedKeySpec;
+	}
+
+	private static void setSegmentNonce(byte[] iv, int segment, boolean last) throws IOException {
+		if (segment < 0) {
+			throw new IOException("Stream too long");
+		}
+		iv[STREAM_NONCE_PREFIX_LENGTH] = (byte) (segment >>> 24);
+		iv[STREAM_NONCE_PREFIX_LENGTH + 1] = (byte) (segment >>> 16);
+		iv[STREAM_NONCE_PREFIX_LENGTH + 2] = (byte) (segment >>> 8);
+		iv[STREAM_NONCE_PREFIX_LENGTH + 3] = (byte) segment;
+		iv[STREAM_NONCE_PREFIX_LENGTH + 4] = (byte) (last ? 1 : 0);
+	}
+
+	private static int readAvailable(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		int read = 0;
+
+		while (total < buffer.length && read >= 0) {
+			read = in.read(buffer, total, buffer.length - total);
+			if (read > 0) {
+				total += read;
+			}
+		}
+		return total;
+	}
+
+	private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+		int total = 0;
+
+		while (total < length) {
+			int read = in.read(buffer, total, length - total);
+
+			if (read < 0) {
+				throw new EOFException("Unexpected end of stream");
+			}
+			total += read;
+		}
+	}
+
+	private static int readInt(InputStream in) throws IOException {
+		byte[] buffer = new byte[Integer.BYTES];
+
+		readFully(in, buffer, buffer.length);
+		return ((buffer[0] & 0xff) << 24) | ((buffer[1] & 0xff) << 16) | ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value });
+	}
+
+	@Override
+	public synchronized void close() {
 		Arrays.fill(this.salt, (byte) 0);
 		Destroyables.safeDestroy(this.secretKeySpec);
+		Destroyables.safeDestroy(this.sivMacKeySpec);
+		Destroyables.safeDestroy(this.sivCtrKeySpec);
+		Destroyables.safeDestroy(this.blindIndexKeySpec);
 	}
 
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Deterministic authenticated encryption using AES-SIV (RFC 5297).
+ * <p>
+ * The standard JCE providers neither offer AES-SIV nor AES-CMAC, hence both are built on top of the plain AES
+ * primitives. Encrypted data has the layout {@code siv:byte[16] ciphertext:byte[]}.
+ * </p>
+ */
+final class AESSIV {
+
+	private static final String BLOCK_CIPHER_ALG = "AES/ECB/NoPadding";
+	private static final String CTR_CIPHER_ALG = "AES/CTR/NoPadding";
+	private static final int BLOCK_SIZE = 16;
+	private static final int RB = 0x87;
+
+	private AESSIV() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Encrypts a byte array.
+	 *
+	 * @param macKey the key used for S2V.
+	 * @param ctrKey the key used for CTR encryption.
+	 * @param plain the data to encrypt.
+	 * @param associatedData the (optional) associated data to authenticate.
+	 * @return the encrypted data.
+	 * @throws GeneralSecurityException if a security error occurs.
+	 */
+	public static byte[] encrypt(SecretKeySpec macKey, SecretKeySpec ctrKey, byte[] plain, byte[]... associatedData)
+			throws GeneralSecurityException {
+		byte[] siv = s2v(macKey, plain, associatedData);
+		byte[] encrypted = new byte[BLOCK_SIZE + plain.length];
+
+		System.arraycopy(siv, 0, encrypted, 0, BLOCK_SIZE);
+		ctr(ctrKey, siv).doFinal(plain, 0, plain.length, encrypted, BLOCK_SIZE);
+		return encrypted;
+	}
+
+	/**
+	 * Decrypts a byte array.
+	 *
+	 * @param macKey the key used for S2V.
+	 * @param ctrKey the key used for CTR decryption.
+	 * @param encrypted the data to decrypt.
+	 * @param associatedData the (optional) associated data to authenticate.
+	 * @return the decrypted data.
+	 * @throws GeneralSecurityException if a security error occurs (e.g. the data has been tampered with).
+	 */
+	public static byte[] decrypt(SecretKeySpec macKey, SecretKeySpec ctrKey, byte[] encrypted,
+			byte[]... associatedData) throws GeneralSecurityException {
+		if (encrypted.length < BLOCK_SIZE) {
+			throw new AEADBadTagException("Invalid SIV data");
+		}
+
+		byte[] siv = Arrays.copyOf(encrypted, BLOCK_SIZE);
+		byte[] plain = ctr(ctrKey, siv).doFinal(encrypted, BLOCK_SIZE, encrypted.length - BLOCK_SIZE);
+		byte[] checkSiv = s2v(macKey, plain, associatedData);
+
+		if (!MessageDigest.isEqual(siv, checkSiv)) {
+			Arrays.fill(plain, (byte) 0);
+			throw new AEADBadTagException("SIV mismatch");
+		}
+		return plain;
+	}
+
+	private static javax.crypto.Cipher ctr(SecretKeySpec ctrKey, byte[] siv) throws GeneralSecurityException {
+		byte[] counter = siv.clone();
+
+		// Clear the 31st and 63rd bit (counting from the right) as required by RFC 5297
+		counter[8] &= 0x7f;
+		counter[12] &= 0x7f;
+
+		javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CTR_CIPHER_ALG);
+
+		cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, ctrKey, new IvParameterSpec(counter));
+		return cipher;
+	}
+
+	private static byte[] s2v(SecretKeySpec macKey, byte[] plain, byte[]... associatedData)
+			throws GeneralSecurityException {
+		javax.crypto.Cipher aes = javax.crypto.Cipher.getInstance(BLOCK_CIPHER_ALG);
+
+		aes.init(javax.crypto.Cipher.ENCRYPT_MODE, macKey);
+
+		byte[] k1 = dbl(aes.doFinal(new byte[BLOCK_SIZE]));
+		byte[] k2 = dbl(k1);
+		byte[] d = cmac(aes, k1, k2, new byte[BLOCK_SIZE]);
+
+		for (byte[] associatedDataItem : associatedData) {
+			xor(dbl(d), 0, cmac(aes, k1, k2, associatedDataItem), d);
+		}
+
+		byte[] t;
+
+		if (plain.length >= BLOCK_SIZE) {
+			t = plain.clone();
+			xor(t, t.length - BLOCK_SIZE, d, t);
+		} else {
+			t = new byte[BLOCK_SIZE];
+			System.arraycopy(plain, 0, t, 0, plain.length);
+			t[plain.length] = (byte) 0x80;
+			xor(t, 0, dbl(d), t);
+		}
+
+		byte[] siv = cmac(aes, k1, k2, t);
+
+		Arrays.fill(t, (byte) 0);
+		Arrays.fill(k1, (byte) 0);
+		Arrays.fill(k2, (byte) 0);
+		return siv;
+	}
+
+	private static byte[] cmac(javax.crypto.Cipher aes, byte[] k1, byte[] k2, byte[] data)
+			throws GeneralSecurityException {
+		int blockCount = Math.max((data.length + BLOCK_SIZE - 1) / BLOCK_SIZE, 1);
+		int lastBlockOffset = (blockCount - 1) * BLOCK_SIZE;
+		byte[] x = new byte[BLOCK_SIZE];
+
+		for (int blockOffset = 0; blockOffset < lastBlockOffset; blockOffset += BLOCK_SIZE) {
+			xor(x, 0, Arrays.copyOfRange(data, blockOffset, blockOffset + BLOCK_SIZE), x);
+			x = aes.doFinal(x);
+		}
+
+		int lastBlockLength = data.length - lastBlockOffset;
+		byte[] lastBlock = new byte[BLOCK_SIZE];
+
+		System.arraycopy(data, lastBlockOffset, lastBlock, 0, lastBlockLength);
+		if (lastBlockLength == BLOCK_SIZE) {
+			xor(lastBlock, 0, k1, lastBlock);
+		} else {
+			lastBlock[lastBlockLength] = (byte) 0x80;
+			xor(lastBlock, 0, k2, lastBlock);
+		}
+		xor(x, 0, lastBlock, x);
+		Arrays.fill(lastBlock, (byte) 0);
+		return aes.doFinal(x);
+	}
+
+	private static byte[] dbl(byte[] block) {
+		byte[] doubled = new byte[BLOCK_SIZE];
+		int carry = 0;
+
+		for (int blockIndex = BLOCK_SIZE - 1; blockIndex >= 0; blockIndex--) {
+			int value = block[blockIndex] & 0xff;
+
+			doubled[blockIndex] = (byte) ((value << 1) | carry);
+			carry = value >>> 7;
+		}
+		doubled[BLOCK_SIZE - 1] ^= (byte) (-carry & RB);
+		return doubled;
+	}
+
+	private static void xor(byte[] a, int aOffset, byte[] b, byte[] result) {
+		for (int blockIndex = 0; blockIndex < BLOCK_SIZE; blockIndex++) {
+			result[aOffset + blockIndex] = (byte) (a[aOffset + blockIndex] ^ b[blockIndex]);
+		}
+	}
+
+}
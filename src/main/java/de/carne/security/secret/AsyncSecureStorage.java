@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Asynchronous view of a {@linkplain SecureStorage} instance (see {@linkplain SecureStorage#async(Executor)}).
+ * <p>
+ * All potentially blocking operations (secret store I/O and native calls) are executed by a dedicated and bounded pool
+ * of platform threads. The size of this pool is defined by the system property
+ * {@code de.carne.security.secret.AsyncSecureStorage.blockingThreads} (default: 4). The actual crypto operations are
+ * executed by the crypto {@linkplain Executor} submitted during creation. Operations served by an already cached
+ * encryption secret (see {@linkplain SecureStorage#withCipherCache(long, java.util.concurrent.TimeUnit, int)}) skip
+ * the blocking pool.
+ * </p>
+ * <p>
+ * Secrets submitted for encryption are owned by the operation and closed once it has completed. Failed operations
+ * complete the returned {@linkplain CompletableFuture} with the {@linkplain IOException} the corresponding synchronous
+ * operation would have thrown.
+ * </p>
+ */
+public final class AsyncSecureStorage {
+
+	private static final int BLOCKING_THREADS = Math
+			.max(Integer.getInteger(AsyncSecureStorage.class.getName() + ".blockingThreads", 4).intValue(), 1);
+
+	private static final class BlockingExecutor {
+
+		static final ExecutorService INSTANCE = Executors.newFixedThreadPool(BLOCKING_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, AsyncSecureStorage.class.getSimpleName());
+
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		private BlockingExecutor() {
+			// prevent instantiation
+		}
+
+	}
+
+	@FunctionalInterface
+	private interface CryptoFunction<T> {
+
+		T apply(Cipher cipher) throws GeneralSecurityException;
+
+	}
+
+	private final SecureStorage storage;
+	private final Executor cryptoExecutor;
+
+	AsyncSecureStorage(SecureStorage storage, Executor cryptoExecutor) {
+		this.storage = storage;
+		this.cryptoExecutor = cryptoExecutor;
+	}
+
+	/**
+	 * Gets the underlying {@linkplain SecureStorage} instance.
+	 *
+	 * @return the underlying {@linkplain SecureStorage} instance.
+	 */
+	public SecureStorage sync() {
+		return this.storage;
+	}
+
+	/**
+	 * Encrypt a given byte secret.
+	 *
+	 * @param secret the byte secret to encrypt (closed on completion).
+	 * @return the {@linkplain CompletableFuture} providing the encrypted byte secret.
+	 * @see SecureStorage#encryptBytes(ByteSecret)
+	 */
+	public CompletableFuture<byte[]> encryptBytes(ByteSecret secret) {
+		return withSecret(secret, crypto(cipher -> this.storage.encryptBytes(cipher, secret)));
+	}
+
+	/**
+	 * Encrypt a given byte secret and base64 encode the encrypted bytes.
+	 *
+	 * @param secret the byte secret to encrypt (closed on completion).
+	 * @return the {@linkplain CompletableFuture} providing the base64 encoded encrypted byte secret.
+	 * @see SecureStorage#encryptBytesBase64(ByteSecret)
+	 */
+	public CompletableFuture<String> encryptBytesBase64(ByteSecret secret) {
+		return encryptBytes(secret).thenApply(Base64.getEncoder()::encodeToString);
+	}
+
+	/**
+	 * Decrypt a previously encrypted byte secret.
+	 *
+	 * @param encrypted the encrypted byte secret.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke (by the crypto {@linkplain Executor}) with the
+	 * decrypted byte secret.
+	 * @return the {@linkplain CompletableFuture} signaling completion.
+	 * @see SecureStorage#decryptBytes(byte[], SecretConsumer)
+	 */
+	public CompletableFuture<Void> decryptBytes(byte[] encrypted, SecretConsumer<byte @NonNull []> consumer) {
+		return crypto(cipher -> {
+			this.storage.decryptBytes(cipher, encrypted, consumer);
+			return null;
+		});
+	}
+
+	/**
+	 * Decrypt a previously encrypted and base64 encoded byte secret.
+	 *
+	 * @param encrypted the encrypted and base64 encoded byte secret.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke (by the crypto {@linkplain Executor}) with the
+	 * decrypted byte secret.
+	 * @return the {@linkplain CompletableFuture} signaling completion.
+	 * @see SecureStorage#decryptBytesBase64(String, SecretConsumer)
+	 */
+	public CompletableFuture<Void> decryptBytesBase64(String encrypted, SecretConsumer<byte @NonNull []> consumer) {
+		return decryptBytes(Base64.getDecoder().decode(encrypted), consumer);
+	}
+
+	/**
+	 * Encrypt a given char secret.
+	 *
+	 * @param secret the char secret to encrypt (closed on completion).
+	 * @return the {@linkplain CompletableFuture} providing the encrypted char secret.
+	 * @see SecureStorage#encryptChars(CharSecret)
+	 */
+	public CompletableFuture<byte[]> encryptChars(CharSecret secret) {
+		return withSecret(secret, crypto(cipher -> this.storage.encryptChars(cipher, secret)));
+	}
+
+	/**
+	 * Encrypt a given char secret and base64 encode the encrypted bytes.
+	 *
+	 * @param secret the char secret to encrypt (closed on completion).
+	 * @return the {@linkplain CompletableFuture} providing the encrypted and base64 encoded char secret.
+	 * @see SecureStorage#encryptCharsBase64(CharSecret)
+	 */
+	public CompletableFuture<String> encryptCharsBase64(CharSecret secret) {
+		return encryptChars(secret).thenApply(Base64.getEncoder()::encodeToString);
+	}
+
+	/**
+	 * Decrypt a previously encrypted char secret.
+	 *
+	 * @param encrypted the encrypted char secret.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke (by the crypto {@linkplain Executor}) with the
+	 * decrypted char secret.
+	 * @return the {@linkplain CompletableFuture} signaling completion.
+	 * @see SecureStorage#decryptChars(byte[], SecretConsumer)
+	 */
+	public CompletableFuture<Void> decryptChars(byte[] encrypted, SecretConsumer<char @NonNull []> consumer) {
+		return crypto(cipher -> {
+			this.storage.decryptChars(cipher, encrypted, consumer);
+			return null;
+		});
+	}
+
+	/**
+	 * Decrypt a previously encrypted and base64 encoded char secret.
+	 *
+	 * @param encrypted the encrypted and base64 encoded char secret.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke (by the crypto {@linkplain Executor}) with the
+	 * decrypted char secret.
+	 * @return the {@linkplain CompletableFuture} signaling completion.
+	 * @see SecureStorage#decryptCharsBase64(String, SecretConsumer)
+	 */
+	public CompletableFuture<Void> decryptCharsBase64(String encrypted, SecretConsumer<char @NonNull []> consumer) {
+		return decryptChars(Base64.getDecoder().decode(encrypted), consumer);
+	}
+
+	/**
+	 * Delete the encryption key of the underlying {@linkplain SecureStorage} instance.
+	 *
+	 * @return the {@linkplain CompletableFuture} signaling completion.
+	 * @see SecureStorage#delete()
+	 */
+	public CompletableFuture<Void> delete() {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				this.storage.delete();
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, BlockingExecutor.INSTANCE);
+	}
+
+	private <T> CompletableFuture<T> crypto(CryptoFunction<T> function) {
+		Cipher cachedCipher = this.storage.getCachedCipher();
+		CompletableFuture<Cipher> cipherFuture;
+
+		if (cachedCipher != null) {
+			cipherFuture = CompletableFuture.completedFuture(cachedCipher);
+		} else {
+			cipherFuture = CompletableFuture.supplyAsync(() -> {
+				try {
+					return this.storage.getCipher();
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				} catch (GeneralSecurityException e) {
+					throw new CompletionException(new IOException(e.getLocalizedMessage(), e));
+				}
+			}, BlockingExecutor.INSTANCE);
+		}
+		return cipherFuture.thenCompose(cipher -> {
+			CompletableFuture<T> resultFuture;
+
+			try {
+				resultFuture = CompletableFuture.supplyAsync(() -> {
+					try (Cipher leasedCipher = cipher) {
+						return function.apply(leasedCipher);
+					} catch (GeneralSecurityException e) {
+						throw new CompletionException(new IOException(e.getLocalizedMessage(), e));
+					}
+				}, this.cryptoExecutor);
+			} catch (RejectedExecutionException e) {
+				cipher.close();
+				throw e;
+			}
+			return resultFuture;
+		});
+	}
+
+	private static <T> CompletableFuture<T> withSecret(Secret<?> secret, CompletableFuture<T> future) {
+		return future.whenComplete((result, exception) -> secret.close());
+	}
+
+}
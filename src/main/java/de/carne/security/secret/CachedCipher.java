@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.security.crypto.StorableCoderId;
+
+/**
+ * Reference counted holder for a shared {@linkplain Cipher} instance.
+ * <p>
+ * The shared {@linkplain Cipher} is accessed via leases. Once the holder has been evicted the {@linkplain Cipher} is
+ * closed (and thereby zeroized) as soon as the last outstanding lease has been closed.
+ * </p>
+ */
+final class CachedCipher {
+
+	private final Cipher cipher;
+	private int references = 0;
+	private boolean evicted = false;
+	private boolean closed = false;
+
+	CachedCipher(Cipher cipher) {
+		this.cipher = cipher;
+	}
+
+	/**
+	 * Leases the shared {@linkplain Cipher}.
+	 *
+	 * @return the leased {@linkplain Cipher} or {@code null} if the shared {@linkplain Cipher} has already been
+	 * closed.
+	 */
+	public synchronized @Nullable Cipher lease() {
+		Lease lease = null;
+
+		if (!this.closed) {
+			this.references++;
+			lease = new Lease(this);
+		}
+		return lease;
+	}
+
+	/**
+	 * Evicts the shared {@linkplain Cipher}.
+	 */
+	public synchronized void evict() {
+		this.evicted = true;
+		closeIfUnreferenced();
+	}
+
+	synchronized void release() {
+		this.references--;
+		closeIfUnreferenced();
+	}
+
+	private void closeIfUnreferenced() {
+		if (this.evicted && this.references == 0 && !this.closed) {
+			this.closed = true;
+			this.cipher.close();
+		}
+	}
+
+	private static final class Lease extends Cipher {
+
+		private final CachedCipher cached;
+		private boolean released = false;
+
+		Lease(CachedCipher cached) {
+			this.cached = cached;
+		}
+
+		@Override
+		public StorableCoderId coderId() {
+			return this.cached.cipher.coderId();
+		}
+
+		@Override
+		public byte[] encrypt(byte[] plain) throws GeneralSecurityException {
+			return this.cached.cipher.encrypt(plain);
+		}
+
+		@Override
+		public byte[] decrypt(byte[] encrypted) throws GeneralSecurityException {
+			return this.cached.cipher.decrypt(encrypted);
+		}
+
+		@Override
+		public byte[] encryptDeterministic(byte[] plain) throws GeneralSecurityException {
+			return this.cached.cipher.encryptDeterministic(plain);
+		}
+
+		@Override
+		public byte[] decryptDeterministic(byte[] encrypted) throws GeneralSecurityException {
+			return this.cached.cipher.decryptDeterministic(encrypted);
+		}
+
+		@Override
+		public byte[] blindIndex(byte[] plain) throws GeneralSecurityException {
+			return this.cached.cipher.blindIndex(plain);
+		}
+
+		@Override
+		public int encryptedLength(int plainLength) {
+			return this.cached.cipher.encryptedLength(plainLength);
+		}
+
+		@Override
+		public Batch newBatch() throws GeneralSecurityException {
+			return this.cached.cipher.newBatch();
+		}
+
+		@Override
+		public long encrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+			return this.cached.cipher.encrypt(in, out);
+		}
+
+		@Override
+		public long decrypt(InputStream in, ChunkConsumer consumer) throws IOException, GeneralSecurityException {
+			return this.cached.cipher.decrypt(in, consumer);
+		}
+
+		@Override
+		public void close() {
+			if (!this.released) {
+				this.released = true;
+				this.cached.release();
+			}
+		}
+
+	}
+
+}
@@ -16,18 +16,60 @@
  */
 package de.carne.security.secret;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 
+import de.carne.security.crypto.StorableCoderId;
+
 /**
  * Base class for all types of supported ciphers.
  */
 abstract class Cipher implements AutoCloseable {
 
+	public abstract StorableCoderId coderId();
+
 	public abstract byte[] encrypt(byte[] plain) throws GeneralSecurityException;
 
 	public abstract byte[] decrypt(byte[] encrypted) throws GeneralSecurityException;
 
+	public abstract byte[] encryptDeterministic(byte[] plain) throws GeneralSecurityException;
+
+	public abstract byte[] decryptDeterministic(byte[] encrypted) throws GeneralSecurityException;
+
+	public abstract byte[] blindIndex(byte[] plain) throws GeneralSecurityException;
+
+	public abstract int encryptedLength(int plainLength);
+
+	public abstract Batch newBatch() throws GeneralSecurityException;
+
+	public abstract long encrypt(InputStream in, OutputStream out) throws IOException, GeneralSecurityException;
+
+	public abstract long decrypt(InputStream in, ChunkConsumer consumer) throws IOException, GeneralSecurityException;
+
 	@Override
 	public abstract void close();
 
+	/**
+	 * Batch operations re-using the same cipher setup for multiple items (not thread-safe).
+	 */
+	interface Batch {
+
+		int encrypt(byte[] plain, byte[] encrypted, int offset) throws GeneralSecurityException;
+
+		byte[] decrypt(byte[] encrypted, int offset, int length) throws GeneralSecurityException;
+
+	}
+
+	/**
+	 * Functional interface used to consume the decrypted chunks of a stream.
+	 */
+	@FunctionalInterface
+	interface ChunkConsumer {
+
+		void accept(byte[] buffer, int length) throws IOException, GeneralSecurityException;
+
+	}
+
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Cache for a single {@linkplain Cipher} instance with idle timeout and usage limit.
+ * <p>
+ * Cached {@linkplain Cipher} instances are handed out as leases (see {@linkplain CachedCipher}).
+ * </p>
+ */
+final class CipherCache {
+
+	private static final Log LOG = new Log();
+
+	private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, CipherCache.class.getSimpleName());
+
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@FunctionalInterface
+	interface Loader {
+
+		Cipher load() throws IOException, GeneralSecurityException;
+
+	}
+
+	private final long idleTimeoutNanos;
+	private final int maxUses;
+	private @Nullable CachedCipher cached = null;
+	private long lastAccess = 0L;
+	private int uses = 0;
+	private @Nullable ScheduledFuture<?> evictionTask = null;
+
+	CipherCache(long idleTimeout, TimeUnit unit, int maxUses) {
+		if (idleTimeout <= 0) {
+			throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeout);
+		}
+		if (maxUses < 0) {
+			throw new IllegalArgumentException("Invalid maximum uses: " + maxUses);
+		}
+		this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+		this.maxUses = maxUses;
+	}
+
+	public synchronized Cipher acquire(Loader loader) throws IOException, GeneralSecurityException {
+		if (this.cached != null && this.maxUses > 0 && this.uses >= this.maxUses) {
+			LOG.debug("Evicting cached cipher due to usage limit ({0})", this.maxUses);
+
+			invalidate0();
+		}
+
+		CachedCipher current = this.cached;
+
+		if (current == null) {
+			current = new CachedCipher(loader.load());
+			this.cached = current;
+			this.uses = 0;
+			scheduleEviction(this.idleTimeoutNanos);
+		}
+		this.lastAccess = System.nanoTime();
+		this.uses++;
+		// Evicted entries are never referenced by the cache, hence the lease always succeeds
+		return Objects.requireNonNull(current.lease());
+	}
+
+	public synchronized @Nullable Cipher tryAcquire() {
+		CachedCipher current = this.cached;
+		Cipher cipher = null;
+
+		if (current != null && (this.maxUses == 0 || this.uses < this.maxUses)) {
+			this.lastAccess = System.nanoTime();
+			this.uses++;
+			cipher = current.lease();
+		}
+		return cipher;
+	}
+
+	public synchronized void prime(Cipher cipher) {
+		invalidate0();
+		this.cached = new CachedCipher(cipher);
+		this.lastAccess = System.nanoTime();
+		this.uses = 0;
+		scheduleEviction(this.idleTimeoutNanos);
+	}
+
+	public synchronized void invalidate() {
+		invalidate0();
+	}
+
+	private void invalidate0() {
+		CachedCipher current = this.cached;
+		ScheduledFuture<?> currentEvictionTask = this.evictionTask;
+
+		this.cached = null;
+		this.evictionTask = null;
+		if (currentEvictionTask != null) {
+			currentEvictionTask.cancel(false);
+		}
+		if (current != null) {
+			current.evict();
+		}
+	}
+
+	private void scheduleEviction(long delayNanos) {
+		this.evictionTask = EVICTOR.schedule(this::evictIdle, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private synchronized void evictIdle() {
+		if (this.cached != null) {
+			long idleNanos = System.nanoTime() - this.lastAccess;
+
+			if (idleNanos >= this.idleTimeoutNanos) {
+				LOG.debug("Evicting idle cached cipher");
+
+				invalidate0();
+			} else {
+				scheduleEviction(this.idleTimeoutNanos - idleNanos);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+/**
+ * Durability policies supported by {@linkplain SecureStorage#withMemoryTier(DurabilityPolicy)}.
+ */
+public enum DurabilityPolicy {
+
+	/**
+	 * Secrets are written to the underlying secret store before the write is acknowledged.
+	 */
+	WRITE_THROUGH,
+
+	/**
+	 * Secrets are written to memory and acknowledged immediately. Writes to the underlying secret store are queued and
+	 * flushed in batches in the background (as well as on VM shutdown). A secret may therefore be lost in case the VM
+	 * terminates abnormally before the write has been flushed.
+	 */
+	WRITE_BEHIND
+
+}
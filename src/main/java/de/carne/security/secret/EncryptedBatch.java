@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.util.Arrays;
+
+/**
+ * The packed result of a batch encryption (see {@linkplain SecureStorage#encryptAll(java.util.List)}).
+ * <p>
+ * All encrypted items are stored in one contiguous byte array. The item boundaries are defined by an offset table
+ * holding one offset per item plus the end offset of the last item. Every item has the same format as the result of
+ * {@linkplain SecureStorage#encryptBytes(ByteSecret)}.
+ * </p>
+ */
+public final class EncryptedBatch {
+
+	private final byte[] data;
+	private final int[] offsets;
+
+	EncryptedBatch(byte[] data, int[] offsets) {
+		this.data = data;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Re-creates a {@linkplain EncryptedBatch} instance from previously retrieved data and offsets.
+	 *
+	 * @param data the packed encrypted items (see {@linkplain #data()}).
+	 * @param offsets the offset table (see {@linkplain #offsets()}).
+	 * @return the re-created {@linkplain EncryptedBatch} instance.
+	 * @throws IllegalArgumentException if the offset table does not match the data.
+	 */
+	public static EncryptedBatch of(byte[] data, int[] offsets) {
+		if (offsets.length == 0 || offsets[0] < 0 || offsets[offsets.length - 1] > data.length) {
+			throw new IllegalArgumentException("Invalid batch offsets");
+		}
+		for (int offsetIndex = 1; offsetIndex < offsets.length; offsetIndex++) {
+			if (offsets[offsetIndex] < offsets[offsetIndex - 1]) {
+				throw new IllegalArgumentException("Invalid batch offset: " + offsets[offsetIndex]);
+			}
+		}
+		return new EncryptedBatch(data, offsets.clone());
+	}
+
+	/**
+	 * Gets the number of items in this batch.
+	 *
+	 * @return the number of items in this batch.
+	 */
+	public int size() {
+		return this.offsets.length - 1;
+	}
+
+	/**
+	 * Gets the packed encrypted items.
+	 * <p>
+	 * The returned array is not copied and must not be modified.
+	 * </p>
+	 *
+	 * @return the packed encrypted items.
+	 */
+	public byte[] data() {
+		return this.data;
+	}
+
+	/**
+	 * Gets the offset table.
+	 *
+	 * @return the offset table ({@linkplain #size()} + 1 entries).
+	 */
+	public int[] offsets() {
+		return this.offsets.clone();
+	}
+
+	/**
+	 * Gets the offset of a specific item.
+	 *
+	 * @param index the index of the item.
+	 * @return the offset of the item within {@linkplain #data()}.
+	 */
+	public int offset(int index) {
+		checkIndex(index);
+		return this.offsets[index];
+	}
+
+	/**
+	 * Gets the length of a specific item.
+	 *
+	 * @param index the index of the item.
+	 * @return the length of the item.
+	 */
+	public int length(int index) {
+		checkIndex(index);
+		return this.offsets[index + 1] - this.offsets[index];
+	}
+
+	/**
+	 * Gets a copy of a specific item.
+	 *
+	 * @param index the index of the item.
+	 * @return the encrypted item.
+	 */
+	public byte[] get(int index) {
+		checkIndex(index);
+		return Arrays.copyOfRange(this.data, this.offsets[index], this.offsets[index + 1]);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Invalid batch index: " + index);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EncryptedBatch[" + size() + "]";
+	}
+
+}
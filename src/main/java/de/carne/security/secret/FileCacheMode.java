@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+/**
+ * Caching modes supported by {@linkplain GenericSecretStore#open(java.nio.file.Path, FileCacheMode)}.
+ */
+public enum FileCacheMode {
+
+	/**
+	 * Secret files are read on every access.
+	 */
+	NONE,
+
+	/**
+	 * Secret files are read once and then served from memory until the secret directory's {@linkplain
+	 * java.nio.file.WatchService} reports a change (e.g. by another process). If the directory cannot be watched or
+	 * the store is sharded, {@linkplain #POLL} mode is used instead.
+	 */
+	WATCH,
+
+	/**
+	 * Secret files are read once and then served from memory until the configured poll interval has elapsed.
+	 */
+	POLL
+
+}
@@ -17,14 +17,37 @@
 package de.carne.security.secret;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
+import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 import de.carne.boot.Exceptions;
@@ -34,19 +57,139 @@ import de.carne.boot.prefs.UserFile;
 
 /**
  * Generic file based {@linkplain SecretStore} implementation available on all platforms.
+ * <p>
+ * Secret files can be cached in memory (see {@linkplain FileCacheMode}). Stores created via
+ * {@linkplain #open(Path, FileCacheMode)} use the submitted caching mode. All other stores only cache secret files, if
+ * the system property {@code de.carne.security.secret.GenericSecretStore.cache} is set to {@code true}. The cache then
+ * watches the secret directory on platforms providing a native {@linkplain java.nio.file.WatchService} (Linux and
+ * Windows) and polls it on all other platforms. Sharded stores (see below) are always polled.
+ * </p>
+ * <p>
+ * By default all secret files are stored side by side in a single directory. Sharded stores (see
+ * {@linkplain #open(Path, FileCacheMode, boolean)} or the system property
+ * {@code de.carne.security.secret.GenericSecretStore.sharded} for all other stores) instead spread secret files across
+ * two levels of sub-directories named after the id's hash (e.g. {@code 3f/a9/<id>.secret}). This keeps
+ * directory sizes small even for millions of secrets. Secret files found in the flat layout are migrated to the sharded
+ * layout on first access.
+ * </p>
+ * <p>
+ * Batch operations are executed in parallel using up to {@code de.carne.security.secret.GenericSecretStore.parallelism}
+ * (default: 8) threads.
+ * </p>
  */
-class GenericSecretStore extends SecretStore {
+public class GenericSecretStore extends SecretStore {
 
 	private static final Log LOG = new Log();
 
+	private static final FileCacheMode DEFAULT_CACHE_MODE = (Boolean
+			.getBoolean(GenericSecretStore.class.getName() + ".cache") ? SecretFileCache.defaultMode()
+					: FileCacheMode.NONE);
+
+	private static final boolean SHARDED = Boolean.getBoolean(GenericSecretStore.class.getName() + ".sharded");
+
+	private static final String SECRET_FILE_SUFFIX = ".secret";
+
+	private static final String SHARD_DIRECTORY_PATTERN = "[0-9a-f][0-9a-f]";
+
+	private static final int SHARD_LEVELS = 2;
+
+	private static final String[] SHARD_DIRECTORY_NAMES = new String[256];
+
+	static {
+		char[] hexDigits = "0123456789abcdef".toCharArray();
+
+		for (int shardIndex = 0; shardIndex < SHARD_DIRECTORY_NAMES.length; shardIndex++) {
+			SHARD_DIRECTORY_NAMES[shardIndex] = new String(
+					new char[] { hexDigits[shardIndex >>> 4], hexDigits[shardIndex & 0xf] });
+		}
+	}
+
+	// Per thread digest used for shard lookups
+	@SuppressWarnings("squid:S5164")
+	private static final ThreadLocal<@NonNull MessageDigest> SHARD_DIGEST = ThreadLocal.withInitial(() -> {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw Exceptions.toRuntime(e);
+		}
+		return digest;
+	});
+
+	private static final Set<Path> MIGRATED_SECRET_HOMES = ConcurrentHashMap.newKeySet();
+
+	private static final int PARALLELISM = Math
+			.max(Integer.getInteger(GenericSecretStore.class.getName() + ".parallelism", 8).intValue(), 1);
+
+	private static final class BatchExecutor {
+
+		static final ExecutorService INSTANCE = Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+			Thread thread = new Thread(runnable, GenericSecretStore.class.getSimpleName());
+
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		private BatchExecutor() {
+			// prevent instantiation
+		}
+
+	}
+
+	@FunctionalInterface
+	private interface BatchTask {
+
+		void run(String id) throws IOException;
+
+	}
+
 	private final @Nullable Path secretHome;
+	private final FileCacheMode cacheMode;
+	private final boolean sharded;
 
 	GenericSecretStore() {
 		this(null);
 	}
 
 	GenericSecretStore(@Nullable Path secretHome) {
+		this(secretHome, DEFAULT_CACHE_MODE, SHARDED);
+	}
+
+	GenericSecretStore(@Nullable Path secretHome, FileCacheMode cacheMode, boolean sharded) {
 		this.secretHome = secretHome;
+		this.cacheMode = cacheMode;
+		this.sharded = sharded;
+	}
+
+	/**
+	 * Opens a {@linkplain GenericSecretStore} storing its secrets in a specific directory.
+	 * <p>
+	 * Whether the opened store is sharded is determined by the system property
+	 * {@code de.carne.security.secret.GenericSecretStore.sharded}.
+	 * </p>
+	 *
+	 * @param secretHome the directory path to use for secret storage.
+	 * @param cacheMode the {@linkplain FileCacheMode} to use.
+	 * @return the opened {@linkplain GenericSecretStore}.
+	 */
+	public static GenericSecretStore open(Path secretHome, FileCacheMode cacheMode) {
+		return new GenericSecretStore(secretHome, cacheMode, SHARDED);
+	}
+
+	/**
+	 * Opens a {@linkplain GenericSecretStore} storing its secrets in a specific directory.
+	 * <p>
+	 * Secret files found in the flat layout are migrated to the sharded layout on first access of a sharded store.
+	 * </p>
+	 *
+	 * @param secretHome the directory path to use for secret storage.
+	 * @param cacheMode the {@linkplain FileCacheMode} to use.
+	 * @param sharded whether to use the sharded ({@code true}) or the flat ({@code false}) layout.
+	 * @return the opened {@linkplain GenericSecretStore}.
+	 */
+	public static GenericSecretStore open(Path secretHome, FileCacheMode cacheMode, boolean sharded) {
+		return new GenericSecretStore(secretHome, cacheMode, sharded);
 	}
 
 	@Override
@@ -55,25 +198,48 @@ class GenericSecretStore extends SecretStore {
 	}
 
 	@Override
-	public boolean hasSecret(String id) {
+	public boolean hasSecret(String id) throws IOException {
 		Path secretFile = getSecretFile(id);
+		SecretFileCache cache = getSecretFileCache();
+		boolean hasSecret;
+
+		if (cache != null) {
+			byte @Nullable [] secret = cache.get(secretFile, this::readSecretFile);
 
-		return Files.exists(secretFile, LinkOption.NOFOLLOW_LINKS);
+			hasSecret = secret != null;
+			if (secret != null) {
+				Arrays.fill(secret, (byte) 0);
+			}
+		} else {
+			hasSecret = Files.exists(secretFile, LinkOption.NOFOLLOW_LINKS);
+		}
+		return hasSecret;
 	}
 
 	@Override
-	public void deleteSecret(String id) throws IOException {
+	protected void removeSecret(String id) throws IOException {
 		Path secretFile = getSecretFile(id);
 
 		LOG.info("Deleting secret file ''{0}''...", secretFile);
 
 		Files.deleteIfExists(secretFile);
+
+		SecretFileCache cache = getSecretFileCache();
+
+		if (cache != null) {
+			cache.put(secretFile, null);
+		}
 	}
 
 	@Override
 	public byte @Nullable [] getSecret(String id) throws IOException {
 		Path secretFile = getSecretFile(id);
+		SecretFileCache cache = getSecretFileCache();
+
+		return (cache != null ? cache.get(secretFile, this::readSecretFile) : readSecretFile(secretFile));
+	}
 
+	private byte @Nullable [] readSecretFile(Path secretFile) throws IOException {
 		LOG.debug("Reading secret file ''{0}''...", secretFile);
 
 		byte @Nullable [] secret = null;
@@ -92,6 +258,10 @@ class GenericSecretStore extends SecretStore {
 
 		LOG.info("Writing secret file ''{0}''...", secretFile);
 
+		if (this.sharded) {
+			createShardDirectory(Objects.requireNonNull(secretFile.getParent()));
+		}
+
 		try (FileChannel file = UserFile.open(secretFile, StandardOpenOption.WRITE,
 				StandardOpenOption.TRUNCATE_EXISTING, LinkOption.NOFOLLOW_LINKS)) {
 			int written = file.write(ByteBuffer.wrap(secret));
@@ -101,13 +271,243 @@ class GenericSecretStore extends SecretStore {
 						"Failed to write secret file (" + written + "/" + secret.length + "): " + secretFile);
 			}
 		}
+
+		SecretFileCache cache = getSecretFileCache();
+
+		if (cache != null) {
+			cache.put(secretFile, secret);
+		}
+	}
+
+	@Override
+	public Map<String, byte[]> getSecrets(Collection<String> ids) throws IOException {
+		Map<String, byte[]> readSecrets = new ConcurrentHashMap<>();
+		Map<String, byte[]> secrets = new LinkedHashMap<>();
+
+		try {
+			runBatch(ids, id -> {
+				byte[] secret = getSecret(id);
+
+				if (secret != null) {
+					readSecrets.put(id, secret);
+				}
+			});
+			for (String id : ids) {
+				byte[] secret = readSecrets.remove(id);
+
+				if (secret != null) {
+					secrets.put(id, secret);
+				}
+			}
+		} finally {
+			// Only left over in case of failure
+			zeroize(readSecrets);
+		}
+		return secrets;
+	}
+
+	@Override
+	public void setSecrets(Map<String, byte[]> secrets) throws IOException {
+		runBatch(secrets.keySet(), id -> setSecret(id, Objects.requireNonNull(secrets.get(id))));
+	}
+
+	@Override
+	protected void removeSecrets(Collection<String> ids) throws IOException {
+		runBatch(ids, this::removeSecret);
+	}
+
+	private static void runBatch(Collection<String> ids, BatchTask task) throws IOException {
+		List<String> idList = new ArrayList<>(ids);
+		int sliceCount = Math.min(PARALLELISM, idList.size());
+
+		if (sliceCount <= 1) {
+			for (String id : idList) {
+				task.run(id);
+			}
+		} else {
+			// One task per slice keeps the number of submitted tasks bounded by the parallelism
+			List<Future<?>> slices = new ArrayList<>(sliceCount);
+
+			for (int sliceIndex = 0; sliceIndex < sliceCount; sliceIndex++) {
+				List<String> slice = idList.subList(idList.size() * sliceIndex / sliceCount,
+						idList.size() * (sliceIndex + 1) / sliceCount);
+
+				slices.add(BatchExecutor.INSTANCE.submit(() -> {
+					for (String id : slice) {
+						task.run(id);
+					}
+					return null;
+				}));
+			}
+			awaitBatch(slices);
+		}
+	}
+
+	private static void awaitBatch(List<Future<?>> slices) throws IOException {
+		Throwable failure = null;
+
+		for (Future<?> slice : slices) {
+			try {
+				slice.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure = new InterruptedIOException("Interrupted while waiting for batch");
+				failure.initCause(e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+		}
+		if (failure instanceof IOException) {
+			throw new IOException(failure.getLocalizedMessage(), failure);
+		}
+		if (failure != null) {
+			throw Exceptions.toRuntime(failure);
+		}
 	}
 
-	private Path getSecretFile(String id) {
-		String fileName = id + ".secret";
+	/**
+	 * Lists the ids of all secrets in this store in batches.
+	 * <p>
+	 * Secret files in the flat as well as in the sharded layout are listed. The directories are streamed and at most
+	 * {@code batchSize} ids are held in memory at a time.
+	 * </p>
+	 *
+	 * @param batchSize the maximum number of ids to submit per batch.
+	 * @param batchConsumer the {@linkplain Consumer} to invoke for every batch of ids.
+	 * @throws IOException if an I/O error occurs while listing the secrets.
+	 */
+	public void listSecrets(int batchSize, Consumer<List<String>> batchConsumer) throws IOException {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		}
+
+		Path secretHome0 = getSecretHome();
+		List<String> batch = new ArrayList<>(batchSize);
+
+		if (Files.isDirectory(secretHome0)) {
+			listSecrets(secretHome0, 0, batchSize, batch, batchConsumer);
+		}
+		if (!batch.isEmpty()) {
+			batchConsumer.accept(batch);
+		}
+	}
+
+	private void listSecrets(Path directory, int level, int batchSize, List<String> batch,
+			Consumer<List<String>> batchConsumer) throws IOException {
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+			for (Path entry : entries) {
+				String entryName = entry.getFileName().toString();
+
+				if (entryName.endsWith(SECRET_FILE_SUFFIX) && Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)) {
+					batch.add(entryName.substring(0, entryName.length() - SECRET_FILE_SUFFIX.length()));
+					if (batch.size() >= batchSize) {
+						batchConsumer.accept(new ArrayList<>(batch));
+						batch.clear();
+					}
+				} else if (level < SHARD_LEVELS && entryName.matches(SHARD_DIRECTORY_PATTERN)
+						&& Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+					listSecrets(entry, level + 1, batchSize, batch, batchConsumer);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected String scope() {
+		return getClass().getName() + ":" + (this.secretHome != null ? this.secretHome.toAbsolutePath() : "");
+	}
+
+	private @Nullable SecretFileCache getSecretFileCache() {
+		// Sharded stores are polled, as watching all shard directories could exhaust the platform's watch limit
+		return (this.cacheMode != FileCacheMode.NONE
+				? SecretFileCache.forDirectory(getSecretHome(), this.cacheMode == FileCacheMode.WATCH && !this.sharded)
+				: null);
+	}
+
+	private Path getSecretHome() {
+		return Objects.requireNonNull(getFlatSecretFile("").toAbsolutePath().getParent());
+	}
+
+	private Path getSecretFile(String id) throws IOException {
+		Path secretFile = getFlatSecretFile(id);
+
+		if (this.sharded) {
+			Path secretHome0 = Objects.requireNonNull(secretFile.toAbsolutePath().getParent());
+
+			migrateFlatSecretFiles(secretHome0);
+			secretFile = getShardDirectory(secretHome0, id).resolve(secretFile.getFileName());
+		}
+		return secretFile;
+	}
+
+	private Path getFlatSecretFile(String id) {
+		String fileName = id + SECRET_FILE_SUFFIX;
 
 		return (this.secretHome != null ? this.secretHome.resolve(fileName)
 				: FilePreferencesFactory.customRootFile(fileName));
 	}
 
+	private static Path getShardDirectory(Path secretHome, String id) {
+		byte[] idHash = SHARD_DIGEST.get().digest(id.getBytes(StandardCharsets.UTF_8));
+		Path shardDirectory = secretHome;
+
+		for (int shardLevel = 0; shardLevel < SHARD_LEVELS; shardLevel++) {
+			shardDirectory = shardDirectory.resolve(SHARD_DIRECTORY_NAMES[idHash[shardLevel] & 0xff]);
+		}
+		return shardDirectory;
+	}
+
+	private static void createShardDirectory(Path shardDirectory) throws IOException {
+		if (!Files.isDirectory(shardDirectory)) {
+			if (shardDirectory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+				Files.createDirectories(shardDirectory,
+						PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			} else {
+				Files.createDirectories(shardDirectory);
+			}
+		}
+	}
+
+	private static void migrateFlatSecretFiles(Path secretHome) throws IOException {
+		if (!MIGRATED_SECRET_HOMES.contains(secretHome)) {
+			synchronized (MIGRATED_SECRET_HOMES) {
+				if (!MIGRATED_SECRET_HOMES.contains(secretHome)) {
+					if (Files.isDirectory(secretHome)) {
+						migrateFlatSecretFiles0(secretHome);
+					}
+					MIGRATED_SECRET_HOMES.add(secretHome);
+				}
+			}
+		}
+	}
+
+	private static void migrateFlatSecretFiles0(Path secretHome) throws IOException {
+		try (DirectoryStream<Path> flatSecretFiles = Files.newDirectoryStream(secretHome, "*" + SECRET_FILE_SUFFIX)) {
+			for (Path flatSecretFile : flatSecretFiles) {
+				if (Files.isRegularFile(flatSecretFile, LinkOption.NOFOLLOW_LINKS)) {
+					String fileName = flatSecretFile.getFileName().toString();
+					String id = fileName.substring(0, fileName.length() - SECRET_FILE_SUFFIX.length());
+					Path shardDirectory = getShardDirectory(secretHome, id);
+					Path secretFile = shardDirectory.resolve(fileName);
+
+					if (!Files.exists(secretFile, LinkOption.NOFOLLOW_LINKS)) {
+						LOG.info("Migrating secret file ''{0}'' to ''{1}''...", flatSecretFile, secretFile);
+
+						createShardDirectory(shardDirectory);
+						try {
+							Files.move(flatSecretFile, secretFile, StandardCopyOption.ATOMIC_MOVE);
+						} catch (AtomicMoveNotSupportedException e) {
+							Exceptions.ignore(e);
+							Files.move(flatSecretFile, secretFile);
+						}
+					} else {
+						LOG.warning("Ignoring flat secret file ''{0}'' (already migrated)", flatSecretFile);
+					}
+				}
+			}
+		}
+	}
+
 }
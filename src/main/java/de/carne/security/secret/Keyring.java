@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+
+/**
+ * Process wide keyring sitting on top of all {@linkplain SecretStore} instances.
+ * <p>
+ * Concurrent requests for the same secret are coalesced: a single thread loads (or creates) the secret and all other
+ * requesting threads wait for and share its result. This ensures that a newly created secret is generated and stored
+ * only once.
+ * </p>
+ * <p>
+ * Retaining loaded {@linkplain Cipher}s is opt-in via the system property
+ * {@code de.carne.security.secret.Keyring.capacity} (default 0). By default every {@linkplain Cipher} is released (and
+ * zeroized) as soon as all waiting threads got it, so key material does not linger in memory and secrets rotated
+ * outside of this process are picked up on the next access. With a positive capacity up to this number of
+ * {@linkplain Cipher}s are retained and the least recently used ones are evicted (and zeroized) as soon as the capacity
+ * is exceeded. Secrets are kept in independently locked stripes, each one ordered by access and holding its share of
+ * the capacity. Deleting a secret via {@linkplain SecretStore#deleteSecret(String)} evicts it.
+ * </p>
+ */
+final class Keyring {
+
+	private static final Log LOG = new Log();
+
+	private static final int CAPACITY = Math.max(Integer.getInteger(Keyring.class.getName() + ".capacity", 0), 0);
+
+	private static final int STRIPE_COUNT = 16;
+
+	private static final Keyring INSTANCE = new Keyring(CAPACITY);
+
+	private final boolean retain;
+	private final Stripe[] stripes;
+
+	Keyring(int capacity) {
+		int stripeCount = (capacity > 0 ? Math.min(capacity, STRIPE_COUNT) : STRIPE_COUNT);
+
+		this.retain = capacity > 0;
+		this.stripes = new Stripe[stripeCount];
+		for (int stripeIndex = 0; stripeIndex < stripeCount; stripeIndex++) {
+			this.stripes[stripeIndex] = new Stripe(
+					capacity / stripeCount + (stripeIndex < capacity % stripeCount ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Gets the process wide {@linkplain Keyring} instance.
+	 *
+	 * @return the process wide {@linkplain Keyring} instance.
+	 */
+	public static Keyring get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the {@linkplain Cipher} for a specific secret.
+	 *
+	 * @param secretStore the {@linkplain SecretStore} holding the secret.
+	 * @param id the id of the secret.
+	 * @return the leased {@linkplain Cipher} (must be closed after use).
+	 * @throws IOException if an I/O error occurs while loading or creating the secret.
+	 * @throws GeneralSecurityException if a security error occurs while loading or creating the secret.
+	 */
+	public Cipher getCipher(SecretStore secretStore, String id) throws IOException, GeneralSecurityException {
+		Key key = new Key(secretStore.scope(), id);
+		Stripe stripe = stripe(key);
+		Cipher cipher = null;
+
+		while (cipher == null) {
+			Slot slot;
+			boolean loader = false;
+
+			synchronized (stripe) {
+				// Access ordered map: this also marks the slot as most recently used
+				slot = stripe.slots.get(key);
+				if (slot == null) {
+					slot = new Slot();
+					stripe.slots.put(key, slot);
+					loader = true;
+				}
+			}
+			if (loader) {
+				cipher = load(secretStore, key, stripe, slot);
+			} else {
+				// A null lease indicates a concurrently evicted slot (simply retry)
+				cipher = await(slot).lease();
+			}
+		}
+		return cipher;
+	}
+
+	/**
+	 * Evicts a specific secret from the keyring.
+	 *
+	 * @param secretStore the {@linkplain SecretStore} holding the secret.
+	 * @param id the id of the secret.
+	 */
+	public void invalidate(SecretStore secretStore, String id) {
+		Key key = new Key(secretStore.scope(), id);
+		Stripe stripe = stripe(key);
+		Slot slot;
+
+		synchronized (stripe) {
+			slot = stripe.slots.remove(key);
+		}
+		if (slot != null) {
+			evict(slot);
+		}
+	}
+
+	private Stripe stripe(Key key) {
+		int hash = key.hashCode();
+
+		return this.stripes[Math.floorMod(hash ^ (hash >>> 16), this.stripes.length)];
+	}
+
+	private Cipher load(SecretStore secretStore, Key key, Stripe stripe, Slot slot)
+			throws IOException, GeneralSecurityException {
+		CachedCipher cached;
+
+		try {
+			cached = new CachedCipher(secretStore.loadCipher(key.id));
+		} catch (IOException | GeneralSecurityException | RuntimeException e) {
+			synchronized (stripe) {
+				stripe.slots.remove(key, slot);
+			}
+			slot.future.completeExceptionally(e);
+			throw e;
+		}
+
+		// We have just created the CachedCipher and nobody else can have evicted it yet
+		Cipher cipher = Objects.requireNonNull(cached.lease());
+
+		slot.future.complete(cached);
+		if (this.retain) {
+			evictLeastRecentlyUsed(stripe);
+		} else {
+			synchronized (stripe) {
+				stripe.slots.remove(key, slot);
+			}
+			cached.evict();
+		}
+		return cipher;
+	}
+
+	private static void evictLeastRecentlyUsed(Stripe stripe) {
+		List<Slot> evicted = new ArrayList<>();
+
+		synchronized (stripe) {
+			// Iteration starts with the least recently used slot (slots still loading are skipped)
+			Iterator<Map.Entry<Key, Slot>> slotIterator = stripe.slots.entrySet().iterator();
+
+			while (stripe.slots.size() > stripe.capacity && slotIterator.hasNext()) {
+				Map.Entry<Key, Slot> slotEntry = slotIterator.next();
+
+				if (slotEntry.getValue().future.isDone()) {
+					LOG.debug("Evicting least recently used secret ''{0}''", slotEntry.getKey().id);
+
+					slotIterator.remove();
+					evicted.add(slotEntry.getValue());
+				}
+			}
+		}
+		evicted.forEach(Keyring::evict);
+	}
+
+	private static void evict(Slot slot) {
+		slot.future.thenAccept(CachedCipher::evict);
+	}
+
+	private static CachedCipher await(Slot slot) throws IOException, GeneralSecurityException {
+		CachedCipher cached;
+
+		try {
+			cached = slot.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for secret", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw new IOException(cause.getLocalizedMessage(), cause);
+			}
+			if (cause instanceof GeneralSecurityException) {
+				throw new GeneralSecurityException(cause.getLocalizedMessage(), cause);
+			}
+			throw Exceptions.toRuntime(cause);
+		}
+		return cached;
+	}
+
+	private static final class Key {
+
+		final String scope;
+		final String id;
+
+		Key(String scope, String id) {
+			this.scope = scope;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.scope.hashCode() * 31 + this.id.hashCode();
+		}
+
+		@Override
+		public boolean equals(@Nullable Object obj) {
+			boolean equal = this == obj;
+
+			if (!equal && obj instanceof Key) {
+				Key other = (Key) obj;
+
+				equal = this.scope.equals(other.scope) && this.id.equals(other.id);
+			}
+			return equal;
+		}
+
+	}
+
+	private static final class Stripe {
+
+		final int capacity;
+		final Map<Key, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+
+		Stripe(int capacity) {
+			this.capacity = capacity;
+		}
+
+	}
+
+	private static final class Slot {
+
+		final CompletableFuture<CachedCipher> future = new CompletableFuture<>();
+
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.sun.jna.Memory;
+
+import de.carne.boot.logging.Log;
+import de.carne.boot.platform.Platform;
+import de.carne.security.jna.linux.LibCLibrary;
+import de.carne.security.jna.linux.Native;
+
+/**
+ * {@linkplain SecretStore} implementation using the Linux kernel key retention service.
+ * <p>
+ * Secrets are stored as keys of type {@code user} in the user keyring. Kernel keys do not survive a reboot. Therefore
+ * this store is disabled by default and has to be enabled explicitly by setting the system property
+ * {@code de.carne.security.secret.LinuxKeyringSecretStore} to {@code true}.
+ * </p>
+ */
+final class LinuxKeyringSecretStore extends SecretStore {
+
+	private static final Log LOG = new Log();
+
+	private static final boolean ENABLED = Boolean
+			.parseBoolean(System.getProperty(LinuxKeyringSecretStore.class.getName(), Boolean.FALSE.toString()));
+
+	private static final String KEY_TYPE = "user";
+
+	private static final String KEY_DESCRIPTION_PREFIX = "Java_SecureStorage:";
+
+	private @Nullable Boolean available = null;
+
+	@Override
+	public synchronized boolean isAvailable() throws IOException {
+		Boolean checkedAvailable = this.available;
+
+		if (checkedAvailable == null) {
+			checkedAvailable = Boolean.valueOf(ENABLED && Platform.IS_LINUX && probeKeyring());
+			this.available = checkedAvailable;
+		}
+		return checkedAvailable.booleanValue();
+	}
+
+	private static boolean probeKeyring() {
+		// The key management system calls may be unsupported or blocked (e.g. by a container's seccomp profile)
+		boolean accessible = Native.SYSCALLS_SUPPORTED && Native.LibC.syscall(Native.SYS_KEYCTL,
+				LibCLibrary.KEYCTL_GET_KEYRING_ID, LibCLibrary.KEY_SPEC_USER_KEYRING, 0L) >= 0;
+
+		if (!accessible) {
+			LOG.warning("Linux kernel keyring is not accessible (status: {0})", com.sun.jna.Native.getLastError());
+		}
+		return accessible;
+	}
+
+	@Override
+	public boolean hasSecret(String id) throws IOException {
+		return searchKey(id) >= 0;
+	}
+
+	@Override
+	protected void removeSecret(String id) throws IOException {
+		LOG.info("Deleting secret ''{0}''...", id);
+
+		long key = searchKey(id);
+
+		if (key >= 0 && Native.LibC.syscall(Native.SYS_KEYCTL, LibCLibrary.KEYCTL_UNLINK, key,
+				LibCLibrary.KEY_SPEC_USER_KEYRING) < 0) {
+			throw statusException();
+		}
+	}
+
+	@Override
+	public byte @Nullable [] getSecret(String id) throws IOException {
+		LOG.debug("Reading secret ''{0}''...", id);
+
+		long key = searchKey(id);
+		byte[] secret = null;
+
+		if (key >= 0) {
+			long secretLength = Native.LibC.syscall(Native.SYS_KEYCTL, LibCLibrary.KEYCTL_READ, key, null, 0L);
+
+			if (secretLength < 0) {
+				throw statusException();
+			}
+
+			Memory secretMemory = new Memory(Math.max(secretLength, 1L));
+
+			try {
+				long readLength = Native.LibC.syscall(Native.SYS_KEYCTL, LibCLibrary.KEYCTL_READ, key, secretMemory,
+						secretLength);
+
+				if (readLength != secretLength) {
+					throw (readLength < 0 ? statusException() : new IOException("Secret changed while reading"));
+				}
+				secret = secretMemory.getByteArray(0, (int) secretLength);
+			} finally {
+				secretMemory.clear();
+			}
+		}
+		return secret;
+	}
+
+	@Override
+	public void setSecret(String id, byte[] secret) throws IOException {
+		LOG.info("Setting secret ''{0}''...", id);
+
+		Memory secretMemory = new Memory(Math.max(secret.length, 1));
+		long key;
+
+		try {
+			secretMemory.write(0, secret, 0, secret.length);
+			// add_key updates an already existing key with the same description in place
+			key = Native.LibC.syscall(Native.SYS_ADD_KEY, KEY_TYPE, getKeyDescription(id), secretMemory,
+					secret.length, LibCLibrary.KEY_SPEC_USER_KEYRING);
+		} finally {
+			secretMemory.clear();
+		}
+		if (key < 0) {
+			throw statusException();
+		}
+		// Grant access to all processes of the current user (not only to the possessor)
+		if (Native.LibC.syscall(Native.SYS_KEYCTL, LibCLibrary.KEYCTL_SETPERM, key,
+				LibCLibrary.KEY_PERM_POSSESSOR_AND_USER_ALL) < 0) {
+			LOG.warning("Failed to set permissions of secret ''{0}'' (status: {1})", id,
+					com.sun.jna.Native.getLastError());
+		}
+	}
+
+	private long searchKey(String id) throws IOException {
+		// Search the user keyring explicitly, as request_key only searches the thread, process and session keyrings,
+		// which are not necessarily linked to the user keyring (e.g. for processes running in a new session keyring)
+		long key = Native.LibC.syscall(Native.SYS_KEYCTL, LibCLibrary.KEYCTL_SEARCH, LibCLibrary.KEY_SPEC_USER_KEYRING,
+				KEY_TYPE, getKeyDescription(id), 0L);
+
+		if (key < 0 && com.sun.jna.Native.getLastError() != LibCLibrary.ENOKEY) {
+			throw statusException();
+		}
+		return key;
+	}
+
+	private String getKeyDescription(String id) {
+		return KEY_DESCRIPTION_PREFIX + id;
+	}
+
+	private IOException statusException() {
+		return new IOException("Key management function failure (" + com.sun.jna.Native.getLastError() + ")");
+	}
+
+}
@@ -0,0 +1,635 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.boot.prefs.UserFile;
+
+/**
+ * {@linkplain SecretStore} implementation keeping all secrets in a single append-only file.
+ * <p>
+ * Every write appends a CRC protected record (deletions append a tombstone record). As soon as a record has been
+ * superseded by a replacement or a tombstone, its secret is overwritten in place (the record is rewritten as a
+ * scrubbed record), so that deleted secrets cannot be read from the file even before it is compacted. On open the file
+ * is scanned once to build an in-memory index. Afterwards secrets are read directly from the memory-mapped file. The
+ * file is grown in chunks of at least twice its current size (padded with zeros), so that appends rarely need a new
+ * memory mapping. Appends are serialized across processes via a file lock and the file header tracks the committed end
+ * of the log. This makes appends of other processes visible without any file system access. Once the log contains more
+ * stale than live records, it is compacted in the background into a new file, which atomically replaces the old one.
+ * Reads verify the record's CRC, as another process may scrub a record while it is being read. A mismatching record is
+ * re-read after refreshing the index. Mappings of superseded files and outgrown mappings are released right away.
+ * </p>
+ * <p>
+ * File layout: {@code magic:int state:int end:long} followed by records of the form
+ * {@code length:int crc:int type:byte idLength:short id:byte[idLength] secret:byte[]} and the zero padding.
+ * </p>
+ */
+public final class LogSecretStore extends SecretStore {
+
+	private static final Log LOG = new Log();
+
+	private static final int MAGIC = 0x534c534a;
+	private static final int STATE_ACTIVE = 0;
+	private static final int STATE_SUPERSEDED = 1;
+	private static final int STATE_OFFSET = 4;
+	private static final int END_OFFSET = 8;
+	private static final int HEADER_LENGTH = 16;
+	private static final int RECORD_HEADER_LENGTH = 8;
+	private static final int RECORD_PAYLOAD_HEADER_LENGTH = 3;
+	private static final byte RECORD_TYPE_PUT = 1;
+	private static final byte RECORD_TYPE_TOMBSTONE = 2;
+	private static final byte RECORD_TYPE_SCRUBBED = 3;
+	private static final long MIN_GROWTH = 4096L;
+	private static final long COMPACTION_THRESHOLD = 64 * 1024L;
+	private static final String COMPACTION_FILE_SUFFIX = ".compact";
+	private static final int MAX_READ_ATTEMPTS = 3;
+
+	private static final Map<Path, LogSecretStore> STORES = new ConcurrentHashMap<>();
+
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, LogSecretStore.class.getSimpleName());
+
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Path storeFile;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Location> index = new HashMap<>();
+	private @Nullable FileChannel channel = null;
+	private @Nullable MappedByteBuffer mapped = null;
+	private long end = 0L;
+	private long staleBytes = 0L;
+	private boolean compactionPending = false;
+
+	private LogSecretStore(Path storeFile) {
+		this.storeFile = storeFile;
+	}
+
+	/**
+	 * Gets the {@linkplain LogSecretStore} instance for a specific file.
+	 * <p>
+	 * There is at most one instance per file and process. The file is created on first access if it does not exist.
+	 * </p>
+	 *
+	 * @param storeFile the file to store the secrets in.
+	 * @return the {@linkplain LogSecretStore} instance for the given file.
+	 */
+	public static LogSecretStore open(Path storeFile) {
+		return STORES.computeIfAbsent(storeFile.toAbsolutePath().normalize(), LogSecretStore::new);
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
+	@Override
+	public boolean hasSecret(String id) throws IOException {
+		refresh();
+		this.lock.readLock().lock();
+		try {
+			return this.index.containsKey(id);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	protected void removeSecret(String id) throws IOException {
+		LOG.info("Deleting secret ''{0}'' from ''{1}''...", id, this.storeFile);
+
+		if (hasSecret(id)) {
+			append(RECORD_TYPE_TOMBSTONE, id, new byte[0]);
+		}
+	}
+
+	@Override
+	public byte @Nullable [] getSecret(String id) throws IOException {
+		LOG.debug("Reading secret ''{0}'' from ''{1}''...", id, this.storeFile);
+
+		byte @Nullable [] secret = null;
+		boolean read = false;
+
+		for (int attempt = 0; !read; attempt++) {
+			if (attempt == MAX_READ_ATTEMPTS) {
+				throw new IOException(
+						"Corrupted record for secret '" + id + "' in secret store file: " + this.storeFile);
+			}
+			refresh();
+			this.lock.readLock().lock();
+			try {
+				Location location = this.index.get(id);
+
+				if (location != null) {
+					secret = readSecret(location);
+					// A mismatch indicates a record superseded (and scrubbed) by another process since our last refresh
+					read = secret != null;
+				} else {
+					read = true;
+				}
+			} finally {
+				this.lock.readLock().unlock();
+			}
+		}
+		return secret;
+	}
+
+	private byte @Nullable [] readSecret(Location location) {
+		// Copy the complete record first, so that the CRC check covers exactly the returned data
+		ByteBuffer buffer = Objects.requireNonNull(this.mapped).duplicate();
+		byte[] record = new byte[location.recordLength];
+
+		buffer.position((int) location.recordOffset);
+		buffer.get(record);
+
+		ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+		int payloadLength = location.recordLength - RECORD_HEADER_LENGTH;
+		CRC32 crc = new CRC32();
+		byte[] secret = null;
+
+		crc.update(record, RECORD_HEADER_LENGTH, payloadLength);
+		if (recordBuffer.getInt(0) == payloadLength && recordBuffer.getInt(4) == (int) crc.getValue()
+				&& record[RECORD_HEADER_LENGTH] == RECORD_TYPE_PUT) {
+			secret = Arrays.copyOfRange(record, location.recordLength - location.secretLength, location.recordLength);
+		}
+		Arrays.fill(record, (byte) 0);
+		return secret;
+	}
+
+	@Override
+	public void setSecret(String id, byte[] secret) throws IOException {
+		LOG.info("Writing secret ''{0}'' to ''{1}''...", id, this.storeFile);
+
+		append(RECORD_TYPE_PUT, id, secret);
+	}
+
+	@Override
+	protected String scope() {
+		return getClass().getName() + ":" + this.storeFile;
+	}
+
+	private boolean isRefreshNeeded() {
+		this.lock.readLock().lock();
+		try {
+			MappedByteBuffer currentMapped = this.mapped;
+
+			return currentMapped == null || currentMapped.getInt(STATE_OFFSET) != STATE_ACTIVE
+					|| currentMapped.getLong(END_OFFSET) != this.end;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	private void refresh() throws IOException {
+		if (isRefreshNeeded()) {
+			this.lock.writeLock().lock();
+			try {
+				refresh0();
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private FileChannel refresh0() throws IOException {
+		FileChannel currentChannel = this.channel;
+		MappedByteBuffer currentMapped = this.mapped;
+
+		if (currentChannel == null || currentMapped == null || currentMapped.getInt(STATE_OFFSET) != STATE_ACTIVE) {
+			currentChannel = reopen();
+		} else {
+			long committedEnd = currentMapped.getLong(END_OFFSET);
+
+			if (committedEnd > this.end) {
+				// Records appended by another process
+				scan(ensureMapped(currentChannel, committedEnd), this.end, committedEnd, committedEnd);
+			} else if (committedEnd < this.end) {
+				// Log has been truncated (should not happen unless modified externally)
+				currentChannel = reopen();
+			}
+		}
+		return currentChannel;
+	}
+
+	private FileChannel reopen() throws IOException {
+		close();
+
+		FileChannel newChannel = null;
+
+		while (newChannel == null) {
+			newChannel = UserFile.open(this.storeFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try (FileLock fileLock = newChannel.lock()) {
+				if (!initialize(newChannel)) {
+					newChannel.close();
+					newChannel = null;
+				}
+			} catch (IOException e) {
+				newChannel.close();
+				throw e;
+			}
+		}
+		this.channel = newChannel;
+		return newChannel;
+	}
+
+	private boolean initialize(FileChannel newChannel) throws IOException {
+		long size = newChannel.size();
+
+		if (size < HEADER_LENGTH) {
+			LOG.info("Initializing secret store file ''{0}''...", this.storeFile);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+			header.putInt(MAGIC).putInt(STATE_ACTIVE).putLong(HEADER_LENGTH).flip();
+			newChannel.truncate(0L);
+			writeFully(newChannel, header, 0L);
+			newChannel.force(true);
+			size = HEADER_LENGTH;
+		}
+
+		MappedByteBuffer newMapped = map(newChannel, size);
+
+		if (newMapped.getInt(0) != MAGIC) {
+			MappedBuffers.release(newMapped);
+			throw new IOException("Invalid secret store file: " + this.storeFile);
+		}
+
+		boolean active = newMapped.getInt(STATE_OFFSET) == STATE_ACTIVE;
+
+		if (active) {
+			LOG.debug("Scanning secret store file ''{0}''...", this.storeFile);
+
+			long committedEnd = newMapped.getLong(END_OFFSET);
+
+			this.mapped = newMapped;
+			this.index.clear();
+			this.end = HEADER_LENGTH;
+			this.staleBytes = 0L;
+			// Complete records beyond the committed end (e.g. due to a crash before the end was updated) are recovered
+			scan(newMapped, HEADER_LENGTH, size, Math.min(committedEnd, size));
+			if (this.end < size && !isPadding(newMapped, this.end, size)) {
+				LOG.warning("Discarding {0} bytes of incomplete records in secret store file ''{1}''",
+						size - this.end, this.storeFile);
+
+				newChannel.truncate(this.end);
+				this.mapped = map(newChannel, this.end);
+				MappedBuffers.release(newMapped);
+			}
+			if (committedEnd != this.end) {
+				writeEnd(newChannel, this.end);
+			}
+		} else {
+			MappedBuffers.release(newMapped);
+		}
+		return active;
+	}
+
+	private void scan(ByteBuffer buffer, long from, long to, long committedEnd) {
+		CRC32 crc = new CRC32();
+		long position = from;
+		boolean valid = true;
+
+		while (valid && position + RECORD_HEADER_LENGTH <= to) {
+			int payloadLength = buffer.getInt((int) position);
+			int payloadCrc = buffer.getInt((int) position + 4);
+			long payloadOffset = position + RECORD_HEADER_LENGTH;
+			boolean skip = false;
+
+			valid = payloadLength >= RECORD_PAYLOAD_HEADER_LENGTH && payloadOffset + payloadLength <= to;
+			if (valid) {
+				ByteBuffer payload = buffer.duplicate();
+
+				payload.position((int) payloadOffset).limit((int) payloadOffset + payloadLength);
+				crc.reset();
+				crc.update(payload);
+				valid = (int) crc.getValue() == payloadCrc;
+				// Committed records are complete; a mismatch is caused by an interrupted scrub of a superseded record
+				skip = !valid && payloadOffset + payloadLength <= committedEnd;
+			}
+			if (skip) {
+				LOG.warning("Skipping partially scrubbed record at {0} in secret store file ''{1}''", position,
+						this.storeFile);
+
+				this.staleBytes += RECORD_HEADER_LENGTH + payloadLength;
+				position += RECORD_HEADER_LENGTH + payloadLength;
+				valid = true;
+			} else if (valid) {
+				byte type = buffer.get((int) payloadOffset);
+				int idLength = buffer.getShort((int) payloadOffset + 1) & 0xffff;
+
+				valid = RECORD_PAYLOAD_HEADER_LENGTH + idLength <= payloadLength;
+				if (valid) {
+					byte[] idBytes = new byte[idLength];
+					ByteBuffer idBuffer = buffer.duplicate();
+
+					idBuffer.position((int) payloadOffset + RECORD_PAYLOAD_HEADER_LENGTH);
+					idBuffer.get(idBytes);
+					apply(type, new String(idBytes, StandardCharsets.UTF_8),
+							new Location(position, RECORD_HEADER_LENGTH + payloadLength,
+									RECORD_PAYLOAD_HEADER_LENGTH + idLength));
+					position += RECORD_HEADER_LENGTH + payloadLength;
+				}
+			}
+		}
+		this.end = position;
+	}
+
+	private @Nullable Location apply(byte type, String id, Location location) {
+		Location replaced = null;
+
+		if (type == RECORD_TYPE_PUT) {
+			replaced = this.index.put(id, location);
+		} else if (type == RECORD_TYPE_TOMBSTONE) {
+			replaced = this.index.remove(id);
+			this.staleBytes += location.recordLength;
+		} else {
+			this.staleBytes += location.recordLength;
+		}
+		if (replaced != null) {
+			this.staleBytes += replaced.recordLength;
+		}
+		return replaced;
+	}
+
+	private void append(byte type, String id, byte[] secret) throws IOException {
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+
+		if (idBytes.length > 0xffff) {
+			throw new IllegalArgumentException("Secret id too long: " + id);
+		}
+
+		int payloadLength = RECORD_PAYLOAD_HEADER_LENGTH + idBytes.length + secret.length;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payloadLength);
+		CRC32 crc = new CRC32();
+
+		record.putInt(payloadLength).putInt(0).put(type).putShort((short) idBytes.length).put(idBytes).put(secret);
+		crc.update(record.array(), RECORD_HEADER_LENGTH, payloadLength);
+		record.putInt(4, (int) crc.getValue()).flip();
+		this.lock.writeLock().lock();
+		try {
+			boolean appended = false;
+
+			while (!appended) {
+				FileChannel currentChannel = refresh0();
+
+				try (FileLock fileLock = currentChannel.lock()) {
+					// Re-check state now that we own the file lock (another process may have appended or compacted)
+					MappedByteBuffer currentMapped = Objects.requireNonNull(this.mapped);
+
+					if (currentMapped.getInt(STATE_OFFSET) == STATE_ACTIVE) {
+						long committedEnd = currentMapped.getLong(END_OFFSET);
+
+						if (committedEnd > this.end) {
+							scan(ensureMapped(currentChannel, committedEnd), this.end, committedEnd, committedEnd);
+						}
+
+						long recordOffset = this.end;
+						long recordEnd = recordOffset + record.limit();
+
+						ensureCapacity(currentChannel, recordEnd);
+						writeFully(currentChannel, record, recordOffset);
+						currentChannel.force(false);
+						writeEnd(currentChannel, recordEnd);
+						this.end = recordEnd;
+
+						Location replaced = apply(type, id, new Location(recordOffset, record.limit(),
+								RECORD_PAYLOAD_HEADER_LENGTH + idBytes.length));
+
+						if (replaced != null) {
+							scrub(currentChannel, replaced, idBytes);
+						}
+						appended = true;
+					}
+				}
+			}
+			scheduleCompactionIfNeeded();
+		} finally {
+			this.lock.writeLock().unlock();
+			Arrays.fill(record.array(), (byte) 0);
+		}
+	}
+
+	private void scheduleCompactionIfNeeded() {
+		if (!this.compactionPending && this.staleBytes > COMPACTION_THRESHOLD
+				&& this.staleBytes > (this.end - HEADER_LENGTH) / 2) {
+			this.compactionPending = true;
+			COMPACTOR.execute(this::compact);
+		}
+	}
+
+	private void compact() {
+		this.lock.writeLock().lock();
+		try {
+			FileChannel currentChannel = refresh0();
+
+			try (FileLock fileLock = currentChannel.lock()) {
+				MappedByteBuffer currentMapped = Objects.requireNonNull(this.mapped);
+
+				if (currentMapped.getInt(STATE_OFFSET) == STATE_ACTIVE) {
+					long committedEnd = currentMapped.getLong(END_OFFSET);
+
+					if (committedEnd > this.end) {
+						currentMapped = ensureMapped(currentChannel, committedEnd);
+						scan(currentMapped, this.end, committedEnd, committedEnd);
+					}
+					compact0(currentChannel, currentMapped);
+				}
+			}
+			reopen();
+		} catch (IOException e) {
+			LOG.warning(e, "Compaction of secret store file ''{0}'' failed", this.storeFile);
+		} finally {
+			this.compactionPending = false;
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void compact0(FileChannel currentChannel, ByteBuffer currentMapped) throws IOException {
+		LOG.info("Compacting secret store file ''{0}'' ({1} stale bytes)...", this.storeFile, this.staleBytes);
+
+		Path compactionFile = this.storeFile.resolveSibling(this.storeFile.getFileName() + COMPACTION_FILE_SUFFIX);
+
+		try (FileChannel compactionChannel = UserFile.open(compactionFile, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long compactionEnd = HEADER_LENGTH;
+
+			for (Location location : this.index.values()) {
+				ByteBuffer record = currentMapped.duplicate();
+
+				record.position((int) location.recordOffset)
+						.limit((int) location.recordOffset + location.recordLength);
+				writeFully(compactionChannel, record, compactionEnd);
+				compactionEnd += location.recordLength;
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+			header.putInt(MAGIC).putInt(STATE_ACTIVE).putLong(compactionEnd).flip();
+			writeFully(compactionChannel, header, 0L);
+			compactionChannel.force(true);
+		}
+		try {
+			Files.move(compactionFile, this.storeFile, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Exceptions.ignore(e);
+			Files.move(compactionFile, this.storeFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		// Signal the replacement to all processes still using the old file
+		ByteBuffer state = ByteBuffer.allocate(Integer.BYTES);
+
+		state.putInt(STATE_SUPERSEDED).flip();
+		writeFully(currentChannel, state, STATE_OFFSET);
+	}
+
+	private void close() {
+		FileChannel currentChannel = this.channel;
+		MappedByteBuffer currentMapped = this.mapped;
+
+		this.channel = null;
+		this.mapped = null;
+		// All access to the mapping happens under our lock, hence it can be released right away
+		MappedBuffers.release(currentMapped);
+		if (currentChannel != null) {
+			try {
+				currentChannel.close();
+			} catch (IOException e) {
+				Exceptions.warn(e);
+			}
+		}
+	}
+
+	private void scrub(FileChannel currentChannel, Location location, byte[] idBytes) throws IOException {
+		// Keep the record's length (and therefore the log structure) but drop the secret
+		int payloadLength = location.recordLength - RECORD_HEADER_LENGTH;
+		ByteBuffer record = ByteBuffer.allocate(location.recordLength);
+		CRC32 crc = new CRC32();
+
+		record.putInt(payloadLength).putInt(0).put(RECORD_TYPE_SCRUBBED).putShort((short) idBytes.length)
+				.put(idBytes);
+		crc.update(record.array(), RECORD_HEADER_LENGTH, payloadLength);
+		record.putInt(4, (int) crc.getValue()).rewind();
+		writeFully(currentChannel, record, location.recordOffset);
+		currentChannel.force(false);
+	}
+
+	private static boolean isPadding(ByteBuffer buffer, long from, long to) {
+		boolean padding = true;
+
+		for (long position = from; padding && position < to; position++) {
+			padding = buffer.get((int) position) == 0;
+		}
+		return padding;
+	}
+
+	private void ensureCapacity(FileChannel currentChannel, long requiredEnd) throws IOException {
+		if (requiredEnd > Integer.MAX_VALUE) {
+			throw new IOException("Secret store file too large: " + this.storeFile);
+		}
+		if (Objects.requireNonNull(this.mapped).capacity() < requiredEnd) {
+			long size = currentChannel.size();
+
+			if (size < requiredEnd) {
+				// Grow geometrically to keep the number of mappings logarithmic in the file size
+				long newSize = Math.min(Math.max(requiredEnd, Math.max(size * 2, MIN_GROWTH)), Integer.MAX_VALUE);
+				ByteBuffer padding = ByteBuffer.allocate(1);
+
+				writeFully(currentChannel, padding, newSize - 1);
+			}
+			remap(currentChannel);
+		}
+	}
+
+	private MappedByteBuffer ensureMapped(FileChannel currentChannel, long requiredEnd) throws IOException {
+		MappedByteBuffer currentMapped = Objects.requireNonNull(this.mapped);
+
+		return (currentMapped.capacity() < requiredEnd ? remap(currentChannel) : currentMapped);
+	}
+
+	private MappedByteBuffer remap(FileChannel currentChannel) throws IOException {
+		MappedByteBuffer currentMapped = this.mapped;
+		MappedByteBuffer newMapped = map(currentChannel, currentChannel.size());
+
+		this.mapped = newMapped;
+		MappedBuffers.release(currentMapped);
+		return newMapped;
+	}
+
+	private MappedByteBuffer map(FileChannel currentChannel, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Secret store file too large: " + this.storeFile);
+		}
+		return currentChannel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+	}
+
+	private static void writeEnd(FileChannel currentChannel, long newEnd) throws IOException {
+		ByteBuffer endBuffer = ByteBuffer.allocate(Long.BYTES);
+
+		endBuffer.putLong(newEnd).flip();
+		writeFully(currentChannel, endBuffer, END_OFFSET);
+	}
+
+	private static void writeFully(FileChannel currentChannel, ByteBuffer buffer, long position) throws IOException {
+		long writePosition = position;
+
+		while (buffer.hasRemaining()) {
+			writePosition += currentChannel.write(buffer, writePosition);
+		}
+	}
+
+	private static final class Location {
+
+		final long recordOffset;
+		final int recordLength;
+		final int secretLength;
+
+		Location(long recordOffset, int recordLength, int payloadHeaderLength) {
+			this.recordOffset = recordOffset;
+			this.recordLength = recordLength;
+			this.secretLength = recordLength - RECORD_HEADER_LENGTH - payloadHeaderLength;
+		}
+
+	}
+
+}
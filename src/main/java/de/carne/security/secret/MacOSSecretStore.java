@@ -65,7 +65,7 @@ final class MacOSSecretStore extends SecretStore {
 	}
 
 	@Override
-	public void deleteSecret(String id) throws IOException {
+	protected void removeSecret(String id) throws IOException {
 		LOG.info("Deleting secret ''{0}''...", id);
 
 		byte[] serviceNameBytes = id.getBytes(StandardCharsets.UTF_8);
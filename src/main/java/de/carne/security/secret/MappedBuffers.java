@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+
+/**
+ * Utility class for releasing memory mappings.
+ * <p>
+ * This is the Java 8 implementation invoking the cleaner of the mapped buffer. On Java 11 and later the multi-release
+ * overlay of this class uses {@code sun.misc.Unsafe.invokeCleaner}. If the cleaner is not accessible, mappings are
+ * released as soon as the buffer has been garbage collected. Callers must ensure that a released buffer (as well as any
+ * view of it) is not accessed anymore.
+ * </p>
+ */
+final class MappedBuffers {
+
+	private static final class Cleaner {
+
+		static final @Nullable Method CLEANER_METHOD = getMethod("sun.nio.ch.DirectBuffer", "cleaner");
+		static final @Nullable Method CLEAN_METHOD = getMethod("sun.misc.Cleaner", "clean");
+
+		private Cleaner() {
+			// prevent instantiation
+		}
+
+		private static @Nullable Method getMethod(String className, String methodName) {
+			Method method = null;
+
+			try {
+				method = Class.forName(className).getMethod(methodName);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				Exceptions.ignore(e);
+			}
+			return method;
+		}
+
+	}
+
+	private MappedBuffers() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Releases a memory mapping.
+	 *
+	 * @param buffer the mapped buffer to release (may be {@code null}).
+	 */
+	static void release(@Nullable MappedByteBuffer buffer) {
+		Method cleanerMethod = Cleaner.CLEANER_METHOD;
+		Method cleanMethod = Cleaner.CLEAN_METHOD;
+
+		if (buffer != null && cleanerMethod != null && cleanMethod != null) {
+			try {
+				Object cleaner = cleanerMethod.invoke(buffer);
+
+				if (cleaner != null) {
+					cleanMethod.invoke(cleaner);
+				}
+			} catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+				Exceptions.ignore(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * {@linkplain SecretStore} implementation keeping secrets in memory only.
+ * <p>
+ * All secrets are copied on entry and exit and are zeroized as soon as they are deleted or replaced.
+ * </p>
+ */
+final class MemorySecretStore extends SecretStore {
+
+	private static final Log LOG = new Log();
+
+	private final Map<String, byte[]> secrets = new ConcurrentHashMap<>();
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
+	@Override
+	public boolean hasSecret(String id) {
+		return this.secrets.containsKey(id);
+	}
+
+	@Override
+	protected void removeSecret(String id) {
+		LOG.debug("Deleting secret ''{0}''...", id);
+
+		zeroize(this.secrets.remove(id));
+	}
+
+	@Override
+	public byte @Nullable [] getSecret(String id) {
+		byte[][] secretHolder = new byte[1][];
+
+		// Copy inside the map's lock to prevent a concurrent delete from zeroizing the secret while copying it
+		this.secrets.computeIfPresent(id, (key, secret) -> {
+			secretHolder[0] = secret.clone();
+			return secret;
+		});
+		return secretHolder[0];
+	}
+
+	@Override
+	public void setSecret(String id, byte[] secret) {
+		LOG.debug("Setting secret ''{0}''...", id);
+
+		zeroize(this.secrets.put(id, secret.clone()));
+	}
+
+	private static void zeroize(byte @Nullable [] secret) {
+		if (secret != null) {
+			Arrays.fill(secret, (byte) 0);
+		}
+	}
+
+}
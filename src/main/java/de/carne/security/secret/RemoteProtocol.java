@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.security.util.Randomness;
+
+/**
+ * Wire protocol shared by {@linkplain RemoteSecretStore} and {@linkplain SecretKeyServer}.
+ * <p>
+ * On connect both sides exchange a random nonce ({@code magic:int version:byte nonce:byte[16]} from the client and
+ * {@code nonce:byte[16]} from the server). The session key is derived from both nonces and the pre-shared access key
+ * via HMAC-SHA256. Afterwards all messages are sent as AES/GCM encrypted frames ({@code length:int frame:byte[length]})
+ * using the frame's direction and sequence number as IV. Hence a peer not knowing the access key can neither read nor
+ * forge any message and frames cannot be replayed, reordered or reflected.
+ * </p>
+ * <p>
+ * Requests have the form {@code op:byte idLength:short id:byte[idLength] secret:byte[]} and responses the form
+ * {@code status:byte secret:byte[]}.
+ * </p>
+ */
+final class RemoteProtocol {
+
+	static final byte OP_GET = 1;
+	static final byte OP_SET = 2;
+	static final byte OP_SET_GENERATED = 3;
+	static final byte OP_DELETE = 4;
+
+	static final byte STATUS_OK = 0;
+	static final byte STATUS_NOT_FOUND = 1;
+	static final byte STATUS_ERROR = 2;
+
+	static final int MIN_ACCESS_KEY_LENGTH = 16;
+
+	private static final int MAGIC = 0x52534b50;
+	private static final byte VERSION = 1;
+	private static final int NONCE_LENGTH = 16;
+	private static final int SESSION_KEY_LENGTH = 16;
+	private static final int TAG_LENGTH = 16;
+	private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+	private static final int CLIENT_DIRECTION = 0;
+	private static final int SERVER_DIRECTION = 1;
+	private static final String SESSION_KEY_ALG = "HmacSHA256";
+	private static final String FRAME_CIPHER_ALG = "AES/GCM/NoPadding";
+	private static final byte[] SESSION_KEY_LABEL = RemoteProtocol.class.getName().getBytes(StandardCharsets.US_ASCII);
+
+	private RemoteProtocol() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Performs the client side of the handshake.
+	 *
+	 * @param socket the connected socket.
+	 * @param accessKey the pre-shared access key.
+	 * @return the established {@linkplain Channel}.
+	 * @throws IOException if an I/O error occurs during the handshake.
+	 */
+	static Channel connect(Socket socket, byte[] accessKey) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		byte[] clientNonce = newNonce();
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.write(clientNonce);
+		out.flush();
+
+		byte[] serverNonce = new byte[NONCE_LENGTH];
+
+		in.readFully(serverNonce);
+		return new Channel(socket, in, out, sessionKey(accessKey, clientNonce, serverNonce), CLIENT_DIRECTION);
+	}
+
+	/**
+	 * Performs the server side of the handshake.
+	 *
+	 * @param socket the accepted socket.
+	 * @param accessKey the pre-shared access key.
+	 * @return the established {@linkplain Channel}.
+	 * @throws IOException if an I/O error occurs during the handshake.
+	 */
+	static Channel accept(Socket socket, byte[] accessKey) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		int magic = in.readInt();
+		byte version = in.readByte();
+
+		if (magic != MAGIC || version != VERSION) {
+			throw new IOException("Unexpected protocol header: " + Integer.toHexString(magic) + "/" + version);
+		}
+
+		byte[] clientNonce = new byte[NONCE_LENGTH];
+
+		in.readFully(clientNonce);
+
+		byte[] serverNonce = newNonce();
+
+		out.write(serverNonce);
+		out.flush();
+		return new Channel(socket, in, out, sessionKey(accessKey, clientNonce, serverNonce), SERVER_DIRECTION);
+	}
+
+	static byte[] encodeRequest(byte op, String id, byte @Nullable [] secret) {
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+
+		if (idBytes.length > 0xffff) {
+			throw new IllegalArgumentException("Secret id too long: " + id);
+		}
+
+		ByteBuffer request = ByteBuffer.allocate(3 + idBytes.length + (secret != null ? secret.length : 0));
+
+		request.put(op).putShort((short) idBytes.length).put(idBytes);
+		if (secret != null) {
+			request.put(secret);
+		}
+		return request.array();
+	}
+
+	static byte requestOp(byte[] request) throws IOException {
+		checkLength(request, 3);
+		return request[0];
+	}
+
+	static String requestId(byte[] request) throws IOException {
+		int idLength = ByteBuffer.wrap(request, 1, 2).getShort() & 0xffff;
+
+		checkLength(request, 3 + idLength);
+		return new String(request, 3, idLength, StandardCharsets.UTF_8);
+	}
+
+	static void checkId(String id) throws IOException {
+		boolean valid = !id.isEmpty() && !id.contains("..");
+
+		for (int charIndex = 0; valid && charIndex < id.length(); charIndex++) {
+			char idChar = id.charAt(charIndex);
+
+			valid = idChar != '/' && idChar != '\\' && !Character.isISOControl(idChar);
+		}
+		if (!valid) {
+			throw new IOException("Invalid secret id: " + id);
+		}
+	}
+
+	static byte[] requestSecret(byte[] request) {
+		int idLength = ByteBuffer.wrap(request, 1, 2).getShort() & 0xffff;
+
+		return Arrays.copyOfRange(request, 3 + idLength, request.length);
+	}
+
+	static byte[] encodeResponse(byte status, byte @Nullable [] secret) {
+		byte[] response = new byte[1 + (secret != null ? secret.length : 0)];
+
+		response[0] = status;
+		if (secret != null) {
+			System.arraycopy(secret, 0, response, 1, secret.length);
+		}
+		return response;
+	}
+
+	static byte responseStatus(byte[] response) throws IOException {
+		checkLength(response, 1);
+		return response[0];
+	}
+
+	static byte[] responseSecret(byte[] response) {
+		return Arrays.copyOfRange(response, 1, response.length);
+	}
+
+	private static void checkLength(byte[] message, int length) throws IOException {
+		if (message.length < length) {
+			throw new IOException("Truncated message");
+		}
+	}
+
+	private static byte[] newNonce() {
+		byte[] nonce = new byte[NONCE_LENGTH];
+
+		Randomness.get().nextBytes(nonce);
+		return nonce;
+	}
+
+	private static SecretKeySpec sessionKey(byte[] accessKey, byte[] clientNonce, byte[] serverNonce)
+			throws IOException {
+		byte[] sessionKeyBytes = null;
+		SecretKeySpec sessionKey;
+
+		try {
+			Mac mac = Mac.getInstance(SESSION_KEY_ALG);
+
+			mac.init(new SecretKeySpec(accessKey, SESSION_KEY_ALG));
+			mac.update(SESSION_KEY_LABEL);
+			mac.update(clientNonce);
+			mac.update(serverNonce);
+			sessionKeyBytes = mac.doFinal();
+			sessionKey = new SecretKeySpec(sessionKeyBytes, 0, SESSION_KEY_LENGTH, "AES");
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Failed to derive session key", e);
+		} finally {
+			if (sessionKeyBytes != null) {
+				Arrays.fill(sessionKeyBytes, (byte) 0);
+			}
+		}
+		return sessionKey;
+	}
+
+	/**
+	 * An established connection exchanging encrypted and authenticated messages.
+	 */
+	static final class Channel implements Closeable {
+
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final SecretKeySpec sessionKey;
+		private final int sendDirection;
+		private long sendSequence = 0L;
+		private long receiveSequence = 0L;
+
+		Channel(Socket socket, DataInputStream in, DataOutputStream out, SecretKeySpec sessionKey, int sendDirection) {
+			this.socket = socket;
+			this.in = in;
+			this.out = out;
+			this.sessionKey = sessionKey;
+			this.sendDirection = sendDirection;
+		}
+
+		/**
+		 * Sends a message.
+		 * <p>
+		 * The submitted message array is owned by the caller.
+		 * </p>
+		 *
+		 * @param message the message to send.
+		 * @throws IOException if an I/O error occurs while sending the message.
+		 */
+		void send(byte[] message) throws IOException {
+			byte[] frame;
+
+			try {
+				frame = frameCipher(javax.crypto.Cipher.ENCRYPT_MODE, this.sendDirection, this.sendSequence)
+						.doFinal(message);
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Failed to encrypt frame", e);
+			}
+			this.sendSequence++;
+			this.out.writeInt(frame.length);
+			this.out.write(frame);
+			this.out.flush();
+		}
+
+		/**
+		 * Receives a message.
+		 * <p>
+		 * The returned message array is owned by the caller (and zeroized after use).
+		 * </p>
+		 *
+		 * @return the received message or {@code null} if the peer has closed the connection.
+		 * @throws IOException if an I/O error occurs while receiving the message or if the message is not authentic.
+		 */
+		byte @Nullable [] receive() throws IOException {
+			int frameLength;
+
+			try {
+				frameLength = this.in.readInt();
+			} catch (EOFException e) {
+				frameLength = -1;
+			}
+
+			byte[] message = null;
+
+			if (frameLength >= 0) {
+				if (frameLength < TAG_LENGTH || frameLength > MAX_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length: " + frameLength);
+				}
+
+				byte[] frame = new byte[frameLength];
+
+				this.in.readFully(frame);
+				try {
+					message = frameCipher(javax.crypto.Cipher.DECRYPT_MODE, this.sendDirection ^ 1,
+							this.receiveSequence).doFinal(frame);
+				} catch (GeneralSecurityException e) {
+					throw new IOException("Frame authentication failed (access key mismatch?)", e);
+				}
+				this.receiveSequence++;
+			}
+			return message;
+		}
+
+		private javax.crypto.Cipher frameCipher(int mode, int direction, long sequence)
+				throws GeneralSecurityException {
+			javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(FRAME_CIPHER_ALG);
+			byte[] iv = ByteBuffer.allocate(12).putInt(direction).putLong(sequence).array();
+
+			cipher.init(mode, this.sessionKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+			return cipher;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.socket.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.check.Check;
+import de.carne.boot.logging.Log;
+
+/**
+ * {@linkplain SecretStore} implementation fetching its secrets from a {@linkplain SecretKeyServer}.
+ * <p>
+ * This allows multiple nodes to share the secrets of their {@linkplain SecureStorage} instances. Secrets generated
+ * concurrently by multiple nodes for the same id are resolved by the server, which keeps the first one stored.
+ * </p>
+ * <p>
+ * Fetched secrets are cached locally for the time defined by the system property
+ * {@code de.carne.security.secret.RemoteSecretStore.ttl} (in milliseconds, default: 60000). Afterwards a cached secret
+ * is still returned immediately, while it is refreshed in the background. If the server is unreachable, cached secrets
+ * are served for up to {@code de.carne.security.secret.RemoteSecretStore.maxStale} milliseconds (default: 3600000)
+ * after they have been fetched. Both times can also be set per store via
+ * {@linkplain #open(InetSocketAddress, byte[], long, long, TimeUnit)}. Cached secrets are zeroized as soon as they are
+ * replaced or discarded. Concurrent fetches of the same id are coalesced into a single request.
+ * </p>
+ * <p>
+ * Requests are sent sequentially via a single connection. Network operations time out after
+ * {@code de.carne.security.secret.RemoteSecretStore.timeout} milliseconds (default: 5000). After a failed request the
+ * server is considered unreachable (without any further connection attempt) for
+ * {@code de.carne.security.secret.RemoteSecretStore.retryDelay} milliseconds (default: 1000).
+ * </p>
+ */
+public final class RemoteSecretStore extends SecretStore {
+
+	private static final Log LOG = new Log();
+
+	private static final long TTL = TimeUnit.MILLISECONDS
+			.toNanos(Long.getLong(RemoteSecretStore.class.getName() + ".ttl", 60000L).longValue());
+
+	private static final long MAX_STALE = TimeUnit.MILLISECONDS
+			.toNanos(Long.getLong(RemoteSecretStore.class.getName() + ".maxStale", 3600000L).longValue());
+
+	private static final int TIMEOUT = Integer.getInteger(RemoteSecretStore.class.getName() + ".timeout", 5000)
+			.intValue();
+
+	private static final long RETRY_DELAY = TimeUnit.MILLISECONDS
+			.toNanos(Long.getLong(RemoteSecretStore.class.getName() + ".retryDelay", 1000L).longValue());
+
+	private static final class Refresher {
+
+		static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, RemoteSecretStore.class.getSimpleName());
+
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		private Refresher() {
+			// prevent instantiation
+		}
+
+	}
+
+	private final InetSocketAddress server;
+	private final byte[] accessKey;
+	private final long ttl;
+	private final long maxStale;
+	private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+	private final Object cacheLock = new Object();
+	// Incremented on every modification, so that concurrently fetched secrets do not override it
+	private long generation = 0L;
+	private final Map<String, CompletableFuture<@Nullable CacheEntry>> fetches = new ConcurrentHashMap<>();
+	private final Object connectionLock = new Object();
+	private RemoteProtocol.@Nullable Channel channel = null;
+	private boolean unreachable = false;
+	private long unreachableSince = 0L;
+	private volatile long lastSweep = System.nanoTime();
+
+	private RemoteSecretStore(InetSocketAddress server, byte[] accessKey, long ttl, long maxStale) {
+		this.server = server;
+		this.accessKey = accessKey;
+		this.ttl = ttl;
+		this.maxStale = maxStale;
+	}
+
+	/**
+	 * Opens a {@linkplain RemoteSecretStore} for a specific {@linkplain SecretKeyServer}.
+	 * <p>
+	 * The connection to the server is established on first use. The submitted access key array is owned by the caller
+	 * (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param server the address of the {@linkplain SecretKeyServer} to use (unresolved addresses are resolved on every
+	 * connect).
+	 * @param accessKey the pre-shared access key of the server (at least 16 bytes).
+	 * @return the opened {@linkplain RemoteSecretStore}.
+	 */
+	public static RemoteSecretStore open(InetSocketAddress server, byte[] accessKey) {
+		return open(server, accessKey, TTL, MAX_STALE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Opens a {@linkplain RemoteSecretStore} for a specific {@linkplain SecretKeyServer} using specific cache times.
+	 * <p>
+	 * The connection to the server is established on first use. The submitted access key array is owned by the caller
+	 * (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param server the address of the {@linkplain SecretKeyServer} to use (unresolved addresses are resolved on every
+	 * connect).
+	 * @param accessKey the pre-shared access key of the server (at least 16 bytes).
+	 * @param ttl the time after which a cached secret is refreshed.
+	 * @param maxStale the time after which a cached secret is no longer served if it cannot be refreshed.
+	 * @param unit the {@linkplain TimeUnit} of the cache times.
+	 * @return the opened {@linkplain RemoteSecretStore}.
+	 */
+	public static RemoteSecretStore open(InetSocketAddress server, byte[] accessKey, long ttl, long maxStale,
+			TimeUnit unit) {
+		Check.isTrue(accessKey.length >= RemoteProtocol.MIN_ACCESS_KEY_LENGTH, "Access key too short");
+		Check.isTrue(ttl > 0 && maxStale >= ttl, "Invalid cache times");
+
+		return new RemoteSecretStore(server, accessKey.clone(), unit.toNanos(ttl), unit.toNanos(maxStale));
+	}
+
+	@Override
+	public boolean isAvailable() {
+		// Report the store as available even if the server is currently unreachable, as falling back to a local store
+		// would result in different secrets on different nodes
+		return true;
+	}
+
+	@Override
+	public boolean hasSecret(String id) throws IOException {
+		CacheEntry entry = this.cache.get(id);
+
+		return (entry != null && isUsable(entry, System.nanoTime())) || fetch(id) != null;
+	}
+
+	@Override
+	protected void removeSecret(String id) throws IOException {
+		request(RemoteProtocol.OP_DELETE, id, null);
+		synchronized (this.cacheLock) {
+			this.generation++;
+			discard(id);
+		}
+	}
+
+	@Override
+	public byte @Nullable [] getSecret(String id) throws IOException {
+		byte[] secret = null;
+		boolean done = false;
+
+		while (!done) {
+			long now = System.nanoTime();
+			CacheEntry entry = this.cache.get(id);
+
+			if (entry == null || !isUsable(entry, now)) {
+				entry = fetch(id);
+			} else if (!isFresh(entry, now)) {
+				refresh(id);
+			}
+			if (entry != null) {
+				secret = entry.copy();
+				// Retry in case the entry has been replaced (and zeroized) in the meantime
+				done = secret != null;
+			} else {
+				done = true;
+			}
+		}
+		return secret;
+	}
+
+	@Override
+	public void setSecret(String id, byte[] secret) throws IOException {
+		request(RemoteProtocol.OP_SET, id, secret);
+		synchronized (this.cacheLock) {
+			this.generation++;
+			cache(id, secret.clone());
+		}
+	}
+
+	@Override
+	byte[] setGeneratedSecret(String id, byte[] secret) throws IOException {
+		byte[] storedSecret = request(RemoteProtocol.OP_SET_GENERATED, id, secret);
+
+		if (storedSecret == null) {
+			throw new IOException("Server " + this.server + " did not return secret for id: " + id);
+		}
+		synchronized (this.cacheLock) {
+			this.generation++;
+			cache(id, storedSecret.clone());
+		}
+
+		byte[] effectiveSecret = storedSecret;
+
+		if (Arrays.equals(secret, storedSecret)) {
+			Arrays.fill(storedSecret, (byte) 0);
+			effectiveSecret = secret;
+		}
+		return effectiveSecret;
+	}
+
+	@Override
+	protected String scope() {
+		return getClass().getName() + ":" + this.server;
+	}
+
+	private @Nullable CacheEntry fetch(String id) throws IOException {
+		CompletableFuture<@Nullable CacheEntry> fetch = new CompletableFuture<>();
+		CompletableFuture<@Nullable CacheEntry> pendingFetch = this.fetches.putIfAbsent(id, fetch);
+		CacheEntry entry;
+
+		if (pendingFetch == null) {
+			try {
+				entry = load(id);
+				fetch.complete(entry);
+			} catch (IOException | RuntimeException e) {
+				fetch.completeExceptionally(e);
+				throw e;
+			} finally {
+				this.fetches.remove(id, fetch);
+			}
+		} else {
+			entry = await(pendingFetch);
+		}
+		return entry;
+	}
+
+	private void refresh(String id) {
+		if (!this.fetches.containsKey(id)) {
+			Refresher.INSTANCE.execute(() -> {
+				try {
+					fetch(id);
+				} catch (IOException e) {
+					LOG.debug(e, "Failed to refresh secret ''{0}'' from {1} (serving cached secret)", id, this.server);
+				}
+			});
+		}
+	}
+
+	private @Nullable CacheEntry load(String id) throws IOException {
+		long loadGeneration;
+
+		synchronized (this.cacheLock) {
+			loadGeneration = this.generation;
+		}
+
+		byte[] secret = request(RemoteProtocol.OP_GET, id, null);
+		CacheEntry entry = null;
+
+		synchronized (this.cacheLock) {
+			// A secret set or deleted while loading takes precedence over the loaded one
+			if (this.generation != loadGeneration) {
+				if (secret != null) {
+					Arrays.fill(secret, (byte) 0);
+				}
+				entry = this.cache.get(id);
+			} else if (secret != null) {
+				entry = cache(id, secret);
+			} else {
+				discard(id);
+			}
+		}
+		return entry;
+	}
+
+	private static @Nullable CacheEntry await(CompletableFuture<@Nullable CacheEntry> fetch) throws IOException {
+		CacheEntry entry;
+
+		try {
+			entry = fetch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for fetch");
+
+			interrupted.initCause(e);
+			throw interrupted;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			throw (cause instanceof IOException ? (IOException) cause : new IOException(cause));
+		}
+		return entry;
+	}
+
+	private CacheEntry cache(String id, byte[] secret) {
+		long now = System.nanoTime();
+		CacheEntry entry = new CacheEntry(secret, now);
+		CacheEntry replaced = this.cache.put(id, entry);
+
+		if (replaced != null) {
+			replaced.dispose();
+		}
+		if (now - this.lastSweep > this.ttl) {
+			this.lastSweep = now;
+			sweep(now);
+		}
+		return entry;
+	}
+
+	private boolean isFresh(CacheEntry entry, long now) {
+		return now - entry.fetched < this.ttl;
+	}
+
+	private boolean isUsable(CacheEntry entry, long now) {
+		return now - entry.fetched < this.maxStale;
+	}
+
+	private void discard(String id) {
+		CacheEntry discarded = this.cache.remove(id);
+
+		if (discarded != null) {
+			discarded.dispose();
+		}
+	}
+
+	private void sweep(long now) {
+		for (Map.Entry<String, CacheEntry> cacheEntry : this.cache.entrySet()) {
+			CacheEntry entry = cacheEntry.getValue();
+
+			if (!isUsable(entry, now) && this.cache.remove(cacheEntry.getKey(), entry)) {
+				entry.dispose();
+			}
+		}
+	}
+
+	private byte @Nullable [] request(byte op, String id, byte @Nullable [] secret) throws IOException {
+		byte[] request = RemoteProtocol.encodeRequest(op, id, secret);
+		byte[] response = null;
+		byte[] responseSecret;
+
+		try {
+			synchronized (this.connectionLock) {
+				response = request0(request);
+			}
+
+			byte status = RemoteProtocol.responseStatus(response);
+
+			if (status == RemoteProtocol.STATUS_ERROR) {
+				throw new IOException("Server " + this.server + " failed to process request for id: " + id);
+			}
+			responseSecret = (status == RemoteProtocol.STATUS_OK ? RemoteProtocol.responseSecret(response) : null);
+		} finally {
+			Arrays.fill(request, (byte) 0);
+			if (response != null) {
+				Arrays.fill(response, (byte) 0);
+			}
+		}
+		return responseSecret;
+	}
+
+	private byte[] request0(byte[] request) throws IOException {
+		long now = System.nanoTime();
+
+		if (this.unreachable && now - this.unreachableSince < RETRY_DELAY) {
+			throw new IOException("Server " + this.server + " is unreachable");
+		}
+
+		byte[] response = null;
+		boolean reused = this.channel != null;
+
+		try {
+			response = exchange(request);
+		} catch (IOException e) {
+			closeChannel();
+			// A reused connection may have been closed by the server in the meantime
+			if (!reused) {
+				markUnreachable(now);
+				throw e;
+			}
+			LOG.debug(e, "Reconnecting to {0}...", this.server);
+		}
+		if (response == null) {
+			try {
+				response = exchange(request);
+			} catch (IOException e) {
+				closeChannel();
+				markUnreachable(now);
+				throw e;
+			}
+		}
+		this.unreachable = false;
+		return response;
+	}
+
+	private byte[] exchange(byte[] request) throws IOException {
+		RemoteProtocol.Channel currentChannel = this.channel;
+
+		if (currentChannel == null) {
+			Socket socket = new Socket();
+
+			// Unresolved addresses are resolved on every connect to follow address changes
+			InetSocketAddress address = (this.server.isUnresolved()
+					? new InetSocketAddress(this.server.getHostString(), this.server.getPort())
+					: this.server);
+
+			try {
+				socket.connect(address, TIMEOUT);
+				socket.setSoTimeout(TIMEOUT);
+				socket.setTcpNoDelay(true);
+				currentChannel = RemoteProtocol.connect(socket, this.accessKey);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			this.channel = currentChannel;
+		}
+		currentChannel.send(request);
+
+		byte[] response = currentChannel.receive();
+
+		if (response == null) {
+			throw new IOException("Connection closed by server " + this.server);
+		}
+		return response;
+	}
+
+	private void markUnreachable(long now) {
+		if (!this.unreachable) {
+			LOG.warning("Secret key server {0} is unreachable", this.server);
+		}
+		this.unreachable = true;
+		this.unreachableSince = now;
+	}
+
+	private void closeChannel() {
+		RemoteProtocol.Channel currentChannel = this.channel;
+
+		this.channel = null;
+		if (currentChannel != null) {
+			try {
+				currentChannel.close();
+			} catch (IOException e) {
+				LOG.debug(e, "Failed to close connection to {0}", this.server);
+			}
+		}
+	}
+
+	private static final class CacheEntry {
+
+		private final byte[] secret;
+		final long fetched;
+		private boolean disposed = false;
+
+		CacheEntry(byte[] secret, long fetched) {
+			this.secret = secret;
+			this.fetched = fetched;
+		}
+
+		synchronized byte @Nullable [] copy() {
+			return (this.disposed ? null : this.secret.clone());
+		}
+
+		synchronized void dispose() {
+			this.disposed = true;
+			Arrays.fill(this.secret, (byte) 0);
+		}
+
+	}
+
+}
@@ -18,31 +18,67 @@ package de.carne.security.secret;
 
 import java.security.GeneralSecurityException;
 
+import org.eclipse.jdt.annotation.Nullable;
+
 /**
  * Descendants of this class are used to wrap sensitive data and make sure it is properly overwritten in memory when it
  * is no longer used.
+ * <p>
+ * On Java 11 and later secrets which become unreachable without being closed can be zeroized automatically (system
+ * property {@code de.carne.security.secret.Secret.cleaner}) and reported as leaks together with their creation stack
+ * for every n-th secret (system property {@code de.carne.security.secret.Secret.leakSampling}). Both are disabled by
+ * default.
+ * </p>
  *
  * @param <T> the actual secret type.
  */
 public abstract class Secret<T> implements AutoCloseable {
 
 	private final T data;
+	private final @Nullable Object tracking;
 
 	protected Secret(T data) {
 		this.data = data;
+		this.tracking = SecretTracker.track(this, data);
 	}
 
 	public void accept(SecretConsumer<T> consumer) throws GeneralSecurityException {
-		consumer.accept(this.data);
+		try {
+			consumer.accept(this.data);
+		} finally {
+			// Keep this instance reachable, as its tracker may otherwise zeroize the data while it is still in use
+			SecretTracker.reachabilityFence(this);
+		}
 	}
 
 	public <E> E apply(SecretFunction<T, E> function) throws GeneralSecurityException {
-		return function.apply(this.data);
+		try {
+			return function.apply(this.data);
+		} finally {
+			SecretTracker.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Gets the number of unclosed secrets reported so far.
+	 * <p>
+	 * Only sampled secrets are counted (see system property {@code de.carne.security.secret.Secret.leakSampling}).
+	 * </p>
+	 *
+	 * @return the number of unclosed secrets reported so far.
+	 */
+	public static long leaks() {
+		return SecretTracker.leaks();
+	}
+
+	final T data() {
+		return this.data;
 	}
 
 	@Override
 	public final void close() {
 		disposeSecret(this.data);
+		SecretTracker.untrack(this.tracking);
 	}
 
 	/**
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.boot.platform.Platform;
+
+/**
+ * In-memory cache for the secret files of a single directory.
+ * <p>
+ * Watching caches (see {@linkplain FileCacheMode#WATCH}) invalidate cached secrets via a {@linkplain WatchService}
+ * registered for the directory. All directories share a single {@linkplain WatchService} and watcher thread. Polling
+ * caches (see {@linkplain FileCacheMode#POLL}) as well as watching caches whose directory cannot be registered expire
+ * cached secrets after the configured poll interval (system property
+ * {@code de.carne.security.secret.SecretFileCache.pollInterval} in milliseconds, default 1000). Invalidated secrets are
+ * zeroized.
+ * </p>
+ * <p>
+ * Each cache holds at most {@code de.carne.security.secret.SecretFileCache.maxEntries} (default 1024) secrets and
+ * evicts (and zeroizes) the least recently used one as soon as this limit is exceeded. Secret files in sub-directories
+ * of the cache's directory (e.g. shards) can be cached as well, but only changes to the directory's direct children
+ * are watched.
+ * </p>
+ */
+final class SecretFileCache {
+
+	private static final Log LOG = new Log();
+
+	private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(Long.getLong(SecretFileCache.class.getName() + ".pollInterval", 1000L));
+
+	private static final int MAX_ENTRIES = Math
+			.max(Integer.getInteger(SecretFileCache.class.getName() + ".maxEntries", 1024), 1);
+
+	private static final Map<Path, SecretFileCache> WATCHING_CACHES = new ConcurrentHashMap<>();
+
+	private static final Map<Path, SecretFileCache> POLLING_CACHES = new ConcurrentHashMap<>();
+
+	private static final Map<WatchKey, SecretFileCache> WATCHED_CACHES = new ConcurrentHashMap<>();
+
+	private static final class Watcher {
+
+		static final @Nullable WatchService SERVICE = startWatcher();
+
+		private Watcher() {
+			// prevent instantiation
+		}
+
+	}
+
+	@FunctionalInterface
+	interface Loader {
+
+		byte @Nullable [] load(Path file) throws IOException;
+
+	}
+
+	private final Path directory;
+	private final boolean watch;
+	private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long generation = 0L;
+	private boolean watched;
+
+	private SecretFileCache(Path directory, boolean watch) {
+		this.directory = directory;
+		this.watch = watch;
+		this.watched = watch && register();
+	}
+
+	/**
+	 * Gets the default caching mode for the current platform.
+	 * <p>
+	 * Only the Linux and Windows JDKs provide a native {@linkplain WatchService}. On all other platforms the JDK falls
+	 * back to a polling {@linkplain WatchService}, which is slower to report changes than our own polling.
+	 * </p>
+	 *
+	 * @return the default caching mode for the current platform.
+	 */
+	static FileCacheMode defaultMode() {
+		return (Platform.IS_LINUX || Platform.IS_WINDOWS ? FileCacheMode.WATCH : FileCacheMode.POLL);
+	}
+
+	/**
+	 * Gets the {@linkplain SecretFileCache} for a specific directory.
+	 *
+	 * @param directory the directory to get the cache for.
+	 * @param watch whether to get a watching ({@code true}) or a polling ({@code false}) cache.
+	 * @return the {@linkplain SecretFileCache} for the given directory.
+	 */
+	public static SecretFileCache forDirectory(Path directory, boolean watch) {
+		Path normalizedDirectory = directory.toAbsolutePath().normalize();
+
+		return (watch ? WATCHING_CACHES.computeIfAbsent(normalizedDirectory, key -> new SecretFileCache(key, true))
+				: POLLING_CACHES.computeIfAbsent(normalizedDirectory, key -> new SecretFileCache(key, false)));
+	}
+
+	/**
+	 * Gets a secret.
+	 *
+	 * @param file the secret file to get (located in or below the cache's directory).
+	 * @param loader the {@linkplain Loader} to use in case the secret is not yet cached.
+	 * @return a copy of the secret or {@code null} if the secret file does not exist.
+	 * @throws IOException if an I/O error occurs while loading the secret.
+	 */
+	public byte @Nullable [] get(Path file, Loader loader) throws IOException {
+		Path entryKey = entryKey(file);
+		byte @Nullable [] secret = null;
+		boolean cached = false;
+		long loadGeneration;
+
+		synchronized (this) {
+			Entry entry = this.entries.get(entryKey);
+
+			if (entry != null && (this.watched || System.nanoTime() - entry.cached < POLL_INTERVAL_NANOS)) {
+				secret = entry.copy();
+				cached = true;
+			}
+			loadGeneration = this.generation;
+		}
+		if (!cached) {
+			secret = loader.load(file);
+			synchronized (this) {
+				// Only cache the loaded secret if it has not been invalidated in the meantime
+				if (this.generation == loadGeneration) {
+					replace(entryKey, new Entry(secret));
+				}
+			}
+		}
+		return secret;
+	}
+
+	/**
+	 * Updates a secret after it has been written or deleted.
+	 *
+	 * @param file the updated secret file.
+	 * @param secret the new secret or {@code null} if the secret file has been deleted.
+	 */
+	public synchronized void put(Path file, byte @Nullable [] secret) {
+		if (this.watch && !this.watched) {
+			// Directory may have been created in the meantime
+			this.watched = register();
+		}
+		this.generation++;
+		replace(entryKey(file), new Entry(secret));
+	}
+
+	private Path entryKey(Path file) {
+		return this.directory.relativize(file.toAbsolutePath().normalize());
+	}
+
+	private void replace(Path entryKey, @Nullable Entry entry) {
+		Entry replaced = (entry != null ? this.entries.put(entryKey, entry) : this.entries.remove(entryKey));
+
+		if (replaced != null) {
+			replaced.dispose();
+		}
+
+		// Iteration starts with the least recently used entry
+		Iterator<Entry> entryIterator = this.entries.values().iterator();
+
+		while (this.entries.size() > MAX_ENTRIES && entryIterator.hasNext()) {
+			entryIterator.next().dispose();
+			entryIterator.remove();
+		}
+	}
+
+	private synchronized void invalidate(Path entryKey) {
+		this.generation++;
+		replace(entryKey, null);
+	}
+
+	private synchronized void invalidateAll() {
+		this.generation++;
+		this.entries.values().forEach(Entry::dispose);
+		this.entries.clear();
+	}
+
+	private synchronized void stopWatching() {
+		LOG.debug("Watching of secret directory ''{0}'' stopped; reverting to polling", this.directory);
+
+		this.watched = false;
+		invalidateAll();
+	}
+
+	private boolean register() {
+		boolean registered = false;
+
+		WatchService watchService = Watcher.SERVICE;
+
+		if (watchService != null) {
+			try {
+				WatchKey watchKey = this.directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+				WATCHED_CACHES.put(watchKey, this);
+				registered = true;
+			} catch (IOException | UnsupportedOperationException | IllegalArgumentException
+					| ClosedWatchServiceException e) {
+				Exceptions.ignore(e);
+			}
+		}
+		if (registered) {
+			LOG.debug("Watching secret directory ''{0}''", this.directory);
+		} else {
+			LOG.debug("Polling secret directory ''{0}''", this.directory);
+		}
+		return registered;
+	}
+
+	private static @Nullable WatchService startWatcher() {
+		WatchService watchService = null;
+
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			Exceptions.ignore(e);
+		}
+		if (watchService != null) {
+			WatchService startedWatchService = watchService;
+			Thread watcher = new Thread(() -> watch(startedWatchService), SecretFileCache.class.getSimpleName());
+
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		return watchService;
+	}
+
+	private static void watch(WatchService watchService) {
+		try {
+			while (true) {
+				WatchKey watchKey = watchService.take();
+				SecretFileCache cache = WATCHED_CACHES.get(watchKey);
+
+				List<WatchEvent<?>> watchEvents = watchKey.pollEvents();
+
+				if (cache != null) {
+					for (WatchEvent<?> watchEvent : watchEvents) {
+						Object context = watchEvent.context();
+
+						if (watchEvent.kind() != StandardWatchEventKinds.OVERFLOW && context instanceof Path) {
+							cache.invalidate((Path) context);
+						} else {
+							cache.invalidateAll();
+						}
+					}
+				}
+				if (!watchKey.reset()) {
+					WATCHED_CACHES.remove(watchKey);
+					if (cache != null) {
+						cache.stopWatching();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			Exceptions.ignore(e);
+		}
+		WATCHED_CACHES.values().forEach(SecretFileCache::stopWatching);
+		WATCHED_CACHES.clear();
+	}
+
+	private static final class Entry {
+
+		final byte @Nullable [] secret;
+		final long cached = System.nanoTime();
+
+		Entry(byte @Nullable [] secret) {
+			this.secret = (secret != null ? Arrays.copyOf(secret, secret.length) : null);
+		}
+
+		byte @Nullable [] copy() {
+			return (this.secret != null ? Arrays.copyOf(this.secret, this.secret.length) : null);
+		}
+
+		void dispose() {
+			if (this.secret != null) {
+				Arrays.fill(this.secret, (byte) 0);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.check.Check;
+import de.carne.boot.logging.Log;
+
+/**
+ * Reference server for {@linkplain RemoteSecretStore} clients.
+ * <p>
+ * The server serves the secrets of a local {@linkplain SecretStore} to all clients knowing the server's pre-shared
+ * access key (see {@linkplain RemoteProtocol} for the protocol details). All requests are processed one after another,
+ * which makes storing generated secrets atomic. Each client connection is handled by a dedicated daemon thread.
+ * </p>
+ * <p>
+ * At most {@code de.carne.security.secret.SecretKeyServer.maxConnections} connections (default: 64) are served
+ * concurrently. Further connections are closed right after they have been accepted. A client has to complete the
+ * handshake within {@code de.carne.security.secret.SecretKeyServer.handshakeTimeout} milliseconds (default: 5000)
+ * and idle connections are closed after {@code de.carne.security.secret.SecretKeyServer.idleTimeout} milliseconds
+ * (default: 60000). Requests for secret ids which are empty or contain path separators, {@code ..} or control
+ * characters are answered with an error.
+ * </p>
+ * <p>
+ * The server can be run standalone via {@code SecretKeyServer <port> <access key file> <secret home>}. It then listens
+ * on the loopback address and stores its secrets in the given directory.
+ * </p>
+ */
+public final class SecretKeyServer implements AutoCloseable {
+
+	private static final Log LOG = new Log();
+
+	private static final int MAX_CONNECTIONS = Integer
+			.getInteger(SecretKeyServer.class.getName() + ".maxConnections", 64).intValue();
+
+	private static final int HANDSHAKE_TIMEOUT = Integer
+			.getInteger(SecretKeyServer.class.getName() + ".handshakeTimeout", 5000).intValue();
+
+	private static final int IDLE_TIMEOUT = Integer.getInteger(SecretKeyServer.class.getName() + ".idleTimeout", 60000)
+			.intValue();
+
+	private final ServerSocket serverSocket;
+	private final byte[] accessKey;
+	private final SecretStore secretStore;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS);
+
+	private SecretKeyServer(ServerSocket serverSocket, byte[] accessKey, SecretStore secretStore) {
+		this.serverSocket = serverSocket;
+		this.accessKey = accessKey;
+		this.secretStore = secretStore;
+	}
+
+	/**
+	 * Starts a {@linkplain SecretKeyServer} storing its secrets in a specific directory.
+	 * <p>
+	 * The submitted access key array is owned by the caller (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param address the address to listen on (use port {@code 0} to listen on any free port).
+	 * @param accessKey the pre-shared access key clients have to use (at least 16 bytes).
+	 * @param secretHome the directory path to use for secret storage.
+	 * @return the started {@linkplain SecretKeyServer}.
+	 * @throws IOException if an I/O error occurs while starting the server.
+	 */
+	public static SecretKeyServer start(InetSocketAddress address, byte[] accessKey, Path secretHome)
+			throws IOException {
+		return start(address, accessKey, new GenericSecretStore(secretHome));
+	}
+
+	/**
+	 * Starts a {@linkplain SecretKeyServer} serving the secrets of a specific {@linkplain SecretStore}.
+	 * <p>
+	 * The submitted access key array is owned by the caller (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param address the address to listen on (use port {@code 0} to listen on any free port).
+	 * @param accessKey the pre-shared access key clients have to use (at least 16 bytes).
+	 * @param secretStore the {@linkplain SecretStore} to serve.
+	 * @return the started {@linkplain SecretKeyServer}.
+	 * @throws IOException if an I/O error occurs while starting the server.
+	 */
+	public static SecretKeyServer start(InetSocketAddress address, byte[] accessKey, SecretStore secretStore)
+			throws IOException {
+		Check.isTrue(accessKey.length >= RemoteProtocol.MIN_ACCESS_KEY_LENGTH, "Access key too short");
+
+		ServerSocket serverSocket = new ServerSocket();
+		SecretKeyServer server;
+
+		try {
+			serverSocket.bind(address);
+			server = new SecretKeyServer(serverSocket, accessKey.clone(), secretStore);
+		} catch (IOException e) {
+			serverSocket.close();
+			throw e;
+		}
+
+		Thread acceptor = new Thread(server::acceptConnections, SecretKeyServer.class.getSimpleName());
+
+		acceptor.setDaemon(true);
+		acceptor.start();
+		LOG.info("Secret key server listening on {0}", server.getAddress());
+		return server;
+	}
+
+	/**
+	 * Runs a standalone {@linkplain SecretKeyServer} on the loopback address until the process is terminated.
+	 *
+	 * @param args the command line arguments ({@code <port> <access key file> <secret home>}).
+	 * @throws IOException if an I/O error occurs while starting the server.
+	 * @throws InterruptedException if the server is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length != 3) {
+			throw new IllegalArgumentException("Usage: SecretKeyServer <port> <access key file> <secret home>");
+		}
+
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+		byte[] accessKey = Files.readAllBytes(Paths.get(args[1]));
+
+		SecretKeyServer server;
+
+		try {
+			server = start(address, accessKey, Paths.get(args[2]));
+		} finally {
+			Arrays.fill(accessKey, (byte) 0);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				server.close();
+			} catch (IOException e) {
+				Exceptions.ignore(e);
+			}
+		}, SecretKeyServer.class.getSimpleName() + "-shutdown"));
+		new CountDownLatch(1).await();
+	}
+
+	/**
+	 * Gets the address this server is listening on.
+	 *
+	 * @return the address this server is listening on.
+	 */
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) this.serverSocket.getLocalSocketAddress();
+	}
+
+	private void acceptConnections() {
+		while (!this.serverSocket.isClosed()) {
+			try {
+				Socket socket = this.serverSocket.accept();
+
+				if (!this.connectionPermits.tryAcquire()) {
+					LOG.warning("Rejecting connection from {0} (too many connections)",
+							socket.getRemoteSocketAddress());
+
+					socket.close();
+					continue;
+				}
+
+				Thread handler = new Thread(() -> handleConnection(socket),
+						SecretKeyServer.class.getSimpleName() + ":" + socket.getRemoteSocketAddress());
+
+				this.connections.add(socket);
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				if (!this.serverSocket.isClosed()) {
+					LOG.warning(e, "Failed to accept connection on {0}", getAddress());
+				}
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket) {
+		try (RemoteProtocol.Channel channel = acceptChannel(socket)) {
+			byte[] request;
+
+			while ((request = channel.receive()) != null) {
+				byte[] response = handleRequest(request);
+
+				try {
+					channel.send(response);
+				} finally {
+					Arrays.fill(response, (byte) 0);
+				}
+			}
+		} catch (SocketException e) {
+			LOG.debug(e, "Connection from {0} closed", socket.getRemoteSocketAddress());
+		} catch (SocketTimeoutException e) {
+			LOG.debug(e, "Connection from {0} timed out", socket.getRemoteSocketAddress());
+		} catch (IOException e) {
+			LOG.warning(e, "Rejected connection from {0}", socket.getRemoteSocketAddress());
+		} finally {
+			this.connections.remove(socket);
+			this.connectionPermits.release();
+		}
+	}
+
+	private RemoteProtocol.Channel acceptChannel(Socket socket) throws IOException {
+		RemoteProtocol.Channel channel;
+
+		try {
+			// Keep clients from occupying a connection without ever completing the handshake
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+			channel = RemoteProtocol.accept(socket, this.accessKey);
+			socket.setSoTimeout(IDLE_TIMEOUT);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	private byte[] handleRequest(byte[] request) throws IOException {
+		byte op = RemoteProtocol.requestOp(request);
+		String id = RemoteProtocol.requestId(request);
+		byte[] secret = RemoteProtocol.requestSecret(request);
+		byte[] responseSecret = null;
+		byte status = RemoteProtocol.STATUS_OK;
+
+		Arrays.fill(request, (byte) 0);
+		try {
+			RemoteProtocol.checkId(id);
+			synchronized (this.secretStore) {
+				switch (op) {
+				case RemoteProtocol.OP_GET:
+					responseSecret = this.secretStore.getSecret(id);
+					status = (responseSecret != null ? RemoteProtocol.STATUS_OK : RemoteProtocol.STATUS_NOT_FOUND);
+					break;
+				case RemoteProtocol.OP_SET:
+					this.secretStore.setSecret(id, secret);
+					break;
+				case RemoteProtocol.OP_SET_GENERATED:
+					responseSecret = this.secretStore.getSecret(id);
+					if (responseSecret == null) {
+						this.secretStore.setSecret(id, secret);
+						responseSecret = secret.clone();
+					}
+					break;
+				case RemoteProtocol.OP_DELETE:
+					this.secretStore.deleteSecret(id);
+					break;
+				default:
+					throw new IOException("Unexpected request: " + op);
+				}
+			}
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to process request for secret ''{0}''", id);
+
+			status = RemoteProtocol.STATUS_ERROR;
+		} finally {
+			Arrays.fill(secret, (byte) 0);
+		}
+
+		byte[] response = RemoteProtocol.encodeResponse(status, responseSecret);
+
+		if (responseSecret != null) {
+			Arrays.fill(responseSecret, (byte) 0);
+		}
+		return response;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.serverSocket.close();
+		for (Socket connection : this.connections) {
+			connection.close();
+		}
+		Arrays.fill(this.accessKey, (byte) 0);
+		LOG.info("Secret key server stopped");
+	}
+
+}
@@ -18,32 +18,238 @@ package de.carne.security.secret;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jdt.annotation.Nullable;
 
+import de.carne.security.metrics.Audit;
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityEvents;
+import de.carne.security.metrics.SecurityOperation;
+
 /**
  * Base class for all kind of {@linkplain SecretStore}s.
+ * <p>
+ * Additional {@linkplain SecretStore} implementations are made available to {@linkplain SecureStorage#create(String)}
+ * by registering a corresponding {@linkplain SecretStoreProvider} service. Alternatively a {@linkplain SecretStore}
+ * instance can be used directly via {@linkplain SecureStorage#create(String, SecretStore)}.
+ * </p>
  */
-abstract class SecretStore {
+public abstract class SecretStore {
+
+	private static final AtomicLong NEXT_INSTANCE_ID = new AtomicLong();
+
+	private final long instanceId = NEXT_INSTANCE_ID.getAndIncrement();
 
+	/**
+	 * Checks whether this {@linkplain SecretStore} is available on the current platform.
+	 *
+	 * @return {@code true} if this {@linkplain SecretStore} is available.
+	 * @throws IOException if an I/O error occurs while checking the availability.
+	 */
 	public abstract boolean isAvailable() throws IOException;
 
+	/**
+	 * Checks whether a secret with a given id exists.
+	 *
+	 * @param id the id of the secret to check.
+	 * @return {@code true} if the secret exists.
+	 * @throws IOException if an I/O error occurs while accessing the secret.
+	 */
 	public abstract boolean hasSecret(String id) throws IOException;
 
-	public abstract void deleteSecret(String id) throws IOException;
+	/**
+	 * Deletes the secret with a given id.
+	 * <p>
+	 * Besides removing the secret via {@linkplain #removeSecret(String)} this also evicts it from the process wide
+	 * keyring.
+	 * </p>
+	 *
+	 * @param id the id of the secret to delete.
+	 * @throws IOException if an I/O error occurs while deleting the secret.
+	 */
+	public final void deleteSecret(String id) throws IOException {
+		try {
+			removeSecret(id);
+		} finally {
+			Keyring.get().invalidate(this, id);
+		}
+	}
 
+	/**
+	 * Removes the secret with a given id from the underlying storage.
+	 *
+	 * @param id the id of the secret to remove.
+	 * @throws IOException if an I/O error occurs while removing the secret.
+	 * @see #deleteSecret(String)
+	 */
+	protected abstract void removeSecret(String id) throws IOException;
+
+	/**
+	 * Gets the secret with a given id.
+	 * <p>
+	 * The returned array is owned by the caller (and zeroized after use).
+	 * </p>
+	 *
+	 * @param id the id of the secret to get.
+	 * @return the secret or {@code null} if the secret does not exist.
+	 * @throws IOException if an I/O error occurs while reading the secret.
+	 */
 	public abstract byte @Nullable [] getSecret(String id) throws IOException;
 
+	/**
+	 * Sets the secret with a given id (replacing any existing one).
+	 * <p>
+	 * The submitted array is owned by the caller (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param id the id of the secret to set.
+	 * @param secret the secret to set.
+	 * @throws IOException if an I/O error occurs while writing the secret.
+	 */
 	public abstract void setSecret(String id, byte[] secret) throws IOException;
 
-	public final Cipher getCipher(String id) throws IOException, GeneralSecurityException {
+	/**
+	 * Gets the secrets for multiple ids.
+	 * <p>
+	 * The default implementation invokes {@linkplain #getSecret(String)} for every id. The returned arrays are owned
+	 * by the caller (and zeroized after use).
+	 * </p>
+	 *
+	 * @param ids the ids of the secrets to get.
+	 * @return the existing secrets mapped by their id (ids without secret are omitted).
+	 * @throws IOException if an I/O error occurs while reading the secrets.
+	 */
+	public Map<String, byte[]> getSecrets(Collection<String> ids) throws IOException {
+		Map<String, byte[]> secrets = new LinkedHashMap<>();
+		boolean complete = false;
+
+		try {
+			for (String id : ids) {
+				byte[] secret = getSecret(id);
+
+				if (secret != null) {
+					secrets.put(id, secret);
+				}
+			}
+			complete = true;
+		} finally {
+			if (!complete) {
+				zeroize(secrets);
+			}
+		}
+		return secrets;
+	}
+
+	/**
+	 * Sets the secrets for multiple ids (replacing any existing ones).
+	 * <p>
+	 * The default implementation invokes {@linkplain #setSecret(String, byte[])} for every id. The submitted arrays
+	 * are owned by the caller (and zeroized after the call).
+	 * </p>
+	 *
+	 * @param secrets the secrets to set mapped by their id.
+	 * @throws IOException if an I/O error occurs while writing the secrets.
+	 */
+	public void setSecrets(Map<String, byte[]> secrets) throws IOException {
+		for (Map.Entry<String, byte[]> secret : secrets.entrySet()) {
+			setSecret(secret.getKey(), secret.getValue());
+		}
+	}
+
+	/**
+	 * Deletes the secrets for multiple ids.
+	 * <p>
+	 * Besides removing the secrets via {@linkplain #removeSecrets(Collection)} this also evicts them from the process
+	 * wide keyring.
+	 * </p>
+	 *
+	 * @param ids the ids of the secrets to delete.
+	 * @throws IOException if an I/O error occurs while deleting the secrets.
+	 */
+	public final void deleteSecrets(Collection<String> ids) throws IOException {
+		try {
+			removeSecrets(ids);
+		} finally {
+			Keyring keyring = Keyring.get();
+
+			for (String id : ids) {
+				keyring.invalidate(this, id);
+			}
+		}
+	}
+
+	/**
+	 * Removes the secrets for multiple ids from the underlying storage.
+	 * <p>
+	 * The default implementation invokes {@linkplain #removeSecret(String)} for every id.
+	 * </p>
+	 *
+	 * @param ids the ids of the secrets to remove.
+	 * @throws IOException if an I/O error occurs while removing the secrets.
+	 * @see #deleteSecrets(Collection)
+	 */
+	protected void removeSecrets(Collection<String> ids) throws IOException {
+		for (String id : ids) {
+			removeSecret(id);
+		}
+	}
+
+	final Cipher getCipher(String id) throws IOException, GeneralSecurityException {
+		return Keyring.get().getCipher(this, id);
+	}
+
+	final Cipher loadCipher(String id) throws IOException, GeneralSecurityException {
+		long getStart = Metrics.start();
+		Object getEvent = SecurityEvents.beginSecretAccess();
 		byte @Nullable [] secret = getSecret(id);
 
+		Metrics.record(SecurityOperation.GET_SECRET, this, getStart, (secret != null ? secret.length : 0));
+		SecurityEvents.endSecretAccess(getEvent, SecurityOperation.GET_SECRET, this, id);
+		Audit.record(SecurityOperation.GET_SECRET, this, id);
 		if (secret == null) {
-			secret = generateSecret();
-			setSecret(id, secret);
+			long generateStart = Metrics.start();
+			byte[] generatedSecret = generateSecret();
+
+			Metrics.record(SecurityOperation.GENERATE_KEY, this, generateStart, 0L);
+
+			long setStart = Metrics.start();
+			Object setEvent = SecurityEvents.beginSecretAccess();
+
+			secret = setGeneratedSecret(id, generatedSecret);
+			Metrics.record(SecurityOperation.SET_SECRET, this, setStart, secret.length);
+			SecurityEvents.endSecretAccess(setEvent, SecurityOperation.SET_SECRET, this, id);
+			Audit.record(SecurityOperation.SET_SECRET, this, id);
+			if (secret != generatedSecret) {
+				Arrays.fill(generatedSecret, (byte) 0);
+			}
 		}
 
+		return newCipher(secret);
+	}
+
+	/**
+	 * Stores a newly generated secret for an id which had no secret when it was checked.
+	 * <p>
+	 * The default implementation simply sets the generated secret. Stores shared by multiple processes may instead
+	 * keep a secret stored concurrently by another process, so that all of them end up using the same secret.
+	 * </p>
+	 *
+	 * @param id the id of the secret to set.
+	 * @param secret the generated secret (owned by the caller).
+	 * @return the secret in effect for the given id (either the submitted array or a new one owned by the caller).
+	 * @throws IOException if an I/O error occurs while writing the secret.
+	 */
+	byte[] setGeneratedSecret(String id, byte[] secret) throws IOException {
+		setSecret(id, secret);
+		return secret;
+	}
+
+	static Cipher newCipher(byte[] secret) {
 		Cipher cipher;
 
 		try (ByteSecret cipherSecret = ByteSecret.wrap(secret)) {
@@ -52,18 +258,39 @@ abstract class SecretStore {
 		return cipher;
 	}
 
+	static void zeroize(Map<String, byte[]> secrets) {
+		for (byte[] secret : secrets.values()) {
+			Arrays.fill(secret, (byte) 0);
+		}
+	}
+
+	/**
+	 * Gets the scope of the secrets accessed by this {@linkplain SecretStore}.
+	 * <p>
+	 * {@linkplain SecretStore} instances with the same scope are considered to access the very same secrets and
+	 * therefore share the process wide keyring entries as well as in-memory tiers for their secrets. The default
+	 * implementation returns a scope unique to this instance. Implementations whose instances may access the same
+	 * underlying storage (e.g. the same file or server) should return a scope identifying this storage.
+	 * </p>
+	 *
+	 * @return the scope of the secrets accessed by this {@linkplain SecretStore}.
+	 */
+	protected String scope() {
+		return getClass().getName() + "#" + this.instanceId;
+	}
+
 	@Override
 	public final String toString() {
 		return getClass().getSimpleName();
 	}
 
-	private byte[] generateSecret() throws GeneralSecurityException {
+	static byte[] generateSecret() throws GeneralSecurityException {
 		return AESCipher
 				.generateSecret(javax.crypto.Cipher.getMaxAllowedKeyLength(AESCipher.KEY_ALG) >= 256 ? 256 : 128);
 	}
 
 	@SuppressWarnings("squid:S1301")
-	private Cipher getCipherInstance(byte[] secret) {
+	private static Cipher getCipherInstance(byte[] secret) {
 		if (secret.length == 0) {
 			throw new IllegalArgumentException("Invalid cipher secret");
 		}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+
+/**
+ * Service interface for providing {@linkplain SecretStore} instances to {@linkplain SecureStorage#create(String)}.
+ * <p>
+ * Providers are discovered via {@linkplain java.util.ServiceLoader} and are queried in descending
+ * {@linkplain #priority()} order. The {@linkplain SecretStore} of a provider is only created if the provider reports
+ * itself as available. Hence a provider should not load any platform specific (e.g. native) classes prior to
+ * {@linkplain #createSecretStore()}.
+ * </p>
+ */
+public interface SecretStoreProvider {
+
+	/**
+	 * Gets the priority of this provider.
+	 * <p>
+	 * If no {@linkplain SecretStore} holds a specific secret yet, the available {@linkplain SecretStore} with the
+	 * highest priority is used to store it.
+	 * </p>
+	 *
+	 * @return the priority of this provider.
+	 */
+	int priority();
+
+	/**
+	 * Checks whether the {@linkplain SecretStore} of this provider may be available on the current platform.
+	 * <p>
+	 * This check should be cheap. The availability of the created {@linkplain SecretStore} is checked in addition via
+	 * {@linkplain SecretStore#isAvailable()}.
+	 * </p>
+	 *
+	 * @return {@code true} if the {@linkplain SecretStore} of this provider may be available.
+	 */
+	boolean isAvailable();
+
+	/**
+	 * Creates the {@linkplain SecretStore} of this provider.
+	 * <p>
+	 * This function is called at most once per provider (unless it fails).
+	 * </p>
+	 *
+	 * @return the created {@linkplain SecretStore}.
+	 * @throws IOException if the {@linkplain SecretStore} cannot be created (e.g. due to an invalid configuration).
+	 */
+	SecretStore createSecretStore() throws IOException;
+
+}
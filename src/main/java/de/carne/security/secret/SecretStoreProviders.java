@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.platform.Platform;
+
+/**
+ * The {@linkplain SecretStoreProvider}s for the built-in {@linkplain SecretStore}s.
+ */
+public final class SecretStoreProviders {
+
+	/**
+	 * Priority of the generic (file based) {@linkplain SecretStore}.
+	 */
+	public static final int GENERIC_PRIORITY = 0;
+
+	/**
+	 * Priority of the platform specific {@linkplain SecretStore}s.
+	 */
+	public static final int PLATFORM_PRIORITY = 100;
+
+	/**
+	 * Priority of the remote {@linkplain SecretStore} (only available if explicitly configured).
+	 */
+	public static final int REMOTE_PRIORITY = 200;
+
+	private SecretStoreProviders() {
+		// prevent instantiation
+	}
+
+	/**
+	 * {@linkplain SecretStoreProvider} for the generic (file based) {@linkplain SecretStore}.
+	 */
+	public static final class Generic implements SecretStoreProvider {
+
+		@Override
+		public int priority() {
+			return GENERIC_PRIORITY;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+
+		@Override
+		public SecretStore createSecretStore() {
+			return new GenericSecretStore();
+		}
+
+	}
+
+	/**
+	 * {@linkplain SecretStoreProvider} for the macOS keychain based {@linkplain SecretStore}.
+	 */
+	public static final class MacOS implements SecretStoreProvider {
+
+		@Override
+		public int priority() {
+			return PLATFORM_PRIORITY;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return Platform.IS_MACOS;
+		}
+
+		@Override
+		public SecretStore createSecretStore() {
+			return new MacOSSecretStore();
+		}
+
+	}
+
+	/**
+	 * {@linkplain SecretStoreProvider} for the Windows Crypt API based {@linkplain SecretStore}.
+	 */
+	public static final class Windows implements SecretStoreProvider {
+
+		@Override
+		public int priority() {
+			return PLATFORM_PRIORITY;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return Platform.IS_WINDOWS;
+		}
+
+		@Override
+		public SecretStore createSecretStore() {
+			return new WindowsSecretStore();
+		}
+
+	}
+
+	/**
+	 * {@linkplain SecretStoreProvider} for the Linux kernel keyring based {@linkplain SecretStore}.
+	 */
+	public static final class LinuxKeyring implements SecretStoreProvider {
+
+		@Override
+		public int priority() {
+			return PLATFORM_PRIORITY;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return Platform.IS_LINUX;
+		}
+
+		@Override
+		public SecretStore createSecretStore() {
+			return new LinuxKeyringSecretStore();
+		}
+
+	}
+
+	/**
+	 * {@linkplain SecretStoreProvider} for the {@linkplain RemoteSecretStore}.
+	 * <p>
+	 * This provider is only available if the system property {@code de.carne.security.secret.RemoteSecretStore.server}
+	 * defines the server to use (in the form {@code <host>:<port>}) and the system property
+	 * {@code de.carne.security.secret.RemoteSecretStore.accessKeyFile} defines the file containing the server's access
+	 * key.
+	 * </p>
+	 */
+	public static final class Remote implements SecretStoreProvider {
+
+		private static final String SERVER_PROPERTY = RemoteSecretStore.class.getName() + ".server";
+		private static final String ACCESS_KEY_FILE_PROPERTY = RemoteSecretStore.class.getName() + ".accessKeyFile";
+
+		@Override
+		public int priority() {
+			return REMOTE_PRIORITY;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			Path accessKeyFile = accessKeyFile();
+
+			return System.getProperty(SERVER_PROPERTY) != null && accessKeyFile != null
+					&& Files.isReadable(accessKeyFile);
+		}
+
+		@Override
+		public SecretStore createSecretStore() throws IOException {
+			InetSocketAddress address = serverAddress();
+			byte[] accessKey = readAccessKey();
+			SecretStore secretStore;
+
+			try {
+				secretStore = RemoteSecretStore.open(address, accessKey);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid access key (property " + ACCESS_KEY_FILE_PROPERTY + ")", e);
+			} finally {
+				Arrays.fill(accessKey, (byte) 0);
+			}
+			return secretStore;
+		}
+
+		private static InetSocketAddress serverAddress() throws IOException {
+			String server = System.getProperty(SERVER_PROPERTY, "");
+			int portIndex = server.lastIndexOf(':');
+
+			if (portIndex <= 0) {
+				throw new IOException("Invalid server address '" + server + "' (property " + SERVER_PROPERTY + ")");
+			}
+
+			InetSocketAddress address;
+
+			try {
+				address = InetSocketAddress.createUnresolved(server.substring(0, portIndex),
+						Integer.parseInt(server.substring(portIndex + 1)));
+			} catch (IllegalArgumentException e) {
+				// Also covers NumberFormatException
+				throw new IOException("Invalid server address '" + server + "' (property " + SERVER_PROPERTY + ")", e);
+			}
+			return address;
+		}
+
+		private static byte[] readAccessKey() throws IOException {
+			byte[] accessKey;
+
+			try {
+				accessKey = Files.readAllBytes(Paths.get(System.getProperty(ACCESS_KEY_FILE_PROPERTY, "")));
+			} catch (IOException | InvalidPathException e) {
+				throw new IOException("Failed to read access key (property " + ACCESS_KEY_FILE_PROPERTY + ")", e);
+			}
+			return accessKey;
+		}
+
+		private static @Nullable Path accessKeyFile() {
+			String accessKeyFile = System.getProperty(ACCESS_KEY_FILE_PROPERTY);
+
+			return (accessKeyFile != null ? Paths.get(accessKeyFile) : null);
+		}
+
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityOperation;
+
+/**
+ * Resolves the {@linkplain SecretStore} to use for a specific secret id.
+ * <p>
+ * The available {@linkplain SecretStore}s are determined via the registered {@linkplain SecretStoreProvider}s on first
+ * use. Resolved {@linkplain SecretStore}s are cached per id, so that the stores are only probed once per id.
+ * </p>
+ */
+final class SecretStores {
+
+	private static final Log LOG = new Log();
+
+	private static final Map<String, SecretStore> OWNERS = new ConcurrentHashMap<>();
+
+	private SecretStores() {
+		// prevent instantiation
+	}
+
+	private static final class Providers {
+
+		static final List<LazySecretStore> STORES = loadProviders();
+
+		private Providers() {
+			// prevent instantiation
+		}
+
+	}
+
+	/**
+	 * Resolves the {@linkplain SecretStore} to use for a specific secret id.
+	 * <p>
+	 * The highest priority {@linkplain SecretStore} already holding the secret is used. If none holds the secret, the
+	 * highest priority available {@linkplain SecretStore} is used.
+	 * </p>
+	 *
+	 * @param id the id of the secret to resolve the {@linkplain SecretStore} for.
+	 * @return the resolved {@linkplain SecretStore}.
+	 * @throws IOException if an I/O error occurs while probing the {@linkplain SecretStore}s.
+	 */
+	public static SecretStore resolve(String id) throws IOException {
+		SecretStore owner = OWNERS.get(id);
+
+		if (owner == null) {
+			SecretStore resolvedOwner = resolve0(id);
+
+			owner = OWNERS.putIfAbsent(id, resolvedOwner);
+			if (owner == null) {
+				owner = resolvedOwner;
+			}
+		}
+		return owner;
+	}
+
+	/**
+	 * Discards a cached resolution (e.g. after the corresponding secret has been deleted).
+	 *
+	 * @param id the id of the secret to discard the resolution for.
+	 * @param secretStore the {@linkplain SecretStore} the id has been resolved to.
+	 */
+	public static void invalidate(String id, SecretStore secretStore) {
+		OWNERS.remove(id, secretStore);
+	}
+
+	private static SecretStore resolve0(String id) throws IOException {
+		SecretStore preferredSecretStore = null;
+		SecretStore matchingSecretStore = null;
+		Iterator<LazySecretStore> storeIterator = Providers.STORES.iterator();
+
+		while (matchingSecretStore == null && storeIterator.hasNext()) {
+			SecretStore secretStore = storeIterator.next().get();
+
+			if (secretStore != null) {
+				if (preferredSecretStore == null) {
+					preferredSecretStore = secretStore;
+				}
+
+				long start = Metrics.start();
+				boolean hasSecret = secretStore.hasSecret(id);
+
+				Metrics.record(SecurityOperation.HAS_SECRET, secretStore, start, 0L);
+				if (hasSecret) {
+					matchingSecretStore = secretStore;
+				}
+			}
+		}
+		if (preferredSecretStore == null) {
+			throw new IOException("No secret store available");
+		}
+		return (matchingSecretStore != null ? matchingSecretStore : preferredSecretStore);
+	}
+
+	private static List<LazySecretStore> loadProviders() {
+		List<SecretStoreProvider> providers = new ArrayList<>();
+		Iterator<SecretStoreProvider> providerIterator = ServiceLoader.load(SecretStoreProvider.class).iterator();
+		boolean done = false;
+
+		while (!done) {
+			try {
+				done = !providerIterator.hasNext();
+				if (!done) {
+					SecretStoreProvider provider = providerIterator.next();
+
+					LOG.debug("Found secret store provider ''{0}'' (priority: {1})", provider.getClass().getName(),
+							provider.priority());
+
+					providers.add(provider);
+				}
+			} catch (ServiceConfigurationError e) {
+				LOG.warning(e, "Failed to load secret store provider");
+			}
+		}
+		// Stable sort; providers with equal priority are probed in discovery order
+		providers.sort(Comparator.comparingInt(SecretStoreProvider::priority).reversed());
+
+		List<LazySecretStore> stores = new ArrayList<>(providers.size());
+
+		for (SecretStoreProvider provider : providers) {
+			stores.add(new LazySecretStore(provider));
+		}
+		return Collections.unmodifiableList(stores);
+	}
+
+	private static final class LazySecretStore {
+
+		private final SecretStoreProvider provider;
+		private boolean checked = false;
+		private @Nullable SecretStore secretStore = null;
+
+		LazySecretStore(SecretStoreProvider provider) {
+			this.provider = provider;
+		}
+
+		synchronized @Nullable SecretStore get() throws IOException {
+			// Only a successful check is final; a failing provider is checked again on the next access
+			if (!this.checked) {
+				SecretStore createdSecretStore;
+
+				try {
+					createdSecretStore = (this.provider.isAvailable() ? this.provider.createSecretStore() : null);
+				} catch (RuntimeException e) {
+					throw new IOException("Secret store provider " + this.provider.getClass().getName() + " failed",
+							e);
+				}
+				if (createdSecretStore != null && createdSecretStore.isAvailable()) {
+					LOG.info("Using secret store {0}", createdSecretStore);
+
+					this.secretStore = createdSecretStore;
+				}
+				this.checked = true;
+			}
+			return this.secretStore;
+		}
+
+	}
+
+}
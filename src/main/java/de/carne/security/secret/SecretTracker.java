@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Utility class for tracking unclosed {@linkplain Secret} instances.
+ * <p>
+ * This is the Java 8 implementation which does not track anything. On Java 11 and later the multi-release overlay of
+ * this class zeroizes unreachable secrets and reports leaked ones. Callers pass the object returned by
+ * {@linkplain #track(Secret, Object)} unchanged to {@linkplain #untrack(Object)}.
+ * </p>
+ */
+final class SecretTracker {
+
+	private SecretTracker() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Starts tracking a {@linkplain Secret} instance.
+	 *
+	 * @param secret the {@linkplain Secret} instance to track.
+	 * @param data the secret data to dispose in case the {@linkplain Secret} instance becomes unreachable.
+	 * @return the tracking state or {@code null} if the secret is not tracked.
+	 */
+	static @Nullable Object track(Secret<?> secret, Object data) {
+		return null;
+	}
+
+	/**
+	 * Stops tracking a {@linkplain Secret} instance after it has been closed.
+	 *
+	 * @param state the tracking state as returned by {@linkplain #track(Secret, Object)}.
+	 */
+	static void untrack(@Nullable Object state) {
+		// Nothing to do here
+	}
+
+	/**
+	 * Keeps a {@linkplain Secret} instance reachable up to this call.
+	 * <p>
+	 * As nothing is tracked here, there is no cleanup which could run too early.
+	 * </p>
+	 *
+	 * @param secret the {@linkplain Secret} instance to keep reachable.
+	 */
+	static void reachabilityFence(Secret<?> secret) {
+		// Nothing to do here
+	}
+
+	/**
+	 * Gets the number of unclosed secrets reported so far.
+	 *
+	 * @return the number of unclosed secrets reported so far (always {@code 0} as nothing is tracked).
+	 */
+	static long leaks() {
+		return 0L;
+	}
+
+}
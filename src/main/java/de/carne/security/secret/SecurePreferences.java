@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.util.prefs.AbstractPreferences;
+import java.util.prefs.BackingStoreException;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * {@linkplain AbstractPreferences} implementation backed by a {@linkplain SecurePreferencesFile}.
+ * <p>
+ * Unlike the default {@linkplain AbstractPreferences} behavior, a stored value that cannot be decrypted (e.g. because
+ * it has been tampered with) is not silently replaced by the default value, but reported via an
+ * {@linkplain IllegalStateException}.
+ * </p>
+ */
+final class SecurePreferences extends AbstractPreferences {
+
+	private static final Log LOG = new Log();
+
+	private final SecurePreferencesFile file;
+
+	SecurePreferences(SecurePreferencesFile file) {
+		super(null, "");
+		this.file = file;
+	}
+
+	private SecurePreferences(SecurePreferences parent, String name) {
+		super(parent, name);
+		this.file = parent.file;
+		this.newNode = this.file.addNode(absolutePath());
+	}
+
+	@Override
+	protected void putSpi(String key, String value) {
+		this.file.put(absolutePath(), key, value);
+	}
+
+	@Override
+	public @Nullable String get(String key, @Nullable String def) {
+		String value;
+
+		// AbstractPreferences.get ignores any getSpi failure, hence the override
+		synchronized (this.lock) {
+			if (isRemoved()) {
+				throw new IllegalStateException("Node has been removed.");
+			}
+			value = getSpi(key);
+		}
+		return (value != null ? value : def);
+	}
+
+	@Override
+	protected @Nullable String getSpi(String key) {
+		String value;
+
+		try {
+			value = this.file.get(absolutePath(), key);
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to decrypt preference ''{0}'' of node ''{1}''", key, absolutePath());
+
+			throw new IllegalStateException(
+					"Failed to decrypt preference '" + key + "' of node '" + absolutePath() + "'", e);
+		}
+		return value;
+	}
+
+	@Override
+	protected void removeSpi(String key) {
+		this.file.remove(absolutePath(), key);
+	}
+
+	@Override
+	protected void removeNodeSpi() throws BackingStoreException {
+		this.file.removeNode(absolutePath());
+	}
+
+	@Override
+	protected String[] keysSpi() throws BackingStoreException {
+		return this.file.keys(absolutePath());
+	}
+
+	@Override
+	protected String[] childrenNamesSpi() throws BackingStoreException {
+		return this.file.childNames(absolutePath());
+	}
+
+	@Override
+	protected AbstractPreferences childSpi(String name) {
+		return new SecurePreferences(this, name);
+	}
+
+	@Override
+	protected void syncSpi() throws BackingStoreException {
+		try {
+			this.file.sync();
+		} catch (IOException e) {
+			throw new BackingStoreException(e);
+		}
+	}
+
+	@Override
+	protected void flushSpi() throws BackingStoreException {
+		try {
+			this.file.flush();
+		} catch (IOException e) {
+			throw new BackingStoreException(e);
+		}
+	}
+
+}
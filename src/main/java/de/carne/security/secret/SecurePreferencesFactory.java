@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.prefs.Preferences;
+import java.util.prefs.PreferencesFactory;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.prefs.FilePreferencesFactory;
+
+/**
+ * {@linkplain PreferencesFactory} storing all preference values encrypted via a {@linkplain SecureStorage} instance.
+ * <p>
+ * To make this the default preferences implementation set the system property
+ * {@code java.util.prefs.PreferencesFactory} to {@code de.carne.security.secret.SecurePreferencesFactory}. The
+ * {@linkplain SecureStorage} id used for encryption is defined by the system property
+ * {@code de.carne.security.secret.SecurePreferencesFactory} (default: {@code preferences}). The user and system trees
+ * are stored in the files {@code <id>.user.prefs} and {@code <id>.system.prefs} located via
+ * {@linkplain FilePreferencesFactory#customRootFile(String)}.
+ * </p>
+ * <p>
+ * Values are decrypted on first access. Modifications are collected and encrypted and written as a single batch,
+ * either on an explicit {@linkplain Preferences#flush()}, after a short delay (system property
+ * {@code de.carne.security.secret.SecurePreferencesFactory.flushDelay} in milliseconds, default: 1000) or on VM
+ * shutdown.
+ * </p>
+ * <p>
+ * Each value is bound to its node path and key. Reading a value that fails to decrypt or has been moved to a different
+ * key throws an {@linkplain IllegalStateException} instead of returning the default value.
+ * </p>
+ */
+public final class SecurePreferencesFactory implements PreferencesFactory {
+
+	private static final String STORAGE_ID = System.getProperty(SecurePreferencesFactory.class.getName(),
+			"preferences");
+
+	private static @Nullable Preferences userRoot = null;
+	private static @Nullable Preferences systemRoot = null;
+
+	@Override
+	public Preferences userRoot() {
+		synchronized (SecurePreferencesFactory.class) {
+			Preferences root = userRoot;
+
+			if (root == null) {
+				root = newRoot(FilePreferencesFactory.customRootFile(STORAGE_ID + ".user.prefs"));
+				userRoot = root;
+			}
+			return root;
+		}
+	}
+
+	@Override
+	public Preferences systemRoot() {
+		synchronized (SecurePreferencesFactory.class) {
+			Preferences root = systemRoot;
+
+			if (root == null) {
+				root = newRoot(FilePreferencesFactory.customRootFile(STORAGE_ID + ".system.prefs"));
+				systemRoot = root;
+			}
+			return root;
+		}
+	}
+
+	private static Preferences newRoot(Path file) {
+		SecureStorage storage;
+
+		try {
+			storage = SecureStorage.create(STORAGE_ID);
+		} catch (IOException e) {
+			throw Exceptions.toRuntime(e);
+		}
+		return customRoot(storage, file);
+	}
+
+	/**
+	 * Creates a preferences tree stored in a custom file.
+	 * <p>
+	 * Every invocation creates a new tree instance. Hence callers must make sure that only one instance is used per
+	 * file.
+	 * </p>
+	 *
+	 * @param storage the {@linkplain SecureStorage} instance to use for encryption.
+	 * @param file the file to store the preferences in.
+	 * @return the root node of the created preferences tree.
+	 */
+	public static Preferences customRoot(SecureStorage storage, Path file) {
+		return new SecurePreferences(new SecurePreferencesFile(storage, file));
+	}
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+import de.carne.boot.logging.Log;
+import de.carne.boot.prefs.UserFile;
+
+/**
+ * Backing store of a {@linkplain SecurePreferences} tree.
+ * <p>
+ * All nodes of a tree are stored in a single properties file. Node paths are stored as keys and preference values are
+ * stored as {@code <node path>//<key>=<encrypted value>}. Values are decrypted on first access and encrypted as a
+ * single batch during the next flush. Modifications schedule a delayed flush, hence multiple modifications in a row
+ * are written at once.
+ * </p>
+ * <p>
+ * Every value is encrypted together with its {@code <node path>//<key>} property key, which is verified during
+ * decryption. An encrypted value copied to a different key therefore fails to decrypt like a tampered one.
+ * </p>
+ */
+final class SecurePreferencesFile {
+
+	private static final Log LOG = new Log();
+
+	private static final long FLUSH_DELAY = Math
+			.max(Long.getLong(SecurePreferencesFactory.class.getName() + ".flushDelay", 1000L).longValue(), 0L);
+
+	private static final String ROOT_PATH = "/";
+	private static final String KEY_SEPARATOR = "//";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, SecurePreferencesFile.class.getSimpleName());
+
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final Set<SecurePreferencesFile> PENDING = new LinkedHashSet<>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(SecurePreferencesFile::flushPending));
+	}
+
+	private static final class Value {
+
+		@Nullable String encrypted;
+		@Nullable String plain;
+
+		Value(@Nullable String encrypted, @Nullable String plain) {
+			this.encrypted = encrypted;
+			this.plain = plain;
+		}
+
+	}
+
+	private final SecureStorage storage;
+	private final Path file;
+	private final Map<String, Map<String, Value>> nodes = new HashMap<>();
+	private boolean loaded = false;
+	private @Nullable IOException loadException = null;
+	private @Nullable FileTime loadedModified = null;
+	private boolean dirty = false;
+	private @Nullable ScheduledFuture<?> flushTask = null;
+
+	SecurePreferencesFile(SecureStorage storage, Path file) {
+		this.storage = storage;
+		this.file = file;
+	}
+
+	synchronized boolean addNode(String path) {
+		ensureLoaded();
+
+		boolean added = !this.nodes.containsKey(path);
+
+		if (added) {
+			this.nodes.put(path, new HashMap<>());
+			modified();
+		}
+		return added;
+	}
+
+	synchronized void removeNode(String path) {
+		ensureLoaded();
+		if (this.nodes.remove(path) != null) {
+			modified();
+		}
+	}
+
+	synchronized String[] childNames(String path) {
+		ensureLoaded();
+
+		String childPrefix = (ROOT_PATH.equals(path) ? path : path + "/");
+		List<String> childNames = new ArrayList<>();
+
+		for (String nodePath : this.nodes.keySet()) {
+			if (nodePath.length() > childPrefix.length() && nodePath.startsWith(childPrefix)
+					&& nodePath.indexOf('/', childPrefix.length()) < 0) {
+				childNames.add(nodePath.substring(childPrefix.length()));
+			}
+		}
+		return childNames.toArray(new String[childNames.size()]);
+	}
+
+	synchronized String[] keys(String path) {
+		ensureLoaded();
+
+		Map<String, Value> values = this.nodes.get(path);
+
+		return (values != null ? values.keySet().toArray(new String[values.size()]) : new String[0]);
+	}
+
+	synchronized @Nullable String get(String path, String key) throws IOException {
+		ensureLoaded();
+
+		Map<String, Value> values = this.nodes.get(path);
+		Value value = (values != null ? values.get(key) : null);
+		String plain = null;
+
+		if (value != null) {
+			String encrypted = value.encrypted;
+
+			if (value.plain == null && encrypted != null) {
+				String propertyKey = propertyKey(path, key);
+
+				this.storage.decryptBytesBase64(encrypted, decrypted -> value.plain = unbind(propertyKey, decrypted));
+			}
+			plain = value.plain;
+		}
+		return plain;
+	}
+
+	synchronized void put(String path, String key, String plain) {
+		ensureLoaded();
+		this.nodes.computeIfAbsent(path, nodePath -> new HashMap<>()).put(key, new Value(null, plain));
+		modified();
+	}
+
+	synchronized void remove(String path, String key) {
+		ensureLoaded();
+
+		Map<String, Value> values = this.nodes.get(path);
+
+		if (values != null && values.remove(key) != null) {
+			modified();
+		}
+	}
+
+	synchronized void flush() throws IOException {
+		ScheduledFuture<?> currentFlushTask = this.flushTask;
+
+		if (currentFlushTask != null) {
+			currentFlushTask.cancel(false);
+			this.flushTask = null;
+		}
+		if (this.dirty) {
+			IOException currentLoadException = this.loadException;
+
+			// Never overwrite a file we were unable to read
+			if (currentLoadException != null) {
+				throw new IOException("Unable to load preferences file '" + this.file + "'", currentLoadException);
+			}
+			encryptPending();
+			write();
+			this.dirty = false;
+		}
+		synchronized (PENDING) {
+			PENDING.remove(this);
+		}
+	}
+
+	synchronized void sync() throws IOException {
+		if (this.dirty) {
+			flush();
+		} else if (!this.loaded || this.loadException != null || !isCurrent()) {
+			this.nodes.clear();
+			this.loaded = false;
+			this.loadException = null;
+			ensureLoaded();
+
+			IOException currentLoadException = this.loadException;
+
+			if (currentLoadException != null) {
+				throw currentLoadException;
+			}
+		}
+	}
+
+	private void modified() {
+		this.dirty = true;
+		if (this.flushTask == null) {
+			this.flushTask = FLUSHER.schedule(this::scheduledFlush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+			synchronized (PENDING) {
+				PENDING.add(this);
+			}
+		}
+	}
+
+	private void scheduledFlush() {
+		try {
+			flush();
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to flush preferences file ''{0}''", this.file);
+		}
+	}
+
+	private static void flushPending() {
+		List<SecurePreferencesFile> pending;
+
+		synchronized (PENDING) {
+			pending = new ArrayList<>(PENDING);
+		}
+		for (SecurePreferencesFile pendingFile : pending) {
+			pendingFile.scheduledFlush();
+		}
+	}
+
+	private void encryptPending() throws IOException {
+		List<Value> pendingValues = new ArrayList<>();
+		List<ByteSecret> pendingSecrets = new ArrayList<>();
+
+		try {
+			for (Map.Entry<String, Map<String, Value>> node : this.nodes.entrySet()) {
+				for (Map.Entry<String, Value> nodeValue : node.getValue().entrySet()) {
+					Value value = nodeValue.getValue();
+					String plain = value.plain;
+
+					if (value.encrypted == null && plain != null) {
+						pendingValues.add(value);
+						pendingSecrets.add(bind(propertyKey(node.getKey(), nodeValue.getKey()), plain));
+					}
+				}
+			}
+			if (!pendingSecrets.isEmpty()) {
+				List<String> encrypted = this.storage.encryptAllBase64(pendingSecrets);
+
+				for (int valueIndex = 0; valueIndex < pendingValues.size(); valueIndex++) {
+					pendingValues.get(valueIndex).encrypted = encrypted.get(valueIndex);
+				}
+			}
+		} finally {
+			for (ByteSecret pendingSecret : pendingSecrets) {
+				pendingSecret.close();
+			}
+		}
+	}
+
+	private static String propertyKey(String path, String key) {
+		return (ROOT_PATH.equals(path) ? "" : path) + KEY_SEPARATOR + key;
+	}
+
+	private static ByteSecret bind(String propertyKey, String plain) {
+		byte[] propertyKeyBytes = propertyKey.getBytes(StandardCharsets.UTF_8);
+		byte[] plainBytes = plain.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer bound = ByteBuffer.allocate(Integer.BYTES + propertyKeyBytes.length + plainBytes.length);
+
+		bound.putInt(propertyKeyBytes.length).put(propertyKeyBytes).put(plainBytes);
+		Arrays.fill(plainBytes, (byte) 0);
+		return ByteSecret.wrap(bound.array());
+	}
+
+	private static String unbind(String propertyKey, byte[] bound) throws GeneralSecurityException {
+		byte[] propertyKeyBytes = propertyKey.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer boundBuffer = ByteBuffer.wrap(bound);
+		int boundPropertyKeyLength = (bound.length >= Integer.BYTES ? boundBuffer.getInt() : -1);
+
+		if (boundPropertyKeyLength != propertyKeyBytes.length
+				|| bound.length - Integer.BYTES < boundPropertyKeyLength || !MessageDigest.isEqual(propertyKeyBytes,
+						Arrays.copyOfRange(bound, Integer.BYTES, Integer.BYTES + boundPropertyKeyLength))) {
+			throw new GeneralSecurityException("Preference value is not bound to key '" + propertyKey + "'");
+		}
+
+		int plainOffset = Integer.BYTES + boundPropertyKeyLength;
+
+		return new String(bound, plainOffset, bound.length - plainOffset, StandardCharsets.UTF_8);
+	}
+
+	private void ensureLoaded() {
+		if (!this.loaded) {
+			try {
+				load();
+			} catch (IOException e) {
+				LOG.warning(e, "Failed to load preferences file ''{0}''", this.file);
+
+				this.loadException = e;
+			}
+			this.nodes.putIfAbsent(ROOT_PATH, new HashMap<>());
+			this.loaded = true;
+		}
+	}
+
+	private void load() throws IOException {
+		Properties properties = new Properties();
+		FileTime modified = null;
+
+		try (Reader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+			modified = Files.getLastModifiedTime(this.file);
+			properties.load(reader);
+		} catch (NoSuchFileException e) {
+			Exceptions.ignore(e);
+		}
+		for (String propertyKey : properties.stringPropertyNames()) {
+			int separatorIndex = propertyKey.indexOf(KEY_SEPARATOR);
+
+			if (separatorIndex < 0) {
+				this.nodes.computeIfAbsent(propertyKey, nodePath -> new HashMap<>());
+			} else {
+				String path = (separatorIndex > 0 ? propertyKey.substring(0, separatorIndex) : ROOT_PATH);
+				String key = propertyKey.substring(separatorIndex + KEY_SEPARATOR.length());
+
+				this.nodes.computeIfAbsent(path, nodePath -> new HashMap<>()).put(key,
+						new Value(properties.getProperty(propertyKey), null));
+			}
+		}
+		this.loadedModified = modified;
+	}
+
+	private boolean isCurrent() {
+		FileTime modified = null;
+
+		try {
+			modified = Files.getLastModifiedTime(this.file);
+		} catch (IOException e) {
+			Exceptions.ignore(e);
+		}
+		return (modified != null ? modified.equals(this.loadedModified) : this.loadedModified == null);
+	}
+
+	private void write() throws IOException {
+		LOG.debug("Writing preferences file ''{0}''...", this.file);
+
+		Properties properties = new Properties();
+
+		for (Map.Entry<String, Map<String, Value>> node : this.nodes.entrySet()) {
+			String path = node.getKey();
+
+			if (!ROOT_PATH.equals(path)) {
+				properties.setProperty(path, "");
+			}
+
+			for (Map.Entry<String, Value> value : node.getValue().entrySet()) {
+				properties.setProperty(propertyKey(path, value.getKey()), String.valueOf(value.getValue().encrypted));
+			}
+		}
+
+		Path fileDirectory = this.file.toAbsolutePath().getParent();
+
+		if (fileDirectory != null && !Files.isDirectory(fileDirectory, LinkOption.NOFOLLOW_LINKS)) {
+			Files.createDirectories(fileDirectory);
+		}
+
+		Path tempFile = this.file.resolveSibling(this.file.getFileName() + TEMP_FILE_SUFFIX);
+
+		try (FileChannel tempChannel = UserFile.open(tempFile, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Writer writer = Channels.newWriter(tempChannel, StandardCharsets.UTF_8.newEncoder(), -1);
+
+			properties.store(writer, null);
+			writer.flush();
+			tempChannel.force(true);
+		}
+		try {
+			Files.move(tempFile, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Exceptions.ignore(e);
+			Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		this.loadedModified = Files.getLastModifiedTime(this.file);
+	}
+
+	@Override
+	public String toString() {
+		return this.file.toString();
+	}
+
+}
@@ -17,14 +17,38 @@
 package de.carne.security.secret;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Objects;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 
 import de.carne.boot.logging.Log;
+import de.carne.security.crypto.StorableCoder;
+import de.carne.security.metrics.Audit;
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityEvents;
+import de.carne.security.metrics.SecurityOperation;
+import de.carne.security.util.Randomness;
 
 /**
  * The {@code SecureStorage} class provides functions to handle sensitive data in a secure way.
@@ -35,17 +59,47 @@ import de.carne.boot.logging.Log;
  */
 public final class SecureStorage {
 
+	/**
+	 * The length of an untruncated blind index.
+	 *
+	 * @see #blindIndex(ByteSecret)
+	 */
+	public static final int BLIND_INDEX_LENGTH = 32;
+
 	private static final Log LOG = new Log();
 
-	private static final SecretStore[] SECRET_STORES = { new GenericSecretStore(), new MacOSSecretStore(),
-			new WindowsSecretStore() };
+	private static final int MIN_BATCH_SLICE_SIZE = 64;
+
+	private static final long PREWARM_IDLE_TIMEOUT_MINUTES = 10;
+	private static final int PREWARM_TOKEN_LENGTH = 64;
+	private static final int PREWARM_ITERATIONS = Math
+			.max(Integer.getInteger(SecureStorage.class.getName() + ".prewarmIterations", 10000).intValue(), 0);
+
+	private static final MemorySecretStore EPHEMERAL_SECRET_STORE = new MemorySecretStore();
+
+	private static final class Prewarmer {
+
+		static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, SecureStorage.class.getSimpleName());
+
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		private Prewarmer() {
+			// prevent instantiation
+		}
+
+	}
 
 	private final SecretStore secretStore;
 	private final String id;
+	private final @Nullable CipherCache cipherCache;
 
-	private SecureStorage(SecretStore secretStore, String id) {
+	private SecureStorage(SecretStore secretStore, String id, @Nullable CipherCache cipherCache) {
 		this.secretStore = secretStore;
 		this.id = id;
+		this.cipherCache = cipherCache;
 
 		LOG.info("Created {0}", this);
 	}
@@ -63,23 +117,24 @@ public final class SecureStorage {
 	 * @throws IOException if an I/O error occurs during creation.
 	 */
 	public static SecureStorage create(String id) throws IOException {
-		SecretStore availableSecretStore = null;
-		SecretStore matchingSecretStore = null;
-
-		for (SecretStore secretStore : SECRET_STORES) {
-			if (secretStore.isAvailable()) {
-				// Last available one is the most preferred one
-				availableSecretStore = secretStore;
-				if (secretStore.hasSecret(id)) {
-					matchingSecretStore = secretStore;
-				}
-			}
-		}
-
-		SecretStore activeSecretStore = (matchingSecretStore != null ? matchingSecretStore
-				: Objects.requireNonNull(availableSecretStore));
+		return new SecureStorage(SecretStores.resolve(id), id, null);
+	}
 
-		return new SecureStorage(activeSecretStore, id);
+	/**
+	 * Creates a new {@linkplain SecureStorage} instance for a given id using a specific {@linkplain SecretStore} for
+	 * secret storage.
+	 * <p>
+	 * The submitted id is used to uniquely identify the encryption secret to use. Unless {@linkplain #delete()} is
+	 * called for the created instance a subsequent call with the same id and {@linkplain SecretStore} will create an
+	 * instance with the same encryption secret.
+	 * </p>
+	 *
+	 * @param id the id of the {@linkplain SecureStorage} instance to create.
+	 * @param secretStore the {@linkplain SecretStore} to use for secret storage.
+	 * @return the created {@linkplain SecureStorage} instance.
+	 */
+	public static SecureStorage create(String id, SecretStore secretStore) {
+		return new SecureStorage(secretStore, id, null);
 	}
 
 	/**
@@ -95,7 +150,241 @@ public final class SecureStorage {
 	 * @return the created {@linkplain SecureStorage} instance.
 	 */
 	public static SecureStorage create(String id, Path secretHome) {
-		return new SecureStorage(new GenericSecretStore(secretHome), id);
+		return new SecureStorage(new GenericSecretStore(secretHome), id, null);
+	}
+
+	/**
+	 * Creates a new {@linkplain SecureStorage} instance for a given id using a single log structured file for secret
+	 * storage.
+	 * <p>
+	 * All secrets stored in the given file are indexed in memory and read via a memory mapping, making this variant
+	 * suitable for large numbers of ids. The file may be shared by multiple processes.
+	 * </p>
+	 *
+	 * @param id the id of the {@linkplain SecureStorage} instance to create.
+	 * @param storeFile the file path to use for secret storage.
+	 * @return the created {@linkplain SecureStorage} instance.
+	 */
+	public static SecureStorage createLogStructured(String id, Path storeFile) {
+		return new SecureStorage(LogSecretStore.open(storeFile), id, null);
+	}
+
+	/**
+	 * Creates a new {@linkplain SecureStorage} instance for a given id which keeps its encryption secret in memory
+	 * only.
+	 * <p>
+	 * The encryption secret is shared by all instances created with the same id within the current process until
+	 * {@linkplain #delete()} is called. It is lost once the process terminates. Therefore this variant is only
+	 * suitable for short-lived data (e.g. in tests or transient workers).
+	 * </p>
+	 *
+	 * @param id the id of the {@linkplain SecureStorage} instance to create.
+	 * @return the created {@linkplain SecureStorage} instance.
+	 */
+	public static SecureStorage createEphemeral(String id) {
+		return new SecureStorage(EPHEMERAL_SECRET_STORE, id, null);
+	}
+
+	/**
+	 * Creates {@linkplain SecureStorage} instances for multiple ids at once using a specific directory for secret
+	 * storage.
+	 * <p>
+	 * All existing encryption secrets are read in one (parallel) batch and kept in memory by the created instances
+	 * (see {@linkplain #withCipherCache(long, TimeUnit, int)}). Encryption secrets which do not yet exist are created
+	 * on first use.
+	 * </p>
+	 *
+	 * @param ids the ids of the {@linkplain SecureStorage} instances to create.
+	 * @param secretHome the directory path to use for secret storage.
+	 * @param idleTimeout the idle timeout after which a cached encryption secret is evicted.
+	 * @param unit the {@linkplain TimeUnit} of the idle timeout.
+	 * @return the created {@linkplain SecureStorage} instances mapped by their id.
+	 * @throws IOException if an I/O error occurs while reading the encryption secrets.
+	 * @see #create(String, Path)
+	 */
+	public static Map<String, SecureStorage> createAll(Collection<String> ids, Path secretHome, long idleTimeout,
+			TimeUnit unit) throws IOException {
+		GenericSecretStore secretStore = new GenericSecretStore(secretHome);
+		long start = Metrics.start();
+		Map<String, byte[]> secrets = secretStore.getSecrets(ids);
+		Map<String, SecureStorage> storages = new LinkedHashMap<>();
+
+		Metrics.record(SecurityOperation.GET_SECRET, secretStore, start, 0L);
+		try {
+			for (String id : ids) {
+				CipherCache cipherCache = new CipherCache(idleTimeout, unit, 0);
+				byte[] secret = secrets.remove(id);
+
+				if (secret != null) {
+					cipherCache.prime(SecretStore.newCipher(secret));
+					Audit.record(SecurityOperation.GET_SECRET, secretStore, id);
+				}
+				storages.put(id, new SecureStorage(secretStore, id, cipherCache));
+			}
+		} finally {
+			SecretStore.zeroize(secrets);
+		}
+		return storages;
+	}
+
+	/**
+	 * Lists the ids of all {@linkplain SecureStorage} instances whose encryption secret is stored in the generic (file
+	 * based) secret store of the current user.
+	 *
+	 * @param batchSize the maximum number of ids to submit per batch.
+	 * @param batchConsumer the {@linkplain Consumer} to invoke for every batch of ids.
+	 * @throws IOException if an I/O error occurs while listing the ids.
+	 */
+	public static void listIds(int batchSize, Consumer<List<String>> batchConsumer) throws IOException {
+		new GenericSecretStore().listSecrets(batchSize, batchConsumer);
+	}
+
+	/**
+	 * Lists the ids of all {@linkplain SecureStorage} instances whose encryption secret is stored in a specific
+	 * directory.
+	 *
+	 * @param secretHome the directory path used for secret storage.
+	 * @param batchSize the maximum number of ids to submit per batch.
+	 * @param batchConsumer the {@linkplain Consumer} to invoke for every batch of ids.
+	 * @throws IOException if an I/O error occurs while listing the ids.
+	 * @see #create(String, Path)
+	 */
+	public static void listIds(Path secretHome, int batchSize, Consumer<List<String>> batchConsumer)
+			throws IOException {
+		new GenericSecretStore(secretHome).listSecrets(batchSize, batchConsumer);
+	}
+
+	/**
+	 * Prewarms the crypto infrastructure and the encryption secrets of the given ids in the background.
+	 * <p>
+	 * The encryption secrets are cached for {@value #PREWARM_IDLE_TIMEOUT_MINUTES} minutes of inactivity.
+	 * </p>
+	 *
+	 * @param ids the ids of the {@linkplain SecureStorage} instances to prewarm.
+	 * @return the {@linkplain CompletableFuture} signaling the end of the prewarm phase.
+	 * @see #prewarm(Collection, long, TimeUnit)
+	 */
+	public static CompletableFuture<Map<String, SecureStorage>> prewarm(String... ids) {
+		return prewarm(Arrays.asList(ids), PREWARM_IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Prewarms the crypto infrastructure and the encryption secrets of the given ids in the background.
+	 * <p>
+	 * Prewarming initializes the security providers and the random source, determines the default coder (including the
+	 * loading of native libraries), loads the encryption secrets of the given ids and exercises the encryption and
+	 * decryption code paths (system property {@code de.carne.security.secret.SecureStorage.prewarmIterations},
+	 * default: 10000) using a throw-away cipher. The warm-up operations are not recorded as metrics, events or audit
+	 * entries. Prewarming runs on a single background thread shared by all calls. The returned
+	 * {@linkplain CompletableFuture} completes with the prewarmed {@linkplain SecureStorage} instances (see
+	 * {@linkplain #withCipherCache(long, TimeUnit, int)}) mapped by their id or exceptionally if prewarming failed.
+	 * </p>
+	 *
+	 * @param ids the ids of the {@linkplain SecureStorage} instances to prewarm.
+	 * @param idleTimeout the idle timeout after which a cached encryption secret is evicted.
+	 * @param unit the {@linkplain TimeUnit} of the idle timeout.
+	 * @return the {@linkplain CompletableFuture} signaling the end of the prewarm phase.
+	 */
+	public static CompletableFuture<Map<String, SecureStorage>> prewarm(Collection<String> ids, long idleTimeout,
+			TimeUnit unit) {
+		if (idleTimeout <= 0) {
+			throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeout);
+		}
+
+		List<String> prewarmIds = new ArrayList<>(ids);
+		CompletableFuture<Map<String, SecureStorage>> prewarmed = new CompletableFuture<>();
+
+		Prewarmer.INSTANCE.execute(() -> {
+			try {
+				prewarmed.complete(prewarm0(prewarmIds, idleTimeout, unit));
+			} catch (IOException | GeneralSecurityException | RuntimeException e) {
+				LOG.warning(e, "Prewarming failed");
+
+				prewarmed.completeExceptionally(e);
+			}
+		});
+		return prewarmed;
+	}
+
+	private static Map<String, SecureStorage> prewarm0(List<String> ids, long idleTimeout, TimeUnit unit)
+			throws IOException, GeneralSecurityException {
+		LOG.info("Prewarming {0} secure storage(s)...", ids.size());
+
+		long start = System.nanoTime();
+
+		// Security provider and random source initialization
+		Randomness.get().nextBytes(new byte[16]);
+
+		// Key length policy check and native library loading
+		StorableCoder.defaultCoder();
+
+		Map<String, SecureStorage> storages = new LinkedHashMap<>();
+
+		for (String id : ids) {
+			SecureStorage storage = create(id).withCipherCache(idleTimeout, unit, 0);
+
+			// Loads and caches the encryption secret
+			storage.getCipher().close();
+			storages.put(id, storage);
+		}
+
+		// Use a throw-away cipher directly, as the public operations record metrics, events and audit entries
+		try (Cipher cipher = SecretStore.newCipher(SecretStore.generateSecret())) {
+			byte[] token = new byte[PREWARM_TOKEN_LENGTH];
+			char[] chars = new char[PREWARM_TOKEN_LENGTH];
+
+			for (int iteration = 0; iteration < PREWARM_ITERATIONS; iteration++) {
+				byte[] encryptedChars;
+
+				Arrays.fill(cipher.decrypt(cipher.encrypt(token)), (byte) 0);
+				try (ByteSecret encodedChars = encodeChars(chars.clone())) {
+					encryptedChars = encodedChars.apply(cipher::encrypt);
+				}
+				decodeChars(cipher.decrypt(encryptedChars)).close();
+			}
+		}
+		LOG.info("Prewarming finished ({0} ms)", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+		return storages;
+	}
+
+	/**
+	 * Creates a new {@linkplain SecureStorage} instance for the same encryption secret which caches the encryption
+	 * secret in memory.
+	 * <p>
+	 * By default every operation retrieves the encryption secret from the underlying secret store. The returned
+	 * instance instead keeps the encryption secret in memory until it has been idle for the given timeout or has been
+	 * used for the given number of operations. Evicted encryption secrets are zeroized. Calling {@linkplain #delete()}
+	 * on the returned instance also zeroizes its cached encryption secret.
+	 * </p>
+	 *
+	 * @param idleTimeout the idle timeout after which the cached encryption secret is evicted.
+	 * @param unit the {@linkplain TimeUnit} of the idle timeout.
+	 * @param maxUses the maximum number of operations served by a cached encryption secret before it is reloaded (0
+	 * for no limit).
+	 * @return the created {@linkplain SecureStorage} instance.
+	 */
+	public SecureStorage withCipherCache(long idleTimeout, TimeUnit unit, int maxUses) {
+		return new SecureStorage(this.secretStore, this.id, new CipherCache(idleTimeout, unit, maxUses));
+	}
+
+	/**
+	 * Creates a new {@linkplain SecureStorage} instance for the same encryption secret which adds an in-memory tier
+	 * on top of the underlying secret store.
+	 * <p>
+	 * The in-memory tier is shared by all instances using the same underlying secret store. Secrets read once are
+	 * served from memory afterwards. Writes are propagated to the underlying secret store according to the given
+	 * {@linkplain DurabilityPolicy}. All access to the underlying secret store should go through the in-memory tier
+	 * once it is in use.
+	 * </p>
+	 *
+	 * @param policy the {@linkplain DurabilityPolicy} to use.
+	 * @return the created {@linkplain SecureStorage} instance.
+	 * @throws IllegalStateException if the underlying secret store already has an in-memory tier using a different
+	 * {@linkplain DurabilityPolicy}.
+	 */
+	public SecureStorage withMemoryTier(DurabilityPolicy policy) {
+		return new SecureStorage(TieredSecretStore.of(this.secretStore, policy), this.id, this.cipherCache);
 	}
 
 	/**
@@ -109,14 +398,25 @@ public final class SecureStorage {
 	public byte[] encryptBytes(ByteSecret secret) throws IOException {
 		byte[] encrypted;
 
-		try (Cipher cipher = this.secretStore.getCipher(this.id)) {
-			encrypted = secret.apply(cipher::encrypt);
+		try (Cipher cipher = getCipher()) {
+			encrypted = encryptBytes(cipher, secret);
 		} catch (GeneralSecurityException e) {
 			throw new IOException(e.getLocalizedMessage(), e);
 		}
 		return encrypted;
 	}
 
+	byte[] encryptBytes(Cipher cipher, ByteSecret secret) throws GeneralSecurityException {
+		long start = Metrics.start();
+		Object cryptoEvent = SecurityEvents.beginCrypto();
+		byte[] encrypted = secret.apply(cipher::encrypt);
+
+		Metrics.record(SecurityOperation.ENCRYPT, cipher.coderId(), start, encrypted.length);
+		SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.ENCRYPT, cipher.coderId(), encrypted.length);
+		Audit.record(SecurityOperation.ENCRYPT, this.secretStore, this.id);
+		return encrypted;
+	}
+
 	/**
 	 * Encrypt a given byte secret and base64 encode the encrypted bytes.
 	 *
@@ -138,14 +438,26 @@ public final class SecureStorage {
 	 * @see #encryptBytes(ByteSecret)
 	 */
 	public void decryptBytes(byte[] encrypted, SecretConsumer<byte @NonNull []> consumer) throws IOException {
-		try (Cipher cipher = this.secretStore.getCipher(this.id);
-				ByteSecret decrypted = ByteSecret.wrap(cipher.decrypt(encrypted))) {
-			decrypted.accept(consumer);
+		try (Cipher cipher = getCipher()) {
+			decryptBytes(cipher, encrypted, consumer);
 		} catch (GeneralSecurityException e) {
 			throw new IOException(e.getLocalizedMessage(), e);
 		}
 	}
 
+	void decryptBytes(Cipher cipher, byte[] encrypted, SecretConsumer<byte @NonNull []> consumer)
+			throws GeneralSecurityException {
+		long start = Metrics.start();
+		Object cryptoEvent = SecurityEvents.beginCrypto();
+
+		try (ByteSecret decrypted = ByteSecret.wrap(cipher.decrypt(encrypted))) {
+			Metrics.record(SecurityOperation.DECRYPT, cipher.coderId(), start, encrypted.length);
+			SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.DECRYPT, cipher.coderId(), encrypted.length);
+			Audit.record(SecurityOperation.DECRYPT, this.secretStore, this.id);
+			decrypted.accept(consumer);
+		}
+	}
+
 	/**
 	 * Decrypt a previously encrypted and base64 encoded byte secret.
 	 *
@@ -169,14 +481,23 @@ public final class SecureStorage {
 	public byte[] encryptChars(CharSecret secret) throws IOException {
 		byte[] encrypted;
 
-		try (ByteSecret byteSecret = secret.apply(SecureStorage::encodeChars)) {
-			encrypted = encryptBytes(byteSecret);
+		try (Cipher cipher = getCipher()) {
+			encrypted = encryptChars(cipher, secret);
 		} catch (GeneralSecurityException e) {
 			throw new IOException(e.getLocalizedMessage(), e);
 		}
 		return encrypted;
 	}
 
+	byte[] encryptChars(Cipher cipher, CharSecret secret) throws GeneralSecurityException {
+		byte[] encrypted;
+
+		try (ByteSecret byteSecret = secret.apply(SecureStorage::encodeChars)) {
+			encrypted = encryptBytes(cipher, byteSecret);
+		}
+		return encrypted;
+	}
+
 	private static ByteSecret encodeChars(char[] plainChars) {
 		byte[] plainBytes = new byte[2 * plainChars.length];
 
@@ -208,7 +529,16 @@ public final class SecureStorage {
 	 * @see #encryptChars(CharSecret)
 	 */
 	public void decryptChars(byte[] encrypted, SecretConsumer<char @NonNull []> consumer) throws IOException {
-		decryptBytes(encrypted, plainBytes -> {
+		try (Cipher cipher = getCipher()) {
+			decryptChars(cipher, encrypted, consumer);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	void decryptChars(Cipher cipher, byte[] encrypted, SecretConsumer<char @NonNull []> consumer)
+			throws GeneralSecurityException {
+		decryptBytes(cipher, encrypted, plainBytes -> {
 			try (CharSecret charSecret = decodeChars(plainBytes)) {
 				charSecret.accept(consumer);
 			}
@@ -237,6 +567,560 @@ public final class SecureStorage {
 		decryptChars(Base64.getDecoder().decode(encrypted), consumer);
 	}
 
+	/**
+	 * Encrypt multiple byte secrets at once.
+	 * <p>
+	 * The encryption key and cipher setup are acquired only once for the whole batch. The encrypted items are packed
+	 * into a single {@linkplain EncryptedBatch}. Every item can also be decrypted individually via
+	 * {@linkplain #decryptBytes(byte[], SecretConsumer)}.
+	 * </p>
+	 *
+	 * @param secrets the byte secrets to encrypt.
+	 * @return the encrypted byte secrets.
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #decryptAll(EncryptedBatch, SecretConsumer)
+	 */
+	public EncryptedBatch encryptAll(List<ByteSecret> secrets) throws IOException {
+		return encryptAll0(secrets, null);
+	}
+
+	/**
+	 * Encrypt multiple byte secrets at once using multiple threads.
+	 * <p>
+	 * Large batches are split into slices which are encrypted in parallel by the given {@linkplain Executor}.
+	 * </p>
+	 *
+	 * @param secrets the byte secrets to encrypt.
+	 * @param executor the {@linkplain Executor} to use for parallel encryption.
+	 * @return the encrypted byte secrets.
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #encryptAll(List)
+	 * @see #decryptAll(EncryptedBatch, Executor, SecretConsumer)
+	 */
+	public EncryptedBatch encryptAll(List<ByteSecret> secrets, Executor executor) throws IOException {
+		return encryptAll0(secrets, executor);
+	}
+
+	private EncryptedBatch encryptAll0(List<ByteSecret> secrets, @Nullable Executor executor) throws IOException {
+		ByteSecret[] secretArray = secrets.toArray(new ByteSecret[secrets.size()]);
+		int[] offsets = new int[secretArray.length + 1];
+		byte[] data;
+
+		try (Cipher cipher = getCipher()) {
+			long start = Metrics.start();
+			Object cryptoEvent = SecurityEvents.beginCrypto();
+
+			for (int secretIndex = 0; secretIndex < secretArray.length; secretIndex++) {
+				offsets[secretIndex + 1] = Math.addExact(offsets[secretIndex],
+						cipher.encryptedLength(secretArray[secretIndex].data().length));
+			}
+
+			byte[] encrypted = new byte[offsets[secretArray.length]];
+
+			runBatch(cipher, secretArray.length, executor, (batch, from, to) -> {
+				for (int secretIndex = from; secretIndex < to; secretIndex++) {
+					batch.encrypt(secretArray[secretIndex].data(), encrypted, offsets[secretIndex]);
+				}
+			});
+			data = encrypted;
+			Metrics.record(SecurityOperation.ENCRYPT, cipher.coderId(), start, data.length);
+			SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.ENCRYPT, cipher.coderId(), data.length);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		Audit.record(SecurityOperation.ENCRYPT, this.secretStore, this.id);
+		return new EncryptedBatch(data, offsets);
+	}
+
+	/**
+	 * Encrypt multiple byte secrets at once and base64 encode every encrypted item.
+	 *
+	 * @param secrets the byte secrets to encrypt.
+	 * @return the base64 encoded encrypted byte secrets (in the same order as the submitted secrets).
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #encryptAll(List)
+	 * @see #decryptAllBase64(List, SecretConsumer)
+	 */
+	public List<String> encryptAllBase64(List<ByteSecret> secrets) throws IOException {
+		EncryptedBatch encrypted = encryptAll(secrets);
+		Base64.Encoder encoder = Base64.getEncoder();
+		List<String> encoded = new ArrayList<>(encrypted.size());
+
+		for (int itemIndex = 0; itemIndex < encrypted.size(); itemIndex++) {
+			encoded.add(encoder.encodeToString(encrypted.get(itemIndex)));
+		}
+		return encoded;
+	}
+
+	/**
+	 * Decrypt multiple byte secrets previously encrypted via {@linkplain #encryptAll(List)}.
+	 * <p>
+	 * The encryption key and cipher setup are acquired only once for the whole batch. The decrypted byte secrets are
+	 * submitted to the {@linkplain SecretConsumer} at once (in the same order as they have been encrypted) and are
+	 * overwritten afterwards.
+	 * </p>
+	 *
+	 * @param encrypted the encrypted byte secrets.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke with the decrypted byte secrets.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encryptAll(List)
+	 */
+	public void decryptAll(EncryptedBatch encrypted, SecretConsumer<List<byte @NonNull []>> consumer)
+			throws IOException {
+		decryptAll0(encrypted, null, consumer);
+	}
+
+	/**
+	 * Decrypt multiple byte secrets previously encrypted via {@linkplain #encryptAll(List)} using multiple threads.
+	 * <p>
+	 * Large batches are split into slices which are decrypted in parallel by the given {@linkplain Executor}.
+	 * </p>
+	 *
+	 * @param encrypted the encrypted byte secrets.
+	 * @param executor the {@linkplain Executor} to use for parallel decryption.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke with the decrypted byte secrets.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #decryptAll(EncryptedBatch, SecretConsumer)
+	 */
+	public void decryptAll(EncryptedBatch encrypted, Executor executor,
+			SecretConsumer<List<byte @NonNull []>> consumer) throws IOException {
+		decryptAll0(encrypted, executor, consumer);
+	}
+
+	private void decryptAll0(EncryptedBatch encrypted, @Nullable Executor executor,
+			SecretConsumer<List<byte @NonNull []>> consumer) throws IOException {
+		byte[] data = encrypted.data();
+		int[] offsets = encrypted.offsets();
+		byte[][] decrypted = new byte[encrypted.size()][];
+
+		try {
+			try (Cipher cipher = getCipher()) {
+				long start = Metrics.start();
+				Object cryptoEvent = SecurityEvents.beginCrypto();
+
+				runBatch(cipher, decrypted.length, executor, (batch, from, to) -> {
+					for (int itemIndex = from; itemIndex < to; itemIndex++) {
+						decrypted[itemIndex] = batch.decrypt(data, offsets[itemIndex],
+								offsets[itemIndex + 1] - offsets[itemIndex]);
+					}
+				});
+				Metrics.record(SecurityOperation.DECRYPT, cipher.coderId(), start, data.length);
+				SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.DECRYPT, cipher.coderId(), data.length);
+			}
+			Audit.record(SecurityOperation.DECRYPT, this.secretStore, this.id);
+			consumer.accept(Collections.unmodifiableList(Arrays.asList(decrypted)));
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		} finally {
+			for (byte[] decryptedItem : decrypted) {
+				if (decryptedItem != null) {
+					Arrays.fill(decryptedItem, (byte) 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decrypt multiple byte secrets previously encrypted via {@linkplain #encryptAllBase64(List)}.
+	 *
+	 * @param encrypted the base64 encoded encrypted byte secrets.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke with the decrypted byte secrets.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encryptAllBase64(List)
+	 * @see #decryptAll(EncryptedBatch, SecretConsumer)
+	 */
+	public void decryptAllBase64(List<String> encrypted, SecretConsumer<List<byte @NonNull []>> consumer)
+			throws IOException {
+		Base64.Decoder decoder = Base64.getDecoder();
+		byte[][] decoded = new byte[encrypted.size()][];
+		int[] offsets = new int[decoded.length + 1];
+		int itemIndex = 0;
+
+		for (String encryptedItem : encrypted) {
+			decoded[itemIndex] = decoder.decode(encryptedItem);
+			offsets[itemIndex + 1] = Math.addExact(offsets[itemIndex], decoded[itemIndex].length);
+			itemIndex++;
+		}
+
+		byte[] data = new byte[offsets[decoded.length]];
+
+		for (itemIndex = 0; itemIndex < decoded.length; itemIndex++) {
+			System.arraycopy(decoded[itemIndex], 0, data, offsets[itemIndex], decoded[itemIndex].length);
+		}
+		decryptAll(new EncryptedBatch(data, offsets), consumer);
+	}
+
+	@FunctionalInterface
+	private interface BatchSlice {
+
+		void run(Cipher.Batch batch, int from, int to) throws GeneralSecurityException;
+
+	}
+
+	private static void runBatch(Cipher cipher, int size, @Nullable Executor executor, BatchSlice slice)
+			throws GeneralSecurityException {
+		int sliceCount = (executor != null
+				? Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_BATCH_SLICE_SIZE)
+				: 1);
+
+		if (executor == null || sliceCount <= 1) {
+			slice.run(cipher.newBatch(), 0, size);
+		} else {
+			// One task per slice; every slice uses its own cipher setup
+			CompletableFuture<?>[] slices = new CompletableFuture<?>[sliceCount];
+
+			for (int sliceIndex = 0; sliceIndex < sliceCount; sliceIndex++) {
+				int from = (int) ((long) size * sliceIndex / sliceCount);
+				int to = (int) ((long) size * (sliceIndex + 1) / sliceCount);
+
+				slices[sliceIndex] = CompletableFuture.runAsync(() -> {
+					try {
+						slice.run(cipher.newBatch(), from, to);
+					} catch (GeneralSecurityException e) {
+						throw new CompletionException(e);
+					}
+				}, executor);
+			}
+			try {
+				CompletableFuture.allOf(slices).join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof GeneralSecurityException) {
+					throw (GeneralSecurityException) cause;
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Encrypt a given byte secret deterministically.
+	 * <p>
+	 * In contrast to {@linkplain #encryptBytes(ByteSecret)} equal secrets always result in equal encrypted bytes.
+	 * Hence the encrypted bytes can be used for equality lookups (at the cost of revealing which secrets are equal).
+	 * </p>
+	 *
+	 * @param secret the byte secret to encrypt.
+	 * @return the encrypted byte secret.
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #decryptBytesDeterministic(byte[], SecretConsumer)
+	 */
+	public byte[] encryptBytesDeterministic(ByteSecret secret) throws IOException {
+		byte[] encrypted;
+
+		try (Cipher cipher = getCipher()) {
+			long start = Metrics.start();
+			Object cryptoEvent = SecurityEvents.beginCrypto();
+
+			encrypted = secret.apply(cipher::encryptDeterministic);
+			Metrics.record(SecurityOperation.ENCRYPT, cipher.coderId(), start, encrypted.length);
+			SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.ENCRYPT, cipher.coderId(), encrypted.length);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		Audit.record(SecurityOperation.ENCRYPT, this.secretStore, this.id);
+		return encrypted;
+	}
+
+	/**
+	 * Decrypt a previously deterministically encrypted byte secret.
+	 *
+	 * @param encrypted the encrypted byte secret.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke with the decrypted byte secret.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encryptBytesDeterministic(ByteSecret)
+	 */
+	public void decryptBytesDeterministic(byte[] encrypted, SecretConsumer<byte @NonNull []> consumer)
+			throws IOException {
+		try (Cipher cipher = getCipher()) {
+			long start = Metrics.start();
+			Object cryptoEvent = SecurityEvents.beginCrypto();
+
+			try (ByteSecret decrypted = ByteSecret.wrap(cipher.decryptDeterministic(encrypted))) {
+				Metrics.record(SecurityOperation.DECRYPT, cipher.coderId(), start, encrypted.length);
+				SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.DECRYPT, cipher.coderId(), encrypted.length);
+				Audit.record(SecurityOperation.DECRYPT, this.secretStore, this.id);
+				decrypted.accept(consumer);
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Encrypt a given char secret deterministically.
+	 *
+	 * @param secret the char secret to encrypt.
+	 * @return the encrypted char secret.
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #encryptBytesDeterministic(ByteSecret)
+	 * @see #decryptCharsDeterministic(byte[], SecretConsumer)
+	 */
+	public byte[] encryptCharsDeterministic(CharSecret secret) throws IOException {
+		byte[] encrypted;
+
+		try (ByteSecret byteSecret = secret.apply(SecureStorage::encodeChars)) {
+			encrypted = encryptBytesDeterministic(byteSecret);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		return encrypted;
+	}
+
+	/**
+	 * Decrypt a previously deterministically encrypted char secret.
+	 *
+	 * @param encrypted the encrypted char secret.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke with the decrypted char secret.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encryptCharsDeterministic(CharSecret)
+	 */
+	public void decryptCharsDeterministic(byte[] encrypted, SecretConsumer<char @NonNull []> consumer)
+			throws IOException {
+		decryptBytesDeterministic(encrypted, plainBytes -> {
+			try (CharSecret charSecret = decodeChars(plainBytes)) {
+				charSecret.accept(consumer);
+			}
+		});
+	}
+
+	/**
+	 * Compute the blind index of a given byte secret.
+	 * <p>
+	 * The blind index is a keyed hash (HMAC-SHA256) of the secret. It can be stored alongside the encrypted secret to
+	 * look up records by secret without decrypting them. The key used is derived from this instance's encryption key.
+	 * </p>
+	 *
+	 * @param secret the byte secret to index.
+	 * @return the blind index ({@value #BLIND_INDEX_LENGTH} bytes).
+	 * @throws IOException if an I/O error occurs during index computation.
+	 */
+	public byte[] blindIndex(ByteSecret secret) throws IOException {
+		return blindIndex(secret, BLIND_INDEX_LENGTH);
+	}
+
+	/**
+	 * Compute the truncated blind index of a given byte secret.
+	 * <p>
+	 * Truncating the blind index increases the likelihood of collisions. Lookups via a truncated blind index therefore
+	 * may return additional records which must be filtered after decryption. In return a truncated blind index reveals
+	 * less information about the indexed secrets.
+	 * </p>
+	 *
+	 * @param secret the byte secret to index.
+	 * @param length the length of the blind index to return (1 to {@value #BLIND_INDEX_LENGTH}).
+	 * @return the blind index.
+	 * @throws IOException if an I/O error occurs during index computation.
+	 * @see #blindIndex(ByteSecret)
+	 */
+	public byte[] blindIndex(ByteSecret secret, int length) throws IOException {
+		if (length < 1 || length > BLIND_INDEX_LENGTH) {
+			throw new IllegalArgumentException("Invalid blind index length: " + length);
+		}
+
+		byte[] index;
+
+		try (Cipher cipher = getCipher()) {
+			long start = Metrics.start();
+			Object cryptoEvent = SecurityEvents.beginCrypto();
+
+			byte[] fullIndex = secret.apply(cipher::blindIndex);
+
+			index = Arrays.copyOf(fullIndex, length);
+			Arrays.fill(fullIndex, (byte) 0);
+			Metrics.record(SecurityOperation.BLIND_INDEX, cipher.coderId(), start, index.length);
+			SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.BLIND_INDEX, cipher.coderId(), index.length);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		Audit.record(SecurityOperation.BLIND_INDEX, this.secretStore, this.id);
+		return index;
+	}
+
+	/**
+	 * Compute the blind index of a given char secret.
+	 *
+	 * @param secret the char secret to index.
+	 * @return the blind index ({@value #BLIND_INDEX_LENGTH} bytes).
+	 * @throws IOException if an I/O error occurs during index computation.
+	 * @see #blindIndex(ByteSecret)
+	 */
+	public byte[] blindIndex(CharSecret secret) throws IOException {
+		return blindIndex(secret, BLIND_INDEX_LENGTH);
+	}
+
+	/**
+	 * Compute the truncated blind index of a given char secret.
+	 *
+	 * @param secret the char secret to index.
+	 * @param length the length of the blind index to return (1 to {@value #BLIND_INDEX_LENGTH}).
+	 * @return the blind index.
+	 * @throws IOException if an I/O error occurs during index computation.
+	 * @see #blindIndex(ByteSecret, int)
+	 */
+	public byte[] blindIndex(CharSecret secret, int length) throws IOException {
+		byte[] index;
+
+		try (ByteSecret byteSecret = secret.apply(SecureStorage::encodeChars)) {
+			index = blindIndex(byteSecret, length);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		return index;
+	}
+
+	/**
+	 * Encrypt the data provided by an {@linkplain InputStream}.
+	 * <p>
+	 * The data is processed incrementally using bounded buffers, making this function suitable for data of any size.
+	 * The resulting format differs from the one used by {@linkplain #encryptBytes(ByteSecret)}.
+	 * </p>
+	 *
+	 * @param in the input to encrypt.
+	 * @param out the output to write the encrypted data to.
+	 * @return the number of encrypted bytes read from the input.
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #decrypt(InputStream, OutputStream)
+	 * @see #decrypt(InputStream, SecretConsumer)
+	 */
+	public long encrypt(InputStream in, OutputStream out) throws IOException {
+		long encrypted;
+
+		try (Cipher cipher = getCipher()) {
+			long start = Metrics.start();
+			Object cryptoEvent = SecurityEvents.beginCrypto();
+
+			encrypted = cipher.encrypt(in, out);
+			Metrics.record(SecurityOperation.ENCRYPT, cipher.coderId(), start, encrypted);
+			SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.ENCRYPT, cipher.coderId(), encrypted);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		Audit.record(SecurityOperation.ENCRYPT, this.secretStore, this.id);
+		return encrypted;
+	}
+
+	/**
+	 * Encrypt a file.
+	 *
+	 * @param source the file to encrypt.
+	 * @param target the file to write the encrypted data to (created or overwritten).
+	 * @return the number of encrypted bytes read from the source file.
+	 * @throws IOException if an I/O error occurs during encryption.
+	 * @see #encrypt(InputStream, OutputStream)
+	 * @see #decrypt(Path, Path)
+	 */
+	public long encrypt(Path source, Path target) throws IOException {
+		long encrypted;
+
+		try (InputStream in = Files.newInputStream(source)) {
+			encrypted = toFile(target, out -> encrypt(in, out));
+		}
+		return encrypted;
+	}
+
+	/**
+	 * Decrypt the data provided by an {@linkplain InputStream} previously encrypted via
+	 * {@linkplain #encrypt(InputStream, OutputStream)}.
+	 * <p>
+	 * The decrypted data is submitted to the given {@linkplain SecretConsumer} in chunks of bounded size. Every chunk
+	 * is zeroized after it has been consumed. The integrity of the data is verified chunk by chunk. In case an
+	 * exception is thrown, any previously consumed chunk must be discarded.
+	 * </p>
+	 *
+	 * @param in the input to decrypt.
+	 * @param consumer the {@linkplain SecretConsumer} to invoke for every decrypted chunk.
+	 * @return the number of decrypted bytes.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encrypt(InputStream, OutputStream)
+	 */
+	public long decrypt(InputStream in, SecretConsumer<byte @NonNull []> consumer) throws IOException {
+		return decrypt(in, (buffer, length) -> {
+			try (ByteSecret chunk = ByteSecret.wrap(Arrays.copyOf(buffer, length))) {
+				chunk.accept(consumer);
+			}
+		});
+	}
+
+	/**
+	 * Decrypt the data provided by an {@linkplain InputStream} previously encrypted via
+	 * {@linkplain #encrypt(InputStream, OutputStream)}.
+	 * <p>
+	 * The integrity of the data is verified chunk by chunk. In case an exception is thrown, any data already written
+	 * to the output must be discarded.
+	 * </p>
+	 *
+	 * @param in the input to decrypt.
+	 * @param out the output to write the decrypted data to.
+	 * @return the number of decrypted bytes.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encrypt(InputStream, OutputStream)
+	 */
+	public long decrypt(InputStream in, OutputStream out) throws IOException {
+		return decrypt(in, (buffer, length) -> out.write(buffer, 0, length));
+	}
+
+	/**
+	 * Decrypt a file previously encrypted via {@linkplain #encrypt(Path, Path)}.
+	 * <p>
+	 * The target file is deleted in case decryption fails.
+	 * </p>
+	 *
+	 * @param source the file to decrypt.
+	 * @param target the file to write the decrypted data to (created or overwritten).
+	 * @return the number of decrypted bytes.
+	 * @throws IOException if an I/O error occurs during decryption.
+	 * @see #encrypt(Path, Path)
+	 */
+	public long decrypt(Path source, Path target) throws IOException {
+		long decrypted;
+
+		try (InputStream in = Files.newInputStream(source)) {
+			decrypted = toFile(target, out -> decrypt(in, out));
+		}
+		return decrypted;
+	}
+
+	private long decrypt(InputStream in, Cipher.ChunkConsumer consumer) throws IOException {
+		long decrypted;
+
+		try (Cipher cipher = getCipher()) {
+			long start = Metrics.start();
+			Object cryptoEvent = SecurityEvents.beginCrypto();
+
+			decrypted = cipher.decrypt(in, consumer);
+			Metrics.record(SecurityOperation.DECRYPT, cipher.coderId(), start, decrypted);
+			SecurityEvents.endCrypto(cryptoEvent, SecurityOperation.DECRYPT, cipher.coderId(), decrypted);
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		Audit.record(SecurityOperation.DECRYPT, this.secretStore, this.id);
+		return decrypted;
+	}
+
+	@FunctionalInterface
+	private interface StreamFunction {
+
+		long apply(OutputStream out) throws IOException;
+
+	}
+
+	private static long toFile(Path target, StreamFunction function) throws IOException {
+		long result;
+		boolean complete = false;
+
+		try (OutputStream out = Files.newOutputStream(target)) {
+			result = function.apply(out);
+			complete = true;
+		} finally {
+			if (!complete) {
+				Files.deleteIfExists(target);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Delete the encryption key of this {@linkplain SecureStorage} instance.
 	 * <p>
@@ -246,7 +1130,51 @@ public final class SecureStorage {
 	 * @throws IOException if an I/O error occurs during deletion.
 	 */
 	public void delete() throws IOException {
+		if (this.cipherCache != null) {
+			this.cipherCache.invalidate();
+		}
+
+		long start = Metrics.start();
+		Object deleteEvent = SecurityEvents.beginSecretAccess();
+
 		this.secretStore.deleteSecret(this.id);
+		SecretStores.invalidate(this.id, this.secretStore);
+		Metrics.record(SecurityOperation.DELETE_SECRET, this.secretStore, start, 0L);
+		SecurityEvents.endSecretAccess(deleteEvent, SecurityOperation.DELETE_SECRET, this.secretStore, this.id);
+		Audit.record(SecurityOperation.DELETE_SECRET, this.secretStore, this.id);
+	}
+
+	/**
+	 * Creates an asynchronous view of this {@linkplain SecureStorage} instance.
+	 * <p>
+	 * Crypto operations of the returned instance are executed by the common {@linkplain ForkJoinPool}.
+	 * </p>
+	 *
+	 * @return the created {@linkplain AsyncSecureStorage} instance.
+	 * @see #async(Executor)
+	 */
+	public AsyncSecureStorage async() {
+		return async(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates an asynchronous view of this {@linkplain SecureStorage} instance.
+	 *
+	 * @param cryptoExecutor the {@linkplain Executor} to use for executing the (CPU bound) crypto operations.
+	 * @return the created {@linkplain AsyncSecureStorage} instance.
+	 */
+	public AsyncSecureStorage async(Executor cryptoExecutor) {
+		return new AsyncSecureStorage(this, cryptoExecutor);
+	}
+
+	Cipher getCipher() throws IOException, GeneralSecurityException {
+		return (this.cipherCache != null ? this.cipherCache.acquire(() -> this.secretStore.getCipher(this.id))
+				: this.secretStore.getCipher(this.id));
+	}
+
+	@Nullable
+	Cipher getCachedCipher() {
+		return (this.cipherCache != null ? this.cipherCache.tryAcquire() : null);
 	}
 
 	@Override
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * {@linkplain SecretStore} implementation adding an in-memory tier (see {@linkplain MemorySecretStore}) on top of
+ * another {@linkplain SecretStore}.
+ * <p>
+ * Reads are served from memory and only fall back to the underlying secret store on a miss. Writes are handled
+ * according to the {@linkplain DurabilityPolicy} in use. In case of {@linkplain DurabilityPolicy#WRITE_BEHIND}
+ * pending writes are flushed in batches (one {@linkplain SecretStore#setSecrets(Map)} and one
+ * {@linkplain SecretStore#deleteSecrets(Collection)} call per flush) after the delay defined by the system property
+ * {@code de.carne.security.secret.TieredSecretStore.flushDelay} (in milliseconds, default: 100).
+ * </p>
+ * <p>
+ * There is at most one instance per underlying secret store, which all access should go through.
+ * </p>
+ */
+public final class TieredSecretStore extends SecretStore {
+
+	private static final Log LOG = new Log();
+
+	private static final long FLUSH_DELAY = Long.getLong(TieredSecretStore.class.getName() + ".flushDelay", 100L)
+			.longValue();
+
+	private static final Map<String, TieredSecretStore> STORES = new ConcurrentHashMap<>();
+
+	private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, TieredSecretStore.class.getSimpleName());
+
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(TieredSecretStore::flushAll,
+				TieredSecretStore.class.getSimpleName() + "-shutdown"));
+	}
+
+	// Marker for pending deletes (compared by identity)
+	private static final byte[] DELETED = new byte[0];
+
+	private final SecretStore backend;
+	private final DurabilityPolicy policy;
+	private final MemorySecretStore memory = new MemorySecretStore();
+	private final Map<String, byte[]> pending = new LinkedHashMap<>();
+	private final Object flushLock = new Object();
+	private final Set<byte[]> flushing = Collections.newSetFromMap(new IdentityHashMap<>());
+	private boolean flushScheduled = false;
+	// Incremented on every write, so that secrets read from the underlying store are only cached if still current
+	private long generation = 0L;
+
+	private TieredSecretStore(SecretStore backend, DurabilityPolicy policy) {
+		this.backend = backend;
+		this.policy = policy;
+	}
+
+	/**
+	 * Gets the {@linkplain TieredSecretStore} instance for a specific {@linkplain SecretStore}.
+	 *
+	 * @param backend the {@linkplain SecretStore} to add the in-memory tier to.
+	 * @param policy the {@linkplain DurabilityPolicy} to use.
+	 * @return the {@linkplain TieredSecretStore} instance for the given {@linkplain SecretStore}.
+	 * @throws IllegalStateException if the {@linkplain SecretStore} has already been tiered using a different
+	 * {@linkplain DurabilityPolicy}.
+	 */
+	public static TieredSecretStore of(SecretStore backend, DurabilityPolicy policy) {
+		TieredSecretStore store = STORES.computeIfAbsent(backend.scope(),
+				scope -> new TieredSecretStore(backend, policy));
+
+		if (store.policy != policy) {
+			throw new IllegalStateException(
+					"Secret store " + backend + " already tiered using durability policy " + store.policy);
+		}
+		return store;
+	}
+
+	@Override
+	public boolean isAvailable() throws IOException {
+		return this.backend.isAvailable();
+	}
+
+	@Override
+	public boolean hasSecret(String id) throws IOException {
+		return this.memory.hasSecret(id) || (!isDeletePending(id) && this.backend.hasSecret(id));
+	}
+
+	@Override
+	protected void removeSecret(String id) throws IOException {
+		if (this.policy == DurabilityPolicy.WRITE_BEHIND) {
+			synchronized (this) {
+				this.memory.removeSecret(id);
+				enqueue(id, DELETED);
+				this.generation++;
+			}
+		} else {
+			this.backend.deleteSecret(id);
+			synchronized (this) {
+				this.memory.removeSecret(id);
+				this.generation++;
+			}
+		}
+	}
+
+	@Override
+	public byte @Nullable [] getSecret(String id) throws IOException {
+		byte[] secret = this.memory.getSecret(id);
+
+		if (secret == null) {
+			long loadGeneration;
+
+			synchronized (this) {
+				loadGeneration = (isDeletePending(id) ? -1L : this.generation);
+			}
+			if (loadGeneration >= 0L) {
+				secret = this.backend.getSecret(id);
+				if (secret != null) {
+					cacheLoaded(id, secret, loadGeneration);
+				}
+			}
+		}
+		return secret;
+	}
+
+	@Override
+	public Map<String, byte[]> getSecrets(Collection<String> ids) throws IOException {
+		Map<String, byte[]> secrets = new LinkedHashMap<>();
+		List<String> missingIds = new ArrayList<>();
+		long loadGeneration;
+
+		synchronized (this) {
+			loadGeneration = this.generation;
+			for (String id : ids) {
+				byte[] secret = this.memory.getSecret(id);
+
+				if (secret != null) {
+					secrets.put(id, secret);
+				} else if (!isDeletePending(id)) {
+					missingIds.add(id);
+				}
+			}
+		}
+		if (!missingIds.isEmpty()) {
+			// Fetch all misses in one batch from the underlying secret store
+			Map<String, byte[]> loadedSecrets = this.backend.getSecrets(missingIds);
+
+			for (Map.Entry<String, byte[]> loadedSecret : loadedSecrets.entrySet()) {
+				cacheLoaded(loadedSecret.getKey(), loadedSecret.getValue(), loadGeneration);
+			}
+			secrets.putAll(loadedSecrets);
+		}
+		return secrets;
+	}
+
+	@Override
+	public void setSecret(String id, byte[] secret) throws IOException {
+		if (this.policy == DurabilityPolicy.WRITE_BEHIND) {
+			synchronized (this) {
+				this.memory.setSecret(id, secret);
+				enqueue(id, secret.clone());
+				this.generation++;
+			}
+		} else {
+			this.backend.setSecret(id, secret);
+			synchronized (this) {
+				this.memory.setSecret(id, secret);
+				this.generation++;
+			}
+		}
+	}
+
+	private synchronized void cacheLoaded(String id, byte[] secret, long loadGeneration) {
+		// Do not cache (and thereby resurrect) a secret which has been written or deleted while it was loaded
+		if (this.generation == loadGeneration) {
+			this.memory.setSecret(id, secret);
+		}
+	}
+
+	@Override
+	protected String scope() {
+		// Share the scope with the underlying secret store, as both are backed by the same secrets
+		return this.backend.scope();
+	}
+
+	private synchronized boolean isDeletePending(String id) {
+		return this.pending.get(id) == DELETED;
+	}
+
+	private synchronized void enqueue(String id, byte[] secret) {
+		byte[] replaced = this.pending.put(id, secret);
+
+		// A secret currently being flushed is zeroized by the flusher once it is done with it
+		if (replaced != null && !this.flushing.contains(replaced)) {
+			Arrays.fill(replaced, (byte) 0);
+		}
+		scheduleFlush();
+	}
+
+	private synchronized void scheduleFlush() {
+		if (!this.flushScheduled) {
+			this.flushScheduled = true;
+			FLUSHER.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flush() {
+		// Scheduled and shutdown flushes may overlap
+		synchronized (this.flushLock) {
+			flush0();
+		}
+	}
+
+	private void flush0() {
+		Map<String, byte[]> setBatch = new LinkedHashMap<>();
+		Map<String, byte[]> deleteBatch = new LinkedHashMap<>();
+
+		synchronized (this) {
+			this.flushScheduled = false;
+			for (Map.Entry<String, byte[]> pendingEntry : this.pending.entrySet()) {
+				byte[] secret = pendingEntry.getValue();
+
+				(secret == DELETED ? deleteBatch : setBatch).put(pendingEntry.getKey(), secret);
+				this.flushing.add(secret);
+			}
+		}
+		if (!setBatch.isEmpty() || !deleteBatch.isEmpty()) {
+			LOG.debug("Flushing {0} pending secret write(s) and {1} pending delete(s) to {2}...", setBatch.size(),
+					deleteBatch.size(), this.backend);
+
+			boolean flushed = flushBatch(setBatch, deleteBatch);
+
+			synchronized (this) {
+				completeBatch(setBatch, flushed);
+				completeBatch(deleteBatch, flushed);
+			}
+			if (!flushed) {
+				scheduleFlush();
+			}
+		}
+	}
+
+	private boolean flushBatch(Map<String, byte[]> setBatch, Map<String, byte[]> deleteBatch) {
+		boolean flushed = false;
+
+		try {
+			if (!setBatch.isEmpty()) {
+				this.backend.setSecrets(setBatch);
+			}
+			if (!deleteBatch.isEmpty()) {
+				this.backend.deleteSecrets(deleteBatch.keySet());
+			}
+			flushed = true;
+		} catch (IOException e) {
+			LOG.warning(e, "Failed to flush pending secret write(s) to {0} (will retry)", this.backend);
+		}
+		return flushed;
+	}
+
+	private void completeBatch(Map<String, byte[]> batch, boolean flushed) {
+		for (Map.Entry<String, byte[]> batchEntry : batch.entrySet()) {
+			String id = batchEntry.getKey();
+			byte[] secret = batchEntry.getValue();
+			boolean current = this.pending.get(id) == secret;
+
+			this.flushing.remove(secret);
+			// Secrets replaced in the meantime are no longer referenced by the pending writes
+			if (!current || flushed) {
+				if (current) {
+					this.pending.remove(id);
+				}
+				Arrays.fill(secret, (byte) 0);
+			}
+		}
+	}
+
+	private static void flushAll() {
+		for (TieredSecretStore store : STORES.values()) {
+			store.flush();
+		}
+	}
+
+}
@@ -64,7 +64,7 @@ final class WindowsSecretStore extends SecretStore {
 	}
 
 	@Override
-	public void deleteSecret(String id) throws IOException {
+	protected void removeSecret(String id) throws IOException {
 		LOG.info("Deleting secret ''{0}''...", id);
 
 		boolean success = Native.Advapi32.CredDelete(getTargetName(id), Advapi32Library.CRED_TYPE_GENERIC, 0);
@@ -26,6 +26,10 @@ import javax.crypto.Cipher;
 
 /**
  * Utility class providing {@linkplain Cipher} related functions.
+ * <p>
+ * This is the Java 8 implementation. On Java 11 and later the multi-release overlay of this class avoids the
+ * allocation of a new output array per streamed input block.
+ * </p>
  */
 public final class CipherUtil {
 
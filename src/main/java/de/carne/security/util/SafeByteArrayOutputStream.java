@@ -85,7 +85,8 @@ public final class SafeByteArrayOutputStream extends OutputStream {
 
 	private void ensureBufferSize(int size) {
 		if (size > this.buf.length) {
-			setBufferSize(size);
+			// Grow geometrically to keep the number of copy (and clear) operations low
+			setBufferSize(Math.max(size, (int) Math.min(2L * this.buf.length, Integer.MAX_VALUE - 8)));
 		}
 	}
 
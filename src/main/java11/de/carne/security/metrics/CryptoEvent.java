@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event recording a bulk encryption or decryption.
+ */
+@Name("de.carne.security.Crypto")
+@Label("Crypto")
+@Category({ "Java Security Library", "Crypto" })
+@Description("Encryption or decryption of data")
+@Threshold("1 ms")
+final class CryptoEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation = "";
+
+	@Label("Source")
+	@Description("Coder or secret store performing the operation")
+	String source = "";
+
+	@Label("Size")
+	@DataAmount
+	long size;
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event recording a key derivation (e.g. PBKDF2 during key generation).
+ */
+@Name("de.carne.security.KeyDerivation")
+@Label("Key Derivation")
+@Category({ "Java Security Library", "Crypto" })
+@Description("Derivation of new key material")
+final class KeyDerivationEvent extends jdk.jfr.Event {
+
+	@Label("Algorithm")
+	String algorithm = "";
+
+	@Label("Key Length")
+	int keyLength;
+
+}
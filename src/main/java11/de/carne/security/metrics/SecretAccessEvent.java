@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event recording a secret store access.
+ */
+@Name("de.carne.security.SecretAccess")
+@Label("Secret Access")
+@Category({ "Java Security Library", "Secret Store" })
+@Description("Read, write or delete access to a secret store")
+@Threshold("1 ms")
+final class SecretAccessEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation = "";
+
+	@Label("Store")
+	String store = "";
+
+	@Label("Id Hash")
+	@Description("Keyed hash of the accessed secret's id")
+	String idHash = "";
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.metrics;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.EventType;
+
+/**
+ * Utility class for emitting JDK Flight Recorder events for security operations.
+ * <p>
+ * This is the Java 11 implementation emitting the actual JFR events. Callers pass the object returned by a
+ * {@code begin...} function unchanged to the matching {@code end...} function. Events are only allocated if they are
+ * enabled in a running recording. Secret ids are recorded as keyed hashes. By default the hash key is generated
+ * randomly once per process, so hashes can only be correlated within a single process. Use
+ * {@linkplain #setIdKey(byte[])} to install a shared key to correlate hashes across processes and restarts.
+ * </p>
+ */
+public final class SecurityEvents {
+
+	private static final EventType KEY_DERIVATION_EVENT_TYPE = EventType.getEventType(KeyDerivationEvent.class);
+	private static final EventType SECRET_ACCESS_EVENT_TYPE = EventType.getEventType(SecretAccessEvent.class);
+	private static final EventType CRYPTO_EVENT_TYPE = EventType.getEventType(CryptoEvent.class);
+
+	private static volatile byte[] idKey = IdHasher.newKey();
+
+	// Per thread hasher, as hashers are not thread-safe
+	@SuppressWarnings("squid:S5164")
+	private static final ThreadLocal<@Nullable KeyedIdHasher> ID_HASHER = new ThreadLocal<>();
+
+	private static final class KeyedIdHasher {
+
+		final byte[] key;
+		final IdHasher hasher;
+
+		KeyedIdHasher(byte[] key) {
+			this.key = key;
+			this.hasher = new IdHasher(key);
+		}
+
+	}
+
+	private SecurityEvents() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Sets the key used to hash the recorded secret ids.
+	 *
+	 * @param key the key to use for hashing ids (at least 16 bytes).
+	 */
+	public static void setIdKey(byte[] key) {
+		if (key.length < 16) {
+			throw new IllegalArgumentException("Id key too short");
+		}
+		idKey = key.clone();
+	}
+
+	/**
+	 * Begins a key derivation event.
+	 *
+	 * @return the begun event or {@code null} if the event is disabled.
+	 */
+	public static @Nullable Object beginKeyDerivation() {
+		return (KEY_DERIVATION_EVENT_TYPE.isEnabled() ? begin(new KeyDerivationEvent()) : null);
+	}
+
+	/**
+	 * Ends and commits a key derivation event.
+	 *
+	 * @param event the event as returned by {@linkplain #beginKeyDerivation()}.
+	 * @param algorithm the key derivation algorithm.
+	 * @param keyLength the derived key length in bits.
+	 */
+	public static void endKeyDerivation(@Nullable Object event, String algorithm, int keyLength) {
+		if (event != null) {
+			KeyDerivationEvent keyDerivationEvent = (KeyDerivationEvent) event;
+
+			keyDerivationEvent.end();
+			if (keyDerivationEvent.shouldCommit()) {
+				keyDerivationEvent.algorithm = algorithm;
+				keyDerivationEvent.keyLength = keyLength;
+				keyDerivationEvent.commit();
+			}
+		}
+	}
+
+	/**
+	 * Begins a secret access event.
+	 *
+	 * @return the begun event or {@code null} if the event is disabled.
+	 */
+	public static @Nullable Object beginSecretAccess() {
+		return (SECRET_ACCESS_EVENT_TYPE.isEnabled() ? begin(new SecretAccessEvent()) : null);
+	}
+
+	/**
+	 * Ends and commits a secret access event.
+	 *
+	 * @param event the event as returned by {@linkplain #beginSecretAccess()}.
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param store the accessed secret store.
+	 * @param id the id of the accessed secret (only a hash of the id is recorded).
+	 */
+	public static void endSecretAccess(@Nullable Object event, SecurityOperation operation, Object store, String id) {
+		if (event != null) {
+			SecretAccessEvent secretAccessEvent = (SecretAccessEvent) event;
+
+			secretAccessEvent.end();
+			if (secretAccessEvent.shouldCommit()) {
+				secretAccessEvent.operation = operation.name();
+				secretAccessEvent.store = store.toString();
+				secretAccessEvent.idHash = hashId(id);
+				secretAccessEvent.commit();
+			}
+		}
+	}
+
+	/**
+	 * Begins a crypto (encryption or decryption) event.
+	 *
+	 * @return the begun event or {@code null} if the event is disabled.
+	 */
+	public static @Nullable Object beginCrypto() {
+		return (CRYPTO_EVENT_TYPE.isEnabled() ? begin(new CryptoEvent()) : null);
+	}
+
+	/**
+	 * Ends and commits a crypto (encryption or decryption) event.
+	 *
+	 * @param event the event as returned by {@linkplain #beginCrypto()}.
+	 * @param operation the executed {@linkplain SecurityOperation}.
+	 * @param source the source of the operation (e.g. the coder id).
+	 * @param size the number of processed bytes.
+	 */
+	public static void endCrypto(@Nullable Object event, SecurityOperation operation, Object source, long size) {
+		if (event != null) {
+			CryptoEvent cryptoEvent = (CryptoEvent) event;
+
+			cryptoEvent.end();
+			if (cryptoEvent.shouldCommit()) {
+				cryptoEvent.operation = operation.name();
+				cryptoEvent.source = source.toString();
+				cryptoEvent.size = size;
+				cryptoEvent.commit();
+			}
+		}
+	}
+
+	private static String hashId(String id) {
+		byte[] currentIdKey = idKey;
+		KeyedIdHasher idHasher = ID_HASHER.get();
+
+		if (idHasher == null || idHasher.key != currentIdKey) {
+			idHasher = new KeyedIdHasher(currentIdKey);
+			ID_HASHER.set(idHasher);
+		}
+		return idHasher.hasher.hash(id);
+	}
+
+	private static @Nullable Object begin(jdk.jfr.Event event) {
+		Object begun = null;
+
+		if (event.isEnabled()) {
+			event.begin();
+			begun = event;
+		}
+		return begun;
+	}
+
+}
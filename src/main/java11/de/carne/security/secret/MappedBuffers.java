@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.Exceptions;
+
+/**
+ * Utility class for releasing memory mappings.
+ * <p>
+ * This is the Java 11 implementation using {@code sun.misc.Unsafe.invokeCleaner}. If the method is not accessible,
+ * mappings are released as soon as the buffer has been garbage collected. Callers must ensure that a released buffer
+ * (as well as any view of it) is not accessed anymore.
+ * </p>
+ */
+final class MappedBuffers {
+
+	private static final class Unsafe {
+
+		static final @Nullable Object INSTANCE;
+		static final @Nullable Method INVOKE_CLEANER_METHOD;
+
+		static {
+			Object instance = null;
+			Method invokeCleanerMethod = null;
+
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+
+				theUnsafeField.setAccessible(true);
+				instance = theUnsafeField.get(null);
+				invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				Exceptions.ignore(e);
+			}
+			INSTANCE = instance;
+			INVOKE_CLEANER_METHOD = invokeCleanerMethod;
+		}
+
+		private Unsafe() {
+			// prevent instantiation
+		}
+
+	}
+
+	private MappedBuffers() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Releases a memory mapping.
+	 *
+	 * @param buffer the mapped buffer to release (may be {@code null}).
+	 */
+	static void release(@Nullable MappedByteBuffer buffer) {
+		Object unsafe = Unsafe.INSTANCE;
+		Method invokeCleanerMethod = Unsafe.INVOKE_CLEANER_METHOD;
+
+		if (buffer != null && unsafe != null && invokeCleanerMethod != null) {
+			try {
+				invokeCleanerMethod.invoke(unsafe, buffer);
+			} catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+				Exceptions.ignore(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.secret;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import de.carne.boot.logging.Log;
+
+/**
+ * Utility class for tracking unclosed {@linkplain Secret} instances.
+ * <p>
+ * This is the Java 11 implementation using a {@linkplain Cleaner} to zeroize the data of unreachable secrets
+ * (system property {@code de.carne.security.secret.Secret.cleaner}, default: {@code false}) and to report leaked
+ * secrets together with their creation stack for every n-th secret (system property
+ * {@code de.carne.security.secret.Secret.leakSampling}, default: {@code 0} = disabled). Callers pass the object
+ * returned by {@linkplain #track(Secret, Object)} unchanged to {@linkplain #untrack(Object)}.
+ * </p>
+ */
+final class SecretTracker {
+
+	private static final Log LOG = new Log();
+
+	private static final boolean CLEANER = Boolean.getBoolean(Secret.class.getName() + ".cleaner");
+	private static final int LEAK_SAMPLING = Math
+			.max(Integer.getInteger(Secret.class.getName() + ".leakSampling", 0).intValue(), 0);
+	private static final boolean ENABLED = CLEANER || LEAK_SAMPLING > 0;
+
+	private static final class Holder {
+
+		static final Cleaner CLEANER_INSTANCE = Cleaner.create();
+		static final LongAdder LEAKS = new LongAdder();
+
+		private Holder() {
+			// prevent instantiation
+		}
+
+	}
+
+	private SecretTracker() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Starts tracking a {@linkplain Secret} instance.
+	 *
+	 * @param secret the {@linkplain Secret} instance to track.
+	 * @param data the secret data to dispose in case the {@linkplain Secret} instance becomes unreachable.
+	 * @return the tracking state or {@code null} if the secret is not tracked.
+	 */
+	static @Nullable Object track(Secret<?> secret, Object data) {
+		State state = null;
+
+		if (ENABLED) {
+			boolean sampled = LEAK_SAMPLING > 0 && ThreadLocalRandom.current().nextInt(LEAK_SAMPLING) == 0;
+
+			if (CLEANER || sampled) {
+				state = new State(data, sampled ? new Throwable("Secret created") : null);
+				state.cleanable = Holder.CLEANER_INSTANCE.register(secret, state);
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Stops tracking a {@linkplain Secret} instance after it has been closed.
+	 *
+	 * @param state the tracking state as returned by {@linkplain #track(Secret, Object)}.
+	 */
+	static void untrack(@Nullable Object state) {
+		if (state != null) {
+			State trackingState = (State) state;
+			Cleaner.Cleanable cleanable = trackingState.cleanable;
+
+			trackingState.closed = true;
+			if (cleanable != null) {
+				cleanable.clean();
+			}
+		}
+	}
+
+	/**
+	 * Keeps a {@linkplain Secret} instance reachable up to this call.
+	 * <p>
+	 * Without this, the {@linkplain Cleaner} may consider a secret unreachable and zeroize its data while a method
+	 * operating on the data is still running.
+	 * </p>
+	 *
+	 * @param secret the {@linkplain Secret} instance to keep reachable.
+	 */
+	static void reachabilityFence(Secret<?> secret) {
+		Reference.reachabilityFence(secret);
+	}
+
+	/**
+	 * Gets the number of unclosed secrets reported so far.
+	 *
+	 * @return the number of unclosed secrets reported so far.
+	 */
+	static long leaks() {
+		return (LEAK_SAMPLING > 0 ? Holder.LEAKS.sum() : 0L);
+	}
+
+	// Must not reference the tracked Secret instance, as this would keep it reachable
+	private static final class State implements Runnable {
+
+		private final Object data;
+		private final @Nullable Throwable origin;
+		volatile boolean closed = false;
+		volatile Cleaner.@Nullable Cleanable cleanable = null;
+
+		State(Object data, @Nullable Throwable origin) {
+			this.data = data;
+			this.origin = origin;
+		}
+
+		@Override
+		public void run() {
+			if (!this.closed) {
+				if (this.data instanceof byte[]) {
+					Arrays.fill((byte[]) this.data, (byte) 0);
+				} else if (this.data instanceof char[]) {
+					Arrays.fill((char[]) this.data, '\0');
+				}
+
+				Throwable currentOrigin = this.origin;
+
+				if (currentOrigin != null) {
+					Holder.LEAKS.increment();
+					LOG.warning(currentOrigin, "Detected unclosed secret (leak #{0})", Holder.LEAKS.sum());
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Utility class providing {@linkplain Cipher} related functions.
+ * <p>
+ * This is the Java 11 implementation, which processes the streamed data into a reused output buffer instead of
+ * allocating a new output array per input block.
+ * </p>
+ */
+public final class CipherUtil {
+
+	private static final int STREAM_BUFFER_SIZE = 512;
+
+	private CipherUtil() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Streams the data provided via an {@linkplain InputStream} through the given {@linkplain Cipher} instance.
+	 * <p>
+	 * The resulting operation depends on how the given {@linkplain Cipher} instance has been initialized.
+	 * </p>
+	 *
+	 * @param cipher the {@linkplain Cipher} instance to use for streaming.
+	 * @param in the input to stream from.
+	 * @param out the output to stream to.
+	 * @return the number of bytes read from input. Depending on the used cipher this will not match the number of
+	 * written bytes.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws GeneralSecurityException if a security related error occurs.
+	 */
+	public static int stream(Cipher cipher, InputStream in, OutputStream out)
+			throws IOException, GeneralSecurityException {
+		int read = 0;
+		byte[] inBuffer = new byte[STREAM_BUFFER_SIZE];
+		byte[] outBuffer = new byte[cipher.getOutputSize(STREAM_BUFFER_SIZE)];
+
+		try {
+			int read0;
+
+			while ((read0 = in.read(inBuffer)) >= 0) {
+				if (read0 > 0) {
+					int outLength;
+
+					read += read0;
+					try {
+						outLength = cipher.update(inBuffer, 0, read0, outBuffer, 0);
+					} catch (ShortBufferException e) {
+						// The input is not consumed in this case; hence simply retry with a sufficient buffer
+						outBuffer = newBuffer(outBuffer, cipher.getOutputSize(read0));
+						outLength = cipher.update(inBuffer, 0, read0, outBuffer, 0);
+					}
+					out.write(outBuffer, 0, outLength);
+				}
+			}
+
+			// Decrypting ciphers (e.g. AES/GCM) may release all their output on the final call
+			int finalOutputSize = cipher.getOutputSize(0);
+
+			if (finalOutputSize > outBuffer.length) {
+				outBuffer = newBuffer(outBuffer, finalOutputSize);
+			}
+			out.write(outBuffer, 0, cipher.doFinal(outBuffer, 0));
+		} finally {
+			Arrays.fill(inBuffer, (byte) 0);
+			Arrays.fill(outBuffer, (byte) 0);
+		}
+		return read;
+	}
+
+	private static byte[] newBuffer(byte[] buffer, int size) {
+		Arrays.fill(buffer, (byte) 0);
+		return new byte[size];
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.crypto.DecryptedBlockCache;
+import de.carne.security.crypto.EncryptedBlockFile;
+import de.carne.security.crypto.StorableCoder;
+import de.carne.security.crypto.StorableCoderId;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+
+/**
+ * Test {@linkplain EncryptedBlockFile} and {@linkplain DecryptedBlockCache} classes.
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class EncryptedBlockFileTest {
+
+	@Test
+	void testRandomReads(TempPath tempPath) throws IOException, GeneralSecurityException {
+		Random random = new Random(42);
+		byte[] data = new byte[5 * EncryptedBlockFile.BLOCK_SIZE + 1234];
+
+		random.nextBytes(data);
+
+		Path file = tempPath.get().resolve("testRandomReads.bin");
+		DecryptedBlockCache cache = DecryptedBlockCache.create(4L * EncryptedBlockFile.BLOCK_SIZE);
+
+		try (StorableCoder coder = StorableCoderId.AES128.newCoder()) {
+			Assertions.assertEquals(data.length, EncryptedBlockFile.write(file, coder, new ByteArrayInputStream(data)));
+			try (EncryptedBlockFile blockFile = EncryptedBlockFile.open(file, coder, cache)) {
+				Assertions.assertEquals(data.length, blockFile.size());
+
+				byte[] buffer = new byte[3 * EncryptedBlockFile.BLOCK_SIZE];
+
+				for (int readIndex = 0; readIndex < 1000; readIndex++) {
+					int position = random.nextInt(data.length);
+					int length = random.nextInt(buffer.length);
+					int read = blockFile.read(position, buffer, 0, length);
+
+					Assertions.assertEquals(Math.min(length, data.length - position), read);
+					Assertions.assertArrayEquals(Arrays.copyOfRange(data, position, position + read),
+							Arrays.copyOf(buffer, read));
+				}
+				Assertions.assertEquals(-1, blockFile.read(data.length, buffer, 0, 1));
+			}
+			Assertions.assertTrue(cache.hits() > 0);
+
+			// Exact block multiple and empty data
+			testRoundTrip(tempPath.get().resolve("testRandomReads.full"), coder, cache,
+					Arrays.copyOf(data, 2 * EncryptedBlockFile.BLOCK_SIZE));
+			testRoundTrip(tempPath.get().resolve("testRandomReads.empty"), coder, cache, new byte[0]);
+		}
+	}
+
+	private void testRoundTrip(Path file, StorableCoder coder, DecryptedBlockCache cache, byte[] data)
+			throws IOException {
+		EncryptedBlockFile.write(file, coder, new ByteArrayInputStream(data));
+		try (EncryptedBlockFile blockFile = EncryptedBlockFile.open(file, coder, cache)) {
+			byte[] buffer = new byte[data.length];
+
+			Assertions.assertEquals(data.length, blockFile.size());
+			Assertions.assertEquals(data.length > 0 ? data.length : -1, blockFile.read(0, buffer, 0, buffer.length));
+			Assertions.assertArrayEquals(data, buffer);
+		}
+	}
+
+	@Test
+	void testTamperedFile(TempPath tempPath) throws IOException, GeneralSecurityException {
+		byte[] data = new byte[3 * EncryptedBlockFile.BLOCK_SIZE];
+		Path file = tempPath.get().resolve("testTamperedFile.bin");
+		DecryptedBlockCache cache = DecryptedBlockCache.create(0);
+
+		try (StorableCoder coder = StorableCoderId.AES128.newCoder()) {
+			EncryptedBlockFile.write(file, coder, new ByteArrayInputStream(data));
+			// Remove the last block
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - 100);
+			}
+			Assertions.assertThrows(IOException.class, () -> EncryptedBlockFile.open(file, coder, cache));
+
+			EncryptedBlockFile.write(file, coder, new ByteArrayInputStream(data));
+			// Modify the first block
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap(new byte[] { 1 }), 100);
+			}
+			try (EncryptedBlockFile blockFile = EncryptedBlockFile.open(file, coder, cache)) {
+				byte[] buffer = new byte[10];
+
+				Assertions.assertThrows(IOException.class, () -> blockFile.read(0, buffer, 0, buffer.length));
+				Assertions.assertEquals(buffer.length,
+						blockFile.read(EncryptedBlockFile.BLOCK_SIZE, buffer, 0, buffer.length));
+			}
+		}
+	}
+
+}
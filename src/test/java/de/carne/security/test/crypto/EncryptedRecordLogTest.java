@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.crypto.EncryptedRecordLog;
+import de.carne.security.crypto.StorableCoder;
+import de.carne.security.crypto.StorableCoderId;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+
+/**
+ * Test {@linkplain EncryptedRecordLog} class.
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class EncryptedRecordLogTest {
+
+	private static final int RECORD_COUNT = 2000;
+	private static final long MAX_SEGMENT_SIZE = 32 * 1024;
+
+	@Test
+	void testAppendAndRead(TempPath tempPath) throws IOException, GeneralSecurityException, InterruptedException {
+		Path logDirectory = tempPath.get().resolve("testAppendAndRead");
+
+		try (StorableCoder coder = StorableCoderId.AES128.newCoder()) {
+			try (EncryptedRecordLog log = EncryptedRecordLog.open(logDirectory, coder, MAX_SEGMENT_SIZE)) {
+				Assertions.assertThrows(IOException.class,
+						() -> EncryptedRecordLog.open(logDirectory, coder, MAX_SEGMENT_SIZE));
+				for (int recordIndex = 0; recordIndex < RECORD_COUNT; recordIndex++) {
+					Assertions.assertEquals(recordIndex, log.append(record(recordIndex)));
+					if (recordIndex % 100 == 0) {
+						log.sync();
+					}
+				}
+				Assertions.assertTrue(countSegments(logDirectory) > 1);
+				verifyLog(log);
+			}
+			try (EncryptedRecordLog log = EncryptedRecordLog.open(logDirectory, coder, MAX_SEGMENT_SIZE)) {
+				verifyLog(log);
+				Assertions.assertEquals(RECORD_COUNT, log.append(record(RECORD_COUNT)));
+			}
+		}
+	}
+
+	@Test
+	void testTornTail(TempPath tempPath) throws IOException, GeneralSecurityException {
+		Path logDirectory = tempPath.get().resolve("testTornTail");
+
+		try (StorableCoder coder = StorableCoderId.AES128.newCoder()) {
+			try (EncryptedRecordLog log = EncryptedRecordLog.open(logDirectory, coder)) {
+				for (int recordIndex = 0; recordIndex < 10; recordIndex++) {
+					log.append(record(recordIndex));
+				}
+			}
+
+			Path segmentFile = lastSegment(logDirectory);
+
+			// Simulate a partially written record
+			try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - 5);
+			}
+			try (EncryptedRecordLog log = EncryptedRecordLog.open(logDirectory, coder)) {
+				Assertions.assertEquals(9, log.size());
+				Assertions.assertArrayEquals(record(8), log.read(8));
+				Assertions.assertEquals(9, log.append(record(9)));
+			}
+			// Simulate a tampered record
+			try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(1);
+
+				channel.read(buffer, 20);
+				buffer.put(0, (byte) (buffer.get(0) ^ 0x01));
+				buffer.rewind();
+				channel.write(buffer, 20);
+			}
+			try (EncryptedRecordLog log = EncryptedRecordLog.open(logDirectory, coder)) {
+				Assertions.assertEquals(10, log.size());
+				Assertions.assertThrows(IOException.class, () -> log.read(0));
+				Assertions.assertArrayEquals(record(9), log.read(9));
+			}
+		}
+	}
+
+	private void verifyLog(EncryptedRecordLog log) throws IOException, InterruptedException {
+		Assertions.assertEquals(RECORD_COUNT, log.size());
+		for (int recordIndex : new int[] { 0, 1, 255, 256, 257, 1000, RECORD_COUNT - 1 }) {
+			Assertions.assertArrayEquals(record(recordIndex), log.read(recordIndex));
+		}
+		Assertions.assertThrows(IndexOutOfBoundsException.class, () -> log.read(RECORD_COUNT));
+
+		AtomicLong nextIndex = new AtomicLong(700);
+
+		log.scan(700, (index, record) -> {
+			Assertions.assertEquals(nextIndex.getAndIncrement(), index);
+			Assertions.assertArrayEquals(record((int) index), record);
+		});
+		Assertions.assertEquals(RECORD_COUNT, nextIndex.get());
+
+		AtomicLong scanCount = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			log.scan(executor, (index, record) -> {
+				Assertions.assertArrayEquals(record((int) index), record);
+				scanCount.incrementAndGet();
+			});
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		Assertions.assertEquals(RECORD_COUNT, scanCount.get());
+	}
+
+	private static byte[] record(int index) {
+		byte[] record = new byte[index % 64 + 1];
+
+		for (int recordIndex = 0; recordIndex < record.length; recordIndex++) {
+			record[recordIndex] = (byte) (index + recordIndex);
+		}
+		return record;
+	}
+
+	private static int countSegments(Path logDirectory) throws IOException {
+		return listSegments(logDirectory).size();
+	}
+
+	private static Path lastSegment(Path logDirectory) throws IOException {
+		List<Path> segments = listSegments(logDirectory);
+
+		segments.sort(null);
+		return segments.get(segments.size() - 1);
+	}
+
+	private static List<Path> listSegments(Path logDirectory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(logDirectory, "*.log")) {
+			files.forEach(segments::add);
+		}
+		return segments;
+	}
+
+}
@@ -17,6 +17,11 @@
 package de.carne.security.test.crypto;
 
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -66,6 +71,46 @@ class StorableCoderTest {
 		}
 	}
 
+	@Test
+	void testJCECompatibility() throws GeneralSecurityException {
+		testJCECompatibility(StorableCoderId.AES128, 16);
+		testJCECompatibility(StorableCoderId.AES256, 32);
+	}
+
+	private void testJCECompatibility(StorableCoderId id, int keyLength) throws GeneralSecurityException {
+		try (StorableCoder coder = id.newCoder(); ByteSecret coderSecret = coder.store()) {
+			LOG.info("Testing JCE compatibility: {0}...", coder);
+
+			// Whatever engine the coder is using, its data must be compatible with the JCE cipher
+			SecretKeySpec key = coderSecret
+					.apply(secret -> new SecretKeySpec(secret, secret.length - keyLength, keyLength, "AES"));
+			byte[] encrypted = coder.encrypt(TEST_DATA);
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, encrypted, 0, 12));
+			Assertions.assertArrayEquals(TEST_DATA, cipher.doFinal(encrypted, 12, encrypted.length - 12));
+
+			byte[] iv = new byte[12];
+
+			Randomness.get().nextBytes(iv);
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+
+			byte[] jceEncrypted = cipher.doFinal(TEST_DATA);
+			byte[] ivAndJceEncrypted = Arrays.copyOf(iv, iv.length + jceEncrypted.length);
+
+			System.arraycopy(jceEncrypted, 0, ivAndJceEncrypted, iv.length, jceEncrypted.length);
+			Assertions.assertArrayEquals(TEST_DATA, coder.decrypt(ivAndJceEncrypted));
+		}
+	}
+
+	@Test
+	void testStoredCoderId() throws GeneralSecurityException {
+		try (StorableCoder coder = StorableCoder.defaultCoder().newCoder(); ByteSecret coderSecret = coder.store()) {
+			// The stored coder id does not depend on the engine in use
+			Assertions.assertEquals(coder.id(), coderSecret.apply(secret -> StorableCoderId.values()[secret[0]]));
+		}
+	}
+
 	private void testCoder(StorableCoder coder) throws GeneralSecurityException {
 		byte[] encoded = coder.encrypt(TEST_DATA);
 		byte[] decoded = coder.decrypt(encoded);
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.metrics.Audit;
+import de.carne.security.metrics.AuditOverflowPolicy;
+import de.carne.security.metrics.AuditTrail;
+import de.carne.security.metrics.SecurityOperation;
+import de.carne.security.secret.ByteSecret;
+import de.carne.security.secret.SecureStorage;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+
+/**
+ * Test {@linkplain Audit} and {@linkplain AuditTrail} classes.
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class AuditTrailTest {
+
+	private static final String TEST_ID = AuditTrailTest.class.getSimpleName();
+
+	@AfterEach
+	void resetTrail() {
+		Audit.setTrail(null);
+	}
+
+	@Test
+	void testSecureStorageAudit(TempPath tempPath) throws IOException {
+		Path trailDirectory = tempPath.get().resolve("testSecureStorageAudit");
+
+		String idHash;
+
+		try (AuditTrail trail = AuditTrail.open(trailDirectory, AuditOverflowPolicy.BLOCK)) {
+			idHash = trail.hashId(TEST_ID);
+			Audit.setTrail(trail);
+
+			SecureStorage storage = SecureStorage.create(TEST_ID, tempPath.get());
+			byte[] encrypted = storage.encryptBytes(ByteSecret.wrap(new byte[16]));
+
+			storage.decryptBytes(encrypted, decrypted -> Assertions.assertEquals(16, decrypted.length));
+			Audit.setTrail(null);
+			storage.encryptBytes(ByteSecret.wrap(new byte[16]));
+		}
+
+		Assertions.assertEquals(16, idHash.length());
+		Assertions.assertNotEquals(String.format("%08x", TEST_ID.hashCode()), idHash);
+
+		List<String[]> events = Files.readAllLines(trailDirectory.resolve("audit.log"), StandardCharsets.UTF_8)
+				.stream().map(line -> line.split("\t")).collect(Collectors.toList());
+
+		Assertions.assertEquals(1, events.stream().filter(event -> SecurityOperation.ENCRYPT.name().equals(event[1]))
+				.count());
+		Assertions.assertEquals(1, events.stream().filter(event -> SecurityOperation.DECRYPT.name().equals(event[1]))
+				.count());
+		for (String[] event : events) {
+			Assertions.assertEquals(5, event.length);
+			Assertions.assertEquals(idHash, event[2]);
+			Assertions.assertEquals(Thread.currentThread().getName(), event[4]);
+		}
+	}
+
+	@Test
+	void testConcurrentAudit(TempPath tempPath) throws IOException, InterruptedException {
+		Path trailDirectory = tempPath.get().resolve("testConcurrentAudit");
+		int threadCount = 4;
+		int eventCount = 100000;
+
+		try (AuditTrail trail = AuditTrail.open(trailDirectory, AuditOverflowPolicy.BLOCK)) {
+			Audit.setTrail(trail);
+
+			List<Thread> threads = new ArrayList<>();
+
+			for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+				Thread thread = new Thread(() -> {
+					for (int eventIndex = 0; eventIndex < eventCount; eventIndex++) {
+						Audit.record(SecurityOperation.GET_SECRET, TEST_ID, TEST_ID + eventIndex);
+					}
+				});
+
+				thread.start();
+				threads.add(thread);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Audit.setTrail(null);
+			Assertions.assertEquals(0L, trail.dropped());
+		}
+
+		// Count the events of all (including rotated) trail files
+		long trailEventCount = 0;
+
+		try (Stream<Path> trailFiles = Files.list(trailDirectory)) {
+			for (Path trailFile : trailFiles.collect(Collectors.toList())) {
+				trailEventCount += Files.readAllLines(trailFile, StandardCharsets.UTF_8).size();
+			}
+		}
+		Assertions.assertEquals(threadCount * eventCount, trailEventCount);
+	}
+
+	@Test
+	void testKeyedIdHashes(TempPath tempPath) throws IOException {
+		byte[] idKey = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+		String idHash;
+		String randomKeyIdHash;
+
+		try (AuditTrail trail1 = AuditTrail.open(tempPath.get().resolve("trail1"), AuditOverflowPolicy.DROP, idKey);
+				AuditTrail trail2 = AuditTrail.open(tempPath.get().resolve("trail2"), AuditOverflowPolicy.DROP,
+						idKey);
+				AuditTrail trail3 = AuditTrail.open(tempPath.get().resolve("trail3"), AuditOverflowPolicy.DROP)) {
+			idHash = trail1.hashId(TEST_ID);
+			randomKeyIdHash = trail3.hashId(TEST_ID);
+
+			// Same key results in the same hash, while a different id or key results in a different one
+			Assertions.assertEquals(idHash, trail2.hashId(TEST_ID));
+			Assertions.assertNotEquals(idHash, trail1.hashId(TEST_ID + "2"));
+			Assertions.assertNotEquals(idHash, randomKeyIdHash);
+
+			Audit.setTrail(trail1);
+			Audit.record(SecurityOperation.GET_SECRET, TEST_ID, TEST_ID);
+			Audit.setTrail(null);
+			Assertions.assertThrows(IllegalStateException.class, () -> {
+				trail1.close();
+				trail1.hashId(TEST_ID);
+			});
+		}
+
+		List<String> lines = Files.readAllLines(tempPath.get().resolve("trail1").resolve("audit.log"),
+				StandardCharsets.UTF_8);
+
+		Assertions.assertEquals(1, lines.size());
+		Assertions.assertEquals(idHash, lines.get(0).split("\t")[2]);
+	}
+
+	@Test
+	void testClosedTrail(TempPath tempPath) throws IOException {
+		Path trailDirectory = tempPath.get().resolve("testClosedTrail");
+		AuditTrail trail = AuditTrail.open(trailDirectory, AuditOverflowPolicy.BLOCK);
+
+		Audit.setTrail(trail);
+		Audit.record(SecurityOperation.GET_SECRET, TEST_ID, TEST_ID);
+		trail.close();
+
+		// Events published after closing are dropped without blocking (even beyond the trail's capacity)
+		int droppedCount = 200000;
+
+		for (int eventIndex = 0; eventIndex < droppedCount; eventIndex++) {
+			Audit.record(SecurityOperation.GET_SECRET, TEST_ID, TEST_ID);
+		}
+		Audit.setTrail(null);
+		Assertions.assertEquals(droppedCount, trail.dropped());
+		Assertions.assertEquals(1, Files.readAllLines(trailDirectory.resolve("audit.log")).size());
+	}
+
+	@Test
+	void testIdleTrail(TempPath tempPath) throws IOException, InterruptedException {
+		Path trailDirectory = tempPath.get().resolve("testIdleTrail");
+		Path trailFile = trailDirectory.resolve("audit.log");
+
+		try (AuditTrail trail = AuditTrail.open(trailDirectory, AuditOverflowPolicy.DROP)) {
+			Audit.setTrail(trail);
+			for (int eventCount = 1; eventCount <= 3; eventCount++) {
+				Audit.record(SecurityOperation.GET_SECRET, TEST_ID, TEST_ID);
+				awaitLineCount(trailFile, eventCount);
+
+				// An idle writer is parked without a timeout (and woken up by the next event)
+				Assertions.assertTrue(awaitWriterState(Thread.State.WAITING));
+			}
+		}
+	}
+
+	private static void awaitLineCount(Path file, int lineCount) throws IOException, InterruptedException {
+		for (int retry = 0; retry < 500 && Files.readAllLines(file).size() < lineCount; retry++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(lineCount, Files.readAllLines(file).size());
+	}
+
+	private static boolean awaitWriterState(Thread.State state) throws InterruptedException {
+		boolean reached = false;
+
+		for (int retry = 0; !reached && retry < 500; retry++) {
+			reached = Thread.getAllStackTraces().keySet().stream()
+					.anyMatch(thread -> AuditTrail.class.getSimpleName().equals(thread.getName())
+							&& thread.getState() == state);
+			if (!reached) {
+				Thread.sleep(10);
+			}
+		}
+		return reached;
+	}
+
+}
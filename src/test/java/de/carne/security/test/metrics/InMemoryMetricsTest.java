@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.metrics;
+
+import java.security.GeneralSecurityException;
+import java.util.Objects;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import de.carne.security.crypto.StorableCoder;
+import de.carne.security.crypto.StorableCoderId;
+import de.carne.security.metrics.InMemoryMetrics;
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityOperation;
+import de.carne.security.secret.ByteSecret;
+
+/**
+ * Test {@linkplain InMemoryMetrics} class.
+ */
+class InMemoryMetricsTest {
+
+	private static final byte[] TEST_DATA = new byte[1234];
+
+	@AfterEach
+	void resetCollector() {
+		Metrics.setCollector(null);
+	}
+
+	@Test
+	void testDisabledMetrics() {
+		Assertions.assertNull(Metrics.getCollector());
+		Assertions.assertEquals(0L, Metrics.start());
+	}
+
+	@Test
+	void testCoderMetrics() throws GeneralSecurityException {
+		InMemoryMetrics metrics = new InMemoryMetrics();
+
+		Metrics.setCollector(metrics);
+
+		StorableCoderId id = StorableCoderId.AES128;
+
+		try (StorableCoder coder = id.newCoder();
+				ByteSecret coderSecret = coder.store();
+				StorableCoder reloadedCoder = StorableCoder.load(coderSecret)) {
+			byte[] encrypted = coder.encrypt(TEST_DATA);
+
+			reloadedCoder.decrypt(encrypted);
+			reloadedCoder.decrypt(encrypted);
+		}
+
+		InMemoryMetrics.Stats generateStats = Objects
+				.requireNonNull(metrics.get(SecurityOperation.GENERATE_KEY, id.name()));
+		InMemoryMetrics.Stats loadStats = Objects
+				.requireNonNull(metrics.get(SecurityOperation.LOAD_CODER, id.name()));
+		InMemoryMetrics.Stats encryptStats = Objects
+				.requireNonNull(metrics.get(SecurityOperation.ENCRYPT, id.name()));
+		InMemoryMetrics.Stats decryptStats = Objects
+				.requireNonNull(metrics.get(SecurityOperation.DECRYPT, id.name()));
+
+		Assertions.assertEquals(1L, generateStats.count());
+		Assertions.assertEquals(1L, loadStats.count());
+		Assertions.assertEquals(1L, encryptStats.count());
+		Assertions.assertEquals(TEST_DATA.length, encryptStats.bytes());
+		Assertions.assertEquals(2L, decryptStats.count());
+		Assertions.assertTrue(decryptStats.percentile(50.0) > 0L);
+		Assertions.assertTrue(decryptStats.percentile(100.0) >= decryptStats.percentile(50.0));
+
+		metrics.reset();
+
+		Assertions.assertNull(metrics.get(SecurityOperation.ENCRYPT, id.name()));
+	}
+
+}
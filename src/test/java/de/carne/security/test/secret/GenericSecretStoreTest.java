@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.secret;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.secret.FileCacheMode;
+import de.carne.security.secret.GenericSecretStore;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+
+/**
+ * Test {@linkplain GenericSecretStore} class.
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class GenericSecretStoreTest {
+
+	private static final String TEST_ID = GenericSecretStoreTest.class.getSimpleName();
+
+	private static final byte[] SECRET1 = "secret1".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SECRET2 = "secret2".getBytes(StandardCharsets.US_ASCII);
+
+	private static final long POLL_INTERVAL = 1000L;
+	private static final long TIMEOUT = 10000L;
+
+	@Test
+	void testUncachedStore(TempPath tempPath) throws IOException {
+		GenericSecretStore store = GenericSecretStore.open(tempPath.get(), FileCacheMode.NONE);
+
+		store.setSecret(TEST_ID, SECRET1.clone());
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(TEST_ID));
+
+		// Changes made by other processes are seen immediately
+		Files.write(tempPath.get().resolve(TEST_ID + ".secret"), SECRET2);
+
+		Assertions.assertArrayEquals(SECRET2, store.getSecret(TEST_ID));
+	}
+
+	@Test
+	void testWatchedStore(TempPath tempPath) throws IOException, InterruptedException {
+		GenericSecretStore store = GenericSecretStore.open(tempPath.get(), FileCacheMode.WATCH);
+		Path secretFile = tempPath.get().resolve(TEST_ID + ".secret");
+
+		store.setSecret(TEST_ID, SECRET1.clone());
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(TEST_ID));
+
+		// Changes made by other processes invalidate the cache
+		Files.write(secretFile, SECRET2);
+
+		Assertions.assertArrayEquals(SECRET2, awaitSecret(store, SECRET2));
+
+		Files.delete(secretFile);
+
+		Assertions.assertNull(awaitSecret(store, null));
+		Assertions.assertFalse(store.hasSecret(TEST_ID));
+	}
+
+	@Test
+	void testPolledStore(TempPath tempPath) throws IOException, InterruptedException {
+		GenericSecretStore store = GenericSecretStore.open(tempPath.get(), FileCacheMode.POLL);
+
+		store.setSecret(TEST_ID, SECRET1.clone());
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(TEST_ID));
+
+		// Changes made by other processes are seen after the poll interval
+		Files.write(tempPath.get().resolve(TEST_ID + ".secret"), SECRET2);
+
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(TEST_ID));
+
+		Thread.sleep(POLL_INTERVAL + 100L);
+
+		Assertions.assertArrayEquals(SECRET2, store.getSecret(TEST_ID));
+
+		// Changes made via the store are seen immediately
+		store.deleteSecret(TEST_ID);
+
+		Assertions.assertNull(store.getSecret(TEST_ID));
+	}
+
+	@Test
+	void testShardedStore(TempPath tempPath) throws IOException, NoSuchAlgorithmException {
+		Path secretHome = tempPath.get();
+		GenericSecretStore flatStore = GenericSecretStore.open(secretHome, FileCacheMode.NONE, false);
+		List<String> ids = Arrays.asList(TEST_ID + "1", TEST_ID + "2", TEST_ID + "3");
+
+		for (String id : ids) {
+			flatStore.setSecret(id, SECRET1.clone());
+		}
+		Assertions.assertEquals(new HashSet<>(ids), listSecrets(flatStore, 10));
+
+		// Flat secret files are migrated on first access
+		GenericSecretStore shardedStore = GenericSecretStore.open(secretHome, FileCacheMode.NONE, true);
+
+		Assertions.assertArrayEquals(SECRET1, shardedStore.getSecret(ids.get(0)));
+		for (String id : ids) {
+			Path secretFile = getShardDirectory(secretHome, id).resolve(id + ".secret");
+
+			Assertions.assertFalse(Files.exists(secretHome.resolve(id + ".secret")));
+			Assertions.assertTrue(Files.isRegularFile(secretFile));
+			Assertions.assertArrayEquals(SECRET1, shardedStore.getSecret(id));
+		}
+
+		String newId = TEST_ID + "4";
+
+		shardedStore.setSecret(newId, SECRET2.clone());
+
+		Assertions.assertTrue(Files.isRegularFile(getShardDirectory(secretHome, newId).resolve(newId + ".secret")));
+
+		Set<String> expectedIds = new HashSet<>(ids);
+
+		expectedIds.add(newId);
+
+		Assertions.assertEquals(expectedIds, listSecrets(shardedStore, 3));
+
+		shardedStore.deleteSecret(newId);
+
+		Assertions.assertFalse(shardedStore.hasSecret(newId));
+	}
+
+	@Test
+	void testShardedWatchedStore(TempPath tempPath)
+			throws IOException, InterruptedException, NoSuchAlgorithmException {
+		GenericSecretStore store = GenericSecretStore.open(tempPath.get(), FileCacheMode.WATCH, true);
+
+		store.setSecret(TEST_ID, SECRET1.clone());
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(TEST_ID));
+
+		// Shard directories are not watched, hence changes made by other processes are seen after the poll interval
+		Files.write(getShardDirectory(tempPath.get(), TEST_ID).resolve(TEST_ID + ".secret"), SECRET2);
+
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(TEST_ID));
+
+		Thread.sleep(POLL_INTERVAL + 100L);
+
+		Assertions.assertArrayEquals(SECRET2, store.getSecret(TEST_ID));
+	}
+
+	private static Set<String> listSecrets(GenericSecretStore store, int batchSize) throws IOException {
+		Set<String> ids = new HashSet<>();
+
+		store.listSecrets(batchSize, batch -> {
+			Assertions.assertTrue(batch.size() <= batchSize);
+			ids.addAll(batch);
+		});
+		return ids;
+	}
+
+	private static Path getShardDirectory(Path secretHome, String id) throws NoSuchAlgorithmException {
+		byte[] idHash = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+
+		return secretHome.resolve(String.format("%02x", idHash[0] & 0xff))
+				.resolve(String.format("%02x", idHash[1] & 0xff));
+	}
+
+	private static byte @Nullable [] awaitSecret(GenericSecretStore store, byte @Nullable [] expected)
+			throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		byte[] secret = store.getSecret(TEST_ID);
+
+		while (!Arrays.equals(expected, secret) && System.nanoTime() < deadline) {
+			Thread.sleep(10L);
+			secret = store.getSecret(TEST_ID);
+		}
+		return secret;
+	}
+
+}
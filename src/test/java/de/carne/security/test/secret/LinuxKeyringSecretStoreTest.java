@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.secret;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.carne.boot.platform.Platform;
+import de.carne.security.secret.ByteSecret;
+import de.carne.security.secret.SecretStore;
+import de.carne.security.secret.SecretStoreProviders;
+import de.carne.security.secret.SecureStorage;
+
+/**
+ * Test {@linkplain SecretStoreProviders.LinuxKeyring} provided secret store.
+ * <p>
+ * This test requires the system property {@code de.carne.security.secret.LinuxKeyringSecretStore} to be set on VM
+ * start (see build task {@code testLinuxKeyring}) and is skipped if the kernel keyring is not accessible (e.g. due to a
+ * container's seccomp profile).
+ * </p>
+ */
+class LinuxKeyringSecretStoreTest {
+
+	private static final String TEST_ID = LinuxKeyringSecretStoreTest.class.getSimpleName() + ":"
+			+ Long.toHexString(System.nanoTime());
+
+	private static final byte[] SECRET1 = "secret1".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SECRET2 = "secret2".getBytes(StandardCharsets.US_ASCII);
+
+	@BeforeAll
+	static void assumeLinuxKeyring() throws IOException {
+		Assumptions.assumeTrue(Platform.IS_LINUX, "Not running on Linux");
+		Assumptions.assumeTrue(Boolean.getBoolean("de.carne.security.secret.LinuxKeyringSecretStore"),
+				"Linux keyring secret store not enabled");
+		Assumptions.assumeTrue(new SecretStoreProviders.LinuxKeyring().createSecretStore().isAvailable(),
+				"Linux keyring not accessible");
+	}
+
+	@Test
+	void testSecretStore() throws IOException {
+		SecretStore store = new SecretStoreProviders.LinuxKeyring().createSecretStore();
+		String id = TEST_ID + ".store";
+
+		Assertions.assertFalse(store.hasSecret(id));
+		Assertions.assertNull(store.getSecret(id));
+
+		store.setSecret(id, SECRET1.clone());
+
+		Assertions.assertTrue(store.hasSecret(id));
+		Assertions.assertArrayEquals(SECRET1, store.getSecret(id));
+
+		// Setting an existing secret replaces it
+		store.setSecret(id, SECRET2.clone());
+
+		Assertions.assertArrayEquals(SECRET2, store.getSecret(id));
+
+		store.deleteSecret(id);
+
+		Assertions.assertFalse(store.hasSecret(id));
+		Assertions.assertNull(store.getSecret(id));
+		// Deleting a missing secret is a no-op
+		store.deleteSecret(id);
+	}
+
+	@Test
+	void testSecureStorageSelection() throws IOException {
+		String id = TEST_ID + ".storage";
+		SecureStorage storage = SecureStorage.create(id);
+		byte[] token = id.getBytes(StandardCharsets.UTF_8);
+
+		try {
+			Assertions.assertTrue(storage.toString().contains("LinuxKeyringSecretStore"), storage.toString());
+
+			byte[] encrypted = storage.encryptBytes(ByteSecret.wrap(token.clone()));
+
+			Assertions.assertTrue(new SecretStoreProviders.LinuxKeyring().createSecretStore().hasSecret(id));
+			SecureStorage.create(id).decryptBytes(encrypted,
+					decrypted -> Assertions.assertArrayEquals(token, decrypted));
+		} finally {
+			storage.delete();
+		}
+
+		Assertions.assertFalse(new SecretStoreProviders.LinuxKeyring().createSecretStore().hasSecret(id));
+	}
+
+}
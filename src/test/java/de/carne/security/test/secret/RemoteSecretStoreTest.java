@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.secret;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.secret.ByteSecret;
+import de.carne.security.secret.RemoteSecretStore;
+import de.carne.security.secret.SecretKeyServer;
+import de.carne.security.secret.SecretStoreProvider;
+import de.carne.security.secret.SecretStoreProviders;
+import de.carne.security.secret.SecureStorage;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+
+/**
+ * Test {@linkplain RemoteSecretStore} and {@linkplain SecretKeyServer} classes.
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class RemoteSecretStoreTest {
+
+	private static final String TEST_ID = RemoteSecretStoreTest.class.getSimpleName();
+
+	private static byte[] accessKey() {
+		return "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	void testSharedSecrets(TempPath tempPath) throws IOException {
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		SecretKeyServer server = SecretKeyServer.start(address, accessKey(), tempPath.get());
+		RemoteSecretStore node1 = RemoteSecretStore.open(server.getAddress(), accessKey());
+		RemoteSecretStore node2 = RemoteSecretStore.open(server.getAddress(), accessKey());
+
+		try {
+			SecureStorage storage = SecureStorage.create(TEST_ID, node1);
+			byte[] plain = TEST_ID.getBytes(StandardCharsets.UTF_8);
+			byte[] encrypted = storage.encryptBytes(ByteSecret.wrap(plain.clone()));
+
+			Assertions.assertTrue(node2.hasSecret(TEST_ID));
+			Assertions.assertArrayEquals(node1.getSecret(TEST_ID), node2.getSecret(TEST_ID));
+			storage.decryptBytes(encrypted, decrypted -> Assertions.assertArrayEquals(plain, decrypted));
+			Assertions.assertFalse(node2.hasSecret(TEST_ID + "-unknown"));
+
+			// Clients not knowing the access key are rejected
+			byte[] wrongAccessKey = accessKey();
+
+			wrongAccessKey[0] ^= 1;
+
+			RemoteSecretStore intruder = RemoteSecretStore.open(server.getAddress(), wrongAccessKey);
+
+			Assertions.assertThrows(IOException.class, () -> intruder.getSecret(TEST_ID));
+		} finally {
+			server.close();
+		}
+
+		// Cached secrets are still served while the server is unreachable
+		Assertions.assertNotNull(node2.getSecret(TEST_ID));
+		Assertions.assertThrows(IOException.class, () -> node2.getSecret(TEST_ID + "-unknown"));
+	}
+
+	@Test
+	void testConcurrentSecretGeneration(TempPath tempPath)
+			throws IOException, InterruptedException, ExecutionException {
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		SecretKeyServer server = SecretKeyServer.start(address, accessKey(), tempPath.get());
+		// Use differently formatted server addresses to keep the nodes from sharing any locally cached cipher
+		InetSocketAddress serverAddress = server.getAddress();
+		RemoteSecretStore[] nodes = new RemoteSecretStore[] { RemoteSecretStore.open(serverAddress, accessKey()),
+				RemoteSecretStore.open(InetSocketAddress.createUnresolved(serverAddress.getAddress().getHostAddress(),
+						serverAddress.getPort()), accessKey()) };
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		byte[] plain = TEST_ID.getBytes(StandardCharsets.UTF_8);
+
+		try {
+			List<Future<byte[]>> encrypted = new ArrayList<>();
+
+			for (int taskIndex = 0; taskIndex < 16; taskIndex++) {
+				String id = TEST_ID + "-race" + (taskIndex / 4);
+				RemoteSecretStore node = nodes[taskIndex % nodes.length];
+
+				encrypted.add(executor.submit(() -> {
+					start.await();
+					return SecureStorage.create(id, node).encryptBytes(ByteSecret.wrap(plain.clone()));
+				}));
+			}
+			start.countDown();
+
+			// Whichever node generated the secret first, all nodes must be able to decrypt everything
+			for (int taskIndex = 0; taskIndex < encrypted.size(); taskIndex++) {
+				String id = TEST_ID + "-race" + (taskIndex / 4);
+				byte[] encryptedBytes = encrypted.get(taskIndex).get();
+
+				for (RemoteSecretStore node : nodes) {
+					SecureStorage.create(id, node).decryptBytes(encryptedBytes,
+							decrypted -> Assertions.assertArrayEquals(plain, decrypted));
+				}
+			}
+		} finally {
+			executor.shutdown();
+			server.close();
+		}
+	}
+
+	@Test
+	void testStaleSecrets(TempPath tempPath) throws IOException, InterruptedException {
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		SecretKeyServer server = SecretKeyServer.start(address, accessKey(), tempPath.get());
+		RemoteSecretStore staleNode = RemoteSecretStore.open(server.getAddress(), accessKey(), 100,
+				TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+		RemoteSecretStore expiringNode = RemoteSecretStore.open(server.getAddress(), accessKey(), 100, 200,
+				TimeUnit.MILLISECONDS);
+		byte[] secret = TEST_ID.getBytes(StandardCharsets.UTF_8);
+
+		try {
+			staleNode.setSecret(TEST_ID + "-stale", secret.clone());
+			Assertions.assertArrayEquals(secret, staleNode.getSecret(TEST_ID + "-stale"));
+			Assertions.assertArrayEquals(secret, expiringNode.getSecret(TEST_ID + "-stale"));
+		} finally {
+			server.close();
+		}
+		Thread.sleep(300);
+
+		// Beyond the TTL the cached secret is still served while the refresh fails
+		Assertions.assertArrayEquals(secret, staleNode.getSecret(TEST_ID + "-stale"));
+		Assertions.assertArrayEquals(secret, staleNode.getSecret(TEST_ID + "-stale"));
+		Assertions.assertTrue(staleNode.hasSecret(TEST_ID + "-stale"));
+
+		// Beyond the maximum staleness the cached secret is no longer served
+		Assertions.assertThrows(IOException.class, () -> expiringNode.getSecret(TEST_ID + "-stale"));
+	}
+
+	@Test
+	void testInvalidSecretIds(TempPath tempPath) throws IOException {
+		Path secretHome = Files.createDirectory(tempPath.get().resolve("home"));
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		SecretKeyServer server = SecretKeyServer.start(address, accessKey(), secretHome);
+		RemoteSecretStore node = RemoteSecretStore.open(server.getAddress(), accessKey());
+		byte[] secret = TEST_ID.getBytes(StandardCharsets.UTF_8);
+
+		try {
+			for (String id : new String[] { "../" + TEST_ID, "..", "a/b", "a\\b", "a\nb", "" }) {
+				Assertions.assertThrows(IOException.class, () -> node.setSecret(id, secret.clone()));
+				Assertions.assertThrows(IOException.class, () -> node.getSecret(id));
+			}
+			Assertions.assertFalse(Files.exists(tempPath.get().resolve(TEST_ID + ".secret")));
+
+			// Rejected ids do not affect the connection
+			node.setSecret(TEST_ID, secret.clone());
+
+			Assertions.assertArrayEquals(secret, node.getSecret(TEST_ID));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	void testInvalidProviderConfiguration(TempPath tempPath) throws IOException {
+		String serverProperty = RemoteSecretStore.class.getName() + ".server";
+		String accessKeyFileProperty = RemoteSecretStore.class.getName() + ".accessKeyFile";
+		Path accessKeyFile = Files.write(tempPath.get().resolve("access.key"), accessKey());
+		SecretStoreProvider provider = new SecretStoreProviders.Remote();
+
+		System.setProperty(accessKeyFileProperty, accessKeyFile.toString());
+		try {
+			for (String server : new String[] { "localhost", ":4711", "localhost:port", "localhost:65536" }) {
+				System.setProperty(serverProperty, server);
+
+				IOException exception = Assertions.assertThrows(IOException.class, provider::createSecretStore);
+
+				Assertions.assertTrue(exception.getMessage().contains(serverProperty), exception.getMessage());
+			}
+
+			System.setProperty(serverProperty, "localhost:4711");
+			System.setProperty(accessKeyFileProperty, accessKeyFile.resolveSibling("missing.key").toString());
+
+			IOException exception = Assertions.assertThrows(IOException.class, provider::createSecretStore);
+
+			Assertions.assertTrue(exception.getMessage().contains(accessKeyFileProperty), exception.getMessage());
+		} finally {
+			System.clearProperty(serverProperty);
+			System.clearProperty(accessKeyFileProperty);
+		}
+	}
+
+}
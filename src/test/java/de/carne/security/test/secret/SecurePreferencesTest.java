@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.secret;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.secret.SecurePreferencesFactory;
+import de.carne.security.secret.SecureStorage;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+
+/**
+ * Test {@linkplain SecurePreferencesFactory} class.
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class SecurePreferencesTest {
+
+	private static final String TEST_PASSWORD = "secret";
+
+	@Test
+	void testSecurePreferences(TempPath tempPath) throws IOException, BackingStoreException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+		Path prefsFile = tempPath.get().resolve("test.prefs");
+		Preferences root = SecurePreferencesFactory.customRoot(storage, prefsFile);
+		Preferences node = root.node("app/credentials");
+
+		for (int keyIndex = 0; keyIndex < 100; keyIndex++) {
+			node.put("key" + keyIndex, TEST_PASSWORD + keyIndex);
+		}
+		root.put("rootKey", "rootValue");
+		root.node("app/empty");
+		Assertions.assertEquals(TEST_PASSWORD + 42, node.get("key42", null));
+		root.flush();
+
+		String prefsContent = new String(Files.readAllBytes(prefsFile), StandardCharsets.UTF_8);
+
+		Assertions.assertFalse(prefsContent.contains(TEST_PASSWORD));
+		Assertions.assertFalse(prefsContent.contains("rootValue"));
+
+		Preferences reloadedRoot = SecurePreferencesFactory.customRoot(storage, prefsFile);
+		Preferences reloadedNode = reloadedRoot.node("app/credentials");
+
+		Assertions.assertEquals("rootValue", reloadedRoot.get("rootKey", null));
+		Assertions.assertEquals(100, reloadedNode.keys().length);
+		for (int keyIndex = 0; keyIndex < 100; keyIndex++) {
+			Assertions.assertEquals(TEST_PASSWORD + keyIndex, reloadedNode.get("key" + keyIndex, null));
+		}
+
+		String[] childNames = reloadedRoot.node("app").childrenNames();
+
+		Arrays.sort(childNames);
+		Assertions.assertArrayEquals(new String[] { "credentials", "empty" }, childNames);
+
+		reloadedNode.remove("key0");
+		reloadedRoot.node("app/empty").removeNode();
+		reloadedRoot.flush();
+
+		Preferences otherRoot = SecurePreferencesFactory.customRoot(storage, prefsFile);
+
+		Assertions.assertNull(otherRoot.node("app/credentials").get("key0", null));
+		Assertions.assertFalse(otherRoot.nodeExists("app/empty"));
+
+		// Values encrypted with a different storage cannot be decrypted
+		SecureStorage otherStorage = SecureStorage.create(getClass().getSimpleName() + "2", tempPath.get());
+		Preferences foreignRoot = SecurePreferencesFactory.customRoot(otherStorage, prefsFile);
+
+		Assertions.assertThrows(IllegalStateException.class, () -> foreignRoot.get("rootKey", "default"));
+	}
+
+	@Test
+	void testTamperedSecurePreferences(TempPath tempPath) throws IOException, BackingStoreException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+		Path prefsFile = tempPath.get().resolve("tampered.prefs");
+		Preferences root = SecurePreferencesFactory.customRoot(storage, prefsFile);
+
+		root.put("user", "guest");
+		root.put("admin", TEST_PASSWORD);
+		root.node("app").put("user", "guest");
+		root.flush();
+
+		Properties properties = new Properties();
+
+		try (Reader reader = Files.newBufferedReader(prefsFile, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+
+		// Values copied to a different key (even of a different node) are rejected
+		properties.setProperty("//user", properties.getProperty("//admin"));
+		properties.setProperty("/app//user", properties.getProperty("//admin"));
+		try (Writer writer = Files.newBufferedWriter(prefsFile, StandardCharsets.UTF_8)) {
+			properties.store(writer, null);
+		}
+
+		Preferences tamperedRoot = SecurePreferencesFactory.customRoot(storage, prefsFile);
+
+		Assertions.assertEquals(TEST_PASSWORD, tamperedRoot.get("admin", null));
+		Assertions.assertThrows(IllegalStateException.class, () -> tamperedRoot.get("user", "default"));
+		Assertions.assertThrows(IllegalStateException.class, () -> tamperedRoot.node("app").get("user", "default"));
+	}
+
+}
@@ -16,16 +16,45 @@
  */
 package de.carne.security.test.secret;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.eclipse.jdt.annotation.Nullable;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import de.carne.security.metrics.InMemoryMetrics;
+import de.carne.security.metrics.Metrics;
+import de.carne.security.metrics.SecurityOperation;
+import de.carne.security.secret.AsyncSecureStorage;
 import de.carne.security.secret.ByteSecret;
 import de.carne.security.secret.CharSecret;
+import de.carne.security.secret.DurabilityPolicy;
+import de.carne.security.secret.EncryptedBatch;
+import de.carne.security.secret.LogSecretStore;
+import de.carne.security.secret.SecretStore;
 import de.carne.security.secret.SecureStorage;
 import de.carne.test.extension.TempPath;
 import de.carne.test.extension.TempPathParameterResolver;
@@ -130,4 +159,506 @@ class SecureStorageTest {
 		storage.delete();
 	}
 
+	@Test
+	void testLogStructuredSecureStorage(TempPath tempPath) throws IOException {
+		Path storeFile = tempPath.get().resolve("secrets.log");
+		final byte[] token = TEST_PASSWORD.getBytes();
+		byte[] encryptedToken;
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			encryptedToken = SecureStorage.createLogStructured(getClass().getSimpleName(), storeFile)
+					.encryptBytes(tokenSecret);
+		}
+
+		// Test whether the encryption secret survives a series of create and delete operations (including compaction)
+		for (int storageIndex = 0; storageIndex < 1000; storageIndex++) {
+			SecureStorage storage = SecureStorage.createLogStructured(Integer.toString(storageIndex), storeFile);
+
+			try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+				storage.encryptBytes(tokenSecret);
+			}
+			storage.delete();
+		}
+
+		SecureStorage storage = SecureStorage.createLogStructured(getClass().getSimpleName(), storeFile);
+
+		storage.decryptBytes(encryptedToken, decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+		storage.delete();
+
+		Assertions.assertThrows(IOException.class, () -> storage.decryptBytes(encryptedToken,
+				decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))));
+	}
+
+	@Test
+	void testLogStructuredSecureStorageDeletion(TempPath tempPath) throws IOException {
+		Path storeFile = tempPath.get().resolve("deleted.log");
+		String id = getClass().getSimpleName();
+		SecureStorage storage = SecureStorage.createLogStructured(id, storeFile);
+		byte[] token = TEST_PASSWORD.getBytes(StandardCharsets.UTF_8);
+		byte[] encryptedToken;
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			encryptedToken = storage.encryptBytes(tokenSecret);
+		}
+
+		byte[] secret = LogSecretStore.open(storeFile).getSecret(id);
+
+		Assertions.assertNotNull(secret);
+		Assertions.assertTrue(indexOf(Files.readAllBytes(storeFile), Objects.requireNonNull(secret)) >= 0);
+
+		storage.delete();
+
+		// The deleted secret is gone from the file immediately (without waiting for compaction)
+		Assertions.assertEquals(-1, indexOf(Files.readAllBytes(storeFile), secret));
+		Assertions.assertThrows(IOException.class, () -> storage.decryptBytes(encryptedToken,
+				decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))));
+
+		// The log stays usable after scrubbing
+		SecureStorage otherStorage = SecureStorage.createLogStructured(id + "2", storeFile);
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			byte[] otherEncryptedToken = otherStorage.encryptBytes(tokenSecret);
+
+			otherStorage.decryptBytes(otherEncryptedToken,
+					decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+		}
+	}
+
+	@Test
+	void testLogStructuredSecureStorageCorruption(TempPath tempPath) throws IOException {
+		Path storeFile = tempPath.get().resolve("corrupted.log");
+		String id = getClass().getSimpleName();
+		LogSecretStore store = LogSecretStore.open(storeFile);
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(TEST_PASSWORD.getBytes(StandardCharsets.UTF_8))) {
+			SecureStorage.createLogStructured(id, storeFile).encryptBytes(tokenSecret);
+		}
+
+		byte[] secret = Objects.requireNonNull(store.getSecret(id));
+		int secretIndex = indexOf(Files.readAllBytes(storeFile), secret);
+
+		Assertions.assertTrue(secretIndex >= 0);
+
+		// Modify the record in place (as an interrupted scrub would do) without touching the log's end
+		try (FileChannel channel = FileChannel.open(storeFile, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) ~secret[0] }), secretIndex);
+		}
+
+		// A damaged record is never returned
+		Assertions.assertThrows(IOException.class, () -> store.getSecret(id));
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern) {
+		int index = -1;
+
+		for (int dataIndex = 0; index < 0 && dataIndex + pattern.length <= data.length; dataIndex++) {
+			if (Arrays.equals(pattern, Arrays.copyOfRange(data, dataIndex, dataIndex + pattern.length))) {
+				index = dataIndex;
+			}
+		}
+		return index;
+	}
+
+	@Test
+	void testDeterministicSecureStorage(TempPath tempPath) throws IOException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+		SecureStorage otherStorage = SecureStorage.create(getClass().getSimpleName() + "2", tempPath.get());
+		final byte[] token = TEST_PASSWORD.getBytes();
+		byte[] encryptedToken1 = storage.encryptBytesDeterministic(ByteSecret.wrap(token.clone()));
+		byte[] encryptedToken2 = storage.encryptBytesDeterministic(ByteSecret.wrap(token.clone()));
+
+		Assertions.assertArrayEquals(encryptedToken1, encryptedToken2);
+		Assertions.assertFalse(
+				Arrays.equals(encryptedToken1, otherStorage.encryptBytesDeterministic(ByteSecret.wrap(token.clone()))));
+		storage.decryptBytesDeterministic(encryptedToken1,
+				decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+
+		encryptedToken1[encryptedToken1.length - 1] ^= 1;
+
+		Assertions.assertThrows(IOException.class,
+				() -> storage.decryptBytesDeterministic(encryptedToken1, 
+						decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))));
+
+		final char[] password = TEST_PASSWORD.toCharArray();
+		byte[] encryptedPassword = storage.encryptCharsDeterministic(CharSecret.wrap(password.clone()));
+
+		Assertions.assertArrayEquals(encryptedPassword,
+				storage.encryptCharsDeterministic(CharSecret.wrap(password.clone())));
+		storage.decryptCharsDeterministic(encryptedPassword,
+				decryptedPassword -> Assertions.assertArrayEquals(password, decryptedPassword));
+
+		byte[] index = storage.blindIndex(ByteSecret.wrap(token.clone()));
+
+		Assertions.assertEquals(SecureStorage.BLIND_INDEX_LENGTH, index.length);
+		Assertions.assertArrayEquals(index, storage.blindIndex(ByteSecret.wrap(token.clone())));
+		Assertions.assertArrayEquals(Arrays.copyOf(index, 8), storage.blindIndex(ByteSecret.wrap(token.clone()), 8));
+		Assertions.assertFalse(Arrays.equals(index, otherStorage.blindIndex(ByteSecret.wrap(token.clone()))));
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> storage.blindIndex(ByteSecret.wrap(token.clone()), SecureStorage.BLIND_INDEX_LENGTH + 1));
+		storage.delete();
+		otherStorage.delete();
+	}
+
+	@Test
+	void testStreamSecureStorage(TempPath tempPath) throws IOException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+
+		// Cover a final partial segment, a segment boundary and empty data
+		for (int dataSize : new int[] { 200 * 1024, 2 * 64 * 1024, 0 }) {
+			byte[] data = new byte[dataSize];
+
+			new Random(dataSize).nextBytes(data);
+
+			ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+
+			Assertions.assertEquals(dataSize, storage.encrypt(new ByteArrayInputStream(data), encrypted));
+
+			byte[] encryptedData = encrypted.toByteArray();
+			ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+			Assertions.assertEquals(dataSize, storage.decrypt(new ByteArrayInputStream(encryptedData), decrypted));
+			Assertions.assertArrayEquals(data, decrypted.toByteArray());
+
+			byte[] truncatedData = Arrays.copyOf(encryptedData, encryptedData.length - 1);
+
+			Assertions.assertThrows(IOException.class,
+					() -> storage.decrypt(new ByteArrayInputStream(truncatedData), new ByteArrayOutputStream()));
+		}
+
+		Path plainFile = tempPath.get().resolve("plain.bin");
+		Path encryptedFile = tempPath.get().resolve("encrypted.bin");
+		Path decryptedFile = tempPath.get().resolve("decrypted.bin");
+		byte[] data = new byte[100 * 1024];
+
+		new Random().nextBytes(data);
+		Files.write(plainFile, data);
+		storage.encrypt(plainFile, encryptedFile);
+		storage.decrypt(encryptedFile, decryptedFile);
+
+		Assertions.assertArrayEquals(data, Files.readAllBytes(decryptedFile));
+
+		byte[] tamperedData = Files.readAllBytes(encryptedFile);
+
+		tamperedData[tamperedData.length / 2] ^= 1;
+		Files.write(encryptedFile, tamperedData);
+
+		Assertions.assertThrows(IOException.class, () -> storage.decrypt(encryptedFile, decryptedFile));
+		Assertions.assertFalse(Files.exists(decryptedFile));
+		storage.delete();
+	}
+
+	@Test
+	void testTieredSecureStorage(TempPath tempPath) throws IOException {
+		Path secretHome = Files.createDirectories(tempPath.get().resolve("tiered"));
+		SecureStorage tieredStorage = SecureStorage.create(getClass().getSimpleName(), secretHome)
+				.withMemoryTier(DurabilityPolicy.WRITE_THROUGH);
+		SecureStorage ephemeralStorage = SecureStorage.createEphemeral(getClass().getSimpleName());
+		final byte[] token = TEST_PASSWORD.getBytes();
+
+		for (SecureStorage storage : Arrays.asList(tieredStorage, ephemeralStorage)) {
+			try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+				byte[] encryptedToken = storage.encryptBytes(tokenSecret);
+
+				storage.decryptBytes(encryptedToken,
+						decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+
+				// Test whether written through secret is visible in the underlying secret store
+				if (storage == tieredStorage) {
+					SecureStorage.create(getClass().getSimpleName(), secretHome).decryptBytes(encryptedToken,
+							decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+				}
+
+				// Test whether decryption no longer works after deletion of storage instance
+				storage.delete();
+
+				Assertions.assertThrows(IOException.class, () -> storage.decryptBytes(encryptedToken,
+						decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))));
+			}
+			storage.delete();
+		}
+		Assertions.assertThrows(IllegalStateException.class,
+				() -> SecureStorage.create(getClass().getSimpleName(), secretHome)
+						.withMemoryTier(DurabilityPolicy.WRITE_BEHIND));
+	}
+
+	@Test
+	void testBatchSecureStorage(TempPath tempPath) throws IOException {
+		Path secretHome = Files.createDirectories(tempPath.get().resolve("batch"));
+		final byte[] token = TEST_PASSWORD.getBytes();
+		Map<String, byte[]> encryptedTokens = new HashMap<>();
+
+		for (int storageIndex = 0; storageIndex < 32; storageIndex++) {
+			String id = "batch" + storageIndex;
+
+			try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+				encryptedTokens.put(id, SecureStorage.create(id, secretHome).encryptBytes(tokenSecret));
+			}
+		}
+
+		// Test whether batch created instances (including one without existing secret) use the existing secrets
+		List<String> ids = new ArrayList<>(encryptedTokens.keySet());
+
+		ids.add("batchNew");
+
+		Map<String, SecureStorage> storages = SecureStorage.createAll(ids, secretHome, 1, TimeUnit.MINUTES);
+
+		Assertions.assertEquals(ids, new ArrayList<>(storages.keySet()));
+		for (Map.Entry<String, byte[]> encryptedToken : encryptedTokens.entrySet()) {
+			Objects.requireNonNull(storages.get(encryptedToken.getKey())).decryptBytes(encryptedToken.getValue(),
+					decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+		}
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			SecureStorage storage = Objects.requireNonNull(storages.get("batchNew"));
+
+			storage.decryptBytes(storage.encryptBytes(tokenSecret),
+					decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+		}
+		for (SecureStorage storage : storages.values()) {
+			storage.delete();
+		}
+	}
+
+	@Test
+	void testPrewarm() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		String id = getClass().getSimpleName() + "Prewarm";
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Map<String, SecureStorage> storages;
+
+		Metrics.setCollector(metrics);
+		try {
+			storages = SecureStorage.prewarm(id).get(60, TimeUnit.SECONDS);
+		} finally {
+			Metrics.setCollector(null);
+		}
+
+		// The warm-up operations are not recorded
+		metrics.forEach((key, stats) -> Assertions.assertFalse(stats.operation() == SecurityOperation.ENCRYPT
+				|| stats.operation() == SecurityOperation.DECRYPT, key));
+
+		SecureStorage storage = Objects.requireNonNull(storages.get(id));
+		final byte[] token = TEST_PASSWORD.getBytes();
+		byte[] encryptedToken;
+
+		Assertions.assertEquals(1, storages.size());
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			encryptedToken = storage.encryptBytes(tokenSecret);
+		}
+		SecureStorage.create(id).decryptBytes(encryptedToken,
+				decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+		storage.delete();
+	}
+
+	@Test
+	void testBatchEncryption(TempPath tempPath) throws IOException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+		List<byte[]> tokens = new ArrayList<>();
+
+		for (int tokenIndex = 0; tokenIndex < 1000; tokenIndex++) {
+			tokens.add((TEST_PASSWORD + tokenIndex).getBytes());
+		}
+
+		EncryptedBatch encrypted = storage.encryptAll(wrapTokens(tokens));
+
+		Assertions.assertEquals(tokens.size(), encrypted.size());
+		storage.decryptAll(encrypted, decryptedTokens -> assertTokensEquals(tokens, decryptedTokens));
+		storage.decryptBytes(encrypted.get(42),
+				decryptedToken -> Assertions.assertArrayEquals(tokens.get(42), decryptedToken));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			EncryptedBatch parallelEncrypted = storage.encryptAll(wrapTokens(tokens), executor);
+
+			storage.decryptAll(EncryptedBatch.of(parallelEncrypted.data(), parallelEncrypted.offsets()), executor,
+					decryptedTokens -> assertTokensEquals(tokens, decryptedTokens));
+
+			byte[] tamperedData = parallelEncrypted.data().clone();
+
+			tamperedData[parallelEncrypted.offset(999)] ^= 1;
+
+			EncryptedBatch tampered = EncryptedBatch.of(tamperedData, parallelEncrypted.offsets());
+
+			Assertions.assertThrows(IOException.class, () -> storage.decryptAll(tampered, executor,
+					decryptedTokens -> Assertions.assertNotNull(decryptedTokens)));
+		} finally {
+			executor.shutdown();
+		}
+
+		List<String> encryptedBase64 = storage.encryptAllBase64(wrapTokens(tokens));
+
+		storage.decryptAllBase64(encryptedBase64, decryptedTokens -> assertTokensEquals(tokens, decryptedTokens));
+		storage.decryptBytesBase64(encryptedBase64.get(7),
+				decryptedToken -> Assertions.assertArrayEquals(tokens.get(7), decryptedToken));
+		storage.delete();
+	}
+
+	private static List<ByteSecret> wrapTokens(List<byte[]> tokens) {
+		List<ByteSecret> secrets = new ArrayList<>(tokens.size());
+
+		for (byte[] token : tokens) {
+			secrets.add(ByteSecret.wrap(token.clone()));
+		}
+		return secrets;
+	}
+
+	private static void assertTokensEquals(List<byte[]> expected, List<byte[]> actual) {
+		Assertions.assertEquals(expected.size(), actual.size());
+		for (int tokenIndex = 0; tokenIndex < expected.size(); tokenIndex++) {
+			Assertions.assertArrayEquals(expected.get(tokenIndex), actual.get(tokenIndex));
+		}
+	}
+
+	@Test
+	void testAsyncSecureStorage(TempPath tempPath) throws IOException, InterruptedException, ExecutionException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+		final byte[] token = TEST_PASSWORD.getBytes();
+
+		for (AsyncSecureStorage asyncStorage : Arrays.asList(storage.async(),
+				storage.withCipherCache(1, TimeUnit.MINUTES, 0).async(Runnable::run))) {
+			// Test encryption and decryption
+			byte[] encryptedToken = asyncStorage.encryptBytes(ByteSecret.wrap(token.clone())).get();
+
+			asyncStorage.decryptBytes(encryptedToken,
+					decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken)).get();
+
+			// Test whether decryption no longer works after deletion of storage instance
+			asyncStorage.delete().get();
+
+			ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+					() -> asyncStorage.decryptBytes(encryptedToken,
+							decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))).get());
+
+			Assertions.assertTrue(exception.getCause() instanceof IOException);
+		}
+		storage.delete();
+	}
+
+	@Test
+	void testCustomSecretStore() throws IOException {
+		TestSecretStore secretStore = new TestSecretStore();
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), secretStore);
+		final byte[] token = TEST_PASSWORD.getBytes();
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			byte[] encryptedToken = storage.encryptBytes(tokenSecret);
+
+			Assertions.assertTrue(secretStore.hasSecret(getClass().getSimpleName()));
+
+			storage.decryptBytes(encryptedToken, decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+		}
+		storage.delete();
+
+		Assertions.assertFalse(secretStore.hasSecret(getClass().getSimpleName()));
+	}
+
+	@Test
+	void testDirectSecretDeletion() throws IOException {
+		TestSecretStore secretStore = new TestSecretStore();
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), secretStore);
+		final byte[] token = TEST_PASSWORD.getBytes();
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+			byte[] encryptedToken = storage.encryptBytes(tokenSecret);
+
+			// Deleting the secret directly via the store must also evict any retained cipher
+			secretStore.deleteSecret(getClass().getSimpleName());
+
+			Assertions.assertThrows(IOException.class, () -> storage.decryptBytes(encryptedToken,
+					decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))));
+		}
+		storage.delete();
+	}
+
+	@Test
+	void testCachedSecureStorage(TempPath tempPath) throws IOException {
+		SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get()).withCipherCache(1,
+				TimeUnit.MINUTES, 2);
+		final byte[] token = TEST_PASSWORD.getBytes();
+
+		try (ByteSecret tokenSecret = ByteSecret.wrap(token)) {
+			// Test encryption and decryption (including a reload due to the usage limit)
+			byte[] encryptedToken = storage.encryptBytes(tokenSecret);
+
+			for (int decryptIndex = 0; decryptIndex < 3; decryptIndex++) {
+				storage.decryptBytes(encryptedToken,
+						decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+			}
+
+			// Test whether decryption no longer works after deletion of storage instance
+			storage.delete();
+
+			Assertions.assertThrows(IOException.class, () -> storage.decryptBytes(encryptedToken,
+					decryptedToken -> Assertions.assertFalse(Arrays.equals(token, decryptedToken))));
+		}
+		storage.delete();
+	}
+
+	@Test
+	void testConcurrentSecureStorage(TempPath tempPath) throws IOException, InterruptedException, ExecutionException {
+		final byte[] token = TEST_PASSWORD.getBytes();
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<byte[]>> encryptedTokens = new ArrayList<>();
+
+		Metrics.setCollector(metrics);
+		try {
+			for (int encryptIndex = 0; encryptIndex < 16; encryptIndex++) {
+				encryptedTokens.add(executor.submit(() -> {
+					SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+
+					try (ByteSecret tokenSecret = ByteSecret.wrap(token.clone())) {
+						return storage.encryptBytes(tokenSecret);
+					}
+				}));
+			}
+
+			// Test whether all concurrently created instances share the same (single) encryption secret
+			SecureStorage storage = SecureStorage.create(getClass().getSimpleName(), tempPath.get());
+
+			for (Future<byte[]> encryptedToken : encryptedTokens) {
+				storage.decryptBytes(encryptedToken.get(),
+						decryptedToken -> Assertions.assertArrayEquals(token, decryptedToken));
+			}
+			Assertions.assertEquals(1L, Objects
+					.requireNonNull(metrics.get(SecurityOperation.GENERATE_KEY, "GenericSecretStore")).count());
+			storage.delete();
+		} finally {
+			Metrics.setCollector(null);
+			executor.shutdown();
+		}
+	}
+
+	private static final class TestSecretStore extends SecretStore {
+
+		private final Map<String, byte[]> secrets = new HashMap<>();
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+
+		@Override
+		public synchronized boolean hasSecret(String id) {
+			return this.secrets.containsKey(id);
+		}
+
+		@Override
+		protected synchronized void removeSecret(String id) {
+			this.secrets.remove(id);
+		}
+
+		@Override
+		public synchronized byte @Nullable [] getSecret(String id) {
+			byte[] secret = this.secrets.get(id);
+
+			return (secret != null ? secret.clone() : null);
+		}
+
+		@Override
+		public synchronized void setSecret(String id, byte[] secret) {
+			this.secrets.put(id, secret.clone());
+		}
+
+	}
+
 }
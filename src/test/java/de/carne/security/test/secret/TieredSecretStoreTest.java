@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.secret;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import de.carne.security.secret.DurabilityPolicy;
+import de.carne.security.secret.SecretStore;
+import de.carne.security.secret.TieredSecretStore;
+
+/**
+ * Test {@linkplain TieredSecretStore} class.
+ */
+class TieredSecretStoreTest {
+
+	private static final String TEST_ID = TieredSecretStoreTest.class.getSimpleName();
+
+	private static final byte[] SECRET = "secret".getBytes(StandardCharsets.US_ASCII);
+
+	private static final long TIMEOUT = 10000L;
+
+	@Test
+	void testBatchedFlush() throws IOException, InterruptedException {
+		BatchCountingSecretStore backend = new BatchCountingSecretStore();
+		TieredSecretStore store = TieredSecretStore.of(backend, DurabilityPolicy.WRITE_BEHIND);
+
+		backend.setSecret(TEST_ID + "-deleted", SECRET.clone());
+		store.setSecret(TEST_ID + "-1", SECRET.clone());
+		store.setSecret(TEST_ID + "-2", SECRET.clone());
+		store.setSecret(TEST_ID + "-3", SECRET.clone());
+		store.deleteSecret(TEST_ID + "-deleted");
+
+		// Pending writes are served from memory
+		Assertions.assertArrayEquals(SECRET, store.getSecret(TEST_ID + "-2"));
+		Assertions.assertNull(store.getSecret(TEST_ID + "-deleted"));
+
+		long timeout = System.currentTimeMillis() + TIMEOUT;
+
+		while (backend.hasSecret(TEST_ID + "-deleted") && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assertions.assertArrayEquals(SECRET, backend.getSecret(TEST_ID + "-1"));
+		Assertions.assertArrayEquals(SECRET, backend.getSecret(TEST_ID + "-3"));
+		Assertions.assertFalse(backend.hasSecret(TEST_ID + "-deleted"));
+		Assertions.assertEquals(1, backend.setSecretsCalls.get());
+		Assertions.assertEquals(1, backend.deleteSecretsCalls.get());
+		Assertions.assertEquals(1, backend.setSecretCalls.get());
+	}
+
+	@Test
+	void testNoResurrection() throws IOException, InterruptedException, ExecutionException {
+		BlockingSecretStore backend = new BlockingSecretStore();
+		TieredSecretStore store = TieredSecretStore.of(backend, DurabilityPolicy.WRITE_THROUGH);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			backend.setSecret(TEST_ID, SECRET.clone());
+
+			// Delete the secret while it is being loaded from the underlying secret store
+			Future<byte @Nullable []> loaded = executor.submit(() -> store.getSecret(TEST_ID));
+
+			Assertions.assertTrue(backend.loading.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			store.deleteSecret(TEST_ID);
+			backend.loaded.countDown();
+
+			Assertions.assertArrayEquals(SECRET, loaded.get());
+			Assertions.assertFalse(store.hasSecret(TEST_ID));
+			Assertions.assertNull(store.getSecret(TEST_ID));
+		} finally {
+			backend.loaded.countDown();
+			executor.shutdown();
+		}
+	}
+
+	private static class MapSecretStore extends SecretStore {
+
+		private final Map<String, byte[]> secrets = new HashMap<>();
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+
+		@Override
+		public synchronized boolean hasSecret(String id) {
+			return this.secrets.containsKey(id);
+		}
+
+		@Override
+		protected synchronized void removeSecret(String id) {
+			byte[] secret = this.secrets.remove(id);
+
+			if (secret != null) {
+				Arrays.fill(secret, (byte) 0);
+			}
+		}
+
+		@Override
+		public synchronized byte @Nullable [] getSecret(String id) {
+			byte[] secret = this.secrets.get(id);
+
+			return (secret != null ? secret.clone() : null);
+		}
+
+		@Override
+		public synchronized void setSecret(String id, byte[] secret) {
+			this.secrets.put(id, secret.clone());
+		}
+
+	}
+
+	private static final class BatchCountingSecretStore extends MapSecretStore {
+
+		final AtomicInteger setSecretCalls = new AtomicInteger();
+		final AtomicInteger setSecretsCalls = new AtomicInteger();
+		final AtomicInteger deleteSecretsCalls = new AtomicInteger();
+
+		@Override
+		public synchronized void setSecret(String id, byte[] secret) {
+			this.setSecretCalls.incrementAndGet();
+			super.setSecret(id, secret);
+		}
+
+		@Override
+		public synchronized void setSecrets(Map<String, byte[]> secrets) {
+			this.setSecretsCalls.incrementAndGet();
+			for (Map.Entry<String, byte[]> secret : secrets.entrySet()) {
+				super.setSecret(secret.getKey(), secret.getValue());
+			}
+		}
+
+		@Override
+		protected synchronized void removeSecrets(Collection<String> ids) {
+			this.deleteSecretsCalls.incrementAndGet();
+			for (String id : ids) {
+				removeSecret(id);
+			}
+		}
+
+	}
+
+	private static final class BlockingSecretStore extends MapSecretStore {
+
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch loaded = new CountDownLatch(1);
+
+		@Override
+		public byte @Nullable [] getSecret(String id) {
+			byte[] secret = super.getSecret(id);
+
+			this.loading.countDown();
+			try {
+				this.loaded.await(TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return secret;
+		}
+
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import de.carne.security.crypto.StorableCoderId;
+import de.carne.security.metrics.SecurityEvents;
+import de.carne.security.secret.ByteSecret;
+import de.carne.security.secret.SecureStorage;
+import de.carne.test.extension.TempPath;
+import de.carne.test.extension.TempPathParameterResolver;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Test {@linkplain SecurityEvents} class (Java 11 implementation).
+ */
+@ExtendWith(TempPathParameterResolver.class)
+class SecurityEventsTest {
+
+	private static final String TEST_ID = SecurityEventsTest.class.getSimpleName();
+
+	private static final String SECRET_ACCESS_EVENT = "de.carne.security.SecretAccess";
+	private static final String CRYPTO_EVENT = "de.carne.security.Crypto";
+
+	@Test
+	void testDisabledEvents() {
+		Assertions.assertNull(SecurityEvents.beginKeyDerivation());
+		Assertions.assertNull(SecurityEvents.beginSecretAccess());
+		Assertions.assertNull(SecurityEvents.beginCrypto());
+	}
+
+	@Test
+	void testRecordedEvents(TempPath tempPath) throws IOException, GeneralSecurityException {
+		List<RecordedEvent> events = recordEvents(tempPath.get(), "testRecordedEvents");
+		List<String> idHashes = idHashes(events);
+
+		// Secret get, set and delete all record the same keyed id hash
+		Assertions.assertEquals(1, idHashes.size());
+		Assertions.assertTrue(idHashes.get(0).matches("[0-9a-f]{16}"));
+		Assertions.assertNotEquals(String.format("%08x", TEST_ID.hashCode()), idHashes.get(0));
+
+		// Crypto events record the coder id
+		List<String> sources = events.stream().filter(event -> CRYPTO_EVENT.equals(event.getEventType().getName()))
+				.map(event -> event.getString("source")).distinct().collect(Collectors.toList());
+
+		Assertions.assertEquals(1, sources.size());
+		Assertions.assertTrue(Arrays.stream(StorableCoderId.values()).anyMatch(id -> id.name().equals(sources.get(0))));
+	}
+
+	@Test
+	void testIdKey(TempPath tempPath) throws IOException, GeneralSecurityException {
+		byte[] idKey1 = new byte[32];
+		byte[] idKey2 = new byte[32];
+
+		Arrays.fill(idKey1, (byte) 1);
+		Arrays.fill(idKey2, (byte) 2);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> SecurityEvents.setIdKey(new byte[15]));
+
+		SecurityEvents.setIdKey(idKey1);
+
+		List<String> idHashes1 = idHashes(recordEvents(tempPath.get(), "testIdKey1"));
+
+		SecurityEvents.setIdKey(idKey2);
+
+		List<String> idHashes2 = idHashes(recordEvents(tempPath.get(), "testIdKey2"));
+
+		SecurityEvents.setIdKey(idKey1);
+
+		List<String> idHashes3 = idHashes(recordEvents(tempPath.get(), "testIdKey3"));
+
+		// The same key yields the same hashes (e.g. in another process), a different key different ones
+		Assertions.assertEquals(1, idHashes1.size());
+		Assertions.assertNotEquals(idHashes1, idHashes2);
+		Assertions.assertEquals(idHashes1, idHashes3);
+	}
+
+	private static List<RecordedEvent> recordEvents(Path tempDir, String name)
+			throws IOException, GeneralSecurityException {
+		Path recordingFile = tempDir.resolve(name + ".jfr");
+
+		try (Recording recording = new Recording()) {
+			recording.enable(SECRET_ACCESS_EVENT).withoutThreshold();
+			recording.enable(CRYPTO_EVENT).withoutThreshold();
+			recording.start();
+
+			Assertions.assertNotNull(SecurityEvents.beginSecretAccess());
+
+			SecureStorage storage = SecureStorage.create(TEST_ID, tempDir);
+
+			try (ByteSecret secret = ByteSecret.wrap(TEST_ID.getBytes(StandardCharsets.UTF_8))) {
+				storage.encryptBytes(secret);
+			}
+			storage.delete();
+			recording.stop();
+			recording.dump(recordingFile);
+		}
+		return RecordingFile.readAllEvents(recordingFile);
+	}
+
+	private static List<String> idHashes(List<RecordedEvent> events) {
+		return events.stream().filter(event -> SECRET_ACCESS_EVENT.equals(event.getEventType().getName()))
+				.map(event -> event.getString("idHash")).distinct().collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.secret;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.carne.security.secret.ByteSecret;
+import de.carne.security.secret.Secret;
+
+/**
+ * Test the Java 11 tracking of unclosed {@linkplain Secret} instances.
+ * <p>
+ * Requires the system properties {@code de.carne.security.secret.Secret.cleaner=true} and
+ * {@code de.carne.security.secret.Secret.leakSampling=1} (set by the {@code test11} task).
+ * </p>
+ */
+class SecretTrackerTest {
+
+	private static final byte[] SECRET = "secret".getBytes(StandardCharsets.US_ASCII);
+
+	private static final long TIMEOUT = 10000L;
+	private static final long GC_ROUNDS_TIME = 500L;
+
+	@BeforeAll
+	static void checkTrackingEnabled() {
+		Assertions.assertTrue(Boolean.getBoolean(Secret.class.getName() + ".cleaner"));
+		Assertions.assertEquals(Integer.valueOf(1), Integer.getInteger(Secret.class.getName() + ".leakSampling"));
+	}
+
+	@Test
+	void testUnclosedSecretZeroization() throws InterruptedException {
+		long leaks = Secret.leaks();
+		byte[] data = SECRET.clone();
+
+		leakSecret(data);
+
+		Assertions.assertTrue(awaitGc(() -> data[0] == 0, TIMEOUT), "Unclosed secret not zeroized");
+		Assertions.assertArrayEquals(new byte[SECRET.length], data);
+		Assertions.assertTrue(awaitGc(() -> Secret.leaks() > leaks, TIMEOUT), "Unclosed secret not reported");
+	}
+
+	@Test
+	void testClosedSecret() throws InterruptedException {
+		long leaks = Secret.leaks();
+
+		try (ByteSecret secret = ByteSecret.wrap(SECRET.clone())) {
+			Assertions.assertNotNull(secret);
+		}
+		awaitGc(() -> false, GC_ROUNDS_TIME);
+
+		Assertions.assertEquals(leaks, Secret.leaks());
+	}
+
+	@Test
+	void testSecretInUse() throws GeneralSecurityException {
+		// The secret instance is only referenced by the running apply call
+		byte[] used = ByteSecret.wrap(SECRET.clone()).apply(data -> {
+			try {
+				awaitGc(() -> false, GC_ROUNDS_TIME);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return data.clone();
+		});
+
+		Assertions.assertArrayEquals(SECRET, used);
+	}
+
+	@SuppressWarnings("resource")
+	private static void leakSecret(byte[] data) {
+		ByteSecret.wrap(data);
+	}
+
+	private static boolean awaitGc(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + timeoutMillis;
+		boolean done = condition.getAsBoolean();
+
+		while (!done && System.currentTimeMillis() < timeout) {
+			System.gc();
+			Thread.sleep(10);
+			done = condition.getAsBoolean();
+		}
+		return done;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018-2019 Holger de Carne and contributors, All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.carne.security.test.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import de.carne.security.util.CipherUtil;
+
+/**
+ * Test the Java 11 {@linkplain CipherUtil} class.
+ */
+class CipherUtilTest {
+
+	private static final int[] PAYLOAD_SIZES = new int[] { 0, 1, 511, 512, 513, 4096, 100000 };
+
+	private static final SecretKeySpec KEY = new SecretKeySpec(new byte[16], "AES");
+
+	@Test
+	void testGCMStream() throws IOException, GeneralSecurityException {
+		GCMParameterSpec iv = new GCMParameterSpec(128, new byte[12]);
+
+		for (int payloadSize : PAYLOAD_SIZES) {
+			byte[] payload = payload(payloadSize);
+			byte[] encrypted = stream(cipher("AES/GCM/NoPadding", Cipher.ENCRYPT_MODE, iv), payload);
+
+			Assertions.assertArrayEquals(cipher("AES/GCM/NoPadding", Cipher.ENCRYPT_MODE, iv).doFinal(payload),
+					encrypted);
+			Assertions.assertArrayEquals(payload,
+					stream(cipher("AES/GCM/NoPadding", Cipher.DECRYPT_MODE, iv), encrypted));
+		}
+	}
+
+	@Test
+	void testCBCStream() throws IOException, GeneralSecurityException {
+		IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+
+		for (int payloadSize : PAYLOAD_SIZES) {
+			byte[] payload = payload(payloadSize);
+			byte[] encrypted = stream(cipher("AES/CBC/PKCS5Padding", Cipher.ENCRYPT_MODE, iv), payload);
+
+			Assertions.assertArrayEquals(cipher("AES/CBC/PKCS5Padding", Cipher.ENCRYPT_MODE, iv).doFinal(payload),
+					encrypted);
+			Assertions.assertArrayEquals(payload,
+					stream(cipher("AES/CBC/PKCS5Padding", Cipher.DECRYPT_MODE, iv), encrypted));
+		}
+	}
+
+	private static byte[] payload(int size) {
+		byte[] payload = new byte[size];
+
+		new SecureRandom().nextBytes(payload);
+		return payload;
+	}
+
+	private static Cipher cipher(String transformation, int mode, AlgorithmParameterSpec iv)
+			throws GeneralSecurityException {
+		Cipher cipher = Cipher.getInstance(transformation);
+
+		cipher.init(mode, KEY, iv);
+		return cipher;
+	}
+
+	private static byte[] stream(Cipher cipher, byte[] input) throws IOException, GeneralSecurityException {
+		// Deliver the input in short reads to cover partially filled input blocks
+		InputStream in = new ByteArrayInputStream(input) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 7));
+			}
+
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		Assertions.assertEquals(input.length, CipherUtil.stream(cipher, in, out));
+		return out.toByteArray();
+	}
+
+}